@@ -0,0 +1,69 @@
+/******************************************************************************
+* Title: Ack.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class holds the result of a command sent to a Notcher unit by one of
+* the asynchronous command methods. It is the value of the CompletableFuture
+* returned by those methods.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class Ack
+//
+
+public class Ack extends Object{
+
+    private final int unitIndex;
+    private final byte cmd;
+    private final int attempts;
+    private final long roundTripNanos;
+
+//-----------------------------------------------------------------------------
+// Ack::Ack (constructor)
+//
+// pUnitIndex is the index of the Notcher which was sent command pCmd.
+// pAttempts is the number of times the command was sent before succeeding.
+// pRoundTripNanos is the time from the first send until the ACK arrived.
+//
+
+public Ack(int pUnitIndex, byte pCmd, int pAttempts, long pRoundTripNanos)
+{
+
+    unitIndex = pUnitIndex; cmd = pCmd; attempts = pAttempts;
+    roundTripNanos = pRoundTripNanos;
+
+}//end of Ack::Ack (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Ack::various get/set functions
+//
+
+public int getUnitIndex() { return(unitIndex); }
+
+public byte getCmd() { return(cmd); }
+
+public int getAttempts() { return(attempts); }
+
+public long getRoundTripNanos() { return(roundTripNanos); }
+
+//end of Ack::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class Ack
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
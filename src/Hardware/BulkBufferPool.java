@@ -0,0 +1,154 @@
+/******************************************************************************
+* Title: BulkBufferPool.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class keeps the byte arrays into which bulk transfers are reassembled
+* so that they can be used again rather than allocated for each transfer;
+* see BulkTransfer.
+*
+* Transfers may be many megabytes. Allocating a new array for each one fills
+* the heap quickly and forces full garbage collections which pause every
+* thread, including those reading the units. Instead, arrays are handed out
+* in sizes which are powers of two and kept when released, up to
+* MAX_RETAINED of each size, so a program which repeatedly reads captures of
+* similar size soon stops allocating altogether.
+*
+* Arrays are taken and returned by different threads, so all methods are
+* synchronized.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class BulkBufferPool
+//
+
+public class BulkBufferPool extends Object{
+
+    //smallest and largest arrays handed out, as powers of two
+    static final int MIN_SIZE_SHIFT = 12;
+    static final int MAX_SIZE_SHIFT = 26;
+
+    public static final int MIN_BUFFER_SIZE = 1 << MIN_SIZE_SHIFT;
+    public static final int MAX_BUFFER_SIZE = 1 << MAX_SIZE_SHIFT;
+
+    //most arrays of each size kept for reuse
+    static final int MAX_RETAINED = 4;
+
+    //the free arrays of each size, smallest first
+    private final ArrayList<ArrayDeque<byte[]>> freeLists = new ArrayList<>();
+
+    private long allocatedCount = 0;
+    private long reusedCount = 0;
+
+//-----------------------------------------------------------------------------
+// BulkBufferPool::BulkBufferPool (constructor)
+//
+
+public BulkBufferPool()
+{
+
+    for (int i = MIN_SIZE_SHIFT; i <= MAX_SIZE_SHIFT; i++){
+        freeLists.add(new ArrayDeque<>());
+    }
+
+}//end of BulkBufferPool::BulkBufferPool (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkBufferPool::acquire
+//
+// Returns an array of at least pSize bytes. The array may hold data from its
+// last use. Return it with release when done.
+//
+// Returns null if pSize is larger than MAX_BUFFER_SIZE.
+//
+
+public synchronized byte[] acquire(int pSize)
+{
+
+    if (pSize > MAX_BUFFER_SIZE) { return(null); }
+
+    int shift = getSizeShift(pSize);
+
+    byte[] buf = freeLists.get(shift - MIN_SIZE_SHIFT).poll();
+
+    if (buf != null) { reusedCount++; return(buf); }
+
+    allocatedCount++;
+
+    return(new byte[1 << shift]);
+
+}//end of BulkBufferPool::acquire
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkBufferPool::release
+//
+// Returns pBuf, which must have come from acquire, to the pool. The caller
+// must not use the array afterwards.
+//
+
+public synchronized void release(byte[] pBuf)
+{
+
+    if (pBuf == null) { return; }
+
+    int shift = getSizeShift(pBuf.length);
+
+    //ignore arrays which did not come from this pool
+    if (pBuf.length != 1 << shift) { return; }
+
+    ArrayDeque<byte[]> free = freeLists.get(shift - MIN_SIZE_SHIFT);
+
+    if (free.size() < MAX_RETAINED) { free.push(pBuf); }
+
+}//end of BulkBufferPool::release
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkBufferPool::getSizeShift
+//
+// Returns the power of two of the smallest array size handed out which holds
+// pSize bytes.
+//
+
+static int getSizeShift(int pSize)
+{
+
+    if (pSize <= MIN_BUFFER_SIZE) { return(MIN_SIZE_SHIFT); }
+
+    return(32 - Integer.numberOfLeadingZeros(pSize - 1));
+
+}//end of BulkBufferPool::getSizeShift
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkBufferPool::various get/set functions
+//
+
+public synchronized long getAllocatedCount() { return(allocatedCount); }
+
+public synchronized long getReusedCount() { return(reusedCount); }
+
+//end of BulkBufferPool::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class BulkBufferPool
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
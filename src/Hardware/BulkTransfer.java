@@ -0,0 +1,398 @@
+/******************************************************************************
+* Title: BulkTransfer.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class tracks one bulk read from a remote -- a block of data too large
+* for one packet, such as a waveform capture, the device log, or a recipe.
+* See Notcher.readBulk.
+*
+* Packet Layout
+*
+* The host starts the transfer with a BULK_READ_CMD packet, acknowledged by
+* the remote with an ACK packet:
+*
+*   resource        1 byte    which block of data to send (WAVEFORM etc.)
+*   transfer id     1 byte    chosen by the host, echoed in every chunk
+*   start offset    4 bytes   0, or the bytes already held when resuming
+*   window          1 byte    most chunks the remote may send unacknowledged
+*
+* The remote then sends the data as a series of length prefixed
+* BULK_DATA_CMD packets, each holding one chunk:
+*
+*   transfer id     1 byte
+*   offset          4 bytes   position of the chunk's first byte
+*   total size      4 bytes   size of the whole block
+*   payload         0 to MAX_CHUNK_SIZE bytes
+*
+* and the host answers with BULK_ACK_CMD packets, which are not themselves
+* acknowledged:
+*
+*   transfer id     1 byte
+*   offset          4 bytes   every byte before this has been received
+*   flags           1 byte    RESEND_FLAG, CANCEL_FLAG
+*
+* All values are MSB first.
+*
+* Windowed Acknowledgement
+*
+* The remote may run up to a window of chunks ahead of the last offset
+* acknowledged, so the link is kept busy without an ACK for every chunk. The
+* host acknowledges each time half a window has arrived and when the last
+* byte arrives.
+*
+* Chunks are accepted only in order. TCP does not reorder bytes, so a chunk
+* out of order means the remote restarted or chunks were discarded as
+* corrupt; the host then sends an ACK with RESEND_FLAG once and the remote
+* starts again from the acknowledged offset. A chunk already received means
+* an ACK was lost and is answered with a fresh ACK. If the remote hears
+* nothing for a while it sends again from the acknowledged offset.
+*
+* Resume
+*
+* If the connection is lost, the received bytes are kept. After reconnecting,
+* Notcher.restoreSession sends BULK_READ_CMD again with the same transfer id
+* and the number of bytes held as the start offset.
+*
+* Buffers
+*
+* The chunks are copied from the packet decoder's buffer straight into one
+* array large enough for the whole block, taken from a BulkBufferPool, so no
+* array is created per chunk. The caller must call release once it is done
+* with the data so that the array can be used by a later transfer.
+*
+* Thread Safety
+*
+* Chunks are added by the thread reading the remote while other threads wait
+* for the result, so the state is guarded by the object lock. The future is
+* completed outside of the lock as its callbacks may be slow.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class BulkTransfer
+//
+
+public class BulkTransfer extends Object{
+
+    //blocks of data which may be read from a Notcher
+    public static final int WAVEFORM = 1;
+    public static final int DEVICE_LOG = 2;
+    public static final int RECIPE = 3;
+
+    //data bytes before the payload in each chunk
+    static final int CHUNK_HEADER_SIZE = 9;
+
+    //most payload bytes in one chunk -- the chunk must fit in one length
+    //prefixed packet
+    public static final int MAX_CHUNK_SIZE =
+            PacketHandlerRegistry.MAX_PREFIXED_LENGTH - CHUNK_HEADER_SIZE;
+
+    public static final int MAX_SIZE = BulkBufferPool.MAX_BUFFER_SIZE;
+
+    //default and largest number of chunks in flight
+    public static final int DEFAULT_WINDOW = 8;
+    public static final int MAX_WINDOW = 255;
+
+    //values for the flags byte of BULK_ACK_CMD
+    static final byte RESEND_FLAG = 1;
+    static final byte CANCEL_FLAG = 2;
+
+    //values returned by addChunk
+    static final int NO_ACK = 0;
+    static final int ACK = 1;
+    static final int RESEND = 2;
+
+    private final int resource;
+    private final byte transferId;
+    private final int window;
+    private final BulkBufferPool pool;
+
+    //bytes received since the last ACK after which another is sent
+    private final int ackInterval;
+
+    private byte[] buffer;
+    private int totalSize = -1;
+    private int received = 0;
+    private int lastAcked = 0;
+
+    //set when a RESEND has been sent for the current gap
+    private boolean resendRequested = false;
+
+    private boolean done = false;
+    private Throwable failure;
+
+    private long chunkCount = 0;
+    private long duplicateCount = 0;
+    private long gapCount = 0;
+    private int resumeCount = 0;
+
+    //System.nanoTime values
+    private final long startTime = System.nanoTime();
+    private long endTime = 0;
+
+    private final CompletableFuture<BulkTransfer> future =
+                                                    new CompletableFuture<>();
+
+//-----------------------------------------------------------------------------
+// BulkTransfer::BulkTransfer (constructor)
+//
+// pWindow is the number of chunks the remote may send ahead of the host's
+// acknowledgement. The reassembly array is taken from pPool.
+//
+
+public BulkTransfer(int pResource, byte pTransferId, int pWindow,
+                                                        BulkBufferPool pPool)
+{
+
+    resource = pResource;
+    transferId = pTransferId;
+    window = Math.max(1, Math.min(MAX_WINDOW, pWindow));
+    pool = pPool;
+
+    ackInterval = Math.max(1, window / 2) * MAX_CHUNK_SIZE;
+
+}//end of BulkTransfer::BulkTransfer (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkTransfer::addChunk
+//
+// Copies a chunk from pBuf, starting at pStart and pLength bytes long, into
+// the reassembly array. pOffset and pTotal are the chunk's offset and the
+// size of the whole block as sent by the remote.
+//
+// Returns NO_ACK, ACK, or RESEND to tell the caller whether to answer the
+// chunk with a BULK_ACK_CMD packet and with which flag.
+//
+
+int addChunk(byte[] pBuf, int pStart, int pLength, int pOffset, int pTotal)
+{
+
+    boolean completed = false;
+    String error = null;
+    int action = NO_ACK;
+
+    synchronized(this){
+
+        if (failure != null) { return(NO_ACK); }
+
+        if (totalSize < 0){
+            if (pTotal < 0 || pTotal > MAX_SIZE){
+                error = "Bulk transfer too large: " + pTotal;
+            }
+            else{
+                buffer = pool.acquire(pTotal);
+                totalSize = pTotal;
+            }
+        }
+        else if (pTotal != totalSize){
+            error = "Bulk transfer size changed from " + totalSize
+                                                        + " to " + pTotal;
+        }
+
+        if (error == null){
+            action = storeChunk(pBuf, pStart, pLength, pOffset);
+            if (action < 0){
+                error = "Bulk transfer chunk overruns the data at " + pOffset;
+                action = NO_ACK;
+            }
+        }
+
+        if (error == null && !done && received == totalSize){
+            done = true;
+            completed = true;
+            endTime = System.nanoTime();
+        }
+
+    }
+
+    if (error != null) { fail(new IOException(error)); }
+
+    if (completed) { future.complete(this); }
+
+    return(action);
+
+}//end of BulkTransfer::addChunk
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkTransfer::storeChunk
+//
+// Stores the chunk for addChunk if it is the next one expected. Must be
+// called while holding the object lock.
+//
+// Returns NO_ACK, ACK, or RESEND, or -1 if the chunk runs past the end of
+// the data.
+//
+
+private int storeChunk(byte[] pBuf, int pStart, int pLength, int pOffset)
+{
+
+    //a chunk already received means the remote did not get the last ACK
+    if (pOffset < received || done){
+        duplicateCount++;
+        lastAcked = received;
+        return(ACK);
+    }
+
+    //chunks are accepted only in order -- ask once for the rest to be sent
+    //again from the last byte received
+    if (pOffset > received){
+        gapCount++;
+        if (resendRequested) { return(NO_ACK); }
+        resendRequested = true;
+        lastAcked = received;
+        return(RESEND);
+    }
+
+    if (pLength > totalSize - received) { return(-1); }
+
+    System.arraycopy(pBuf, pStart, buffer, received, pLength);
+
+    received += pLength;
+    chunkCount++;
+    resendRequested = false;
+
+    if (received == totalSize || received - lastAcked >= ackInterval){
+        lastAcked = received;
+        return(ACK);
+    }
+
+    return(NO_ACK);
+
+}//end of BulkTransfer::storeChunk
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkTransfer::prepareResume
+//
+// Called before the transfer is requested again on a new connection. Returns
+// the offset from which the remote is to send.
+//
+
+synchronized int prepareResume()
+{
+
+    resumeCount++;
+    resendRequested = false;
+    lastAcked = received;
+
+    return(received);
+
+}//end of BulkTransfer::prepareResume
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkTransfer::fail
+//
+// Ends the transfer without the data. The reassembly array is returned to
+// the pool and the future is completed with pCause.
+//
+// Does nothing if the transfer has already completed or failed.
+//
+
+void fail(Throwable pCause)
+{
+
+    synchronized(this){
+        if (done) { return; }
+        done = true;
+        failure = pCause;
+        endTime = System.nanoTime();
+        pool.release(buffer);
+        buffer = null;
+    }
+
+    future.completeExceptionally(pCause);
+
+}//end of BulkTransfer::fail
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkTransfer::release
+//
+// Returns the reassembly array to the pool. The array returned by getData
+// must not be used afterwards.
+//
+
+public synchronized void release()
+{
+
+    pool.release(buffer);
+
+    buffer = null;
+
+}//end of BulkTransfer::release
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkTransfer::getBytesPerSecond
+//
+// Returns the rate at which the data was received, or so far if the transfer
+// is still in progress.
+//
+
+public synchronized double getBytesPerSecond()
+{
+
+    long end = endTime != 0 ? endTime : System.nanoTime();
+
+    return(received * 1e9 / Math.max(1, end - startTime));
+
+}//end of BulkTransfer::getBytesPerSecond
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// BulkTransfer::various get/set functions
+//
+
+public int getResource() { return(resource); }
+
+public byte getTransferId() { return(transferId); }
+
+public int getWindow() { return(window); }
+
+public CompletableFuture<BulkTransfer> getFuture() { return(future); }
+
+//the array holds getSize bytes of data followed by unused bytes; null once
+//released or if the transfer failed
+public synchronized byte[] getData() { return(buffer); }
+
+public synchronized int getSize() { return(totalSize); }
+
+public synchronized int getReceived() { return(received); }
+
+public synchronized boolean isDone() { return(done); }
+
+public synchronized boolean isComplete() { return(done && failure == null); }
+
+public synchronized long getChunkCount() { return(chunkCount); }
+
+public synchronized long getDuplicateCount() { return(duplicateCount); }
+
+public synchronized long getGapCount() { return(gapCount); }
+
+public synchronized int getResumeCount() { return(resumeCount); }
+
+//end of BulkTransfer::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class BulkTransfer
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,621 @@
+/******************************************************************************
+* Title: ByteRing.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class is a one way byte stream between two threads, used by the
+* Simulator classes in place of a socket connection. One ring carries the
+* bytes from the host to the simulator and another carries those from the
+* simulator to the host.
+*
+* It replaces the PipedInputStream/PipedOutputStream pairs previously used.
+* Those take a lock for every read and write, wake each other with
+* wait/notifyAll, poll once per second, and break when the thread which last
+* read or wrote exits, so the simulated links were slower than the code being
+* measured over them.
+*
+* Single Producer, Single Consumer
+*
+* The bytes are kept in a power of two sized circular buffer. The writer
+* alone advances writeCount and the reader alone advances readCount; the
+* bytes between the two are in the buffer. Each count is volatile, so
+* publishing the count publishes the bytes copied before it -- no lock is
+* taken by either end. Each end also keeps a copy of the other's count and
+* reads the volatile only when its copy shows the ring full or empty.
+*
+* Each end must be used by only one thread at a time. Different threads may
+* take turns, as with a socket, so long as their own locks order them: the
+* host's sends are made while holding the outbound queue lock and its reads
+* while holding the Remote's lock or from its reader thread.
+*
+* Waiting
+*
+* A reader which finds the ring empty, or a writer which finds it full,
+* records its thread and parks. The other end takes the recorded thread, if
+* any, and unparks it after moving its count, so a thread is unparked once
+* per park however many writes or reads follow. Each end records itself
+* before checking the counts again and the other moves its count before
+* checking for a waiting thread, so one of the two always sees the other and
+* no wakeup is lost.
+*
+* A writer which finds the ring full waits until half of it is free. Waking
+* it as soon as any room was free would wake it after every read, each time
+* to fill the ring again with a few bytes and park. The reader always takes
+* what it can parse, so the writer is not left waiting for room the reader
+* will never free.
+*
+* Reads wait for the timeout set by setTimeout and then throw a
+* SocketTimeoutException, as a socket does. A timeout of 0 waits forever.
+* Writes wait for room as long as necessary.
+*
+* Once the writer is closed, the reader receives the remaining bytes and
+* then the end of the stream. Once the reader is closed, reads and writes
+* fail at once.
+*
+* Access
+*
+* getInputStream and getOutputStream return streams for each end. The
+* ByteBuffer versions of read and write do not wait, in the manner of a
+* non-blocking channel.
+*
+* A reader which does not wait -- see SimulatorFarm -- may instead set a
+* data listener, which is run once by the writer's thread the next time
+* bytes are written or either end is closed, much as a selector reports a
+* channel readable. The listener is set before checking for data again, so
+* as with a parked reader no data is missed.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class ByteRing
+//
+
+public class ByteRing extends Object{
+
+    private final byte[] buffer;
+    private final int mask;
+
+    //bytes written and read since the ring was created
+    private volatile long writeCount = 0;
+    private volatile long readCount = 0;
+
+    //the writer's copy of readCount and the reader's copy of writeCount
+    private long writerReadCount = 0;
+    private long readerWriteCount = 0;
+
+    //the thread parked at each end, if any
+    private final AtomicReference<Thread> waitingReader =
+                                                    new AtomicReference<>();
+    private final AtomicReference<Thread> waitingWriter =
+                                                    new AtomicReference<>();
+
+    //run once when data next arrives -- see setDataListener
+    private final AtomicReference<Runnable> dataListener =
+                                                    new AtomicReference<>();
+
+    //free bytes for which a writer which found the ring full waits
+    private final int roomWanted;
+
+    private volatile boolean writerClosed = false;
+    private volatile boolean readerClosed = false;
+
+    //milliseconds a read waits for data; 0 waits forever
+    private volatile int timeOut = 0;
+
+    private final ByteRingInputStream inputStream;
+    private final ByteRingOutputStream outputStream;
+
+//-----------------------------------------------------------------------------
+// ByteRing::ByteRing (constructor)
+//
+// Creates a ring holding at least pCapacity bytes. The capacity is rounded
+// up to a power of two.
+//
+
+public ByteRing(int pCapacity)
+{
+
+    int capacity = Integer.highestOneBit(Math.max(2, pCapacity) - 1) << 1;
+
+    buffer = new byte[capacity];
+    mask = capacity - 1;
+
+    roomWanted = capacity / 2;
+
+    inputStream = new ByteRingInputStream(this);
+    outputStream = new ByteRingOutputStream(this);
+
+}//end of ByteRing::ByteRing (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::read
+//
+// Reads one byte, waiting up to the timeout for data.
+//
+// Returns the byte or -1 at the end of the stream.
+//
+
+public int read() throws IOException
+{
+
+    if (!awaitData()) { return(-1); }
+
+    long r = readCount;
+
+    int b = buffer[(int)r & mask] & 0xff;
+
+    readCount = r + 1;
+
+    wakeWriter();
+
+    return(b);
+
+}//end of ByteRing::read
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::read
+//
+// Reads up to pLen bytes into pBuf at pOff, waiting up to the timeout for
+// the first byte.
+//
+// Returns the number of bytes read or -1 at the end of the stream.
+//
+
+public int read(byte[] pBuf, int pOff, int pLen) throws IOException
+{
+
+    if (pOff < 0 || pLen < 0 || pLen > pBuf.length - pOff) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    if (pLen == 0) { return(0); }
+
+    if (!awaitData()) { return(-1); }
+
+    long r = readCount;
+
+    int count = Math.min(pLen, (int)(readerWriteCount - r));
+
+    //the bytes may wrap around the end of the buffer, so copy in two parts
+    int index = (int)r & mask;
+    int first = Math.min(count, buffer.length - index);
+
+    System.arraycopy(buffer, index, pBuf, pOff, first);
+    System.arraycopy(buffer, 0, pBuf, pOff + first, count - first);
+
+    readCount = r + count;
+
+    wakeWriter();
+
+    return(count);
+
+}//end of ByteRing::read
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::read
+//
+// Reads as many bytes as are available and fit in pDest without waiting.
+//
+// Returns the number of bytes read, which may be 0, or -1 at the end of the
+// stream.
+//
+
+public int read(ByteBuffer pDest) throws IOException
+{
+
+    if (readerClosed) { throw new IOException("Pipe closed"); }
+
+    boolean closed = writerClosed;
+
+    long r = readCount;
+
+    int count = Math.min(pDest.remaining(), getReadable(r));
+
+    if (count == 0){
+        return(closed && writeCount == r && pDest.hasRemaining() ? -1 : 0);
+    }
+
+    int index = (int)r & mask;
+    int first = Math.min(count, buffer.length - index);
+
+    pDest.put(buffer, index, first);
+    pDest.put(buffer, 0, count - first);
+
+    readCount = r + count;
+
+    wakeWriter();
+
+    return(count);
+
+}//end of ByteRing::read
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::write
+//
+// Writes pLen bytes from pBuf at pOff, waiting for room as necessary.
+//
+// Throws IOException if either end has been closed.
+//
+
+public void write(byte[] pBuf, int pOff, int pLen) throws IOException
+{
+
+    if (pOff < 0 || pLen < 0 || pLen > pBuf.length - pOff) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    while (pLen > 0){
+
+        awaitRoom();
+
+        long w = writeCount;
+
+        int count = Math.min(pLen, getWritable(w));
+
+        int index = (int)w & mask;
+        int first = Math.min(count, buffer.length - index);
+
+        System.arraycopy(pBuf, pOff, buffer, index, first);
+        System.arraycopy(pBuf, pOff + first, buffer, 0, count - first);
+
+        writeCount = w + count;
+
+        wakeReader();
+        notifyDataListener();
+
+        pOff += count; pLen -= count;
+
+    }
+
+}//end of ByteRing::write
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::write
+//
+// Writes as many bytes from pSrc as fit in the ring without waiting.
+//
+// Returns the number of bytes written, which may be 0.
+//
+// Throws IOException if either end has been closed.
+//
+
+public int write(ByteBuffer pSrc) throws IOException
+{
+
+    if (readerClosed || writerClosed) { throw new IOException("Pipe closed"); }
+
+    long w = writeCount;
+
+    int count = Math.min(pSrc.remaining(), getWritable(w));
+
+    if (count == 0) { return(0); }
+
+    int index = (int)w & mask;
+    int first = Math.min(count, buffer.length - index);
+
+    pSrc.get(buffer, index, first);
+    pSrc.get(buffer, 0, count - first);
+
+    writeCount = w + count;
+
+    wakeReader();
+    notifyDataListener();
+
+    return(count);
+
+}//end of ByteRing::write
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::getReadable
+//
+// Returns the number of bytes the reader may take when readCount is pRead.
+// The writer's count is read only if the reader's copy shows no bytes.
+// Called only by the reader.
+//
+
+private int getReadable(long pRead)
+{
+
+    if (readerWriteCount == pRead) { readerWriteCount = writeCount; }
+
+    return((int)(readerWriteCount - pRead));
+
+}//end of ByteRing::getReadable
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::getWritable
+//
+// Returns the number of bytes the writer may add when writeCount is pWrite.
+// The reader's count is read only if the writer's copy shows no room.
+// Called only by the writer.
+//
+
+private int getWritable(long pWrite)
+{
+
+    if (pWrite - writerReadCount == buffer.length) {
+        writerReadCount = readCount;
+    }
+
+    return(buffer.length - (int)(pWrite - writerReadCount));
+
+}//end of ByteRing::getWritable
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::awaitData
+//
+// Waits until the ring holds data, either end is closed, or the timeout
+// expires. Called only by the reader.
+//
+// Returns true if the ring holds data, false if it is empty and the writer
+// has been closed.
+//
+// Throws SocketTimeoutException if the timeout expires and IOException if
+// the reader has been closed.
+//
+
+private boolean awaitData() throws IOException
+{
+
+    if (readerClosed) { throw new IOException("Pipe closed"); }
+
+    if (getReadable(readCount) > 0) { return(true); }
+
+    int wait = timeOut;
+
+    long deadline = System.nanoTime() + wait * 1000000L;
+
+    try{
+        while (true){
+
+            //the writer clears this when it unparks the thread
+            waitingReader.set(Thread.currentThread());
+
+            if (readerClosed) { throw new IOException("Pipe closed"); }
+
+            //the bytes written before the close are visible once it is seen
+            boolean closed = writerClosed;
+
+            if (getReadable(readCount) > 0) { return(true); }
+
+            if (closed) { return(false); }
+
+            if (wait == 0) { LockSupport.park(this); }
+            else{
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            if (Thread.interrupted()) { throw new InterruptedIOException(); }
+
+        }
+    }
+    finally{
+        waitingReader.set(null);
+    }
+
+}//end of ByteRing::awaitData
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::awaitRoom
+//
+// Returns at once if the ring has room for at least one byte. Otherwise
+// waits until half of it is free. Called only by the writer.
+//
+// Throws IOException if either end has been closed.
+//
+
+private void awaitRoom() throws IOException
+{
+
+    if (readerClosed || writerClosed) { throw new IOException("Pipe closed"); }
+
+    if (getWritable(writeCount) > 0) { return; }
+
+    try{
+        while (true){
+
+            //the reader clears this when it unparks the thread
+            waitingWriter.set(Thread.currentThread());
+
+            if (readerClosed) { throw new IOException("Pipe closed"); }
+
+            //getWritable only reads the reader's count when the ring looks
+            //full, so read it here -- after a wakeup which found less than
+            //roomWanted free, the copy would never be brought up to date
+            writerReadCount = readCount;
+
+            if (getWritable(writeCount) >= roomWanted) { return; }
+
+            LockSupport.park(this);
+
+            if (Thread.interrupted()) { throw new InterruptedIOException(); }
+
+        }
+    }
+    finally{
+        waitingWriter.set(null);
+    }
+
+}//end of ByteRing::awaitRoom
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::wakeReader
+//
+// Unparks the reader if it is waiting. Called after writeCount is moved.
+//
+// The field is read before it is cleared as the read is much cheaper and
+// usually finds no thread waiting.
+//
+
+private void wakeReader()
+{
+
+    if (waitingReader.get() == null) { return; }
+
+    Thread reader = waitingReader.getAndSet(null);
+
+    if (reader != null) { LockSupport.unpark(reader); }
+
+}//end of ByteRing::wakeReader
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::wakeWriter
+//
+// Unparks the writer if it is waiting and the room it is waiting for is
+// free. Called after readCount is moved.
+//
+
+private void wakeWriter()
+{
+
+    if (waitingWriter.get() == null) { return; }
+
+    if (buffer.length - (int)(writeCount - readCount) < roomWanted) {
+        return;
+    }
+
+    Thread writer = waitingWriter.getAndSet(null);
+
+    if (writer != null) { LockSupport.unpark(writer); }
+
+}//end of ByteRing::wakeWriter
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::notifyDataListener
+//
+// Runs the data listener, if one is set, and clears it. Called after
+// writeCount is moved and when either end is closed.
+//
+
+private void notifyDataListener()
+{
+
+    if (dataListener.get() == null) { return; }
+
+    Runnable listener = dataListener.getAndSet(null);
+
+    if (listener != null) { listener.run(); }
+
+}//end of ByteRing::notifyDataListener
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::setDataListener
+//
+// Runs pListener once, on the writer's thread, the next time bytes are
+// written or either end is closed. The listener must return quickly as the
+// writer waits for it. Pass null to clear the listener.
+//
+// Check for data after setting the listener: bytes written before it was
+// set do not run it.
+//
+
+public void setDataListener(Runnable pListener)
+{
+
+    dataListener.set(pListener);
+
+}//end of ByteRing::setDataListener
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::closeWriter
+//
+// Closes the writing end. The reader receives the bytes already written and
+// then the end of the stream.
+//
+
+public void closeWriter()
+{
+
+    writerClosed = true;
+
+    wakeReader();
+    notifyDataListener();
+
+}//end of ByteRing::closeWriter
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::closeReader
+//
+// Closes the reading end. Waiting and later reads and writes fail.
+//
+
+public void closeReader()
+{
+
+    readerClosed = true;
+
+    wakeReader();
+    notifyDataListener();
+
+    Thread writer = waitingWriter.getAndSet(null);
+
+    if (writer != null) { LockSupport.unpark(writer); }
+
+}//end of ByteRing::closeReader
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRing::various get/set functions
+//
+
+public ByteRingInputStream getInputStream() { return(inputStream); }
+
+public ByteRingOutputStream getOutputStream() { return(outputStream); }
+
+public int getCapacity() { return(buffer.length); }
+
+//bytes written but not yet read; may be called by either end
+public int available() { return((int)(writeCount - readCount)); }
+
+public void setTimeout(int pTimeOut) { timeOut = pTimeOut; }
+
+public int getTimeout() { return(timeOut); }
+
+public boolean isWriterClosed() { return(writerClosed); }
+
+public boolean isReaderClosed() { return(readerClosed); }
+
+//end of ByteRing::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class ByteRing
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,116 @@
+/******************************************************************************
+* Title: ByteRingInputStream.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class is an InputStream which reads the bytes from a ByteRing. It
+* behaves as a socket's input stream: a read waits up to the ring's timeout
+* for data and then throws a SocketTimeoutException.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class ByteRingInputStream
+//
+
+public class ByteRingInputStream extends InputStream{
+
+    private final ByteRing ring;
+
+//-----------------------------------------------------------------------------
+// ByteRingInputStream::ByteRingInputStream (constructor)
+//
+// Use ByteRing.getInputStream to get the stream for a ring.
+//
+
+ByteRingInputStream(ByteRing pRing)
+{
+
+    ring = pRing;
+
+}//end of ByteRingInputStream::ByteRingInputStream (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRingInputStream::read
+//
+
+@Override
+public int read() throws IOException
+{
+
+    return(ring.read());
+
+}//end of ByteRingInputStream::read
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRingInputStream::read
+//
+
+@Override
+public int read(byte[] pBuf, int pOff, int pLen) throws IOException
+{
+
+    return(ring.read(pBuf, pOff, pLen));
+
+}//end of ByteRingInputStream::read
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRingInputStream::available
+//
+
+@Override
+public int available() throws IOException
+{
+
+    return(ring.available());
+
+}//end of ByteRingInputStream::available
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRingInputStream::close
+//
+// Closes the reading end of the ring.
+//
+
+@Override
+public void close()
+{
+
+    ring.closeReader();
+
+}//end of ByteRingInputStream::close
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRingInputStream::various get/set functions
+//
+
+public void setTimeout(int pTimeOut) { ring.setTimeout(pTimeOut); }
+
+public int getTimeout() { return(ring.getTimeout()); }
+
+//end of ByteRingInputStream::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class ByteRingInputStream
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
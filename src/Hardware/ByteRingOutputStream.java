@@ -0,0 +1,98 @@
+/******************************************************************************
+* Title: ByteRingOutputStream.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class is an OutputStream which writes bytes to a ByteRing. A write
+* waits for room in the ring as necessary. The bytes may be read as soon as
+* write returns, so flush has nothing to do.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class ByteRingOutputStream
+//
+
+public class ByteRingOutputStream extends OutputStream{
+
+    private final ByteRing ring;
+
+    //used by the single byte write
+    private final byte[] oneByte = new byte[1];
+
+//-----------------------------------------------------------------------------
+// ByteRingOutputStream::ByteRingOutputStream (constructor)
+//
+// Use ByteRing.getOutputStream to get the stream for a ring.
+//
+
+ByteRingOutputStream(ByteRing pRing)
+{
+
+    ring = pRing;
+
+}//end of ByteRingOutputStream::ByteRingOutputStream (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRingOutputStream::write
+//
+
+@Override
+public void write(int pByte) throws IOException
+{
+
+    oneByte[0] = (byte)pByte;
+
+    ring.write(oneByte, 0, 1);
+
+}//end of ByteRingOutputStream::write
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRingOutputStream::write
+//
+
+@Override
+public void write(byte[] pBuf, int pOff, int pLen) throws IOException
+{
+
+    ring.write(pBuf, pOff, pLen);
+
+}//end of ByteRingOutputStream::write
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ByteRingOutputStream::close
+//
+// Closes the writing end of the ring. The reader receives the bytes already
+// written and then the end of the stream.
+//
+
+@Override
+public void close()
+{
+
+    ring.closeWriter();
+
+}//end of ByteRingOutputStream::close
+//-----------------------------------------------------------------------------
+
+}//end of class ByteRingOutputStream
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,426 @@
+/******************************************************************************
+* Title: CaptureReplay.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class holds the packets one unit sent in a capture file written by
+* WireCapture so that a NotcherSimulator can send them to the host again in
+* place of its simulated data. Notcher, NotcherGroup, and the GUI then see
+* exactly what the real unit sent, which makes shop traffic usable for
+* repeatable load tests and for regression tests of the receive path.
+*
+* Only the data packets are replayed -- monitor packets, encoder packets and
+* streams, run packets, and the like. The packets which answer the host's
+* commands on the recorded connection (ACKs, credits, pongs, bulk chunks,
+* firmware status) would make no sense to the host now; the simulator answers
+* the host's commands itself as usual.
+*
+* Speed
+*
+* The packets are sent at the recorded intervals divided by the speed: 1 for
+* real time, 10 or 100 to speed up, or AS_FAST_AS_POSSIBLE to send them as
+* fast as the host can read them. If looping, the capture starts over once
+* all of the packets have been sent.
+*
+* Framing
+*
+* The recorded frames may have been sent with or without sequence numbers
+* and with the checksum or the CRC. Each frame is stripped to its packet ID
+* and data bytes when loaded, so the simulator can frame it again to suit the
+* current connection. Frames which cannot be matched to a declared length
+* and a valid check are not loaded.
+*
+* The packets for all units are loaded from the file in one pass by load.
+* Each object is used by one simulator thread at a time.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class CaptureReplay
+//
+
+public class CaptureReplay extends Object{
+
+    //speed which sends the packets without waiting
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    private final int device;
+    private final double speed;
+    private final boolean loop;
+
+    //the packet ID and data bytes of each packet, one after the other
+    private byte[] packets = new byte[0];
+
+    //the start of each packet in packets plus one entry for the end, and the
+    //time each was recorded in nanoseconds since the capture began
+    private int[] offsets = new int[1];
+    private long[] times = new long[0];
+    private int count = 0;
+
+    //builds packets while loading
+    private ByteArrayOutputStream loadBuffer = new ByteArrayOutputStream();
+
+    private int skippedCount = 0;
+
+    //the next packet to send and, in System.nanoTime terms, the time at which
+    //the packet at baseIndex is to be sent
+    private int index = 0;
+    private int baseIndex = 0;
+    private long baseTime = 0;
+    private boolean started = false;
+
+    private long sentCount = 0;
+    private long sentBytes = 0;
+    private long startNanos = 0;
+    private int loopCount = 0;
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::CaptureReplay (constructor)
+//
+// Use load to create the objects.
+//
+
+private CaptureReplay(int pDevice, double pSpeed, boolean pLoop)
+{
+
+    device = pDevice;
+    speed = pSpeed;
+    loop = pLoop;
+
+}//end of CaptureReplay::CaptureReplay (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::load
+//
+// Reads the capture in pFile and returns the packets sent by each of units 0
+// to pNumDevices - 1, indexed by unit. pSpeed and pLoop are as described in
+// the class notes.
+//
+// Throws IOException if the file cannot be read or is not a capture file.
+//
+
+public static CaptureReplay[] load(File pFile, int pNumDevices, double pSpeed,
+                                            boolean pLoop) throws IOException
+{
+
+    CaptureReplay[] replays = new CaptureReplay[pNumDevices];
+
+    for (int i = 0; i < pNumDevices; i++){
+        replays[i] = new CaptureReplay(i, pSpeed, pLoop);
+    }
+
+    PacketHandlerRegistry registry = new PacketHandlerRegistry();
+    Notcher.declareRemotePackets(registry);
+
+    WireCaptureReader reader = new WireCaptureReader(pFile);
+
+    while (reader.next()){
+
+        if (reader.isSent() || reader.isBad()
+                                || reader.getDevice() >= pNumDevices){
+            continue;
+        }
+
+        if (!isReplayed(reader.getPktID())) { continue; }
+
+        replays[reader.getDevice()].addFrame(reader, registry);
+
+    }
+
+    for (CaptureReplay replay : replays) { replay.finishLoad(); }
+
+    return(replays);
+
+}//end of CaptureReplay::load
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::isReplayed
+//
+// Returns true if packets of type pPktID are replayed; see the class notes.
+//
+
+static boolean isReplayed(byte pPktID)
+{
+
+    switch (pPktID){
+        case Notcher.ACK_CMD:
+        case Notcher.CREDIT_CMD:
+        case Notcher.PONG_CMD:
+        case Notcher.BULK_DATA_CMD:
+        case Notcher.FIRMWARE_STATUS_CMD:
+            return(false);
+        default:
+            return(true);
+    }
+
+}//end of CaptureReplay::isReplayed
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::addFrame
+//
+// Adds the frame of the current record of pReader, stripped of its header,
+// sequence number, and check bytes. pRegistry gives the packet lengths.
+//
+// The frame is tried with and without a sequence number and with the
+// checksum and the CRC; the combination which matches its length and whose
+// check is valid is used. Frames which match none are skipped.
+//
+
+private void addFrame(WireCaptureReader pReader,
+                                            PacketHandlerRegistry pRegistry)
+{
+
+    byte[] buf = pReader.getArray();
+    int start = pReader.getFrameOffset();
+    int length = pReader.getFrameLength();
+    byte id = pReader.getPktID();
+
+    int declared = pRegistry.getPayloadLength(id);
+
+    if (declared == PacketHandlerRegistry.UNDECLARED) {
+        skippedCount++; return;
+    }
+
+    for (int seq = 0; seq <= 1; seq++){
+
+        //the data bytes start after the header, ID, and sequence number
+        int data = start + FrameDecoder.HEADER_AND_ID_SIZE + seq;
+
+        int dataLength = declared;
+
+        if (declared == PacketHandlerRegistry.LENGTH_PREFIXED){
+            if (data + 2 > start + length) { continue; }
+            dataLength = PacketHandlerRegistry.LENGTH_PREFIX_SIZE
+                        + (((buf[data] & 0xff) << 8) | (buf[data+1] & 0xff));
+        }
+
+        int checkSize = start + length - (data + dataLength);
+
+        if (!isCheckValid(buf, start, length, checkSize)) { continue; }
+
+        loadBuffer.write(id);
+        loadBuffer.write(buf, data, dataLength);
+
+        if (count == times.length){
+            times = Arrays.copyOf(times, Math.max(64, count * 2));
+            offsets = Arrays.copyOf(offsets, times.length + 1);
+        }
+
+        times[count] = pReader.getTime();
+        offsets[++count] = loadBuffer.size();
+
+        return;
+
+    }
+
+    skippedCount++;
+
+}//end of CaptureReplay::addFrame
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::isCheckValid
+//
+// Returns true if the frame of pLength bytes at pStart in pBuf ends with a
+// valid check of pCheckSize bytes: a checksum if 1, a CRC-32C if 4.
+//
+
+private static boolean isCheckValid(byte[] pBuf, int pStart, int pLength,
+                                                            int pCheckSize)
+{
+
+    //the check covers the packet ID through the last data byte
+    int first = pStart + FrameDecoder.HEADER_AND_ID_SIZE - 1;
+    int end = pStart + pLength;
+
+    if (pCheckSize == 1){
+        byte sum = 0;
+        for (int i = first; i < end; i++) { sum += pBuf[i]; }
+        return(sum == 0);
+    }
+
+    if (pCheckSize == Crc32c.CRC_SIZE){
+        int crcStart = end - Crc32c.CRC_SIZE;
+        int crc = ((pBuf[crcStart] & 0xff) << 24)
+                    | ((pBuf[crcStart+1] & 0xff) << 16)
+                    | ((pBuf[crcStart+2] & 0xff) << 8)
+                    | (pBuf[crcStart+3] & 0xff);
+        return(Crc32c.compute(pBuf, first, crcStart - first) == crc);
+    }
+
+    return(false);
+
+}//end of CaptureReplay::isCheckValid
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::finishLoad
+//
+// Moves the loaded packets into one array.
+//
+
+private void finishLoad()
+{
+
+    packets = loadBuffer.toByteArray();
+
+    loadBuffer = null;
+
+}//end of CaptureReplay::finishLoad
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::start
+//
+// Starts or resumes sending with the next packet, which is due at once. The
+// packets after it follow at the recorded intervals. Called when a connection
+// is made.
+//
+
+public void start()
+{
+
+    long now = System.nanoTime();
+
+    if (!started) { startNanos = now; started = true; }
+
+    baseIndex = index;
+    baseTime = now;
+
+}//end of CaptureReplay::start
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::getNanosUntilDue
+//
+// Returns the nanoseconds until the next packet is to be sent, 0 or less if
+// it is due now, or Long.MAX_VALUE if there are no more packets or start has
+// not been called.
+//
+
+public long getNanosUntilDue()
+{
+
+    if (!started || index >= count) { return(Long.MAX_VALUE); }
+
+    if (speed <= AS_FAST_AS_POSSIBLE) { return(0); }
+
+    long offset = (long)((times[index] - times[baseIndex]) / speed);
+
+    return(baseTime + offset - System.nanoTime());
+
+}//end of CaptureReplay::getNanosUntilDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::isDue
+//
+// Returns true if the next packet is to be sent now.
+//
+
+public boolean isDue()
+{
+
+    return(getNanosUntilDue() <= 0);
+
+}//end of CaptureReplay::isDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::copyNext
+//
+// Copies the packet ID and data bytes of the next packet into pDest and
+// moves to the packet after it.
+//
+// Returns the number of bytes copied.
+//
+
+public int copyNext(byte[] pDest)
+{
+
+    int length = offsets[index + 1] - offsets[index];
+
+    System.arraycopy(packets, offsets[index], pDest, 0, length);
+
+    index++;
+    sentCount++;
+    sentBytes += length;
+
+    if (index >= count && loop){
+        index = 0;
+        loopCount++;
+        start();
+    }
+
+    return(length);
+
+}//end of CaptureReplay::copyNext
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::getPacketsPerSecond
+//
+// Returns the rate at which packets have been sent since start was first
+// called.
+//
+
+public double getPacketsPerSecond()
+{
+
+    if (!started) { return(0); }
+
+    return(sentCount * 1e9 / Math.max(1, System.nanoTime() - startNanos));
+
+}//end of CaptureReplay::getPacketsPerSecond
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// CaptureReplay::various get/set functions
+//
+
+public int getDevice() { return(device); }
+
+public double getSpeed() { return(speed); }
+
+public boolean isLooping() { return(loop); }
+
+public int getPacketCount() { return(count); }
+
+//frames in the capture for this unit which could not be decoded
+public int getSkippedCount() { return(skippedCount); }
+
+public long getSentCount() { return(sentCount); }
+
+public long getSentBytes() { return(sentBytes); }
+
+public int getLoopCount() { return(loopCount); }
+
+//true once all packets have been sent, never if looping
+public boolean isFinished() { return(index >= count); }
+
+//end of CaptureReplay::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class CaptureReplay
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
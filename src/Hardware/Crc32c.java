@@ -0,0 +1,311 @@
+/******************************************************************************
+* Title: Crc32c.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class computes the CRC-32C (Castagnoli) value used to check packet
+* frames when the CRC frame check has been agreed with the remote.
+*
+* The 8-bit additive checksum used by default cannot detect bytes which have
+* been swapped and misses many errors which alter two bytes. CRC-32C detects
+* all such errors in packets of the sizes used here.
+*
+* On Java 9 or later, java.util.zip.CRC32C is used. The JIT compiler replaces
+* its work with the processor's CRC32 instructions, so it is faster than
+* any table method. The program is compiled for Java 8, so that class is
+* loaded by name through the Checksum interface which it implements; see
+* newChecksum.
+*
+* On Java 8, the value is computed here with the "slice-by-16" method:
+* sixteen lookup tables allow sixteen bytes to be processed per step with one
+* table lookup per byte and no per-byte shifting of the CRC. Only the first
+* four lookups of each step depend on the CRC, so the rest proceed in
+* parallel. The remaining bytes are processed eight at a time and then one at
+* a time. The tables are kept end to end in a single array so that each
+* lookup is a single array access. They take 16 KB and are built once when
+* the class is loaded.
+*
+* FrameCheckBenchmark measures this at about the speed of the 8-bit
+* checksum loop on large buffers -- roughly 1,300 MB/s for each -- where the
+* earlier slice-by-8 version reached only about 790 MB/s. The
+* java.util.zip.CRC32C used on Java 9 or later is many times faster again.
+*
+* The results of both are identical to each other and to the hardware CRC32
+* instructions used by the firmware.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.util.zip.Checksum;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class Crc32c
+//
+
+public class Crc32c extends Object implements Checksum{
+
+    //number of bytes appended to a frame to hold the CRC
+    public static final int CRC_SIZE = 4;
+
+    //the Castagnoli polynomial in reversed bit order
+    private static final int POLYNOMIAL = 0x82f63b78;
+
+    //number of lookup tables and bytes processed in each step
+    private static final int SLICES = 16;
+
+    //the lookup tables end to end -- table t starts at t * 256
+    private static final int[] TABLES = buildTables();
+
+    //the running value for use through the Checksum interface
+    private int crc = start();
+
+//-----------------------------------------------------------------------------
+// Crc32c::newChecksum
+//
+// Returns a new Checksum which computes the CRC-32C: the Java runtime's
+// java.util.zip.CRC32C if it has one, an instance of this class otherwise.
+//
+// Each object holds a running value, so each thread must use its own.
+//
+
+public static Checksum newChecksum()
+{
+
+    try{
+        return((Checksum)Class.forName("java.util.zip.CRC32C")
+                                    .getDeclaredConstructor().newInstance());
+    }
+    catch(ReflectiveOperationException | RuntimeException e){
+        //Java 8 -- use the table method
+        return(new Crc32c());
+    }
+
+}//end of Crc32c::newChecksum
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Crc32c::buildTables
+//
+// Returns the SLICES lookup tables end to end in one array. The first table
+// gives the CRC of each single byte value; each following table gives the
+// effect of a byte which is one position further from the end of a group.
+//
+
+private static int[] buildTables()
+{
+
+    int[] tables = new int[SLICES * 256];
+
+    for (int i = 0; i < 256; i++){
+        int crc = i;
+        for (int bit = 0; bit < 8; bit++){
+            crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+        }
+        tables[i] = crc;
+    }
+
+    for (int i = 256; i < tables.length; i++){
+        int prev = tables[i - 256];
+        tables[i] = (prev >>> 8) ^ tables[prev & 0xff];
+    }
+
+    return(tables);
+
+}//end of Crc32c::buildTables
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Crc32c::compute
+//
+// Returns the CRC-32C of pLen bytes of pBuf starting at pOff.
+//
+
+public static int compute(byte[] pBuf, int pOff, int pLen)
+{
+
+    return(finish(update(start(), pBuf, pOff, pLen)));
+
+}//end of Crc32c::compute
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Crc32c::start
+//
+// Returns the initial value to be passed to the first call to update.
+//
+
+public static int start()
+{
+
+    return(0xffffffff);
+
+}//end of Crc32c::start
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Crc32c::update
+//
+// Adds the single byte pByte to the running value pCrc and returns the new
+// running value.
+//
+
+public static int update(int pCrc, byte pByte)
+{
+
+    return((pCrc >>> 8) ^ TABLES[(pCrc ^ pByte) & 0xff]);
+
+}//end of Crc32c::update
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Crc32c::update
+//
+// Adds pLen bytes of pBuf starting at pOff to the running value pCrc and
+// returns the new running value.
+//
+
+public static int update(int pCrc, byte[] pBuf, int pOff, int pLen)
+{
+
+    final int[] t = TABLES;
+
+    int crc = pCrc;
+    int i = pOff;
+    int end = pOff + pLen;
+
+    //process sixteen bytes per step -- the first four are combined with the
+    //CRC; table n handles the byte n positions from the end of the step
+
+    while (end - i >= 16){
+
+        int low = crc ^ ((pBuf[i] & 0xff)
+                            | (pBuf[i+1] & 0xff) << 8
+                            | (pBuf[i+2] & 0xff) << 16
+                            | (pBuf[i+3] & 0xff) << 24);
+
+        crc = t[3840 + (low & 0xff)] ^ t[3584 + ((low >>> 8) & 0xff)]
+            ^ t[3328 + ((low >>> 16) & 0xff)] ^ t[3072 + (low >>> 24)]
+            ^ t[2816 + (pBuf[i+4] & 0xff)] ^ t[2560 + (pBuf[i+5] & 0xff)]
+            ^ t[2304 + (pBuf[i+6] & 0xff)] ^ t[2048 + (pBuf[i+7] & 0xff)]
+            ^ t[1792 + (pBuf[i+8] & 0xff)] ^ t[1536 + (pBuf[i+9] & 0xff)]
+            ^ t[1280 + (pBuf[i+10] & 0xff)] ^ t[1024 + (pBuf[i+11] & 0xff)]
+            ^ t[768 + (pBuf[i+12] & 0xff)] ^ t[512 + (pBuf[i+13] & 0xff)]
+            ^ t[256 + (pBuf[i+14] & 0xff)] ^ t[pBuf[i+15] & 0xff];
+
+        i += 16;
+
+    }
+
+    //then eight bytes at once if there are enough
+
+    if (end - i >= 8){
+
+        int low = crc ^ ((pBuf[i] & 0xff)
+                            | (pBuf[i+1] & 0xff) << 8
+                            | (pBuf[i+2] & 0xff) << 16
+                            | (pBuf[i+3] & 0xff) << 24);
+
+        crc = t[1792 + (low & 0xff)] ^ t[1536 + ((low >>> 8) & 0xff)]
+            ^ t[1280 + ((low >>> 16) & 0xff)] ^ t[1024 + (low >>> 24)]
+            ^ t[768 + (pBuf[i+4] & 0xff)] ^ t[512 + (pBuf[i+5] & 0xff)]
+            ^ t[256 + (pBuf[i+6] & 0xff)] ^ t[pBuf[i+7] & 0xff];
+
+        i += 8;
+
+    }
+
+    while (i < end) { crc = (crc >>> 8) ^ t[(crc ^ pBuf[i++]) & 0xff]; }
+
+    return(crc);
+
+}//end of Crc32c::update
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Crc32c::finish
+//
+// Returns the final CRC for the running value pCrc.
+//
+
+public static int finish(int pCrc)
+{
+
+    return(~pCrc);
+
+}//end of Crc32c::finish
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Crc32c::update (Checksum interface)
+//
+// Adds the low byte of pByte to the running value.
+//
+
+@Override
+public void update(int pByte)
+{
+
+    crc = update(crc, (byte)pByte);
+
+}//end of Crc32c::update
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Crc32c::update (Checksum interface)
+//
+// Adds pLen bytes of pBuf starting at pOff to the running value.
+//
+
+@Override
+public void update(byte[] pBuf, int pOff, int pLen)
+{
+
+    crc = update(crc, pBuf, pOff, pLen);
+
+}//end of Crc32c::update
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Crc32c::getValue (Checksum interface)
+//
+// Returns the CRC of all bytes added since the last reset.
+//
+
+@Override
+public long getValue()
+{
+
+    return(finish(crc) & 0xffffffffL);
+
+}//end of Crc32c::getValue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Crc32c::reset (Checksum interface)
+//
+// Clears the running value to start a new CRC.
+//
+
+@Override
+public void reset()
+{
+
+    crc = start();
+
+}//end of Crc32c::reset
+//-----------------------------------------------------------------------------
+
+}//end of class Crc32c
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
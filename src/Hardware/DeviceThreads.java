@@ -0,0 +1,124 @@
+/******************************************************************************
+* Title: DeviceThreads.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class creates the threads used to service each remote device.
+*
+* When running on a Java version which supports virtual threads (Java 21 or
+* later), the threads can be virtual threads. A virtual thread which blocks
+* in a socket read does not hold a platform thread, so a thread per device
+* can be used with many devices while keeping the simple blocking style of
+* the communication code.
+*
+* The program is compiled for Java 8, so the virtual thread API is accessed by
+* reflection. If it is not available, ordinary daemon platform threads are
+* created instead and the program works the same, only with the cost of a
+* platform thread per device.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class DeviceThreads
+//
+
+public class DeviceThreads extends Object{
+
+//-----------------------------------------------------------------------------
+// DeviceThreads::newThreadFactory
+//
+// Returns a factory which creates threads named pName. If pVirtual is true
+// and virtual threads are supported, the threads are virtual threads.
+// Otherwise, they are daemon platform threads.
+//
+
+public static ThreadFactory newThreadFactory(final String pName,
+                                                            boolean pVirtual)
+{
+
+    if (pVirtual){
+        ThreadFactory factory = newVirtualThreadFactory(pName);
+        if (factory != null) { return(factory); }
+    }
+
+    return(new ThreadFactory(){
+        @Override
+        public Thread newThread(Runnable pRunnable) {
+            Thread thread = new Thread(pRunnable, pName);
+            thread.setDaemon(true);
+            return(thread);
+        }
+    });
+
+}//end of DeviceThreads::newThreadFactory
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// DeviceThreads::isVirtualAvailable
+//
+// Returns true if the Java runtime supports virtual threads.
+//
+
+public static boolean isVirtualAvailable()
+{
+
+    return(newVirtualThreadFactory("test") != null);
+
+}//end of DeviceThreads::isVirtualAvailable
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// DeviceThreads::newVirtualThreadFactory
+//
+// Returns a factory which creates virtual threads named pName or null if
+// virtual threads are not supported. This is equivalent to:
+//
+//      Thread.ofVirtual().name(pName).factory()
+//
+// The methods are looked up through the public Thread.Builder interface as
+// the builder object itself is of a class which is not public.
+//
+
+private static ThreadFactory newVirtualThreadFactory(String pName)
+{
+
+    try{
+
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+        Method name = builderClass.getMethod("name", String.class);
+        Method factory = builderClass.getMethod("factory");
+
+        builder = name.invoke(builder, pName);
+
+        return((ThreadFactory)factory.invoke(builder));
+
+    }
+    catch(ReflectiveOperationException | RuntimeException e){
+        //virtual threads are not available or are disabled
+        return(null);
+    }
+
+}//end of DeviceThreads::newVirtualThreadFactory
+//-----------------------------------------------------------------------------
+
+}//end of class DeviceThreads
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,128 @@
+/******************************************************************************
+* Title: EncoderPacket.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class reads and writes the values of a Notcher "all encoders" packet
+* directly in a byte array. Like MonitorPacket, it is a flyweight which holds
+* only a reference to the array and the position of the packet data in it,
+* so no objects are created per packet.
+*
+* Packet Layout (data bytes following the packet ID, MSB first)
+*
+*   The count of each of the NUM_ENCODERS encoders as a signed four byte
+*   integer, encoder 0 first.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class EncoderPacket
+//
+
+public class EncoderPacket extends Object{
+
+    public static final int NUM_ENCODERS = 6;
+
+    //number of data bytes in an encoder packet
+    public static final int SIZE = NUM_ENCODERS * 4;
+
+    private byte[] buf;
+    private int offset;
+
+//-----------------------------------------------------------------------------
+// EncoderPacket::EncoderPacket (constructor)
+//
+// Creates an EncoderPacket with its own array to hold one packet. Use this to
+// create an object into which packets are copied.
+//
+
+public EncoderPacket()
+{
+
+    buf = new byte[SIZE];
+    offset = 0;
+
+}//end of EncoderPacket::EncoderPacket (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderPacket::wrap
+//
+// Points this object at the packet data starting at pOffset in pBuf. Returns
+// this object so that calls may be chained.
+//
+
+public EncoderPacket wrap(byte[] pBuf, int pOffset)
+{
+
+    buf = pBuf; offset = pOffset;
+
+    return(this);
+
+}//end of EncoderPacket::wrap
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderPacket::copyFrom
+//
+// Copies the packet data starting at pOffset in pBuf into the array this
+// object is pointing to.
+//
+
+public void copyFrom(byte[] pBuf, int pOffset)
+{
+
+    System.arraycopy(pBuf, pOffset, buf, offset, SIZE);
+
+}//end of EncoderPacket::copyFrom
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderPacket::getCount
+//
+// Returns the count of encoder pEncoder.
+//
+
+public int getCount(int pEncoder)
+{
+
+    int i = offset + pEncoder * 4;
+
+    return(((buf[i]<<24) & 0xff000000) + ((buf[i+1]<<16) & 0xff0000)
+                            + ((buf[i+2]<<8) & 0xff00) + (buf[i+3] & 0xff));
+
+}//end of EncoderPacket::getCount
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderPacket::setCount
+//
+// Sets the count of encoder pEncoder to pValue.
+//
+
+public void setCount(int pEncoder, int pValue)
+{
+
+    int i = offset + pEncoder * 4;
+
+    buf[i] = (byte)(pValue >> 24); buf[i+1] = (byte)(pValue >> 16);
+    buf[i+2] = (byte)(pValue >> 8); buf[i+3] = (byte)pValue;
+
+}//end of EncoderPacket::setCount
+//-----------------------------------------------------------------------------
+
+}//end of class EncoderPacket
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
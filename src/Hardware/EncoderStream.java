@@ -0,0 +1,321 @@
+/******************************************************************************
+* Title: EncoderStream.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class packs many samples of all encoder counts into one compact
+* encoder stream packet and unpacks them again.
+*
+* Sending every sample in its own all encoders packet costs 24 data bytes
+* plus the frame overhead even though the counts change by only a few counts
+* between samples. Here, the first sample of each block is the keyframe and
+* is sent as absolute values; every following sample is sent as the change
+* from the sample before it. Each value is "zig-zag" encoded so that small
+* negative changes are small positive numbers and then written as a
+* "varint": seven bits per byte, least significant first, with the top bit
+* set on every byte but the last. A change of -64 to 63 counts takes a single
+* byte, so a typical sample takes six bytes rather than twenty-four and the
+* frame overhead is shared by the whole block.
+*
+* As every block starts with a keyframe, a lost or corrupted block does not
+* affect the blocks after it. The sample number of the first sample is sent
+* so the host can tell how many samples were lost.
+*
+* Packet Layout (data bytes following the length prefix)
+*
+*   0       number of samples in the block (1 to MAX_SAMPLES_PER_BLOCK)
+*   1-      sample number of the first sample (varint)
+*   then    for each sample, the NUM_ENCODERS values as zig-zag varints,
+*           encoder 0 first -- absolute for the first sample, the change from
+*           the previous sample for the rest
+*
+* The packet is declared as PacketHandlerRegistry.LENGTH_PREFIXED, so the
+* two byte length which precedes these bytes is handled by the registry.
+*
+* Encoding is done in the remote (NotcherSimulator) with startBlock,
+* addSample, and copyBlock. Decoding is done by the host (Notcher) with
+* decodeBlock which unpacks into an int array. Neither creates any objects
+* per sample or per block.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class EncoderStream
+//
+
+public class EncoderStream extends Object{
+
+    public static final int NUM_ENCODERS = EncoderPacket.NUM_ENCODERS;
+
+    public static final int MAX_SAMPLES_PER_BLOCK = 255;
+
+    //largest number of data bytes in a block -- small enough to fit in the
+    //simulator's output buffer and in one TCP segment with its frame
+    public static final int MAX_BLOCK_SIZE = 400;
+
+    //most bytes taken by a varint holding an int
+    static final int MAX_VARINT_SIZE = 5;
+
+    //most bytes taken by one sample of all encoders
+    static final int MAX_SAMPLE_SIZE = NUM_ENCODERS * MAX_VARINT_SIZE;
+
+    //the block being encoded -- the sample count is filled in by copyBlock
+    private final byte[] block = new byte[MAX_BLOCK_SIZE];
+    private int blockSize = 0;
+    private int numSamples = 0;
+
+    //the last sample encoded or decoded
+    private final int[] prevCounts = new int[NUM_ENCODERS];
+
+    private int firstSampleNumber = 0;
+
+    //the value read by the last call to readVarint
+    private int varintValue;
+
+//-----------------------------------------------------------------------------
+// EncoderStream::startBlock
+//
+// Discards any samples added and starts a new block whose first sample is
+// numbered pFirstSampleNumber.
+//
+
+public void startBlock(int pFirstSampleNumber)
+{
+
+    firstSampleNumber = pFirstSampleNumber;
+
+    numSamples = 0;
+
+    blockSize = writeVarint(block, 1, pFirstSampleNumber);
+
+}//end of EncoderStream::startBlock
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderStream::addSample
+//
+// Adds the first NUM_ENCODERS counts of pCounts to the block as the next
+// sample. Call hasRoom first.
+//
+
+public void addSample(int[] pCounts)
+{
+
+    int x = blockSize;
+
+    for (int i = 0; i < NUM_ENCODERS; i++){
+
+        //the keyframe is the change from zero
+        int delta = numSamples == 0 ? pCounts[i] : pCounts[i] - prevCounts[i];
+
+        x = writeVarint(block, x, zigZag(delta));
+
+        prevCounts[i] = pCounts[i];
+
+    }
+
+    blockSize = x;
+    numSamples++;
+
+}//end of EncoderStream::addSample
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderStream::hasRoom
+//
+// Returns true if another sample of any values can be added to the block.
+//
+
+public boolean hasRoom()
+{
+
+    return(numSamples < MAX_SAMPLES_PER_BLOCK
+                            && blockSize + MAX_SAMPLE_SIZE <= MAX_BLOCK_SIZE);
+
+}//end of EncoderStream::hasRoom
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderStream::copyBlock
+//
+// Copies the block into pBuf starting at pOffset.
+//
+// Returns the number of bytes copied.
+//
+
+public int copyBlock(byte[] pBuf, int pOffset)
+{
+
+    block[0] = (byte)numSamples;
+
+    System.arraycopy(block, 0, pBuf, pOffset, blockSize);
+
+    return(blockSize);
+
+}//end of EncoderStream::copyBlock
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderStream::decodeBlock
+//
+// Unpacks the block of pLength bytes starting at pOffset in pBuf into pDest.
+// The counts of each sample are stored one after the other, NUM_ENCODERS per
+// sample, so pDest must hold at least MAX_SAMPLES_PER_BLOCK * NUM_ENCODERS
+// values. The number of the first sample can then be retrieved with
+// getFirstSampleNumber.
+//
+// Returns the number of samples unpacked or -1 if the block is malformed.
+//
+
+public int decodeBlock(byte[] pBuf, int pOffset, int pLength, int[] pDest)
+{
+
+    int end = pOffset + pLength;
+
+    if (pLength < 2) { return(-1); }
+
+    int count = pBuf[pOffset] & 0xff;
+
+    int x = readVarint(pBuf, pOffset + 1, end);
+
+    if (x < 0) { return(-1); }
+
+    firstSampleNumber = varintValue;
+
+    int d = 0;
+
+    for (int s = 0; s < count; s++){
+
+        for (int i = 0; i < NUM_ENCODERS; i++){
+
+            x = readVarint(pBuf, x, end);
+
+            if (x < 0) { return(-1); }
+
+            int delta = unZigZag(varintValue);
+
+            prevCounts[i] = s == 0 ? delta : prevCounts[i] + delta;
+
+            pDest[d++] = prevCounts[i];
+
+        }
+
+    }
+
+    return(x == end ? count : -1);
+
+}//end of EncoderStream::decodeBlock
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderStream::writeVarint
+//
+// Writes pValue as an unsigned varint into pBuf starting at pOffset.
+//
+// Returns the position following the last byte written.
+//
+
+static int writeVarint(byte[] pBuf, int pOffset, int pValue)
+{
+
+    int x = pOffset;
+
+    while ((pValue & ~0x7f) != 0){
+        pBuf[x++] = (byte)((pValue & 0x7f) | 0x80);
+        pValue >>>= 7;
+    }
+
+    pBuf[x++] = (byte)pValue;
+
+    return(x);
+
+}//end of EncoderStream::writeVarint
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderStream::readVarint
+//
+// Reads an unsigned varint from pBuf starting at pOffset and stores it in
+// varintValue. No bytes at or beyond pEnd are read.
+//
+// Returns the position following the varint or -1 if it runs past pEnd or is
+// too long.
+//
+
+private int readVarint(byte[] pBuf, int pOffset, int pEnd)
+{
+
+    int value = 0;
+
+    for (int x = pOffset, shift = 0; x < pEnd && shift < 35; shift += 7){
+
+        byte b = pBuf[x++];
+
+        value |= (b & 0x7f) << shift;
+
+        if (b >= 0) { varintValue = value; return(x); }
+
+    }
+
+    return(-1);
+
+}//end of EncoderStream::readVarint
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderStream::zigZag
+//
+// Maps signed values to unsigned so that values near zero of either sign are
+// small: 0, -1, 1, -2, 2... become 0, 1, 2, 3, 4...
+//
+
+static int zigZag(int pValue)
+{
+
+    return((pValue << 1) ^ (pValue >> 31));
+
+}//end of EncoderStream::zigZag
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderStream::unZigZag
+//
+// Reverses zigZag.
+//
+
+static int unZigZag(int pValue)
+{
+
+    return((pValue >>> 1) ^ -(pValue & 1));
+
+}//end of EncoderStream::unZigZag
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// EncoderStream::various get/set functions
+//
+
+public int getNumSamples() { return(numSamples); }
+
+public int getBlockSize() { return(blockSize); }
+
+public int getFirstSampleNumber() { return(firstSampleNumber); }
+
+//end of EncoderStream::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class EncoderStream
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,243 @@
+/******************************************************************************
+* Title: FaultInjector.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class holds the settings and counters for the faults injected into
+* the links between the hosts and the simulated units.
+*
+* The simulated link is perfect: every byte arrives at once and unchanged.
+* The code which decides the throughput on a noisy shop network -- reSync,
+* readBlockAndVerify, and the waits for ACKs -- is then never exercised. With
+* an injector set, the bytes each simulator sends and, when the host writes
+* to the simulator's ring, the bytes the host sends pass through a
+* FaultyOutputStream which:
+*
+*   delays them by the latency -- the bytes are delivered by a thread of the
+*   stream's own so the writer does not wait, as with a long cable;
+*
+*   limits them to the bandwidth -- the bytes leave no faster than this many
+*   per second;
+*
+*   drops, duplicates, and flips one bit of bytes at the given rates, each the
+*   chance that any one byte is affected.
+*
+* Every fault is counted here, totalled over all the links, so the resyncs
+* and retries seen by the host can be compared with the faults which caused
+* them.
+*
+* Faults are chosen by a random number generator for each stream. If a seed
+* is given, each stream's generator is seeded from it and the order in which
+* the streams were created, so a run can be repeated with the same faults at
+* the same places in each stream.
+*
+* The settings may not be changed once streams have been created.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class FaultInjector
+//
+
+public class FaultInjector extends Object{
+
+    //milliseconds each byte is delayed; bytes per second allowed, 0 for no
+    //limit
+    private final int latency;
+    private final long bandwidth;
+
+    //chance from 0 to 1 of each byte being dropped, sent twice, or having a
+    //bit flipped
+    private final double dropRate;
+    private final double duplicateRate;
+    private final double bitFlipRate;
+
+    //seeds the streams' generators; 0 for a different run each time
+    private final long seed;
+
+    //the number of streams created, used to seed each
+    private final AtomicInteger streamCount = new AtomicInteger();
+
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong duplicatedCount = new AtomicLong();
+    private final AtomicLong bitFlipCount = new AtomicLong();
+    private final AtomicLong delayedWriteCount = new AtomicLong();
+    private final AtomicLong throttleNanos = new AtomicLong();
+
+//-----------------------------------------------------------------------------
+// FaultInjector::FaultInjector (constructor)
+//
+// pLatency is in milliseconds, pBandwidth is in bytes per second (0 for no
+// limit), and the rates are the chance from 0 to 1 that each byte is
+// affected. Pass 0 for pSeed to have the faults differ with each run.
+//
+
+public FaultInjector(int pLatency, long pBandwidth, double pDropRate,
+                    double pDuplicateRate, double pBitFlipRate, long pSeed)
+{
+
+    latency = Math.max(0, pLatency);
+    bandwidth = Math.max(0, pBandwidth);
+    dropRate = clampRate(pDropRate);
+    duplicateRate = clampRate(pDuplicateRate);
+    bitFlipRate = clampRate(pBitFlipRate);
+    seed = pSeed;
+
+}//end of FaultInjector::FaultInjector (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultInjector::clampRate
+//
+// Returns pRate limited to 0 to 1.
+//
+
+private static double clampRate(double pRate)
+{
+
+    return(Math.max(0, Math.min(1, pRate)));
+
+}//end of FaultInjector::clampRate
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultInjector::wrap
+//
+// Returns a stream which writes to pOut with the faults injected. pName
+// names the stream's delivery thread.
+//
+
+public FaultyOutputStream wrap(OutputStream pOut, String pName)
+{
+
+    int stream = streamCount.getAndIncrement();
+
+    long streamSeed = seed == 0 ? System.nanoTime() ^ (stream * 31L)
+                                : seed + stream * 0x9e3779b97f4a7c15L;
+
+    return(new FaultyOutputStream(pOut, this, streamSeed, pName));
+
+}//end of FaultInjector::wrap
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultInjector::isCorrupting
+//
+// Returns true if any bytes are to be dropped, duplicated, or flipped.
+//
+
+public boolean isCorrupting()
+{
+
+    return(dropRate > 0 || duplicateRate > 0 || bitFlipRate > 0);
+
+}//end of FaultInjector::isCorrupting
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultInjector::countWrite
+//
+// Records pBytes bytes written to a stream, pDropped, pDuplicated, and
+// pFlipped of them affected, and whether the write was delayed.
+//
+
+void countWrite(int pBytes, int pDropped, int pDuplicated, int pFlipped,
+                                                            boolean pDelayed)
+{
+
+    byteCount.addAndGet(pBytes);
+
+    if (pDropped > 0) { droppedCount.addAndGet(pDropped); }
+    if (pDuplicated > 0) { duplicatedCount.addAndGet(pDuplicated); }
+    if (pFlipped > 0) { bitFlipCount.addAndGet(pFlipped); }
+
+    if (pDelayed) { delayedWriteCount.incrementAndGet(); }
+
+}//end of FaultInjector::countWrite
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultInjector::countThrottle
+//
+// Records pNanos spent waiting for the bandwidth limit.
+//
+
+void countThrottle(long pNanos)
+{
+
+    throttleNanos.addAndGet(pNanos);
+
+}//end of FaultInjector::countThrottle
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultInjector::getSummary
+//
+// Returns a line describing the faults injected so far.
+//
+
+public String getSummary()
+{
+
+    return("Faults injected in " + getByteCount() + " bytes: "
+            + getDroppedCount() + " dropped, "
+            + getDuplicatedCount() + " duplicated, "
+            + getBitFlipCount() + " bit flips, "
+            + getDelayedWriteCount() + " writes delayed, "
+            + getThrottleNanos() / 1000000 + " ms throttled.");
+
+}//end of FaultInjector::getSummary
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultInjector::various get/set functions
+//
+
+public int getLatency() { return(latency); }
+
+public long getBandwidth() { return(bandwidth); }
+
+public double getDropRate() { return(dropRate); }
+
+public double getDuplicateRate() { return(duplicateRate); }
+
+public double getBitFlipRate() { return(bitFlipRate); }
+
+//bytes written to the streams, before any were dropped or duplicated
+public long getByteCount() { return(byteCount.get()); }
+
+public long getDroppedCount() { return(droppedCount.get()); }
+
+public long getDuplicatedCount() { return(duplicatedCount.get()); }
+
+public long getBitFlipCount() { return(bitFlipCount.get()); }
+
+//writes handed to the delivery threads to be delivered after the latency
+public long getDelayedWriteCount() { return(delayedWriteCount.get()); }
+
+//total time the writers and delivery threads waited for the bandwidth limit
+public long getThrottleNanos() { return(throttleNanos.get()); }
+
+//end of FaultInjector::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class FaultInjector
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
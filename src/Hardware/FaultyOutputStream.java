@@ -0,0 +1,385 @@
+/******************************************************************************
+* Title: FaultyOutputStream.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class is an OutputStream which passes the bytes written to another
+* stream with the faults set in a FaultInjector: latency, a bandwidth limit,
+* and dropped, duplicated, and flipped bytes. Use FaultInjector.wrap to
+* create one.
+*
+* Rather than drawing a random number for every byte, the number of bytes
+* until the next fault of each kind is drawn once for each fault, so the
+* bytes between faults are passed on as written and the cost is small at the
+* low rates of a real network.
+*
+* Without latency, the bytes are written to the other stream by the writer,
+* which waits as needed for the bandwidth limit. With latency, each write is
+* copied and queued, and a delivery thread of the stream's own writes it to
+* the other stream once it is due, so the writer does not wait. An error
+* from the other stream is then thrown by the next write.
+*
+* Only one thread may write to the stream at a time.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class FaultyOutputStream
+//
+
+public class FaultyOutputStream extends OutputStream{
+
+    private final OutputStream out;
+    private final FaultInjector injector;
+    private final Random random;
+    private final String name;
+
+    private final long latencyNanos;
+    private final long bandwidth;
+
+    //clean bytes to pass before the next fault of each kind; Long.MAX_VALUE
+    //if that kind is not injected
+    private long untilDrop, untilDuplicate, untilBitFlip;
+
+    //holds the bytes of a write with faults
+    private byte[] faultBuf = new byte[0];
+
+    //System.nanoTime when the bytes already sent will have left at the
+    //bandwidth limit
+    private long linkFreeTime = 0;
+
+    //waits shorter than this are put off until they add up so that small
+    //writes are not each slowed by the sleep granularity
+    static final long MIN_THROTTLE_NANOS = 1000000;
+
+    //the writes waiting for the delivery thread and when each is due, both
+    //guarded by queue
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private final ArrayDeque<Long> dueTimes = new ArrayDeque<>();
+
+    private Thread deliveryThread;
+    private volatile IOException deliveryError;
+    private volatile boolean closed = false;
+
+    //milliseconds the delivery thread waits before checking if it should stop
+    static final int DELIVERY_WAIT = 100;
+
+    //used by the single byte write
+    private final byte[] oneByte = new byte[1];
+
+//-----------------------------------------------------------------------------
+// FaultyOutputStream::FaultyOutputStream (constructor)
+//
+// Use FaultInjector.wrap to create the stream.
+//
+
+FaultyOutputStream(OutputStream pOut, FaultInjector pInjector, long pSeed,
+                                                                String pName)
+{
+
+    out = pOut; injector = pInjector; name = pName;
+
+    random = new Random(pSeed);
+
+    latencyNanos = pInjector.getLatency() * 1000000L;
+    bandwidth = pInjector.getBandwidth();
+
+    untilDrop = drawGap(pInjector.getDropRate());
+    untilDuplicate = drawGap(pInjector.getDuplicateRate());
+    untilBitFlip = drawGap(pInjector.getBitFlipRate());
+
+}//end of FaultyOutputStream::FaultyOutputStream (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultyOutputStream::drawGap
+//
+// Returns the number of clean bytes before the next fault of a kind which
+// affects each byte with chance pRate, drawn from the geometric distribution.
+// Returns Long.MAX_VALUE if pRate is 0.
+//
+
+private long drawGap(double pRate)
+{
+
+    if (pRate <= 0) { return(Long.MAX_VALUE); }
+
+    if (pRate >= 1) { return(0); }
+
+    return((long)(Math.log(1 - random.nextDouble()) / Math.log(1 - pRate)));
+
+}//end of FaultyOutputStream::drawGap
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultyOutputStream::write
+//
+
+@Override
+public void write(int pByte) throws IOException
+{
+
+    oneByte[0] = (byte)pByte;
+
+    write(oneByte, 0, 1);
+
+}//end of FaultyOutputStream::write
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultyOutputStream::write
+//
+// Passes on pLen bytes from pBuf at pOff with the faults due among them.
+//
+
+@Override
+public void write(byte[] pBuf, int pOff, int pLen) throws IOException
+{
+
+    if (closed) { throw new IOException("Stream closed"); }
+
+    IOException error = deliveryError;
+    if (error != null) { throw error; }
+
+    if (pLen <= 0) { return; }
+
+    byte[] buf = pBuf;
+    int off = pOff, len = pLen;
+
+    int dropped = 0, duplicated = 0, flipped = 0;
+
+    if (untilDrop < pLen || untilDuplicate < pLen || untilBitFlip < pLen){
+
+        if (faultBuf.length < pLen * 2) { faultBuf = new byte[pLen * 2]; }
+
+        len = 0;
+
+        for (int i = pOff; i < pOff + pLen; i++){
+
+            byte value = pBuf[i];
+
+            if (untilBitFlip == 0){
+                value ^= (byte)(1 << random.nextInt(8));
+                flipped++;
+                untilBitFlip = drawGap(injector.getBitFlipRate());
+            }
+            else if (untilBitFlip != Long.MAX_VALUE) { untilBitFlip--; }
+
+            boolean drop = false, duplicate = false;
+
+            if (untilDrop == 0){
+                drop = true;
+                untilDrop = drawGap(injector.getDropRate());
+            }
+            else if (untilDrop != Long.MAX_VALUE) { untilDrop--; }
+
+            if (untilDuplicate == 0){
+                duplicate = true;
+                untilDuplicate = drawGap(injector.getDuplicateRate());
+            }
+            else if (untilDuplicate != Long.MAX_VALUE) { untilDuplicate--; }
+
+            if (drop) { dropped++; continue; }
+
+            faultBuf[len++] = value;
+
+            if (duplicate) { faultBuf[len++] = value; duplicated++; }
+
+        }
+
+        buf = faultBuf; off = 0;
+
+    }
+    else{
+        if (untilDrop != Long.MAX_VALUE) { untilDrop -= pLen; }
+        if (untilDuplicate != Long.MAX_VALUE) { untilDuplicate -= pLen; }
+        if (untilBitFlip != Long.MAX_VALUE) { untilBitFlip -= pLen; }
+    }
+
+    injector.countWrite(pLen, dropped, duplicated, flipped, latencyNanos > 0);
+
+    if (len == 0) { return; }
+
+    if (latencyNanos > 0) {
+        queueWrite(Arrays.copyOfRange(buf, off, off + len));
+        return;
+    }
+
+    throttle(len);
+
+    out.write(buf, off, len);
+
+}//end of FaultyOutputStream::write
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultyOutputStream::throttle
+//
+// Waits until pLen more bytes may be sent without exceeding the bandwidth
+// limit.
+//
+
+private void throttle(int pLen)
+{
+
+    if (bandwidth == 0) { return; }
+
+    long now = System.nanoTime();
+
+    linkFreeTime = Math.max(now, linkFreeTime)
+                                        + pLen * 1000000000L / bandwidth;
+
+    long wait = linkFreeTime - now - MIN_THROTTLE_NANOS;
+
+    if (wait <= 0) { return; }
+
+    LockSupport.parkNanos(wait);
+
+    injector.countThrottle(wait);
+
+}//end of FaultyOutputStream::throttle
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultyOutputStream::queueWrite
+//
+// Queues pBytes to be delivered once the latency has passed, starting the
+// delivery thread if it is not running.
+//
+
+private void queueWrite(byte[] pBytes)
+{
+
+    synchronized(queue){
+
+        queue.add(pBytes);
+        dueTimes.add(System.nanoTime() + latencyNanos);
+
+        if (deliveryThread == null){
+            deliveryThread = DeviceThreads.newThreadFactory(
+                                    name, false).newThread(this::deliver);
+            deliveryThread.start();
+        }
+
+        queue.notifyAll();
+
+    }
+
+}//end of FaultyOutputStream::queueWrite
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultyOutputStream::deliver
+//
+// This is the delivery thread code. It writes each queued write to the other
+// stream when it is due until the stream is closed and the queue is empty.
+//
+
+private void deliver()
+{
+
+    try{
+        while (true){
+
+            byte[] bytes;
+
+            synchronized(queue){
+
+                long wait = 0;
+
+                while (queue.isEmpty() ||
+                        (wait = dueTimes.peek() - System.nanoTime()) > 0){
+
+                    if (queue.isEmpty()){
+                        if (closed) { out.close(); return; }
+                        queue.wait(DELIVERY_WAIT);
+                    }
+                    else{
+                        queue.wait(wait / 1000000, (int)(wait % 1000000));
+                    }
+
+                }
+
+                bytes = queue.poll();
+                dueTimes.poll();
+
+            }
+
+            throttle(bytes.length);
+
+            out.write(bytes);
+
+        }
+    }
+    catch(IOException e){
+        deliveryError = e;
+    }
+    catch(InterruptedException e){
+        deliveryError = new IOException("Delivery interrupted");
+    }
+
+}//end of FaultyOutputStream::deliver
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultyOutputStream::flush
+//
+// Flushes the other stream if the bytes are written directly. The queued
+// bytes are delivered when due regardless.
+//
+
+@Override
+public void flush() throws IOException
+{
+
+    if (latencyNanos == 0) { out.flush(); }
+
+}//end of FaultyOutputStream::flush
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FaultyOutputStream::close
+//
+// Closes the stream. If delivering, the other stream is closed once the
+// bytes queued have been delivered; otherwise, at once.
+//
+
+@Override
+public void close() throws IOException
+{
+
+    if (closed) { return; }
+
+    closed = true;
+
+    synchronized(queue){
+        if (deliveryThread != null) { queue.notifyAll(); return; }
+    }
+
+    out.close();
+
+}//end of FaultyOutputStream::close
+//-----------------------------------------------------------------------------
+
+}//end of class FaultyOutputStream
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
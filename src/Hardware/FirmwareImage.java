@@ -0,0 +1,151 @@
+/******************************************************************************
+* Title: FirmwareImage.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class holds a firmware image file to be installed in remotes by
+* FirmwareInstaller.
+*
+* The file is memory mapped rather than read into an array. The operating
+* system pages the image in as it is sent and keeps one copy no matter how
+* many units are updated at once, and the host's heap is not filled with a
+* copy of the image. Each installer reads the mapping through its own view
+* returned by newView so that the units can be sent different parts of the
+* image at the same time.
+*
+* The CRC-32C of the whole image is computed when the file is opened; the
+* remote compares it with the CRC of the image it received before the image
+* is installed.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class FirmwareImage
+//
+
+public class FirmwareImage extends Object{
+
+    //largest image accepted
+    public static final int MAX_SIZE = 64 * 1024 * 1024;
+
+    //bytes copied from the mapping at a time while computing the CRC
+    static final int CRC_BLOCK_SIZE = 64 * 1024;
+
+    private final String name;
+    private final MappedByteBuffer data;
+    private final int size;
+    private final int crc;
+
+//-----------------------------------------------------------------------------
+// FirmwareImage::FirmwareImage (constructor)
+//
+// Maps pFile into memory and computes its CRC.
+//
+// Throws IOException if the file cannot be read, is empty, or is larger than
+// MAX_SIZE.
+//
+
+public FirmwareImage(File pFile) throws IOException
+{
+
+    name = pFile.getName();
+
+    //the mapping remains valid after the channel is closed
+    try (FileChannel channel =
+                FileChannel.open(pFile.toPath(), StandardOpenOption.READ)){
+
+        long length = channel.size();
+
+        if (length == 0 || length > MAX_SIZE){
+            throw new IOException("Firmware image " + name
+                                        + " has invalid size " + length + ".");
+        }
+
+        size = (int)length;
+
+        data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+    }
+
+    crc = computeCrc();
+
+}//end of FirmwareImage::FirmwareImage (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareImage::computeCrc
+//
+// Returns the CRC-32C of the whole image.
+//
+
+private int computeCrc()
+{
+
+    ByteBuffer view = newView();
+
+    byte[] block = new byte[Math.min(CRC_BLOCK_SIZE, size)];
+
+    int value = Crc32c.start();
+
+    while (view.hasRemaining()){
+        int count = Math.min(block.length, view.remaining());
+        view.get(block, 0, count);
+        value = Crc32c.update(value, block, 0, count);
+    }
+
+    return(Crc32c.finish(value));
+
+}//end of FirmwareImage::computeCrc
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareImage::newView
+//
+// Returns a buffer which reads the image with its own position. The buffer
+// shares the mapping, so creating one costs no copy of the image. Each
+// thread must use its own view.
+//
+
+public ByteBuffer newView()
+{
+
+    return(data.duplicate());
+
+}//end of FirmwareImage::newView
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareImage::various get/set functions
+//
+
+public String getName() { return(name); }
+
+public int getSize() { return(size); }
+
+public int getCrc() { return(crc); }
+
+//end of FirmwareImage::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class FirmwareImage
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,629 @@
+/******************************************************************************
+* Title: FirmwareInstaller.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class installs a FirmwareImage in one remote. The packet types used
+* are given by an InstallFirmwareSettings object so that any type of remote
+* may use it; see Notcher.newFirmwareInstaller. Installers for several units
+* are usually run at once by a FirmwareScheduler.
+*
+* Packet Layout
+*
+* loadFirmwareCmd (host to remote) puts the remote in its loader:
+*
+*   image size      4 bytes
+*   block size      2 bytes   most image bytes in each data packet
+*   image CRC       4 bytes   CRC-32C of the whole image
+*
+* dataCmd (host to remote, length prefixed) carries one block:
+*
+*   offset          4 bytes   position of the block's first byte
+*   image bytes     1 to block size bytes
+*   block CRC       4 bytes   CRC-32C of the image bytes
+*
+* exitCmd (host to remote) asks the remote to check and install the image:
+*
+*   image CRC       4 bytes
+*
+* The remote answers each of these with a sendDataCmd status packet:
+*
+*   offset          4 bytes   every byte before this has been stored
+*   status          1 byte    STATUS_SEND_DATA etc.
+*
+* All values are MSB first.
+*
+* Windowed Blocks
+*
+* The remote must write each block to flash, which takes far longer than
+* sending it. Waiting for each block's status before sending the next would
+* leave the link idle while the remote writes, so up to a window of blocks
+* is sent ahead of the last offset reported stored.
+*
+* The remote checks each block's CRC after writing it and reports
+* STATUS_BAD_BLOCK with the offset of a block which fails. It then ignores
+* blocks until that offset is sent again, so the installer goes back and
+* sends again from there. If no status arrives for BLOCK_TIMEOUT, the blocks
+* after the last offset reported are sent again, up to MAX_ATTEMPTS times.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.nio.ByteBuffer;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class FirmwareInstaller
+//
+
+public class FirmwareInstaller extends Object{
+
+    //values for the status byte of the remote's status packets
+    static final byte STATUS_SEND_DATA = 0;
+    static final byte STATUS_BAD_BLOCK = 1;
+    static final byte STATUS_INSTALLED = 2;
+    static final byte STATUS_IMAGE_BAD = 3;
+    static final byte STATUS_REFUSED = 4;
+
+    //states reported by getState
+    public static final int WAITING = 0;
+    public static final int LOADING = 1;
+    public static final int SENDING = 2;
+    public static final int VERIFYING = 3;
+    public static final int INSTALLED = 4;
+    public static final int FAILED = 5;
+
+    //data bytes in a data packet other than the image bytes
+    static final int BLOCK_OVERHEAD = 8;
+
+    //most image bytes in one block -- the block must fit in one length
+    //prefixed packet
+    public static final int MAX_BLOCK_SIZE =
+                PacketHandlerRegistry.MAX_PREFIXED_LENGTH - BLOCK_OVERHEAD;
+
+    public static final int DEFAULT_WINDOW = 4;
+
+    //milliseconds to wait for a status before sending again
+    static final int BLOCK_TIMEOUT = 2000;
+    //milliseconds the remote may take to check and install the image
+    static final int VERIFY_TIMEOUT = 10000;
+
+    static final int MAX_ATTEMPTS = 3;
+
+    //milliseconds to wait for packets in each pass of the send loop
+    static final int PACKET_WAIT = 20;
+
+    private final Remote remote;
+    private final InstallFirmwareSettings settings;
+    private final FirmwareImage image;
+    private final String name;
+    private final int blockSize;
+    private final int windowBytes;
+
+    //reads the image for this installer only
+    private final ByteBuffer imageView;
+
+    //holds each data packet as it is built
+    private final byte[] packet;
+
+    private volatile int state = WAITING;
+    private volatile String message = "Waiting";
+    private volatile boolean cancelled = false;
+
+    //from the status packets -- guarded by the object lock
+    private int storedOffset = 0;
+    private int resendOffset = -1;
+    private byte finalStatus = -1;
+    private long statusCount = 0;
+
+    private volatile int blocksSent = 0;
+    private volatile int blocksResent = 0;
+    private volatile int badBlockCount = 0;
+
+    //System.nanoTime values
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::FirmwareInstaller (constructor)
+//
+// pName identifies the unit in messages. pWindow is the number of blocks
+// which may be sent ahead of the remote's status.
+//
+
+public FirmwareInstaller(Remote pRemote, InstallFirmwareSettings pSettings,
+                                FirmwareImage pImage, String pName, int pWindow)
+{
+
+    remote = pRemote;
+    settings = pSettings;
+    image = pImage;
+    name = pName;
+
+    blockSize = MAX_BLOCK_SIZE;
+    windowBytes = Math.max(1, pWindow) * blockSize;
+
+    imageView = pImage.newView();
+
+    packet = new byte[3 + BLOCK_OVERHEAD + blockSize];
+
+}//end of FirmwareInstaller::FirmwareInstaller (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::install
+//
+// Installs the image in the remote. The status packets from the remote are
+// passed to this object while it runs. Blocks the calling thread until the
+// image has been installed or the attempt has failed.
+//
+// Returns true if the remote installed the image.
+//
+
+public boolean install()
+{
+
+    startTime = System.nanoTime();
+
+    remote.firmwareInstaller = this;
+
+    try{
+        boolean installed = !cancelled && load() && sendImage() && verify();
+        if (installed) { setState(INSTALLED, "Installed"); }
+        else if (cancelled) { setState(FAILED, "Cancelled"); }
+        return(installed);
+    }
+    finally{
+        remote.firmwareInstaller = null;
+        endTime = System.nanoTime();
+        remote.tsLog.appendLine(name + " firmware: " + message);
+    }
+
+}//end of FirmwareInstaller::install
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::load
+//
+// Sends loadFirmwareCmd and waits for the remote to ask for the image.
+//
+// Returns true if the remote is ready for the image.
+//
+
+private boolean load()
+{
+
+    setState(LOADING, "Starting loader");
+
+    int size = image.getSize();
+    int crc = image.getCrc();
+
+    byte[] request = {settings.loadFirmwareCmd,
+            (byte)(size >> 24), (byte)(size >> 16), (byte)(size >> 8),
+            (byte)size, (byte)(blockSize >> 8), (byte)blockSize,
+            (byte)(crc >> 24), (byte)(crc >> 16), (byte)(crc >> 8), (byte)crc};
+
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS && !cancelled; attempt++){
+
+        if (!remote.ready) { return(fail("Not connected")); }
+
+        long count = getStatusCount();
+
+        remote.sendByteArray(request.length, request);
+
+        if (waitForStatus(count, BLOCK_TIMEOUT)){
+            if (getFinalStatus() == STATUS_REFUSED) {
+                return(fail("Image refused by unit"));
+            }
+            return(true);
+        }
+
+    }
+
+    return(cancelled ? false : fail("Loader did not respond"));
+
+}//end of FirmwareInstaller::load
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::sendImage
+//
+// Sends the image in blocks, keeping up to a window of blocks ahead of the
+// last offset reported stored by the remote.
+//
+// Returns true once the remote has stored the whole image.
+//
+
+private boolean sendImage()
+{
+
+    setState(SENDING, "Sending");
+
+    int size = image.getSize();
+    int sendOffset = 0;
+    int timeouts = 0;
+    long lastCount = getStatusCount();
+    long lastStatusTime = System.nanoTime();
+
+    while (!cancelled){
+
+        if (!remote.ready) { return(fail("Connection lost")); }
+
+        int stored;
+
+        synchronized(this){
+            if (finalStatus == STATUS_REFUSED) {
+                return(fail("Image refused by unit"));
+            }
+            stored = storedOffset;
+            if (resendOffset >= 0){
+                blocksResent += getBlockCount(sendOffset - resendOffset);
+                sendOffset = resendOffset;
+                resendOffset = -1;
+            }
+        }
+
+        if (stored >= size) { return(true); }
+
+        //blocks already stored need not be sent again
+        sendOffset = Math.max(sendOffset, stored);
+
+        boolean sent = false;
+
+        //a block dropped for lack of room at the remote is sent again on the
+        //next pass, after the packets waiting have been processed
+
+        while (sendOffset < size && sendOffset - stored < windowBytes){
+            int length = queueBlock(sendOffset);
+            if (length == 0) { break; }
+            sendOffset += length;
+            sent = true;
+        }
+
+        if (sent) { remote.flushOutQueue(); }
+
+        processPackets();
+
+        long count = getStatusCount();
+
+        if (count != lastCount){
+            lastCount = count; lastStatusTime = System.nanoTime(); timeouts = 0;
+        }
+        else if (System.nanoTime() - lastStatusTime
+                                            >= BLOCK_TIMEOUT * 1000000L){
+            if (++timeouts >= MAX_ATTEMPTS) {
+                return(fail("Unit stopped responding"));
+            }
+            blocksResent += getBlockCount(sendOffset - stored);
+            sendOffset = stored;
+            lastStatusTime = System.nanoTime();
+        }
+
+    }
+
+    return(false);
+
+}//end of FirmwareInstaller::sendImage
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::queueBlock
+//
+// Adds the data packet for the block starting at pOffset to the remote's
+// outbound queue. The block's bytes are copied from the image mapping into
+// the packet with its CRC.
+//
+// Returns the number of image bytes in the block, or 0 if the packet was
+// dropped because the remote had no room for it. A dropped block is not
+// counted as sent.
+//
+
+private int queueBlock(int pOffset)
+{
+
+    int length = Math.min(blockSize, image.getSize() - pOffset);
+
+    int dataLength = BLOCK_OVERHEAD + length;
+
+    int i = 0;
+
+    packet[i++] = settings.dataCmd;
+
+    //the data bytes are preceded by their number
+    packet[i++] = (byte)(dataLength >> 8);
+    packet[i++] = (byte)dataLength;
+
+    packet[i++] = (byte)(pOffset >> 24);
+    packet[i++] = (byte)(pOffset >> 16);
+    packet[i++] = (byte)(pOffset >> 8);
+    packet[i++] = (byte)pOffset;
+
+    imageView.position(pOffset);
+    imageView.get(packet, i, length);
+
+    int crc = Crc32c.compute(packet, i, length);
+
+    i += length;
+
+    packet[i++] = (byte)(crc >> 24);
+    packet[i++] = (byte)(crc >> 16);
+    packet[i++] = (byte)(crc >> 8);
+    packet[i++] = (byte)crc;
+
+    if (!remote.queueByteArray(i, packet)) { return(0); }
+
+    blocksSent++;
+
+    return(length);
+
+}//end of FirmwareInstaller::queueBlock
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::verify
+//
+// Sends exitCmd and waits for the remote to report whether the image it
+// received matches the image CRC and has been installed.
+//
+// Returns true if the image was installed.
+//
+
+private boolean verify()
+{
+
+    setState(VERIFYING, "Verifying");
+
+    int crc = image.getCrc();
+
+    byte[] request = {settings.exitCmd,
+            (byte)(crc >> 24), (byte)(crc >> 16), (byte)(crc >> 8), (byte)crc};
+
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS && !cancelled; attempt++){
+
+        if (!remote.ready) { return(fail("Connection lost")); }
+
+        remote.sendByteArray(request.length, request);
+
+        long deadline = System.nanoTime() + VERIFY_TIMEOUT * 1000000L;
+
+        while (System.nanoTime() - deadline < 0 && !cancelled){
+
+            byte status = getFinalStatus();
+
+            if (status == STATUS_INSTALLED) { return(true); }
+            if (status == STATUS_IMAGE_BAD) {
+                return(fail("Image check failed in unit"));
+            }
+            if (status == STATUS_REFUSED) {
+                return(fail("Image refused by unit"));
+            }
+
+            processPackets();
+
+        }
+
+    }
+
+    return(cancelled ? false : fail("Unit did not confirm installation"));
+
+}//end of FirmwareInstaller::verify
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::waitForStatus
+//
+// Reads packets until a status packet arrives after pCount were counted or
+// until pTimeOut milliseconds have passed.
+//
+// Returns true if a status packet arrived.
+//
+
+private boolean waitForStatus(long pCount, int pTimeOut)
+{
+
+    long deadline = System.nanoTime() + pTimeOut * 1000000L;
+
+    while (getStatusCount() == pCount && !cancelled){
+
+        if (System.nanoTime() - deadline >= 0 || !remote.ready) {
+            return(false);
+        }
+
+        processPackets();
+
+    }
+
+    return(getStatusCount() != pCount);
+
+}//end of FirmwareInstaller::waitForStatus
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::statusReceived
+//
+// Called by the thread reading the remote for each status packet. pOffset
+// is the number of image bytes the remote has stored; pStatus is one of the
+// STATUS_ values.
+//
+
+synchronized void statusReceived(int pOffset, byte pStatus)
+{
+
+    statusCount++;
+
+    switch (pStatus){
+
+        case STATUS_SEND_DATA:
+            if (pOffset > storedOffset) { storedOffset = pOffset; }
+            break;
+
+        case STATUS_BAD_BLOCK:
+            badBlockCount++;
+            //go back to the earliest block reported bad
+            if (resendOffset < 0 || pOffset < resendOffset){
+                resendOffset = pOffset;
+            }
+            break;
+
+        default:
+            finalStatus = pStatus;
+            break;
+
+    }
+
+}//end of FirmwareInstaller::statusReceived
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::cancel
+//
+// Stops the installation at the next block. The remote keeps its old
+// firmware as the image is never confirmed with exitCmd.
+//
+
+public void cancel()
+{
+
+    cancelled = true;
+
+}//end of FirmwareInstaller::cancel
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::processPackets
+//
+// Handles the packets from the remote, waiting up to PACKET_WAIT for one.
+// The remote's cmdLock is held as by its command methods, so this thread
+// does not read while another thread is reading the replies to a command.
+//
+
+private void processPackets()
+{
+
+    remote.cmdLock.lock();
+
+    try{
+        remote.processOneDataPacket(PACKET_WAIT);
+    }
+    finally{
+        remote.cmdLock.unlock();
+    }
+
+}//end of FirmwareInstaller::processPackets
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::fail
+//
+// Records the reason for failure in pMessage. Returns false for use in
+// return statements.
+//
+
+private boolean fail(String pMessage)
+{
+
+    setState(FAILED, pMessage);
+
+    return(false);
+
+}//end of FirmwareInstaller::fail
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::setState
+//
+
+private void setState(int pState, String pMessage)
+{
+
+    message = pMessage;
+    state = pState;
+
+}//end of FirmwareInstaller::setState
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::getBlockCount
+//
+// Returns the number of blocks needed to send pNumBytes.
+//
+
+private int getBlockCount(int pNumBytes)
+{
+
+    return(Math.max(0, (pNumBytes + blockSize - 1) / blockSize));
+
+}//end of FirmwareInstaller::getBlockCount
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::getPercentComplete
+//
+// Returns the percentage of the image the remote has stored.
+//
+
+public synchronized int getPercentComplete()
+{
+
+    return((int)(storedOffset * 100L / image.getSize()));
+
+}//end of FirmwareInstaller::getPercentComplete
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::getElapsedMillis
+//
+// Returns the time taken by the installation, or so far if it is still
+// running. Returns 0 if it has not started.
+//
+
+public long getElapsedMillis()
+{
+
+    if (startTime == 0) { return(0); }
+
+    long end = endTime != 0 ? endTime : System.nanoTime();
+
+    return((end - startTime) / 1000000);
+
+}//end of FirmwareInstaller::getElapsedMillis
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareInstaller::various get/set functions
+//
+
+public String getName() { return(name); }
+
+public int getState() { return(state); }
+
+public String getMessage() { return(message); }
+
+public boolean isDone() { return(state == INSTALLED || state == FAILED); }
+
+public int getBlocksSent() { return(blocksSent); }
+
+public int getBlocksResent() { return(blocksResent); }
+
+public int getBadBlockCount() { return(badBlockCount); }
+
+private synchronized long getStatusCount() { return(statusCount); }
+
+private synchronized byte getFinalStatus() { return(finalStatus); }
+
+//end of FirmwareInstaller::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class FirmwareInstaller
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,209 @@
+/******************************************************************************
+* Title: FirmwareScheduler.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class runs the FirmwareInstallers for many units at once.
+*
+* Updating a line of units one at a time keeps the line down for the sum of
+* the install times. Most of each install is spent waiting for the unit to
+* write its flash, so the units can be updated in parallel. Not all at once,
+* however: every install reads the image and shares the host's network
+* link, and a failure which affects all units at once (a bad image, a
+* switch which drops out under load) should stop a few units rather than the
+* whole line. The installers are therefore run by a pool of at most
+* maxConcurrent threads; the rest wait in its queue and start as others
+* finish.
+*
+* A failed install does not stop the others.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class FirmwareScheduler
+//
+
+public class FirmwareScheduler extends Object{
+
+    private final int maxConcurrent;
+
+    private final ExecutorService executor;
+
+    private final ArrayList<FirmwareInstaller> installers = new ArrayList<>();
+    private final ArrayList<Future<Boolean>> results = new ArrayList<>();
+
+//-----------------------------------------------------------------------------
+// FirmwareScheduler::FirmwareScheduler (constructor)
+//
+// No more than pMaxConcurrent installers are run at once. If pVirtual is true
+// and the Java runtime supports them, virtual threads are used.
+//
+
+public FirmwareScheduler(int pMaxConcurrent, boolean pVirtual)
+{
+
+    maxConcurrent = Math.max(1, pMaxConcurrent);
+
+    executor = Executors.newFixedThreadPool(maxConcurrent,
+                    DeviceThreads.newThreadFactory("Firmware", pVirtual));
+
+}//end of FirmwareScheduler::FirmwareScheduler (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareScheduler::schedule
+//
+// Queues pInstaller to be run once fewer than maxConcurrent installers are
+// running. Installers are started in the order scheduled.
+//
+
+public synchronized void schedule(FirmwareInstaller pInstaller)
+{
+
+    installers.add(pInstaller);
+
+    results.add(executor.submit(pInstaller::install));
+
+}//end of FirmwareScheduler::schedule
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareScheduler::finish
+//
+// Lets the threads exit once all scheduled installers have run. No more may
+// be scheduled afterwards.
+//
+
+public void finish()
+{
+
+    executor.shutdown();
+
+}//end of FirmwareScheduler::finish
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareScheduler::awaitAll
+//
+// Waits up to pTimeOut milliseconds for all scheduled installers to finish.
+//
+// Returns true if they all finished.
+//
+
+public boolean awaitAll(long pTimeOut)
+{
+
+    long deadline = System.nanoTime() + pTimeOut * 1000000L;
+
+    for (Future<Boolean> result : getResults()){
+
+        long remaining = deadline - System.nanoTime();
+
+        try{
+            result.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            return(false);
+        }
+        catch(Exception e){
+            return(false);
+        }
+
+    }
+
+    return(true);
+
+}//end of FirmwareScheduler::awaitAll
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareScheduler::cancelAll
+//
+// Cancels all installers which have not finished. Those waiting to start end
+// at once when they are reached.
+//
+
+public synchronized void cancelAll()
+{
+
+    for (FirmwareInstaller installer : installers) { installer.cancel(); }
+
+}//end of FirmwareScheduler::cancelAll
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareScheduler::countInState
+//
+// Returns the number of installers in state pState, such as
+// FirmwareInstaller.INSTALLED.
+//
+
+public synchronized int countInState(int pState)
+{
+
+    int count = 0;
+
+    for (FirmwareInstaller installer : installers){
+        if (installer.getState() == pState) { count++; }
+    }
+
+    return(count);
+
+}//end of FirmwareScheduler::countInState
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareScheduler::isDone
+//
+// Returns true if all scheduled installers have finished.
+//
+
+public synchronized boolean isDone()
+{
+
+    for (FirmwareInstaller installer : installers){
+        if (!installer.isDone()) { return(false); }
+    }
+
+    return(true);
+
+}//end of FirmwareScheduler::isDone
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareScheduler::various get/set functions
+//
+
+public int getMaxConcurrent() { return(maxConcurrent); }
+
+public synchronized ArrayList<FirmwareInstaller> getInstallers()
+                                        { return(new ArrayList<>(installers)); }
+
+private synchronized ArrayList<Future<Boolean>> getResults()
+                                        { return(new ArrayList<>(results)); }
+
+//end of FirmwareScheduler::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class FirmwareScheduler
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,597 @@
+/******************************************************************************
+* Title: FrameDecoder.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class pulls bytes from a socket's input stream in bulk and locates and
+* verifies packet frames in place.
+*
+* Previously, each packet header was read from the socket one byte at a time
+* with a stream call per byte. With many units streaming packets, the per-byte
+* calls and the available() polling consumed most of the receive time.
+*
+* This class reads whatever the socket has available in a single call into
+* one buffer. The header, packet ID, payload, and checksum (or CRC) are then
+* checked directly in that buffer. Once a frame has been verified, the
+* handler methods read the payload through the getter methods of this class
+* which index into the buffer -- the payload is never copied and no objects
+* are created per packet.
+*
+* The payload of the current frame is only valid until the next call to
+* any of the fill or read methods as the buffer may be compacted to make
+* room for new data.
+*
+* See Notcher.java for a description of the packet format.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.Checksum;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class FrameDecoder
+//
+
+public class FrameDecoder extends Object{
+
+    //the four header bytes which start every packet
+    static final byte HEADER_0 = (byte)0xaa;
+    static final byte HEADER_1 = (byte)0x55;
+    static final byte HEADER_2 = (byte)0xbb;
+    static final byte HEADER_3 = (byte)0x66;
+
+    //number of header bytes plus the packet ID byte
+    public static final int HEADER_AND_ID_SIZE = 5;
+
+    private final byte[] buf;
+
+    //wraps buf for reads from channels -- created on first use
+    private ByteBuffer channelBuf;
+
+    //valid unprocessed bytes in the buffer are those from head to tail-1
+    private int head = 0;
+    private int tail = 0;
+
+    //position and size of the payload of the last frame verified
+    private int frameOffset = 0;
+    private int frameLength = 0;
+
+    private byte pktID;
+
+    private int skippedByteCount = 0;
+
+    //total bytes read into the buffer -- wraps around when it overflows, so
+    //only the difference between two values is meaningful
+    private int numBytesRead = 0;
+
+    //computes the CRC for verifyFrameCrc -- created on first use
+    private Checksum crcCalc;
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::FrameDecoder (constructor)
+//
+// pCapacity specifies the size of the receive buffer. It must be large
+// enough to hold the largest packet expected plus its header and checksum.
+//
+
+public FrameDecoder(int pCapacity)
+{
+
+    buf = new byte[pCapacity];
+
+}//end of FrameDecoder::FrameDecoder (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::fill
+//
+// Reads all bytes currently available from pIn into the buffer using a single
+// read call. Does not block if no bytes are available.
+//
+// Returns the total number of unprocessed bytes in the buffer.
+//
+
+public int fill(InputStream pIn) throws IOException
+{
+
+    int available = pIn.available();
+
+    if (available <= 0) { return(tail - head); }
+
+    makeRoom(Math.min(available, buf.length - (tail - head)));
+
+    int space = buf.length - tail;
+
+    if (space == 0) { return(tail - head); }
+
+    int bytesRead = pIn.read(buf, tail, available < space ? available : space);
+
+    if (bytesRead > 0) { tail += bytesRead; numBytesRead += bytesRead; }
+
+    return(tail - head);
+
+}//end of FrameDecoder::fill
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::fill
+//
+// Reads whatever bytes are available from pChannel into the buffer using a
+// single read call. If the channel is in non-blocking mode, this does not
+// block if no bytes are available.
+//
+// Returns the number of bytes read, which may be 0, or -1 if the channel has
+// been closed by the remote.
+//
+
+public int fill(ReadableByteChannel pChannel) throws IOException
+{
+
+    makeRoom(buf.length - (tail - head));
+
+    if (tail == buf.length) { return(0); }
+
+    if (channelBuf == null) { channelBuf = ByteBuffer.wrap(buf); }
+
+    //cast to Buffer for compatibility with Java 8 runtimes
+    ((Buffer)channelBuf).limit(buf.length);
+    ((Buffer)channelBuf).position(tail);
+
+    int bytesRead = pChannel.read(channelBuf);
+
+    if (bytesRead > 0) { tail += bytesRead; numBytesRead += bytesRead; }
+
+    return(bytesRead);
+
+}//end of FrameDecoder::fill
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::fillBlocking
+//
+// Reads from pIn until at least pNumBytes unprocessed bytes are in the buffer.
+// Each read takes as many bytes as the stream will return at that time, so
+// bytes from following packets are often picked up as well.
+//
+// The read will block until data arrives or until the stream's timeout (if
+// any) triggers an exception.
+//
+// Returns true if the bytes are in the buffer, false if the stream closed or
+// the request is larger than the buffer.
+//
+
+public boolean fillBlocking(InputStream pIn, int pNumBytes) throws IOException
+{
+
+    if (pNumBytes > buf.length) { return(false); }
+
+    while (tail - head < pNumBytes){
+
+        if (fillOnce(pIn, pNumBytes - (tail - head)) < 0) { return(false); }
+
+    }
+
+    return(true);
+
+}//end of FrameDecoder::fillBlocking
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::fillOnce
+//
+// Performs a single read from pIn, taking as many bytes as the stream will
+// return at that time. Room is first made for at least pNumBytes more bytes.
+//
+// The read will block until at least one byte arrives or until the stream's
+// timeout (if any) triggers an exception.
+//
+// Returns the number of bytes read or -1 if the stream closed.
+//
+
+public int fillOnce(InputStream pIn, int pNumBytes) throws IOException
+{
+
+    makeRoom(pNumBytes);
+
+    int bytesRead = pIn.read(buf, tail, buf.length - tail);
+
+    if (bytesRead > 0) { tail += bytesRead; numBytesRead += bytesRead; }
+
+    return(bytesRead);
+
+}//end of FrameDecoder::fillOnce
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::makeRoom
+//
+// Moves the unprocessed bytes to the start of the buffer if there is not
+// enough space after them for pNumBytes more bytes.
+//
+// Only the leftover bytes of partial packets are ever moved and these are
+// usually few, so the cost is small.
+//
+
+private void makeRoom(int pNumBytes)
+{
+
+    if (head == tail) { head = 0; tail = 0; return; }
+
+    if (buf.length - tail >= pNumBytes || head == 0) { return; }
+
+    System.arraycopy(buf, head, buf, 0, tail - head);
+
+    tail -= head; head = 0;
+
+}//end of FrameDecoder::makeRoom
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::readHeader
+//
+// Checks the next five unprocessed bytes for a valid header followed by a
+// packet ID. If valid, the bytes are consumed and the packet ID is stored for
+// retrieval by getPktID.
+//
+// Returns true if a valid header was found.
+// Returns false if the header is invalid or less than five bytes are
+// available -- no bytes are consumed in this case.
+//
+
+public boolean readHeader()
+{
+
+    if (!hasHeader()) { return(false); }
+
+    pktID = buf[head+4];
+
+    head += HEADER_AND_ID_SIZE;
+
+    return(true);
+
+}//end of FrameDecoder::readHeader
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::hasHeader
+//
+// Returns true if the next five unprocessed bytes are a valid header followed
+// by a packet ID. No bytes are consumed -- the packet ID can be checked with
+// peekPktID.
+//
+
+public boolean hasHeader()
+{
+
+    if (tail - head < HEADER_AND_ID_SIZE) { return(false); }
+
+    return(buf[head] == HEADER_0 && buf[head+1] == HEADER_1
+            && buf[head+2] == HEADER_2 && buf[head+3] == HEADER_3);
+
+}//end of FrameDecoder::hasHeader
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::peekPktID
+//
+// Returns the packet ID of the header at the front of the buffer without
+// consuming it. Call hasHeader first.
+//
+
+public byte peekPktID()
+{
+
+    return(buf[head+4]);
+
+}//end of FrameDecoder::peekPktID
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::peekUnsignedShort
+//
+// Returns the two bytes (MSB first) which are pIndex bytes from the front of
+// the unprocessed bytes as an unsigned value without consuming them. The
+// caller must check that they have been buffered.
+//
+
+public int peekUnsignedShort(int pIndex)
+{
+
+    int i = head + pIndex;
+
+    return(((buf[i]<<8) & 0xff00) + (buf[i+1] & 0xff));
+
+}//end of FrameDecoder::peekUnsignedShort
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::skipToNextHeader
+//
+// Discards bytes until the start of the next possible header is at the front
+// of the buffer. The byte currently at the front is always discarded as it
+// is assumed to have failed a header check.
+//
+// All four header bytes are checked in place, so a stray 0xaa byte which
+// precedes a valid header (such as a checksum) will not cause the valid
+// packet to be lost. If the buffer ends with a partial header, those bytes
+// are kept so the header can be completed by the next fill.
+//
+// Returns true if a possible header start was found, false if the buffer was
+// emptied.
+//
+
+public boolean skipToNextHeader()
+{
+
+    if (head >= tail) { return(false); }
+
+    int i = head + 1;
+
+    while (i < tail){
+
+        if (buf[i] == HEADER_0
+                && (i+1 >= tail || buf[i+1] == HEADER_1)
+                && (i+2 >= tail || buf[i+2] == HEADER_2)
+                && (i+3 >= tail || buf[i+3] == HEADER_3)){
+            break;
+        }
+
+        i++;
+
+    }
+
+    skippedByteCount += i - head;
+
+    head = i;
+
+    return(head < tail);
+
+}//end of FrameDecoder::skipToNextHeader
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::verifyFrame
+//
+// Verifies that the next pNumBytes data bytes plus the checksum byte which
+// follows them are in the buffer and that the bytes summed with pPktID equal
+// zero.
+//
+// The packet ID is passed in as it has already been consumed by readHeader
+// but is needed to compute the checksum.
+//
+// If valid, the bytes are consumed and the data bytes become the current
+// frame which may be accessed via the getter methods.
+//
+// If the checksum fails, no bytes are consumed so that a following search
+// for the next header will check those bytes as well -- a valid packet
+// hidden in the corrupted one will not be lost.
+//
+// Returns true if the frame was valid.
+//
+
+public boolean verifyFrame(int pNumBytes, byte pPktID)
+{
+
+    int totalNumBytes = pNumBytes + 1; //account for the checksum
+
+    if (tail - head < totalNumBytes) { return(false); }
+
+    byte sum = pPktID;
+    int end = head + totalNumBytes;
+    for(int i = head; i < end; i++) {sum += buf[i];}
+
+    if (sum != 0) { return(false); }
+
+    frameOffset = head; frameLength = pNumBytes;
+
+    head = end;
+
+    return(true);
+
+}//end of FrameDecoder::verifyFrame
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::verifyFrameCrc
+//
+// Same as verifyFrame except that the data bytes are followed by a four byte
+// CRC-32C (MSB first) of pPktID and the data bytes rather than a checksum.
+// Used when the CRC frame check has been agreed with the remote.
+//
+
+public boolean verifyFrameCrc(int pNumBytes, byte pPktID)
+{
+
+    int totalNumBytes = pNumBytes + Crc32c.CRC_SIZE;
+
+    if (tail - head < totalNumBytes) { return(false); }
+
+    if (crcCalc == null) { crcCalc = Crc32c.newChecksum(); }
+
+    crcCalc.reset();
+    crcCalc.update(pPktID);
+    crcCalc.update(buf, head, pNumBytes);
+
+    int i = head + pNumBytes;
+
+    int received = ((buf[i] & 0xff) << 24) | ((buf[i+1] & 0xff) << 16)
+                            | ((buf[i+2] & 0xff) << 8) | (buf[i+3] & 0xff);
+
+    if ((int)crcCalc.getValue() != received) { return(false); }
+
+    frameOffset = head; frameLength = pNumBytes;
+
+    head += totalNumBytes;
+
+    return(true);
+
+}//end of FrameDecoder::verifyFrameCrc
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::consumeFrame
+//
+// Makes the next pNumBytes bytes the current frame without verifying a
+// checksum and consumes them.
+//
+// Returns true if the bytes were available, false otherwise.
+//
+
+public boolean consumeFrame(int pNumBytes)
+{
+
+    if (tail - head < pNumBytes) { return(false); }
+
+    frameOffset = head; frameLength = pNumBytes;
+
+    head += pNumBytes;
+
+    return(true);
+
+}//end of FrameDecoder::consumeFrame
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::skipFrameBytes
+//
+// Removes pNumBytes from the front of the current frame so that the getter
+// methods index from the byte which follows them. Used to strip prefix bytes
+// such as sequence numbers before the frame is passed to a handler.
+//
+
+public void skipFrameBytes(int pNumBytes)
+{
+
+    frameOffset += pNumBytes; frameLength -= pNumBytes;
+
+}//end of FrameDecoder::skipFrameBytes
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::clear
+//
+// Discards all unprocessed bytes.
+//
+
+public void clear()
+{
+
+    head = 0; tail = 0; frameOffset = 0; frameLength = 0;
+
+}//end of FrameDecoder::clear
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::getByte
+//
+// Returns the byte at position pIndex in the current frame's payload.
+//
+
+public byte getByte(int pIndex)
+{
+
+    return(buf[frameOffset + pIndex]);
+
+}//end of FrameDecoder::getByte
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::getSignedShort
+//
+// Returns the two bytes (MSB first) at position pIndex in the current frame's
+// payload as a signed value.
+//
+
+public int getSignedShort(int pIndex)
+{
+
+    int i = frameOffset + pIndex;
+
+    return (short)((buf[i]<<8) & 0xff00) + (buf[i+1] & 0xff);
+
+}//end of FrameDecoder::getSignedShort
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::getUnsignedShort
+//
+// Returns the two bytes (MSB first) at position pIndex in the current frame's
+// payload as an unsigned value.
+//
+
+public int getUnsignedShort(int pIndex)
+{
+
+    int i = frameOffset + pIndex;
+
+    return ((buf[i]<<8) & 0xff00) + (buf[i+1] & 0xff);
+
+}//end of FrameDecoder::getUnsignedShort
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::getInt
+//
+// Returns the four bytes (MSB first) at position pIndex in the current
+// frame's payload as a signed integer.
+//
+
+public int getInt(int pIndex)
+{
+
+    int i = frameOffset + pIndex;
+
+    return((buf[i]<<24) & 0xff000000) +
+          ((buf[i+1]<<16) & 0xff0000) +
+          ((buf[i+2]<<8) & 0xff00) +
+          (buf[i+3] & 0xff);
+
+}//end of FrameDecoder::getInt
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoder::various get/set functions
+//
+
+public byte getPktID() { return(pktID); }
+
+public int getNumBuffered() { return(tail - head); }
+
+public int getCapacity() { return(buf.length); }
+
+public int getFrameLength() { return(frameLength); }
+
+//returns the backing array and offset of the current frame for methods which
+//need to process the payload in bulk -- the array must not be modified
+public byte[] getArray() { return(buf); }
+
+public int getFrameOffset() { return(frameOffset); }
+
+//the position in the backing array of the first unprocessed byte
+public int getUnreadOffset() { return(head); }
+
+public int getSkippedByteCount() { return(skippedByteCount); }
+
+public int getNumBytesRead() { return(numBytesRead); }
+
+//end of FrameDecoder::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class FrameDecoder
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,43 @@
+/******************************************************************************
+* Title: InstallFirmwareSettings.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class holds the packet IDs used to install new firmware in a remote.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class InstallFirmwareSettings
+//
+// This class is used to pass in all necessary settings to the
+// installNewRabbitFirmware function.
+//
+// FirmwareInstaller uses the same settings: sendDataCmd is the status packet
+// with which the remote asks for the image from an offset.
+//
+
+class InstallFirmwareSettings extends Object{
+
+    public byte loadFirmwareCmd;
+    public byte noAction;
+    public byte error;
+    public byte sendDataCmd;
+    public byte dataCmd;
+    public byte exitCmd;
+
+}//end of class InstallFirmwareSettings
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,41 @@
+/******************************************************************************
+* Title: MonitorListener.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This interface is implemented by objects which are to be notified of every
+* monitor packet received by a Notcher, such as those pushed by the remote
+* after Notcher.subscribeMonitor has been called.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// interface MonitorListener
+//
+// monitorPacketReceived is called by the thread which reads the packets as
+// soon as each monitor packet has been verified. pPacket reads the values
+// directly from the receive buffer and is only valid until the method
+// returns -- copy any values which are needed later.
+//
+// The method must return quickly and must not alter GUI components directly.
+//
+
+public interface MonitorListener {
+
+    public void monitorPacketReceived(Notcher pNotcher, MonitorPacket pPacket);
+
+}//end of interface MonitorListener
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,251 @@
+/******************************************************************************
+* Title: MonitorPacket.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class reads and writes the fields of a Notcher monitor packet directly
+* in a byte array. It is a "flyweight" -- it holds no copies of the values,
+* only a reference to the array and the position of the packet data in it.
+* The same object can be pointed at a new packet with wrap, so no objects are
+* created per packet and high sample rates do not cause garbage collection.
+*
+* Notcher uses it to read the monitor packets received from the remote and
+* NotcherSimulator uses it to build them, so the field positions are defined
+* only here.
+*
+* Packet Layout (data bytes following the packet ID, MSB first)
+*
+*   0       status flags -- see the *_FLAG constants
+*   1-2     voltage in tenths of a volt (unsigned)
+*   3-4     current in tenths of an amp (unsigned)
+*   5-8     cutting head position in encoder counts (signed)
+*   9-12    depth count in encoder counts (signed)
+*   13-16   target depth in encoder counts (signed)
+*   17-20   sample count -- incremented by the remote for each packet so
+*           the host can detect missed packets
+*   21-24   reserved
+*
+* The values are only as current as the array -- if the array is reused for
+* the next packet, the getters return the new values.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class MonitorPacket
+//
+
+public class MonitorPacket extends Object{
+
+    //number of data bytes in a monitor packet
+    public static final int SIZE = 25;
+
+    //positions of the fields in the packet data
+    static final int STATUS = 0;
+    static final int VOLTAGE = 1;
+    static final int CURRENT = 3;
+    static final int HEAD_POSITION = 5;
+    static final int DEPTH_COUNT = 9;
+    static final int TARGET_DEPTH = 13;
+    static final int SAMPLE_COUNT = 17;
+
+    //bits of the status flags byte
+    public static final int POWER_OK_FLAG = 0x01;
+    public static final int SHORT_FLAG = 0x02;
+    public static final int CUT_MODE_FLAG = 0x04;
+    public static final int ELECTRODE_SUPPLY_ON_FLAG = 0x08;
+
+    private byte[] buf;
+    private int offset;
+
+//-----------------------------------------------------------------------------
+// MonitorPacket::MonitorPacket (constructor)
+//
+// Creates a MonitorPacket with its own array to hold one packet. Use this to
+// create an object into which packets are copied.
+//
+
+public MonitorPacket()
+{
+
+    buf = new byte[SIZE];
+    offset = 0;
+
+}//end of MonitorPacket::MonitorPacket (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// MonitorPacket::wrap
+//
+// Points this object at the packet data starting at pOffset in pBuf. Returns
+// this object so that calls may be chained.
+//
+
+public MonitorPacket wrap(byte[] pBuf, int pOffset)
+{
+
+    buf = pBuf; offset = pOffset;
+
+    return(this);
+
+}//end of MonitorPacket::wrap
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// MonitorPacket::copyFrom
+//
+// Copies the packet data starting at pOffset in pBuf into the array this
+// object is pointing to.
+//
+
+public void copyFrom(byte[] pBuf, int pOffset)
+{
+
+    System.arraycopy(pBuf, pOffset, buf, offset, SIZE);
+
+}//end of MonitorPacket::copyFrom
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// MonitorPacket::getUnsignedShort
+//
+// Returns the two bytes (MSB first) at position pIndex in the packet data as
+// an unsigned value.
+//
+
+private int getUnsignedShort(int pIndex)
+{
+
+    int i = offset + pIndex;
+
+    return(((buf[i]<<8) & 0xff00) + (buf[i+1] & 0xff));
+
+}//end of MonitorPacket::getUnsignedShort
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// MonitorPacket::getInt
+//
+// Returns the four bytes (MSB first) at position pIndex in the packet data as
+// a signed integer.
+//
+
+private int getInt(int pIndex)
+{
+
+    int i = offset + pIndex;
+
+    return(((buf[i]<<24) & 0xff000000) + ((buf[i+1]<<16) & 0xff0000)
+                            + ((buf[i+2]<<8) & 0xff00) + (buf[i+3] & 0xff));
+
+}//end of MonitorPacket::getInt
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// MonitorPacket::putShort
+//
+// Stores the lower two bytes of pValue (MSB first) at position pIndex in the
+// packet data.
+//
+
+private void putShort(int pIndex, int pValue)
+{
+
+    int i = offset + pIndex;
+
+    buf[i] = (byte)(pValue >> 8); buf[i+1] = (byte)pValue;
+
+}//end of MonitorPacket::putShort
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// MonitorPacket::putInt
+//
+// Stores pValue (MSB first) at position pIndex in the packet data.
+//
+
+private void putInt(int pIndex, int pValue)
+{
+
+    int i = offset + pIndex;
+
+    buf[i] = (byte)(pValue >> 24); buf[i+1] = (byte)(pValue >> 16);
+    buf[i+2] = (byte)(pValue >> 8); buf[i+3] = (byte)pValue;
+
+}//end of MonitorPacket::putInt
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// MonitorPacket::clear
+//
+// Sets all bytes of the packet data to zero.
+//
+
+public void clear()
+{
+
+    for (int i = offset; i < offset + SIZE; i++) { buf[i] = 0; }
+
+}//end of MonitorPacket::clear
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// MonitorPacket::various get/set functions
+//
+
+public int getStatusFlags() { return(buf[offset + STATUS] & 0xff); }
+
+public void setStatusFlags(int pFlags) { buf[offset + STATUS] = (byte)pFlags; }
+
+public boolean isPowerOK() { return((getStatusFlags() & POWER_OK_FLAG) != 0); }
+
+public boolean isShort() { return((getStatusFlags() & SHORT_FLAG) != 0); }
+
+public boolean isCutMode() { return((getStatusFlags() & CUT_MODE_FLAG) != 0); }
+
+public boolean isElectrodeSupplyOn()
+            { return((getStatusFlags() & ELECTRODE_SUPPLY_ON_FLAG) != 0); }
+
+//voltage and current are in tenths of a volt and tenths of an amp
+
+public int getVoltage() { return(getUnsignedShort(VOLTAGE)); }
+
+public void setVoltage(int pValue) { putShort(VOLTAGE, pValue); }
+
+public int getCurrent() { return(getUnsignedShort(CURRENT)); }
+
+public void setCurrent(int pValue) { putShort(CURRENT, pValue); }
+
+public int getHeadPosition() { return(getInt(HEAD_POSITION)); }
+
+public void setHeadPosition(int pValue) { putInt(HEAD_POSITION, pValue); }
+
+public int getDepthCount() { return(getInt(DEPTH_COUNT)); }
+
+public void setDepthCount(int pValue) { putInt(DEPTH_COUNT, pValue); }
+
+public int getTargetDepth() { return(getInt(TARGET_DEPTH)); }
+
+public void setTargetDepth(int pValue) { putInt(TARGET_DEPTH, pValue); }
+
+public int getSampleCount() { return(getInt(SAMPLE_COUNT)); }
+
+public void setSampleCount(int pValue) { putInt(SAMPLE_COUNT, pValue); }
+
+//end of MonitorPacket::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class MonitorPacket
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
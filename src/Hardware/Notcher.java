@@ -22,6 +22,84 @@
 * ...
 * checksum (of command and data bytes)
 *
+* CRC Frame Check
+*
+* The checksum is a simple 8-bit sum which cannot detect bytes which have
+* been swapped and misses many errors which alter two bytes. A remote which
+* supports it includes CRC_CAPABILITY in its greeting message; initialize
+* then calls enableCrcFrameCheck to have every following packet in both
+* directions end with a four byte CRC-32C (MSB first) of the command,
+* sequence number, and data bytes in place of the checksum. The request is
+* acknowledged using the checksum and both sides switch after the ACK.
+* Remotes which do not advertise the capability are never sent the request.
+*
+* Flow Control
+*
+* A remote has a receive buffer of limited size. If the host sends faster
+* than the remote reads, the buffer fills and the host's writes block or, on
+* some links, bytes are lost. A remote which includes FLOW_CONTROL_CAPABILITY
+* in its greeting supports credit based flow control; initialize then calls
+* enableFlowControl. After acknowledging the request, the remote sends
+* CREDIT_CMD packets giving the size of its receive buffer and the running
+* total of bytes it has read since the request. The host never has more
+* bytes outstanding than the buffer holds -- bytes beyond that are kept in
+* the outbound queue and sent as credits arrive. A thread which fills the
+* queue waits for credits rather than blocking in a write.
+*
+* The remote reports the total rather than the bytes read since its last
+* report so that a lost report is made up by the next one; it sends a report
+* whenever it has read a quarter of its buffer, when it has caught up, and
+* periodically while idle.
+*
+* The time spent waiting for credits is reported by getCreditStallCount and
+* getCreditStallNanos.
+*
+* Heartbeat
+*
+* A silent remote or a broken link would otherwise not be noticed until a
+* command's ACK timed out. A remote which includes HEARTBEAT_CAPABILITY in its
+* greeting answers each PING_CMD at once with a PONG_CMD which returns the
+* host's timestamp from the ping along with the remote's own clock. Once
+* startHeartbeat has been called, NotcherGroup's heartbeat thread calls
+* sendPingAsync at the set interval and each PONG_CMD adds a round trip time
+* to roundTripStats. If the previous ping has not yet been sent, as when the
+* remote has stopped reading, the ping is skipped and counted by
+* getPingSkipCount. As the ping carries its own send time, no record of the
+* pings in flight is needed.
+*
+* getLinkState reports LINK_OK while the pongs arrive on time, LINK_SLOW if
+* the smoothed round trip time exceeds the slow time or a pong is late by
+* more than the slow time, and LINK_LOST after LOST_INTERVALS intervals with
+* no pong. The pongs must be read as they arrive, so the heartbeat requires
+* the selector transport or a reader thread.
+*
+* The remote's clock is used only to notice a restart of the remote: it runs
+* backward when the remote has been reset.
+*
+* Reconnect
+*
+* If the remote reboots or its cable is pulled, the connection is marked lost
+* by whichever thread notices first: a read which finds the end of the
+* stream, a write which fails, the selector thread, or NotcherGroup's
+* reconnect thread when the heartbeat reports LINK_LOST (a pulled cable gives
+* no other sign). The reconnect thread then calls reconnectAsync at intervals
+* set by reconnectBackoff. reconnect closes the old connection, resets the
+* framing options, connects again, runs initialize, and restarts the reader
+* thread if one was in use.
+*
+* The remote starts a new connection in its power up state, so restoreSession
+* then sends the last target depth and electrode state acknowledged by the
+* remote, followed by the monitor subscription, encoder stream, and heartbeat
+* in effect when the connection was lost. The target depth is sent only to a
+* remote which includes TARGET_DEPTH_CAPABILITY in its greeting. The same
+* Notcher object is kept throughout, so the GUI and any listeners need do
+* nothing.
+*
+* The cut or stop mode is not restored: CUT_MODE_CMD and STOP_MODE_CMD are
+* not yet sent to the remote at all (see invokeCutMode), so the unit comes
+* back in its power up mode. The last mode requested is kept in sessionMode
+* for when the commands are implemented.
+*
 * Communication Flow 
 *
 * The data to and from the remotes is piped through sockets. The sockets have
@@ -108,6 +186,41 @@
 * time, the "data ready" flags are cleared so the program knows not to use the
 * data again until new data has been received and the flags are set again.
 * 
+* Pipelined Commands
+*
+* A remote which includes SEQUENCE_CAPABILITY in its greeting supports
+* sequence numbers; initialize then calls enableSequenceNumbers to enable
+* them for the connection. Remotes which do not advertise the capability are
+* never sent the request.
+* Each command packet then carries a sequence number byte which the remote
+* echoes in its ACK packet. The command is stored in a table of pending
+* commands indexed by its sequence number, and the ACK handler resolves
+* exactly the entry the ACK belongs to.
+*
+* This allows many commands to be sent to a unit without waiting for each
+* ACK in turn. Call sendSequencedCmd for each command and then call
+* waitForAllAcks once -- all the commands are handled in a single round trip.
+* The commands are held in the outbound queue until waitForAllAcks is called
+* and then sent with a single write.
+* The result for any one command can be checked with wasAcked.
+* sendCmdsAndWaitForAcks does all of this for a list of commands; it is used
+* by restoreSession to send the session state after a reconnect.
+*
+* If the remote does not support sequence numbers, the commands are sent
+* without them and each one waits for its ACK matched by packet type only.
+*
+* Asynchronous Commands
+*
+* Each acknowledged command method has an *Async variant which returns
+* immediately with a CompletableFuture<Ack>. The command is sent and its ACK
+* is waited for by a separate I/O thread belonging to this Notcher, so the
+* calling thread (such as the Event Dispatch Thread) is never blocked. If the
+* ACK does not arrive, the command is sent again up to MAX_CMD_ATTEMPTS times
+* before the future is completed with a TimeoutException.
+*
+* Code which handles the result must not alter GUI components directly as it
+* runs on the I/O thread -- use SwingUtilities.invokeLater.
+*
 * Which Method to Use
 * 
 * In general, the synchronous method is easiest to use but may not be the most
@@ -119,7 +232,60 @@
 * sending setup values. During time critical operations, the data packets
 * can be requested and processed asynchronously so the host can perform other
 * tasks between the request and the receive.
+*
+* Telemetry Packets
+*
+* The monitor packet (voltage, current, head position, status flags, etc.)
+* and the all encoders packet are requested asynchronously with
+* requestMonitorPacket and requestAllEncoderValues. When each arrives, its
+* data bytes are copied into a buffer which is reused for every packet. The
+* host retrieves the latest values with getMonitorData or getEncoderData,
+* passing a MonitorPacket or EncoderPacket which it creates once and reuses.
+* Those classes read each field directly from the bytes by its position, so
+* no objects are created per packet no matter how high the sample rate. See
+* MonitorPacket.java for the packet layout.
+*
+* Instead of requesting each packet, the host can call subscribeMonitor to
+* have the remote push a monitor packet at a set interval until it is
+* unsubscribed. A MonitorListener set with setMonitorListener is called for
+* every packet as it arrives, so events such as a short can be acted on
+* without waiting for the display to be updated.
+*
+* Encoder Stream
+*
+* For high encoder sample rates, startEncoderStream has the remote sample all
+* encoders at a set rate and send the samples in blocks, each block in one
+* length prefixed packet. Each block starts with absolute counts and the
+* following samples are sent as small changes, typically six bytes per
+* sample rather than a 24 byte packet with its frame -- see EncoderStream.java
+* for the packet layout. The samples are unpacked as they are read into a
+* circular buffer of ints from which the host removes them with
+* takeEncoderSamples. The last sample of each block is also available
+* through getEncoderData. Samples missing from the stream are counted in
+* encoderSamplesLost and samples overwritten because the host did not take
+* them in time are counted in encoderSamplesDropped.
 * 
+* Bulk Transfer
+*
+* Blocks of data too large for one packet, such as waveform captures, the
+* device log, or recipes, are read with readBulk or readBulkAsync from a
+* remote which includes BULK_CAPABILITY in its greeting. The remote sends the
+* block in chunks which are reassembled into an array from the shared
+* bulkBufferPool; the host acknowledges them a window at a time. A transfer
+* interrupted by a lost connection is resumed from the last byte received
+* when the unit reconnects. See BulkTransfer.java for the packet layout.
+*
+* One bulk read may be in progress at a time for each unit. Other commands
+* and telemetry may be used while it runs.
+*
+* Firmware
+*
+* A remote which includes FIRMWARE_CAPABILITY in its greeting can be sent
+* new firmware. newFirmwareInstaller returns a FirmwareInstaller set up with
+* this class's firmware commands; NotcherGroup.installFirmware runs one for
+* each unit through a FirmwareScheduler. The unit restarts with the new
+* firmware once it is installed and is reconnected by the reconnect thread.
+*
 * Adding New Remote Commands
 * 
 * Two different sample code sets have been included in this and the
@@ -133,10 +299,11 @@
 * "TEST_PACKET_CMD" for that code set.
 * 
 * To add a new command, make a new command send method and packet handling
-* method similar to those for the appropriate example code set. Then add
-* the command switch statement to processOneDataPacket to call the handler
-* when the packet type is received. (Search for the phrase 
-* "add more commands here" to find location to add the switch statement.)
+* method similar to those for the appropriate example code set. Then declare
+* the payload length of the command packet in declareHostPackets and of its
+* response packet in declareRemotePackets, and register the handler for the
+* response packet with packetHandlers in the init method. (Search for the
+* phrase "add more commands here" to find the locations.)
 * 
 * NOTE: The process of adding a command must be repeated in NotcherSimulator,
 * but with the opposite logic. The message handler handles command packets and
@@ -254,6 +421,8 @@ package Hardware;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.*;
 import model.IniFile;
 import view.ThreadSafeLogger;
 
@@ -268,8 +437,53 @@ public class Notcher extends Remote{
 
     int index;
     
+    //the latest monitor and encoder packets received -- guarded by their own
+    //locks as they are filled by the thread which reads the packets
     byte[] monitorBuffer;
     byte[] allEncoderValuesBuf;
+    boolean monitorDataReady = false;
+    boolean encoderDataReady = false;
+    long monitorPacketCount = 0;
+
+    //holds the requests for telemetry packets -- each is sent as is
+    private final byte[] monitorRequest = {GET_MONITOR_PACKET_CMD, 0};
+    private final byte[] encoderRequest = {GET_ALL_ENCODERS_CMD, 0};
+
+    //if not null, called for every monitor packet received
+    volatile MonitorListener monitorListener;
+
+    //points into the receive buffer for calls to monitorListener
+    private final MonitorPacket rxMonitorPacket = new MonitorPacket();
+
+    //milliseconds between monitor packets pushed by the remote; 0 if the
+    //remote is not subscribed
+    int monitorPushInterval = 0;
+
+    //unpacks the encoder stream packets -- used only by the reading thread
+    private final EncoderStream rxEncoderStream = new EncoderStream();
+    private final int[] rxEncoderBlock = new int[
+            EncoderStream.MAX_SAMPLES_PER_BLOCK * EncoderStream.NUM_ENCODERS];
+
+    //points into allEncoderValuesBuf to store the last sample of each block
+    private final EncoderPacket latestEncoderValues = new EncoderPacket();
+
+    //circular buffer of the samples received from the encoder stream which
+    //have not been taken, NUM_ENCODERS ints per sample -- guarded by itself
+    static final int ENCODER_SAMPLE_CAPACITY = 8192;
+    int[] encoderSamples;
+    int encoderSamplesHead = 0;
+    int encoderSamplesCount = 0;
+
+    //the sample number expected at the start of the next block
+    int nextEncoderSampleNumber = 0;
+    boolean encoderStreamSynced = false;
+
+    long encoderSamplesLost = 0;
+    long encoderSamplesDropped = 0;
+    int badEncoderBlockCount = 0;
+
+    //samples per second sent by the encoder stream; 0 if stopped
+    int encoderStreamRate = 0;
 
     boolean udpResponseFlag = false;
     
@@ -291,6 +505,24 @@ public class Notcher extends Remote{
     static final byte ZERO_TARGET_DEPTH_CMD = 4;
     static final byte GET_RUN_PACKET_CMD = 5;
     static final byte ELECTRODE_SUPPLY_ON_OFF_CMD = 6;
+    static final byte SEQUENCE_NUMBERS_CMD = 7;
+    static final byte FRAME_CHECK_CMD = 8;
+    static final byte GET_MONITOR_PACKET_CMD = 9;
+    static final byte GET_ALL_ENCODERS_CMD = 10;
+    static final byte SUBSCRIBE_CMD = 11;
+    static final byte ENCODER_STREAM_CMD = 12;
+    static final byte FLOW_CONTROL_CMD = 13;
+    static final byte CREDIT_CMD = 14;
+    static final byte PING_CMD = 15;
+    static final byte PONG_CMD = 16;
+    static final byte SET_TARGET_DEPTH_CMD = 17;
+    static final byte BULK_READ_CMD = 18;
+    static final byte BULK_DATA_CMD = 19;
+    static final byte BULK_ACK_CMD = 20;
+    static final byte LOAD_FIRMWARE_CMD = 21;
+    static final byte FIRMWARE_DATA_CMD = 22;
+    static final byte FIRMWARE_STATUS_CMD = 23;
+    static final byte FIRMWARE_EXIT_CMD = 24;
 
     // add more commands here -- do not remove this comment
     
@@ -306,10 +538,187 @@ public class Notcher extends Remote{
 
     static byte NO_STATUS = 0;
 
-    static int MONITOR_PACKET_SIZE = 25;
-    static int ALL_ENCODERS_PACKET_SIZE = 24;    
+    static int MONITOR_PACKET_SIZE = MonitorPacket.SIZE;
+    static int ALL_ENCODERS_PACKET_SIZE = EncoderPacket.SIZE;
+    //smallest size of the packet buffers -- must hold a bulk transfer chunk
     static int RUNTIME_PACKET_SIZE = 2048;
 
+    //table of commands sent with sequence numbers for which an ACK has not
+    //been received -- indexed by sequence number; the table and the counts
+    //are guarded by pendingCmds, nextSequenceNumber by cmdLock
+
+    static final int NUM_SEQUENCE_NUMBERS = 256;
+
+    byte[] pendingCmds;
+    boolean[] pendingFlags;
+    boolean[] ackedFlags;
+    int numPendingCmds = 0;
+    int nextSequenceNumber = 0;
+    int abandonedCmdCount = 0;
+
+    static final int ACK_TIMEOUT = 1000; //milliseconds
+
+    //a remote which includes this in its greeting supports sequence numbers
+    //-- see enableSequenceNumbers
+    static final String SEQUENCE_CAPABILITY = "[SEQ]";
+
+    boolean remoteSupportsSequenceNumbers = false;
+
+    //true while enableSequenceNumbers waits for the ACK to its request
+    volatile boolean sequenceNumbersRequested = false;
+
+    //a remote which includes this in its greeting supports the CRC-32C frame
+    //check -- see enableCrcFrameCheck
+    static final String CRC_CAPABILITY = "[CRC32C]";
+
+    //values for FRAME_CHECK_CMD
+    static final byte CHECKSUM_FRAME_CHECK = 0;
+    static final byte CRC32C_FRAME_CHECK = 1;
+
+    boolean remoteSupportsCrc = false;
+
+    //true while enableCrcFrameCheck waits for the ACK to its request
+    volatile boolean crcRequested = false;
+
+    //a remote which includes this in its greeting supports credit based flow
+    //control -- see enableFlowControl
+    static final String FLOW_CONTROL_CAPABILITY = "[CREDITS]";
+
+    boolean remoteSupportsFlowControl = false;
+
+    //a remote which includes this in its greeting answers PING_CMD -- see
+    //startHeartbeat
+    static final String HEARTBEAT_CAPABILITY = "[PING]";
+
+    boolean remoteSupportsHeartbeat = false;
+
+    //a remote which includes this in its greeting supports bulk reads -- see
+    //readBulk
+    static final String BULK_CAPABILITY = "[BULK]";
+
+    boolean remoteSupportsBulk = false;
+
+    //the reassembly arrays of the bulk reads of all units
+    static final BulkBufferPool bulkBufferPool = new BulkBufferPool();
+
+    //the bulk read in progress or the last one; null if none started
+    volatile BulkTransfer bulkTransfer;
+    private final Object bulkLock = new Object();
+    private byte nextBulkTransferId = 0;
+
+    //holds the bulk ACKs -- used only by the thread which reads the remote
+    private final byte[] bulkAckBuffer = new byte[7];
+
+    //a remote which includes this in its greeting can be sent new firmware --
+    //see newFirmwareInstaller
+    static final String FIRMWARE_CAPABILITY = "[FIRMWARE]";
+
+    boolean remoteSupportsFirmware = false;
+
+    //a remote which includes this in its greeting accepts SET_TARGET_DEPTH_CMD
+    //-- see setTargetDepth
+    static final String TARGET_DEPTH_CAPABILITY = "[DEPTH]";
+
+    boolean remoteSupportsTargetDepth = false;
+
+    InstallFirmwareSettings firmwareSettings;
+
+    //values returned by getLinkState
+    public static final int LINK_UNKNOWN = 0;
+    public static final int LINK_OK = 1;
+    public static final int LINK_SLOW = 2;
+    public static final int LINK_LOST = 3;
+
+    //heartbeat intervals without a pong after which the link is lost
+    static final int LOST_INTERVALS = 3;
+
+    //heartbeat settings in nanoseconds; interval is 0 if not started
+    volatile long heartbeatNanos = 0;
+    volatile long slowRoundTripNanos = 0;
+
+    //System.nanoTime when the last pong was received
+    volatile long lastPongTime = 0;
+
+    //holds the ping -- used only by the one ping being sent at a time
+    private final byte[] pingBuffer = new byte[9];
+
+    //true from when a ping is handed to the ping executor until it is sent
+    private volatile boolean pingInFlight = false;
+
+    volatile long pingCount = 0;
+    volatile long pingSkipCount = 0;
+    volatile long pongCount = 0;
+
+    //the remote's clock in the last pong, in milliseconds (unsigned)
+    long lastRemoteTime = 0;
+    int remoteRestartCount = 0;
+
+    final RoundTripStats roundTripStats = new RoundTripStats();
+
+    //milliseconds a connection attempt may take before it is abandoned
+    static final int CONNECT_TIMEOUT = 2000;
+
+    //default milliseconds between reconnect attempts -- see setReconnectDelays
+    static final int RECONNECT_MIN_DELAY = 500;
+    static final int RECONNECT_MAX_DELAY = 30000;
+
+    ReconnectBackoff reconnectBackoff =
+            new ReconnectBackoff(RECONNECT_MIN_DELAY, RECONNECT_MAX_DELAY);
+
+    //System.nanoTime when the next reconnect attempt is due, valid if
+    //reconnectScheduled is true
+    volatile long nextReconnectTime = 0;
+    volatile boolean reconnectScheduled = false;
+    //true while an attempt is waiting for or running on the I/O thread
+    volatile boolean reconnecting = false;
+    volatile int reconnectCount = 0;
+
+    //the packets sent by the simulator in place of simulated data, if not
+    //null -- see setReplay
+    CaptureReplay replay;
+
+    //runs the simulator in place of a thread of its own, if not null
+    SimulatorFarm simulatorFarm;
+
+    //when simulating, the simulator is reached through a real TCP connection
+    //to this server rather than substituted for the socket, if not null
+    SimulatorServer simulatorServer;
+
+    //when simulating, injects faults into the link with the simulator, if
+    //not null
+    FaultInjector faultInjector;
+
+    //if true, startReader has been called and the reader thread is started
+    //again after each reconnect
+    volatile boolean readerWanted = false;
+
+    //the session state last acknowledged by the remote -- sent again by
+    //restoreSession after a reconnect; -1 or NO_ACTION if never set; the mode
+    //is only recorded as the mode commands are not yet sent
+    volatile int sessionElectrodeState = -1;
+    volatile byte sessionMode = NO_ACTION;
+    volatile boolean sessionTargetDepthSet = false;
+    volatile int sessionTargetDepth = 0;
+
+    //samples per block of the encoder stream, restored with the stream
+    int encoderSamplesPerBlock = 1;
+
+    static final int MAX_CMD_ATTEMPTS = 3;
+
+    //runs the asynchronous commands -- created on first use; a separate lock
+    //is used as the command methods hold cmdLock while waiting for ACKs
+    ExecutorService ioExecutor;
+    private final Object ioExecutorLock = new Object();
+
+    //if not null, this thread reads all packets from the remote
+    volatile Thread readerThread;
+    volatile boolean readerRunning = false;
+    boolean virtualThreads = false;
+
+    //milliseconds the reader thread waits in each read before checking if it
+    //should stop
+    static final int READER_WAIT = 100;
+
 //-----------------------------------------------------------------------------
 // Notcher::Notcher (constructor)
 //
@@ -339,6 +748,40 @@ public void init()
     monitorBuffer = new byte[MONITOR_PACKET_SIZE];
     
     allEncoderValuesBuf = new byte[ALL_ENCODERS_PACKET_SIZE];
+    latestEncoderValues.wrap(allEncoderValuesBuf, 0);
+
+    encoderSamples = new int[
+                    ENCODER_SAMPLE_CAPACITY * EncoderStream.NUM_ENCODERS];
+
+    pendingCmds = new byte[NUM_SEQUENCE_NUMBERS];
+    pendingFlags = new boolean[NUM_SEQUENCE_NUMBERS];
+    ackedFlags = new boolean[NUM_SEQUENCE_NUMBERS];
+
+    firmwareSettings = new InstallFirmwareSettings();
+    firmwareSettings.loadFirmwareCmd = LOAD_FIRMWARE_CMD;
+    firmwareSettings.noAction = NO_ACTION;
+    firmwareSettings.error = ERROR;
+    firmwareSettings.sendDataCmd = FIRMWARE_STATUS_CMD;
+    firmwareSettings.dataCmd = FIRMWARE_DATA_CMD;
+    firmwareSettings.exitCmd = FIRMWARE_EXIT_CMD;
+
+    packetHandlers = new PacketHandlerRegistry();
+    declareRemotePackets(packetHandlers);
+
+    packetHandlers.setHandler(ACK_CMD, this::handleACKPacket);
+    packetHandlers.setHandler(GET_MONITOR_PACKET_CMD,
+                                                this::handleMonitorPacket);
+    packetHandlers.setHandler(GET_ALL_ENCODERS_CMD,
+                                                this::handleAllEncodersPacket);
+    packetHandlers.setHandler(ENCODER_STREAM_CMD,
+                                            this::handleEncoderStreamPacket);
+    packetHandlers.setHandler(CREDIT_CMD, this::handleCreditPacket);
+    packetHandlers.setHandler(PONG_CMD, this::handlePongPacket);
+    packetHandlers.setHandler(BULK_DATA_CMD, this::handleBulkDataPacket);
+    packetHandlers.setHandler(FIRMWARE_STATUS_CMD,
+                                            this::handleFirmwareStatusPacket);
+
+    // add more commands here -- do not remove this comment
     
     //read the configuration file and create/setup the charting/control elements
     configure(configFile);
@@ -346,6 +789,75 @@ public void init()
 }//end of Notcher::init
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Notcher::declareHostPackets
+//
+// Declares the number of data bytes, not including the checksum, in each type
+// of packet sent by the host to the remote.
+//
+// NotcherSimulator uses this to skip packets which it does not handle.
+//
+
+static void declareHostPackets(PacketHandlerRegistry pRegistry)
+{
+
+    pRegistry.declare(STOP_MODE_CMD, 1);
+    pRegistry.declare(CUT_MODE_CMD, 1);
+    pRegistry.declare(ZERO_DEPTH_CMD, 1);
+    pRegistry.declare(ZERO_TARGET_DEPTH_CMD, 1);
+    pRegistry.declare(GET_RUN_PACKET_CMD, 1);
+    pRegistry.declare(ELECTRODE_SUPPLY_ON_OFF_CMD, 1);
+    pRegistry.declare(SEQUENCE_NUMBERS_CMD, 1);
+    pRegistry.declare(FRAME_CHECK_CMD, 1);
+    pRegistry.declare(GET_MONITOR_PACKET_CMD, 1);
+    pRegistry.declare(GET_ALL_ENCODERS_CMD, 1);
+    pRegistry.declare(SUBSCRIBE_CMD, 2);
+    pRegistry.declare(ENCODER_STREAM_CMD, 3);
+    pRegistry.declare(FLOW_CONTROL_CMD, 1);
+    pRegistry.declare(PING_CMD, 8);
+    pRegistry.declare(SET_TARGET_DEPTH_CMD, 4);
+    pRegistry.declare(BULK_READ_CMD, 7);
+    pRegistry.declare(BULK_ACK_CMD, 6);
+    pRegistry.declare(LOAD_FIRMWARE_CMD, 10);
+    pRegistry.declare(FIRMWARE_DATA_CMD,
+                                    PacketHandlerRegistry.LENGTH_PREFIXED);
+    pRegistry.declare(FIRMWARE_EXIT_CMD, 4);
+
+    // add more commands here -- do not remove this comment
+
+    pRegistry.declare(TEST_SET_VALUE_CMD, 5);
+
+}//end of Notcher::declareHostPackets
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::declareRemotePackets
+//
+// Declares the number of data bytes, not including the checksum, in each type
+// of packet sent by the remote to the host.
+//
+
+static void declareRemotePackets(PacketHandlerRegistry pRegistry)
+{
+
+    pRegistry.declare(CUT_MODE_CMD, 1);
+    pRegistry.declare(GET_RUN_PACKET_CMD, 1);
+    pRegistry.declare(GET_MONITOR_PACKET_CMD, MonitorPacket.SIZE);
+    pRegistry.declare(GET_ALL_ENCODERS_CMD, EncoderPacket.SIZE);
+    pRegistry.declare(ENCODER_STREAM_CMD,
+                                    PacketHandlerRegistry.LENGTH_PREFIXED);
+    pRegistry.declare(CREDIT_CMD, 6);
+    pRegistry.declare(PONG_CMD, 12);
+    pRegistry.declare(BULK_DATA_CMD, PacketHandlerRegistry.LENGTH_PREFIXED);
+    pRegistry.declare(FIRMWARE_STATUS_CMD, 5);
+
+    // add more commands here -- do not remove this comment
+
+    pRegistry.declare(ACK_CMD, 1);
+
+}//end of Notcher::declareRemotePackets
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Notcher::configure
 //
@@ -359,9 +871,16 @@ void configure(IniFile pConfigFile)
 
     super.configure(pConfigFile);
         
-    inBuffer = new byte[RUNTIME_PACKET_SIZE];
-    outBuffer = new byte[RUNTIME_PACKET_SIZE];
-    outBufScratch = new byte[RUNTIME_PACKET_SIZE];
+    //the buffers must hold the largest packet, a bulk transfer chunk, so the
+    //size requested by the owner is only used if it is larger
+    int packetSize = Math.max(runtimePacketSize, RUNTIME_PACKET_SIZE);
+
+    inBuffer = new byte[packetSize];
+    outBuffer = new byte[packetSize];
+    outBufScratch = new byte[packetSize];
+
+    decoder = new FrameDecoder(packetSize);
+    outQueue = new OutboundFrameQueue(OUT_QUEUE_SIZE);
 
 }//end of Notcher::configure
 //-----------------------------------------------------------------------------
@@ -388,13 +907,20 @@ public void connect()
 
         tsLog.appendLine("Notcher Unit IP Address: " + ipAddr.toString());
 
-        if (!simulate) {
-            socket = new Socket(ipAddr, 23);
+        if (!simulate || simulatorServer != null) {
+            socket = new Socket();
+            socket.connect(getRemoteAddress(), CONNECT_TIMEOUT);
+            //packets are combined by outQueue, so Nagle's algorithm would
+            //only add delay
+            socket.setTcpNoDelay(true);
         }
         else {
 
             NotcherSimulator notcherSimulator = 
                                             new NotcherSimulator( ipAddr, 23);
+            notcherSimulator.setReplay(replay);
+            notcherSimulator.setFarm(simulatorFarm);
+            notcherSimulator.setFaultInjector(faultInjector);
             notcherSimulator.init();
             
             socket = notcherSimulator;
@@ -403,7 +929,7 @@ public void connect()
 
         //set amount of time in milliseconds that a read from the socket will
         //wait for data - this prevents program lock up when no data is ready
-        socket.setSoTimeout(250);
+        setReadTimeout(READ_TIMEOUT);
 
         out = new PrintWriter(socket.getOutputStream(), true);
 
@@ -420,8 +946,7 @@ public void connect()
     }
 
     try {
-        //display the greeting message sent by the remote
-        tsLog.appendLine(ipAddrS + " says " + in.readLine());
+        handleGreeting(in.readLine());
     }
     catch(IOException e){
         logSevere(e.getMessage() + " - Error: 248");
@@ -439,6 +964,150 @@ public void connect()
 }//end of Notcher::connect
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Notcher::connect
+//
+// Opens a TCP/IP connection with the Notcher unit which will be serviced by
+// the selector thread of pTransport rather than by blocking streams.
+//
+// The greeting is read before the channel is switched to non-blocking mode.
+//
+
+public void connect(SelectorTransport pTransport)
+{
+
+    if (ipAddrS == null || ipAddr == null){
+        tsLog.appendLine(
+                "Notcher Unit #" + index + " never responded to "
+                + "roll call and cannot be contacted.");
+        return;
+    }
+
+    tsLog.appendLine("Opening connection with Notcher...");
+
+    try {
+
+        tsLog.appendLine("Notcher Unit IP Address: " + ipAddr.toString());
+
+        channel = SocketChannel.open();
+        channel.socket().connect(getRemoteAddress(), CONNECT_TIMEOUT);
+
+        //packets are combined by outQueue, so Nagle's algorithm would only
+        //add delay
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setSoTimeout(READ_TIMEOUT);
+
+        handleGreeting(readGreeting());
+
+        transport = pTransport;
+        pTransport.register(this);
+
+    }
+    catch (IOException e) {
+        logSevere(e.getMessage() + " - Error: 239");
+        tsLog.appendLine("Couldn't get I/O for " + ipAddrS);
+        if (channel != null) {
+            try { channel.close(); } catch (IOException e2) { }
+        }
+        channel = null; transport = null;
+        return;
+    }
+
+    //flag that board setup has been completed
+    setupComplete = true;
+
+    //flag that setup was successful and board is ready for use
+    ready = true;
+
+    tsLog.appendLine("Notcher " + ipAddrS + " is ready.");
+
+}//end of Notcher::connect
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::getRemoteAddress
+//
+// Returns the address to connect to: the unit's telnet port or, if the
+// simulator is reached over TCP, the address at which the simulator server
+// listens for this unit.
+//
+
+private InetSocketAddress getRemoteAddress() throws IOException
+{
+
+    if (simulate && simulatorServer != null){
+        return(simulatorServer.getAddress(index));
+    }
+
+    return(new InetSocketAddress(ipAddr, 23));
+
+}//end of Notcher::getRemoteAddress
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::readGreeting
+//
+// Reads the greeting line sent by the remote when a channel is connected. The
+// channel must still be in blocking mode.
+//
+// The bytes are read one at a time so that no bytes following the line are
+// taken from the channel.
+//
+
+private String readGreeting() throws IOException
+{
+
+    InputStream greetingIn = channel.socket().getInputStream();
+
+    StringBuilder greeting = new StringBuilder();
+
+    int c;
+
+    while ((c = greetingIn.read()) != -1 && c != '\n'){
+        if (c != '\r') { greeting.append((char)c); }
+    }
+
+    return(greeting.toString());
+
+}//end of Notcher::readGreeting
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::handleGreeting
+//
+// Displays the greeting message sent by the remote and notes the optional
+// protocol features which it advertises.
+//
+
+private void handleGreeting(String pGreeting)
+{
+
+    tsLog.appendLine(ipAddrS + " says " + pGreeting);
+
+    remoteSupportsSequenceNumbers = pGreeting != null
+                                && pGreeting.contains(SEQUENCE_CAPABILITY);
+
+    remoteSupportsCrc =
+                    pGreeting != null && pGreeting.contains(CRC_CAPABILITY);
+
+    remoteSupportsFlowControl = pGreeting != null
+                                && pGreeting.contains(FLOW_CONTROL_CAPABILITY);
+
+    remoteSupportsHeartbeat = pGreeting != null
+                                && pGreeting.contains(HEARTBEAT_CAPABILITY);
+
+    remoteSupportsBulk = pGreeting != null
+                                && pGreeting.contains(BULK_CAPABILITY);
+
+    remoteSupportsFirmware = pGreeting != null
+                                && pGreeting.contains(FIRMWARE_CAPABILITY);
+
+    remoteSupportsTargetDepth = pGreeting != null
+                                && pGreeting.contains(TARGET_DEPTH_CAPABILITY);
+
+}//end of Notcher::handleGreeting
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Notcher:initialize
 //
@@ -448,6 +1117,23 @@ public void connect()
 public void initialize()
 {
 
+    if (!ready) { return; }
+
+    if (remoteSupportsSequenceNumbers && enableSequenceNumbers()){
+        tsLog.appendLine(
+                    "Notcher " + ipAddrS + " supports pipelined commands.");
+    }
+
+    if (remoteSupportsCrc && enableCrcFrameCheck()){
+        tsLog.appendLine(
+                    "Notcher " + ipAddrS + " is using CRC-32C frame checks.");
+    }
+
+    if (remoteSupportsFlowControl && enableFlowControl()){
+        tsLog.appendLine(
+                    "Notcher " + ipAddrS + " is using flow control.");
+    }
+
 }//end of Notcher::initialize
 //-----------------------------------------------------------------------------
 
@@ -457,7 +1143,7 @@ public void initialize()
 // This function processes a single data packet if it is available.
 //
 // The amount of time the function is to wait for a packet is specified by
-// pTimeOut.  Each count of pTimeOut equals 10 ms.
+// pTimeOut in milliseconds.
 //
 // Waits for a packet for at least the specified pTimeOut. For no waiting,
 // pass pTimeOut to 0...if no packet is available will return immediately.
@@ -484,276 +1170,2402 @@ public void initialize()
 public int processOneDataPacket(int pTimeOut)
 {
 
-    if (byteIn == null) {
-        return -1;
-    }  //do nothing if the port is closed
+    //if a SelectorTransport or a reader thread reads the connection, that
+    //thread handles the packets -- just wait for it to do so
+    if (channel != null || readerThread != null) {
+        return(waitForHandledPackets(pTimeOut));
+    }
 
-    try{
+    return(readOneDataPacket(pTimeOut));
 
-        int timeOutWFP = 0;
-        while(byteIn.available() < 5 && timeOutWFP++ < pTimeOut){
-            waitSleep(10);
-        }
+}//end of Notcher::processOneDataPacket
+//-----------------------------------------------------------------------------
 
-        //wait until 5 bytes are available - this should be the 4 header bytes,
-        //and the packet identifier
-        if (byteIn.available() < 5) { return -1; }
+//-----------------------------------------------------------------------------
+// Notcher::readOneDataPacket
+//
+// Reads and handles a single data packet from the connection. See
+// processOneDataPacket for details.
+//
+// This must only be called by the one thread which reads the connection --
+// other threads call processOneDataPacket.
+//
 
-        //read the bytes in one at a time so that if an invalid byte is
-        //encountered it won't corrupt the next valid sequence in the case
-        //where it occurs within 3 bytes of the invalid byte
+int readOneDataPacket(int pTimeOut)
+{
 
-        //check each byte to see if the first four create a valid header
-        //if not, jump to resync which deletes bytes until a valid first header
-        //byte is reached
+    if (byteIn == null) {
+        return -1;
+    }  //do nothing if the port is closed
 
-        //if the reSynced flag is true, the buffer has been resynced and an 0xaa
-        //byte has already been read from the buffer so it shouldn't be read
-        //again
+    try{
 
-        //after a resync, the function exits without processing any packets
+        //if the decoder does not already hold the start of a packet, pull
+        //everything available from the socket into it and wait until 5 bytes
+        //are available - this should be the 4 header bytes, and the packet
+        //identifier -- the thread blocks in the read until the bytes arrive
+        //or pTimeOut expires
 
-        if (!reSynced) {
-            //look for the 0xaa byte unless buffer just resynced
-            byteIn.read(inBuffer, 0, 1);
-            if (inBuffer[0] != (byte)0xaa) {reSync(); return 0;}
+        if (!waitForBytes(FrameDecoder.HEADER_AND_ID_SIZE, pTimeOut)){
+            return -1;
         }
-        else { reSynced = false; }
 
-        byteIn.read(inBuffer, 0, 1);
-        if (inBuffer[0] != (byte)0x55) {reSync(); return 0;}
-        byteIn.read(inBuffer, 0, 1);
-        if (inBuffer[0] != (byte)0xbb) {reSync(); return 0;}
-        byteIn.read(inBuffer, 0, 1);
-        if (inBuffer[0] != (byte)0x66) {reSync(); return 0;}
+        //the header bytes are checked in place in the decoder's buffer
+        //if not valid, jump to resync which deletes bytes until the start of
+        //a possible valid header is reached
+
+        //after a resync, the function exits without processing any packets
 
-        //read in the packet identifier
-        byteIn.read(inBuffer, 0, 1);
+        if (!decoder.readHeader()) {reSync(); return 0;}
 
         //store the last packet type handled
-        lastPacketTypeHandled = inBuffer[0];
+        lastPacketTypeHandled = decoder.getPktID();
         
         //store the ID of the packet (the packet type)
-        pktID = inBuffer[0];
+        pktID = lastPacketTypeHandled;
+
+        //packet types with unknown length cannot be skipped, so resync
+        if (!packetHandlers.isDeclared(lastPacketTypeHandled)) {
+            reSync(); return 0;
+        }
 
-        if (pktID == ACK_CMD) {return handleACKPacket();}
-        else
-        if (pktID == GET_RUN_PACKET_CMD) {return readBytes(2);}  //wip hss -- call function to handle this instead of the return
-        else
-        if (pktID == CUT_MODE_CMD){return readBytes(2);} //wip hss -- call function to handle this instead of the return
+        //read and verify the packet and call the handler registered for its
+        //type -- packets without a handler are skipped
 
-        // add more commands here -- do not remove this comment
+        return(packetHandlers.dispatch(lastPacketTypeHandled, decoder, byteIn));
 
     }
     catch(IOException e){
         logSevere(e.getMessage() + " - Error: 799");
+        //a timeout in the middle of a packet does not mean the link is lost
+        if (!(e instanceof SocketTimeoutException)){
+            connectionLost(e.getMessage());
+        }
     }
 
     return 0;
 
-}//end of Notcher::processOneDataPacket
+}//end of Notcher::readOneDataPacket
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Notcher::various get/set functions
+// Notcher::startReader
+//
+// Starts a thread which reads and handles all packets from the remote in a
+// blocking loop. If pVirtual is true and the Java runtime supports them,
+// virtual threads are used for the reader and for the asynchronous commands.
+//
+// Once started, the commands keep their synchronous style -- each waits in
+// processOneDataPacket for the reader to handle the response.
 //
+// Should be called after initialize. Does nothing if the connection is owned
+// by a SelectorTransport. If the unit is not connected, the reader is started
+// when it reconnects.
+//
+
+public void startReader(boolean pVirtual)
+{
 
+    if (channel != null || readerThread != null) { return; }
 
-//end of Notcher::various get/set functions
+    virtualThreads = pVirtual;
+
+    readerWanted = true;
+
+    if (!ready) { return; }
+
+    readerRunning = true;
+
+    readerThread = DeviceThreads.newThreadFactory(
+                "Notcher " + index + " Reader", pVirtual).newThread(() -> {
+
+        while (readerRunning && ready){
+            if (readOneDataPacket(READER_WAIT) > 0) {
+                notifyPacketsHandled(1);
+            }
+        }
+
+    });
+
+    readerThread.start();
+
+}//end of Notcher::startReader
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Notcher::getDataPacket
+// Notcher::stopReader
 //
-// This method sends a request to the remote unit for a data packet, waits
-// for it, and then returns a reference to the data array.
+// Asks the reader thread to stop. It will exit within READER_WAIT
+// milliseconds. Use this to stop the readers of all units before calling
+// shutDown for each so that they stop at the same time.
+//
+
+public void stopReader()
+{
+
+    readerWanted = false;
+
+    readerRunning = false;
+
+}//end of Notcher::stopReader
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::isReadByOtherThread
+//
+// Returns true if the packets are read by a SelectorTransport thread or by
+// the reader thread.
+//
+
+@Override
+boolean isReadByOtherThread()
+{
+
+    return(channel != null || readerThread != null);
+
+}//end of Notcher::isReadByOtherThread
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::setReconnectDelays
+//
+// Sets the delays in milliseconds before the first reconnect attempt and the
+// longest delay between attempts. See ReconnectBackoff.
+//
+
+public void setReconnectDelays(int pMinDelay, int pMaxDelay)
+{
+
+    reconnectBackoff = new ReconnectBackoff(pMinDelay, pMaxDelay);
+
+}//end of Notcher::setReconnectDelays
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::setReplay
+//
+// When simulating, the simulator will send the packets in pReplay rather than
+// simulated data. A reconnected simulator carries on from the next packet.
+// Pass null for simulated data. Takes effect on the next connection.
+//
+
+public void setReplay(CaptureReplay pReplay)
+{
+
+    replay = pReplay;
+
+}//end of Notcher::setReplay
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::setSimulatorFarm
+//
+// When simulating, the simulator will be run by pFarm rather than a thread
+// of its own. See SimulatorFarm. Takes effect on the next connection.
+//
+
+public void setSimulatorFarm(SimulatorFarm pFarm)
+{
+
+    simulatorFarm = pFarm;
+
+}//end of Notcher::setSimulatorFarm
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::setSimulatorServer
+//
+// When simulating, the unit will connect over TCP to the simulator pServer
+// starts for it rather than substituting the simulator for its socket, so
+// the socket code and the TCP stack are exercised. See SimulatorServer.
+// Pass null to substitute the simulator. Takes effect on the next
+// connection.
+//
+
+public void setSimulatorServer(SimulatorServer pServer)
+{
+
+    simulatorServer = pServer;
+
+}//end of Notcher::setSimulatorServer
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::setFaultInjector
+//
+// When simulating, the link with the simulator will be delayed, throttled,
+// and corrupted as set in pInjector. See FaultInjector. Pass null for a
+// perfect link. Takes effect on the next connection.
+//
+
+public void setFaultInjector(FaultInjector pInjector)
+{
+
+    faultInjector = pInjector;
+
+}//end of Notcher::setFaultInjector
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::isReconnectDue
+//
+// Called periodically by NotcherGroup's reconnect thread. If the heartbeat
+// reports the link lost, the connection is marked lost as a pulled cable
+// gives no other sign.
+//
+// Returns true if the unit is not connected and its next reconnect attempt
+// is due. The first attempt after the connection is lost is scheduled here.
+//
+
+public boolean isReconnectDue()
+{
+
+    //a unit which never answered roll call cannot be contacted
+    if (ipAddr == null || reconnecting) { return(false); }
+
+    if (ready){
+        if (getLinkState() != LINK_LOST) { return(false); }
+        connectionLost("no answer to heartbeat");
+    }
+
+    long now = System.nanoTime();
+
+    if (!reconnectScheduled){
+        nextReconnectTime = now + reconnectBackoff.nextDelay() * 1000000L;
+        reconnectScheduled = true;
+        return(false);
+    }
+
+    return(now - nextReconnectTime >= 0);
+
+}//end of Notcher::isReconnectDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::reconnectAsync
+//
+// Calls reconnect on this unit's I/O thread so that a slow connection attempt
+// does not hold up other units. Commands submitted meanwhile fail at once as
+// the unit is not ready. pTransport is the SelectorTransport to use, or null
+// for the standard transport.
+//
+
+public void reconnectAsync(final SelectorTransport pTransport)
+{
+
+    //set now so the attempt is not submitted again while it waits
+    reconnecting = true;
+
+    try{
+        getIOExecutor().execute(() -> reconnect(pTransport));
+    }
+    catch(RejectedExecutionException e){
+        reconnecting = false;
+    }
+
+}//end of Notcher::reconnectAsync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::reconnect
+//
+// Closes the connection to the remote and opens a new one, with pTransport
+// if not null. On success, the unit is initialized and its session restored
+// as described in the notes at the top of this file.
+//
+// If the attempt fails, the next one is scheduled after a longer delay.
+//
+// Returns true if the unit was reconnected.
+//
+
+public boolean reconnect(SelectorTransport pTransport)
+{
+
+    cmdLock.lock();
+
+    try{
+
+        //pings are held off until the framing options have been set up
+        reconnecting = true;
+
+        try{
+            return(reconnectAndRestore(pTransport));
+        }
+        finally{
+            reconnecting = false;
+        }
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::reconnect
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::reconnectAndRestore
+//
+// Does the work for reconnect.
+//
+
+private boolean reconnectAndRestore(SelectorTransport pTransport)
+{
+
+    tsLog.appendLine("Reconnecting to Notcher " + ipAddrS + "...");
+
+    ready = false;
+
+    //the reader exits once the unit is not ready -- wait for it so that it
+    //does not read from the new connection
+    Thread reader = readerThread;
+    if (reader != null){
+        readerRunning = false;
+        try { reader.join(READER_WAIT * 2); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        readerThread = null;
+    }
+
+    closeConnection();
+
+    resetConnectionState();
+    clearPendingCmds();
+    resetEncoderStream();
+
+    if (pTransport != null) { connect(pTransport); } else { connect(); }
+
+    if (!ready){
+        //isReconnectDue schedules the next attempt with a longer delay
+        reconnectScheduled = false;
+        return(false);
+    }
+
+    initialize();
+
+    if (readerWanted) { startReader(virtualThreads); }
+
+    restoreSession();
+
+    reconnectBackoff.reset();
+    reconnectScheduled = false;
+    reconnectCount++;
+
+    tsLog.appendLine("Notcher " + ipAddrS + " reconnected.");
+
+    return(true);
+
+}//end of Notcher::reconnectAndRestore
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::restoreSession
+//
+// Sends the session state held before the connection was lost to the remote,
+// which has started the new connection in its power up state.
+//
+// The mode cannot be restored yet: invokeCutMode and invokeStopMode do not
+// send anything to the remote, so the unit is left in its power up mode and
+// sessionMode is left as it was. The target depth is skipped if the remote
+// does not accept SET_TARGET_DEPTH_CMD.
+//
+// The commands are sent together by sendCmdsAndWaitForAcks, so with sequence
+// numbers the whole session is restored in a single round trip.
+//
+
+private void restoreSession()
+{
+
+    //allow the first pong an interval to arrive on the new connection
+    if (heartbeatNanos > 0){
+        if (remoteSupportsHeartbeat) { lastPongTime = System.nanoTime(); }
+        else { heartbeatNanos = 0; }
+    }
+
+    byte[][] cmds = new byte[4][];
+    String[] names = new String[4];
+    int numCmds = 0;
+
+    if (sessionTargetDepthSet && remoteSupportsTargetDepth){
+        int depth = sessionTargetDepth;
+        names[numCmds] = "target depth";
+        cmds[numCmds++] = new byte[] {SET_TARGET_DEPTH_CMD,
+                    (byte)((depth >> 24) & 0xff), (byte)((depth >> 16) & 0xff),
+                    (byte)((depth >> 8) & 0xff), (byte)(depth & 0xff)};
+    }
+
+    if (sessionElectrodeState >= 0){
+        names[numCmds] = "electrode supply";
+        cmds[numCmds++] = new byte[] {ELECTRODE_SUPPLY_ON_OFF_CMD,
+                                                (byte)sessionElectrodeState};
+    }
+
+    if (monitorPushInterval > 0){
+        int interval = monitorPushInterval;
+        names[numCmds] = "monitor push";
+        cmds[numCmds++] = new byte[] {SUBSCRIBE_CMD,
+                    (byte)((interval >> 8) & 0xff), (byte)(interval & 0xff)};
+    }
+
+    if (encoderStreamRate > 0){
+        int rate = encoderStreamRate;
+        names[numCmds] = "encoder stream";
+        cmds[numCmds++] = new byte[] {ENCODER_STREAM_CMD,
+                            (byte)((rate >> 8) & 0xff), (byte)(rate & 0xff),
+                            (byte)encoderSamplesPerBlock};
+    }
+
+    boolean[] acked = sendCmdsAndWaitForAcks(numCmds, cmds);
+
+    for (int i = 0; i < numCmds; i++){
+        if (!acked[i]){
+            tsLog.appendLine(
+                "Notcher " + ipAddrS + " did not restore " + names[i] + ".");
+        }
+    }
+
+    BulkTransfer transfer = bulkTransfer;
+
+    if (transfer != null && !transfer.isDone()) { resumeBulkRead(transfer); }
+
+}//end of Notcher::restoreSession
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::various get/set functions
+//
+
+public void setMonitorListener(MonitorListener pListener)
+                                                { monitorListener = pListener; }
+
+public int getMonitorPushInterval() { return(monitorPushInterval); }
+
+public int getEncoderStreamRate() { return(encoderStreamRate); }
+
+public boolean isFlowControlEnabled() { return(flowControlEnabled); }
+
+public long getCreditStallCount()
+                { return(creditStallCount); }
+
+public long getCreditStallNanos()
+                { return(creditStallNanos); }
+
+public int getCreditTimeoutCount()
+                { return(creditTimeoutCount); }
+
+public RoundTripStats getRoundTripStats() { return(roundTripStats); }
+
+public long getPingCount() { return(pingCount); }
+
+public long getPongCount() { return(pongCount); }
+
+public long getPingSkipCount() { return(pingSkipCount); }
+
+public int getRemoteRestartCount() { return(remoteRestartCount); }
+
+public boolean isReady() { return(ready); }
+
+public int getReSyncCount() { return(reSyncCount); }
+
+public int getReconnectCount() { return(reconnectCount); }
+
+public int getReconnectAttempts() { return(reconnectBackoff.getAttempts()); }
+
+public BulkTransfer getBulkTransfer() { return(bulkTransfer); }
+
+public static BulkBufferPool getBulkBufferPool() { return(bulkBufferPool); }
+
+public boolean supportsFirmwareInstall() { return(remoteSupportsFirmware); }
+
+public long getEncoderSamplesLost()
+            { synchronized(encoderSamples){ return(encoderSamplesLost); } }
+
+public long getEncoderSamplesDropped()
+            { synchronized(encoderSamples){ return(encoderSamplesDropped); } }
+
+
+//end of Notcher::various get/set functions
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::getDataPacket
+//
+// This method sends a request to the remote unit for a data packet, waits
+// for it, and then returns a reference to the data array.
 //
 
 public byte[] getDataPacket()
 {
 
-    return(null);
-    
-}//end of Notcher::getDataPacket
+    return(null);
+    
+}//end of Notcher::getDataPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::invokeCutMode
+//
+// Sends "Cut" command to the remote.
+//
+// The command is not yet sent -- only the mode requested is recorded in
+// sessionMode. It is therefore not restored after a reconnect.
+//
+
+public void invokeCutMode()
+{
+    
+    //sendBytes(CUT_MODE_CMD, (byte) 0);
+
+    sessionMode = CUT_MODE_CMD;
+    
+}//end of Notcher::invokeCutMode
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::invokeStopMode
+//
+// Sends "Stop" command to the remote.
+//
+// As with invokeCutMode, the command is not yet sent and only the mode
+// requested is recorded.
+//
+
+public void invokeStopMode()
+{
+
+    //sendBytes(STOP_MODE_CMD, (byte) 0);
+
+    sessionMode = STOP_MODE_CMD;
+
+}//end of Notcher::invokeStopMode
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::zeroDepthCount
+//
+// Sends "Zero Depth Count" command to the remote.
+//
+
+public void zeroDepthCount()
+{
+
+    //sendBytes(ZERO_DEPTH_CMD, (byte) 0);
+    
+}//end of Notcher::zeroDepthCount
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::zeroTargetDepth
+//
+// Sends "Zero Target Depth " command to the remote.
+//
+
+public void zeroTargetDepth()
+{
+
+    //sendBytes(ZERO_TARGET_DEPTH_CMD, (byte) 0);
+    
+}//end of Notcher::zeroDepthCount
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::setTargetDepth
+//
+// Sends the depth in encoder counts to which the remote is to cut. The value
+// is sent again by restoreSession if the unit reconnects.
+//
+// Nothing is sent if the remote did not include TARGET_DEPTH_CAPABILITY in
+// its greeting.
+//
+// Returns true if the remote acknowledged the command.
+//
+
+public boolean setTargetDepth(int pTargetDepth)
+{
+
+    cmdLock.lock();
+
+    try{
+
+        if (!remoteSupportsTargetDepth) { return(false); }
+
+        outBufScrIndex = 0;
+
+        outBufScratch[outBufScrIndex++] = SET_TARGET_DEPTH_CMD;
+
+        unpackInt(pTargetDepth, outBufScratch);
+
+        if (!sendCmdAndWaitForAck(outBufScrIndex, outBufScratch)){
+            return(false);
+        }
+
+        sessionTargetDepth = pTargetDepth;
+        sessionTargetDepthSet = true;
+
+        return(true);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::setTargetDepth
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::handleACKPacket
+//
+// Handles ACK packets received from the remote.
+//
+// The data byte has already been read and verified by packetHandlers.
+//
+
+public void handleACKPacket()
+{
+
+    //store the packet type to which this ACK is responding
+    lastPacketTypeAcked = decoder.getByte(0);
+
+    //the remote uses the CRC from the packet after this ACK on -- switch
+    //before this thread parses that packet; see enableCrcFrameCheck
+    if (lastPacketTypeAcked == FRAME_CHECK_CMD && crcRequested){
+        crcRequested = false;
+        outLock.lock();
+
+        try{
+            crcEnabled = true;
+        }
+        finally{
+            outLock.unlock();
+        }
+        packetHandlers.setCrcEnabled(true);
+    }
+
+    //if sequence numbers are in use, the ACK resolves the pending command
+    //with the same sequence number
+    if (sequenceNumbersEnabled){
+        resolvePendingCmd(
+                packetHandlers.getLastSequenceNumber(), lastPacketTypeAcked);
+    }
+
+    //the remote adds sequence numbers from the packet after this ACK on --
+    //switch before this thread parses that packet; see enableSequenceNumbers
+    if (lastPacketTypeAcked == SEQUENCE_NUMBERS_CMD
+                                            && sequenceNumbersRequested){
+        sequenceNumbersRequested = false;
+        outLock.lock();
+
+        try{
+            sequenceNumbersEnabled = true;
+        }
+        finally{
+            outLock.unlock();
+        }
+        packetHandlers.setSequenceNumbersEnabled(true);
+    }
+
+}//end of Notcher::handleACKPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::requestMonitorPacket
+//
+// Asks the remote to send a monitor packet. This does not wait for the
+// packet -- it is stored by handleMonitorPacket when it arrives and can then
+// be retrieved with getMonitorData.
+//
+
+public void requestMonitorPacket()
+{
+
+    sendByteArray(monitorRequest.length, monitorRequest);
+
+}//end of Notcher::requestMonitorPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::requestAllEncoderValues
+//
+// Asks the remote to send the counts of all encoders. This does not wait for
+// the packet -- it is stored by handleAllEncodersPacket when it arrives and
+// can then be retrieved with getEncoderData.
+//
+
+public void requestAllEncoderValues()
+{
+
+    sendByteArray(encoderRequest.length, encoderRequest);
+
+}//end of Notcher::requestAllEncoderValues
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::handleMonitorPacket
+//
+// Handles monitor packets received from the remote by copying the data bytes
+// into monitorBuffer. No objects are created.
+//
+// The packets may have been requested or pushed by the remote as a result of
+// subscribeMonitor -- both are handled the same way.
+//
+// If a MonitorListener has been set, it is passed a view of the packet in the
+// receive buffer.
+//
+// The data bytes have already been read and verified by packetHandlers.
+//
+
+private void handleMonitorPacket()
+{
+
+    synchronized(monitorBuffer){
+        System.arraycopy(decoder.getArray(), decoder.getFrameOffset(),
+                                    monitorBuffer, 0, MonitorPacket.SIZE);
+        monitorDataReady = true;
+        monitorPacketCount++;
+    }
+
+    MonitorListener listener = monitorListener;
+
+    if (listener != null){
+        listener.monitorPacketReceived(this,
+            rxMonitorPacket.wrap(decoder.getArray(), decoder.getFrameOffset()));
+    }
+
+}//end of Notcher::handleMonitorPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::handleAllEncodersPacket
+//
+// Handles encoder packets received from the remote by copying the data bytes
+// into allEncoderValuesBuf. No objects are created.
+//
+// The data bytes have already been read and verified by packetHandlers.
+//
+
+private void handleAllEncodersPacket()
+{
+
+    synchronized(allEncoderValuesBuf){
+        System.arraycopy(decoder.getArray(), decoder.getFrameOffset(),
+                                allEncoderValuesBuf, 0, EncoderPacket.SIZE);
+        encoderDataReady = true;
+    }
+
+}//end of Notcher::handleAllEncodersPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::handleEncoderStreamPacket
+//
+// Handles encoder stream packets received from the remote by unpacking the
+// block of samples and adding them to encoderSamples. The last sample is
+// also stored in allEncoderValuesBuf for getEncoderData.
+//
+// The data bytes have already been read and verified by packetHandlers.
+//
+
+private void handleEncoderStreamPacket()
+{
+
+    int count = rxEncoderStream.decodeBlock(decoder.getArray(),
+            decoder.getFrameOffset(), decoder.getFrameLength(), rxEncoderBlock);
+
+    if (count < 0) { badEncoderBlockCount++; return; }
+
+    if (count == 0) { return; }
+
+    int first = rxEncoderStream.getFirstSampleNumber();
+
+    synchronized(encoderSamples){
+
+        if (encoderStreamSynced && first - nextEncoderSampleNumber > 0){
+            encoderSamplesLost += first - nextEncoderSampleNumber;
+        }
+
+        nextEncoderSampleNumber = first + count;
+        encoderStreamSynced = true;
+
+        storeEncoderSamples(count);
+
+    }
+
+    int last = (count - 1) * EncoderStream.NUM_ENCODERS;
+
+    synchronized(allEncoderValuesBuf){
+        for (int i = 0; i < EncoderStream.NUM_ENCODERS; i++){
+            latestEncoderValues.setCount(i, rxEncoderBlock[last + i]);
+        }
+        encoderDataReady = true;
+    }
+
+}//end of Notcher::handleEncoderStreamPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::handleCreditPacket
+//
+// Handles CREDIT_CMD packets received from the remote. The data bytes are the
+// size of the remote's receive buffer and the total number of bytes it has
+// read since flow control was enabled.
+//
+// The data bytes have already been read and verified by packetHandlers.
+//
+
+private void handleCreditPacket()
+{
+
+    creditsReceived(decoder.getUnsignedShort(0), decoder.getInt(2));
+
+}//end of Notcher::handleCreditPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::startHeartbeat
+//
+// Starts the tracking of the link to the remote by heartbeat. NotcherGroup's
+// heartbeat thread then calls sendPingAsync every pInterval milliseconds.
+// The link is reported as slow if the round trip time exceeds pSlowTime
+// milliseconds. An interval of 0 stops the tracking.
+//
+// Does nothing if the remote does not support the heartbeat. Returns true if
+// the heartbeat was started.
+//
+
+public boolean startHeartbeat(int pInterval, int pSlowTime)
+{
+
+    if (!remoteSupportsHeartbeat) { return(false); }
+
+    roundTripStats.reset();
+
+    slowRoundTripNanos = pSlowTime * 1000000L;
+
+    //allow the first pong an interval to arrive
+    lastPongTime = System.nanoTime();
+
+    heartbeatNanos = pInterval * 1000000L;
+
+    return(pInterval > 0);
+
+}//end of Notcher::startHeartbeat
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::sendPing
+//
+// Sends a PING_CMD carrying the current System.nanoTime. The remote returns
+// the value in its PONG_CMD, from which handlePongPacket measures the round
+// trip time.
+//
+// Should not be called while another ping is being sent -- see sendPingAsync.
+//
+
+public void sendPing()
+{
+
+    if (!ready || reconnecting || heartbeatNanos == 0) { return; }
+
+    long now = System.nanoTime();
+
+    pingBuffer[0] = PING_CMD;
+
+    for (int i = 8; i > 0; i--) { pingBuffer[i] = (byte)now; now >>= 8; }
+
+    pingCount++;
+
+    sendByteArray(pingBuffer.length, pingBuffer);
+
+}//end of Notcher::sendPing
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::sendPingAsync
+//
+// Has pExecutor call sendPing and returns at once. If the previous ping has
+// not yet been sent, such as when the outbound queue is full and the remote
+// is not reading, no ping is sent and the skip is counted -- the missing
+// pongs show up in getLinkState.
+//
+// Should be called only by a single thread, such as NotcherGroup's heartbeat
+// thread.
+//
+
+public void sendPingAsync(Executor pExecutor)
+{
+
+    if (!ready || reconnecting || heartbeatNanos == 0) { return; }
+
+    if (pingInFlight) { pingSkipCount++; return; }
+
+    pingInFlight = true;
+
+    try{
+        pExecutor.execute(() -> {
+            try{ sendPing(); } finally { pingInFlight = false; }
+        });
+    }
+    catch(RejectedExecutionException e){
+        pingInFlight = false;
+    }
+
+}//end of Notcher::sendPingAsync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::handlePongPacket
+//
+// Handles PONG_CMD packets received from the remote. The data bytes are the
+// host's timestamp returned from the ping followed by the remote's clock in
+// milliseconds.
+//
+// The data bytes have already been read and verified by packetHandlers.
+//
+
+private void handlePongPacket()
+{
+
+    long now = System.nanoTime();
+
+    long sent = ((long)decoder.getInt(0) << 32)
+                                        | (decoder.getInt(4) & 0xffffffffL);
+
+    long remoteTime = decoder.getInt(8) & 0xffffffffL;
+
+    //ignore a pong to a ping sent before the heartbeat was started
+    if (heartbeatNanos == 0 || now - sent < 0) { return; }
+
+    roundTripStats.addSample(now - sent);
+
+    if (pongCount > 0 && remoteTime < lastRemoteTime){
+        remoteRestartCount++;
+        tsLog.appendLine("Notcher " + ipAddrS + " has restarted.");
+    }
+
+    lastRemoteTime = remoteTime;
+
+    lastPongTime = now;
+
+    pongCount++;
+
+}//end of Notcher::handlePongPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::getLinkState
+//
+// Returns the state of the link as measured by the heartbeat: LINK_OK,
+// LINK_SLOW, LINK_LOST, or LINK_UNKNOWN if the heartbeat is not running.
+// LINK_LOST is also returned while a unit which has been connected is
+// waiting to reconnect.
+//
+
+public int getLinkState()
+{
+
+    if (!ready && setupComplete) { return(LINK_LOST); }
+
+    long interval = heartbeatNanos;
+
+    if (interval == 0) { return(LINK_UNKNOWN); }
+
+    long silence = System.nanoTime() - lastPongTime;
+
+    if (silence >= LOST_INTERVALS * interval) { return(LINK_LOST); }
+
+    if (silence > interval + slowRoundTripNanos
+            || roundTripStats.getSmoothedNanos() > slowRoundTripNanos){
+        return(LINK_SLOW);
+    }
+
+    return(LINK_OK);
+
+}//end of Notcher::getLinkState
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::storeEncoderSamples
+//
+// Adds the first pCount samples in rxEncoderBlock to encoderSamples. If the
+// buffer is full, the oldest samples are overwritten.
+//
+// The caller must hold the encoderSamples lock.
+//
+
+private void storeEncoderSamples(int pCount)
+{
+
+    final int n = EncoderStream.NUM_ENCODERS;
+
+    for (int s = 0; s < pCount; s++){
+
+        if (encoderSamplesCount == ENCODER_SAMPLE_CAPACITY){
+            encoderSamplesHead =
+                            (encoderSamplesHead + 1) % ENCODER_SAMPLE_CAPACITY;
+            encoderSamplesCount--;
+            encoderSamplesDropped++;
+        }
+
+        int tail = (encoderSamplesHead + encoderSamplesCount)
+                                                    % ENCODER_SAMPLE_CAPACITY;
+
+        System.arraycopy(rxEncoderBlock, s * n, encoderSamples, tail * n, n);
+
+        encoderSamplesCount++;
+
+    }
+
+}//end of Notcher::storeEncoderSamples
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::takeEncoderSamples
+//
+// Removes the oldest samples received from the encoder stream and copies
+// them into pDest, NUM_ENCODERS counts per sample, encoder 0 first. As many
+// samples are copied as are waiting or will fit in pDest.
+//
+// Returns the number of samples copied.
+//
+
+public int takeEncoderSamples(int[] pDest)
+{
+
+    final int n = EncoderStream.NUM_ENCODERS;
+
+    synchronized(encoderSamples){
+
+        int count = Math.min(encoderSamplesCount, pDest.length / n);
+
+        //copy in up to two pieces as the samples may wrap around the end
+
+        int first =
+                Math.min(count, ENCODER_SAMPLE_CAPACITY - encoderSamplesHead);
+
+        System.arraycopy(encoderSamples, encoderSamplesHead * n,
+                                                        pDest, 0, first * n);
+
+        System.arraycopy(encoderSamples, 0, pDest, first * n,
+                                                        (count - first) * n);
+
+        encoderSamplesHead = (encoderSamplesHead + count)
+                                                    % ENCODER_SAMPLE_CAPACITY;
+        encoderSamplesCount -= count;
+
+        return(count);
+
+    }
+
+}//end of Notcher::takeEncoderSamples
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::getMonitorData
+//
+// Copies the latest monitor packet received into pDest. The values can then
+// be read through pDest's getters without being changed by later packets.
+// Pass the same MonitorPacket on each call so that nothing is created.
+//
+// Returns true if a new packet has been received since the last call, false
+// if the data is the same as returned last time.
+//
+
+public boolean getMonitorData(MonitorPacket pDest)
+{
+
+    synchronized(monitorBuffer){
+        pDest.copyFrom(monitorBuffer, 0);
+        boolean ready = monitorDataReady;
+        monitorDataReady = false;
+        return(ready);
+    }
+
+}//end of Notcher::getMonitorData
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::getEncoderData
+//
+// Copies the latest encoder counts received into pDest. See getMonitorData.
+//
+// Returns true if a new packet has been received since the last call.
+//
+
+public boolean getEncoderData(EncoderPacket pDest)
+{
+
+    synchronized(allEncoderValuesBuf){
+        pDest.copyFrom(allEncoderValuesBuf, 0);
+        boolean ready = encoderDataReady;
+        encoderDataReady = false;
+        return(ready);
+    }
+
+}//end of Notcher::getEncoderData
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::subscribeMonitor
+//
+// Asks the remote to send a monitor packet every pInterval milliseconds
+// without being asked until unsubscribeMonitor is called. This halves the
+// number of packets compared with requesting each one and the values arrive
+// as soon as they are sampled.
+//
+// The pushed packets are handled as they are read, so packets must be read
+// continuously -- use a reader thread (startReader) or a SelectorTransport.
+// Otherwise, the packets accumulate until the next call to one of the process
+// methods.
+//
+// Returns true if the remote acknowledged the command.
+//
+
+public boolean subscribeMonitor(int pInterval)
+{
+
+    cmdLock.lock();
+
+    try{
+
+        outBufScrIndex = 0;
+
+        outBufScratch[outBufScrIndex++] = SUBSCRIBE_CMD;
+        outBufScratch[outBufScrIndex++] = (byte)((pInterval >> 8) & 0xff);
+        outBufScratch[outBufScrIndex++] = (byte)(pInterval & 0xff);
+
+        if (!sendCmdAndWaitForAck(outBufScrIndex, outBufScratch)){
+            return(false);
+        }
+
+        monitorPushInterval = pInterval;
+
+        return(true);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::subscribeMonitor
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::unsubscribeMonitor
+//
+// Asks the remote to stop pushing monitor packets.
+//
+// Returns true if the remote acknowledged the command.
+//
+
+public boolean unsubscribeMonitor()
+{
+
+    return(subscribeMonitor(0));
+
+}//end of Notcher::unsubscribeMonitor
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::startEncoderStream
+//
+// Asks the remote to sample all encoders pSampleRate times per second and
+// send the samples in blocks of pSamplesPerBlock (1 to 255). Larger blocks
+// use less bandwidth but the samples arrive later. Pass 0 for pSampleRate to
+// stop the stream. The remote may send smaller blocks if the counts change
+// too quickly for a full block to fit in one packet.
+//
+// As with subscribeMonitor, the packets must be read continuously.
+//
+// Returns true if the remote acknowledged the command.
+//
+
+public boolean startEncoderStream(int pSampleRate,
+                                                        int pSamplesPerBlock)
+{
+
+    cmdLock.lock();
+
+    try{
+
+        resetEncoderStream();
+
+        outBufScrIndex = 0;
+
+        outBufScratch[outBufScrIndex++] = ENCODER_STREAM_CMD;
+        outBufScratch[outBufScrIndex++] = (byte)((pSampleRate >> 8) & 0xff);
+        outBufScratch[outBufScrIndex++] = (byte)(pSampleRate & 0xff);
+        outBufScratch[outBufScrIndex++] = (byte)pSamplesPerBlock;
+
+        if (!sendCmdAndWaitForAck(outBufScrIndex, outBufScratch)){
+            return(false);
+        }
+
+        encoderStreamRate = pSampleRate;
+        encoderSamplesPerBlock = pSamplesPerBlock;
+
+        return(true);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::startEncoderStream
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::stopEncoderStream
+//
+// Asks the remote to stop the encoder stream. Samples already received can
+// still be taken.
+//
+// Returns true if the remote acknowledged the command.
+//
+
+public boolean stopEncoderStream()
+{
+
+    return(startEncoderStream(0, 1));
+
+}//end of Notcher::stopEncoderStream
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::resetEncoderStream
+//
+// Clears the sample numbering so the gap before the first block of a new
+// stream is not counted as lost samples.
+//
+
+private void resetEncoderStream()
+{
+
+    synchronized(encoderSamples){
+        encoderStreamSynced = false;
+    }
+
+}//end of Notcher::resetEncoderStream
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::readBulk
+//
+// Reads the block of data pResource, such as BulkTransfer.WAVEFORM, from the
+// remote, waiting up to pTimeOut milliseconds for all of it to arrive. If the
+// unit reconnects meanwhile, the transfer resumes where it left off.
+//
+// Returns the completed transfer, or null if the read could not be started
+// or did not finish in time. Call release on the transfer once the data
+// returned by its getData method is no longer needed.
+//
+
+public BulkTransfer readBulk(int pResource, int pTimeOut)
+{
+
+    BulkTransfer transfer = startBulkRead(pResource);
+
+    if (transfer == null) { return(null); }
+
+    if (!waitForBulkRead(transfer, pTimeOut)){
+        cancelBulkRead();
+        return(null);
+    }
+
+    return(transfer);
+
+}//end of Notcher::readBulk
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::startBulkRead
+//
+// Asks the remote to send the block of data pResource and waits for the
+// request to be acknowledged. The chunks are then stored as they are read;
+// call waitForBulkRead to wait for all of them.
+//
+// Returns the transfer, or null if the remote does not support bulk reads,
+// another bulk read is in progress, or the request was not acknowledged.
+//
+
+public BulkTransfer startBulkRead(int pResource)
+{
+
+    BulkTransfer transfer = newBulkTransfer(pResource);
+
+    if (transfer == null) { return(null); }
+
+    byte[] request = getBulkReadRequest(transfer, 0);
+
+    if (!sendCmdAndWaitForAck(request.length, request)){
+        transfer.fail(new IOException("Notcher " + ipAddrS
+                                    + " did not acknowledge the bulk read."));
+        return(null);
+    }
+
+    return(transfer);
+
+}//end of Notcher::startBulkRead
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::waitForBulkRead
+//
+// Waits up to pTimeOut milliseconds for pTransfer to finish. If no other
+// thread reads the remote, the packets are read here a short time at a
+// time so that commands from other threads are not held up.
+//
+// Returns true if all of the data was received.
+//
+
+public boolean waitForBulkRead(BulkTransfer pTransfer, int pTimeOut)
+{
+
+    long deadline = System.nanoTime() + pTimeOut * 1000000L;
+
+    while (!pTransfer.isDone()){
+
+        long remaining = (deadline - System.nanoTime() + 999999) / 1000000;
+
+        if (remaining <= 0) { return(false); }
+
+        int wait = (int)Math.min(READER_WAIT, remaining);
+
+        //while the unit reconnects there is nothing to read
+        if (!ready){
+            try { Thread.sleep(wait); }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return(false);
+            }
+            continue;
+        }
+
+        cmdLock.lock();
+
+        try{
+            processOneDataPacket(wait);
+        }
+        finally{
+            cmdLock.unlock();
+        }
+
+    }
+
+    return(pTransfer.isComplete());
+
+}//end of Notcher::waitForBulkRead
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::cancelBulkRead
+//
+// Abandons the bulk read in progress, if any, and tells the remote to stop
+// sending it. The transfer's future is completed with a
+// CancellationException.
+//
+
+public void cancelBulkRead()
+{
+
+    BulkTransfer transfer = bulkTransfer;
+
+    if (transfer == null || transfer.isDone()) { return; }
+
+    transfer.fail(new CancellationException("Bulk read cancelled."));
+
+    if (ready){
+        sendBulkAck(new byte[bulkAckBuffer.length], transfer.getTransferId(),
+                            transfer.getReceived(), BulkTransfer.CANCEL_FLAG);
+    }
+
+}//end of Notcher::cancelBulkRead
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::newBulkTransfer
+//
+// Creates a transfer for pResource with the next transfer id and makes it
+// the one to which received chunks are added.
+//
+// Returns null if the remote does not support bulk reads or another bulk
+// read is in progress.
+//
+
+private BulkTransfer newBulkTransfer(int pResource)
+{
+
+    if (!remoteSupportsBulk) { return(null); }
+
+    synchronized(bulkLock){
+
+        BulkTransfer last = bulkTransfer;
+
+        if (last != null && !last.isDone()) { return(null); }
+
+        BulkTransfer transfer = new BulkTransfer(pResource,
+                nextBulkTransferId++, BulkTransfer.DEFAULT_WINDOW,
+                bulkBufferPool);
+
+        bulkTransfer = transfer;
+
+        return(transfer);
+
+    }
+
+}//end of Notcher::newBulkTransfer
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::getBulkReadRequest
+//
+// Returns a BULK_READ_CMD packet asking for pTransfer's data from pOffset on.
+//
+
+private byte[] getBulkReadRequest(BulkTransfer pTransfer, int pOffset)
+{
+
+    return(new byte[] {BULK_READ_CMD,
+                (byte)pTransfer.getResource(), pTransfer.getTransferId(),
+                (byte)((pOffset >> 24) & 0xff), (byte)((pOffset >> 16) & 0xff),
+                (byte)((pOffset >> 8) & 0xff), (byte)(pOffset & 0xff),
+                (byte)pTransfer.getWindow()});
+
+}//end of Notcher::getBulkReadRequest
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::resumeBulkRead
+//
+// Asks the remote to send the rest of pTransfer after a reconnect. If the
+// remote does not acknowledge the request, the transfer fails.
+//
+
+private void resumeBulkRead(BulkTransfer pTransfer)
+{
+
+    byte[] request = getBulkReadRequest(pTransfer, pTransfer.prepareResume());
+
+    if (remoteSupportsBulk && sendCmdAndWaitForAck(request.length, request)){
+        return;
+    }
+
+    tsLog.appendLine("Notcher " + ipAddrS + " did not resume bulk read.");
+
+    pTransfer.fail(new IOException(
+                        "Notcher " + ipAddrS + " did not resume bulk read."));
+
+}//end of Notcher::resumeBulkRead
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::handleBulkDataPacket
+//
+// Handles BULK_DATA_CMD packets received from the remote. The chunk is copied
+// from the decoder's buffer into the transfer's array and acknowledged if
+// the transfer asks for it.
+//
+// The data bytes have already been read and verified by packetHandlers.
+//
+
+private void handleBulkDataPacket()
+{
+
+    BulkTransfer transfer = bulkTransfer;
+
+    int length = decoder.getFrameLength() - BulkTransfer.CHUNK_HEADER_SIZE;
+
+    //chunks of a transfer which has been replaced are ignored
+    if (transfer == null || length < 0
+                        || decoder.getByte(0) != transfer.getTransferId()){
+        return;
+    }
+
+    int action = transfer.addChunk(decoder.getArray(),
+            decoder.getFrameOffset() + BulkTransfer.CHUNK_HEADER_SIZE, length,
+            decoder.getInt(1), decoder.getInt(5));
+
+    if (action == BulkTransfer.NO_ACK) { return; }
+
+    sendBulkAck(bulkAckBuffer, transfer.getTransferId(),
+                transfer.getReceived(), action == BulkTransfer.RESEND
+                                            ? BulkTransfer.RESEND_FLAG : 0);
+
+}//end of Notcher::handleBulkDataPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::sendBulkAck
+//
+// Builds a BULK_ACK_CMD packet in pBuf and sends it. The remote does not
+// acknowledge these packets.
+//
+
+private void sendBulkAck(byte[] pBuf, byte pTransferId, int pOffset,
+                                                                byte pFlags)
+{
+
+    pBuf[0] = BULK_ACK_CMD;
+    pBuf[1] = pTransferId;
+    pBuf[2] = (byte)((pOffset >> 24) & 0xff);
+    pBuf[3] = (byte)((pOffset >> 16) & 0xff);
+    pBuf[4] = (byte)((pOffset >> 8) & 0xff);
+    pBuf[5] = (byte)(pOffset & 0xff);
+    pBuf[6] = pFlags;
+
+    sendByteArray(pBuf.length, pBuf);
+
+}//end of Notcher::sendBulkAck
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::newFirmwareInstaller
+//
+// Returns an installer which will send pImage to this unit, keeping up to
+// pWindow blocks ahead of the unit's status. Run it with a FirmwareScheduler
+// or call its install method.
+//
+// Returns null if the unit is not connected or cannot be sent firmware.
+//
+
+public FirmwareInstaller newFirmwareInstaller(FirmwareImage pImage,
+                                                                int pWindow)
+{
+
+    if (!ready || !remoteSupportsFirmware) { return(null); }
+
+    return(new FirmwareInstaller(this, firmwareSettings, pImage,
+                                "Notcher " + index + " " + ipAddrS, pWindow));
+
+}//end of Notcher::newFirmwareInstaller
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::sendTestSetValueCmd
+//
+// Example code set for TEST_SET_VALUE_CMD command.
+//      DO NOT DELETE THIS METHOD
+//
+// Search this class and NotcherSimulator class for "TEST_SET_VALUE_CMD" for
+// all related code and info.
+//
+// Sends a byte and an integer to the remote waits for the response packet.
+//
+// Returns true on success, false on failure.
+//
+
+public boolean sendTestSetValueCmd(byte pByte, int pIntValue)
+{
+
+    cmdLock.lock();
+
+    try{
+
+        //the values are unpacked into bytes and stored in outBufScratch
+        //outBufScrIndex is used to load the array, start at position 0
+
+        outBufScrIndex = 0;
+
+        outBufScratch[outBufScrIndex++] = TEST_SET_VALUE_CMD;
+
+        //the byte is placed right here in this method
+        outBufScratch[outBufScrIndex++] = pByte;
+
+        //use method to unpack the integer into the scratch buffer
+        unpackInt(pIntValue, outBufScratch);
+
+        //send header, the data, and checksum and process all packets until the
+        //ACK packet for this command is found, waiting up to 1 sec
+
+        if (!sendCmdAndWaitForAck(outBufScrIndex, outBufScratch)){
+
+            //ACK packet for this command not received handle error here
+            //calling function can loop until this method returns true or the
+            //error can be ignored
+
+            return(false);
+
+        }
+
+        return(true);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::sendTestSetValueCmd
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::sendElectrodePowerOnOffCmd
+//
+// Sends an electorde power ON or OFF command to the notcher.
+//
+// Sends a byte to the remote waits for the response packet.
+//
+// Returns true on success, false on failure.
+//
+
+public boolean sendElectrodePowerOnOffCmd(byte pState)
+{
+
+    cmdLock.lock();
+
+    try{
+
+        //outBufScrIndex is used to load the array, start at position 0
+        outBufScrIndex = 0;
+
+        outBufScratch[outBufScrIndex++] = ELECTRODE_SUPPLY_ON_OFF_CMD ;
+
+        //the byte is placed right here in this method
+        outBufScratch[outBufScrIndex++] = pState;
+
+        //send header, the data, and checksum and process all packets until the
+        //ACK packet for this command is found, waiting up to 1 sec
+
+        if (!sendCmdAndWaitForAck(outBufScrIndex, outBufScratch)){
+
+            //ACK packet for this command not received handle error here
+            //calling function can loop until this method returns true or the
+            //error can be ignored
+
+            return(false);
+
+        }
+
+        sessionElectrodeState = pState;
+
+        return(true);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::sendElectrodePowerOnOffCmd
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::enableSequenceNumbers
+//
+// Asks the remote to use sequence numbers for all following packets. The
+// request itself is sent without a sequence number. If the remote returns an
+// ACK, sequence numbers are enabled on this side as well.
+//
+// As with enableCrcFrameCheck, the switch is made by handleACKPacket in the
+// thread which reads the packets so that the packet which follows the ACK is
+// parsed with the sequence number byte.
+//
+// Returns true if sequence numbers were enabled, false if the remote did not
+// acknowledge the request -- commands will be sent without sequence numbers.
+//
+
+public boolean enableSequenceNumbers()
+{
+
+    cmdLock.lock();
+
+    try{
+
+        if (sequenceNumbersEnabled) { return(true); }
+
+        outBufScrIndex = 0;
+
+        outBufScratch[outBufScrIndex++] = SEQUENCE_NUMBERS_CMD;
+        outBufScratch[outBufScrIndex++] = ON;
+
+        clearPendingCmds();
+
+        sequenceNumbersRequested = true;
+
+        boolean acked = sendCmdAndWaitForAck(outBufScrIndex, outBufScratch);
+
+        sequenceNumbersRequested = false;
+
+        return(acked && sequenceNumbersEnabled);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::enableSequenceNumbers
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::enableCrcFrameCheck
+//
+// Asks the remote to end all following packets with a CRC-32C rather than the
+// checksum. The request itself is sent with the checksum. If the remote
+// returns an ACK, the CRC is used on this side as well.
+//
+// The remote switches as soon as it has sent the ACK, so the next packet may
+// follow the ACK in the same read. The switch is therefore made by
+// handleACKPacket in the thread which reads the packets, before it parses
+// the next packet, rather than here once the wait returns.
+//
+// Should only be called if the remote advertised CRC_CAPABILITY in its
+// greeting.
+//
+// Returns true if the CRC frame check was enabled, false if the remote did
+// not acknowledge the request -- the checksum will continue to be used.
+//
+
+public boolean enableCrcFrameCheck()
+{
+
+    cmdLock.lock();
+
+    try{
+
+        if (crcEnabled) { return(true); }
+
+        outBufScrIndex = 0;
+
+        outBufScratch[outBufScrIndex++] = FRAME_CHECK_CMD;
+        outBufScratch[outBufScrIndex++] = CRC32C_FRAME_CHECK;
+
+        crcRequested = true;
+
+        boolean acked = sendCmdAndWaitForAck(outBufScrIndex, outBufScratch);
+
+        crcRequested = false;
+
+        return(acked && crcEnabled);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::enableCrcFrameCheck
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::enableFlowControl
+//
+// Asks the remote to report the room in its receive buffer and then limits
+// the bytes sent to that room. Both sides start counting bytes with the one
+// after the request, so the request is sent by itself before counting
+// starts.
+//
+// Should only be called if the remote advertised FLOW_CONTROL_CAPABILITY in
+// its greeting and after sequence numbers have been enabled, before other
+// threads start sending.
+//
+// Returns true if flow control was enabled, false if the remote did not
+// acknowledge the request.
+//
+
+public boolean enableFlowControl()
+{
+
+    cmdLock.lock();
+
+    try{
+
+        if (flowControlEnabled) { return(true); }
+
+        if (!sequenceNumbersEnabled) { return(false); }
+
+        outBufScrIndex = 0;
+
+        outBufScratch[outBufScrIndex++] = FLOW_CONTROL_CMD;
+        outBufScratch[outBufScrIndex++] = ON;
+
+        int seq;
+
+        outLock.lock();
+
+        try{
+            seq = sendSequencedCmd(outBufScrIndex, outBufScratch);
+            flushOutQueue();
+            startFlowControl();
+        }
+        finally{
+            outLock.unlock();
+        }
+
+        if (!waitForAck(seq, ACK_TIMEOUT)){
+            stopFlowControl();
+            return(false);
+        }
+
+        return(true);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::enableFlowControl
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::sendCmdAndWaitForAck
+//
+// Sends the command packet in pBytes and waits up to 1 second for its ACK.
+// The first byte of pBytes must be the command ID.
+//
+// If sequence numbers are enabled, the ACK must carry the command's sequence
+// number. Otherwise, the ACK is matched only by the command ID.
+//
+// Returns true if the ACK was received, false otherwise.
+//
+
+boolean sendCmdAndWaitForAck(int pNumBytes, byte[] pBytes)
+{
+
+    cmdLock.lock();
+
+    try{
+
+        if (sequenceNumbersEnabled){
+            int seq = sendSequencedCmd(pNumBytes, pBytes);
+            return(waitForAck(seq, ACK_TIMEOUT));
+        }
+
+        //reset so we can check ACK to see if it was for this packet -- this
+        //must be done before sending as the ACK may be handled by another
+        //thread
+        lastPacketTypeAcked = NO_ACTION;
+
+        if (!sendByteArray(pNumBytes, pBytes)) { return(false); }
+
+        //process all packets until ACK packet found
+        processDataPacketsUntilSpecifiedType(ACK_CMD, ACK_TIMEOUT);
+
+        return(lastPacketTypeAcked == pBytes[0]);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::sendCmdAndWaitForAck
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::sendCmdsAndWaitForAcks
+//
+// Sends the first pNumCmds command packets in pCmds and waits for their ACKs.
+// Each array must hold exactly one packet, starting with the command ID.
+//
+// If sequence numbers are enabled, the commands are queued with
+// sendSequencedCmd, go out in a single write, and their ACKs are waited for
+// together by waitForAllAcks -- the whole series takes one round trip.
+// Otherwise, each command is sent and its ACK waited for in turn.
+//
+// Returns an array holding true for each command which was acknowledged.
+//
+
+boolean[] sendCmdsAndWaitForAcks(int pNumCmds, byte[][] pCmds)
+{
+
+    cmdLock.lock();
+
+    try{
+
+        boolean[] acked = new boolean[pNumCmds];
+
+        if (!sequenceNumbersEnabled){
+            for (int i = 0; i < pNumCmds; i++){
+                acked[i] = sendCmdAndWaitForAck(pCmds[i].length, pCmds[i]);
+            }
+            return(acked);
+        }
+
+        int[] seqs = new int[pNumCmds];
+
+        for (int i = 0; i < pNumCmds; i++){
+            seqs[i] = sendSequencedCmd(pCmds[i].length, pCmds[i]);
+        }
+
+        if (pNumCmds > 0) { waitForAllAcks(ACK_TIMEOUT); }
+
+        for (int i = 0; i < pNumCmds; i++) { acked[i] = wasAcked(seqs[i]); }
+
+        return(acked);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::sendCmdsAndWaitForAcks
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Notcher::invokeCutMode
+// Notcher::sendSequencedCmd
 //
-// Sends "Cut" command to the remote.
+// Queues the command packet in pBytes with the next sequence number and adds
+// it to the table of pending commands. Does not wait for the ACK. The first
+// byte of pBytes must be the command ID.
+//
+// The packet is not sent until flushOutQueue is called or packets are next
+// processed, so a series of commands goes out in a single write. waitForAck
+// and waitForAllAcks send the queued commands before waiting.
+//
+// If the sequence number's entry in the table is still pending after all
+// other numbers have been used, that command is assumed lost and its entry is
+// reused.
+//
+// If the packet is dropped because the remote has no room for it, the command
+// is removed from the table at once and reported as not acknowledged.
+//
+// Holds cmdLock so that each command gets its own number even when several
+// threads send. The number is passed with the packet to the queue.
+//
+// Returns the sequence number used. Sequence numbers must be enabled before
+// calling this method.
 //
 
-public void invokeCutMode()
+public int sendSequencedCmd(int pNumBytes, byte[] pBytes)
 {
-    
-    //sendBytes(CUT_MODE_CMD, (byte) 0);
-    
-}//end of Notcher::invokeCutMode
+
+    cmdLock.lock();
+
+    try{
+
+        int seq = nextSequenceNumber;
+
+        nextSequenceNumber = (nextSequenceNumber + 1) % NUM_SEQUENCE_NUMBERS;
+
+        synchronized(pendingCmds){
+
+            if (pendingFlags[seq]){ abandonedCmdCount++; numPendingCmds--; }
+
+            pendingCmds[seq] = pBytes[0];
+            pendingFlags[seq] = true;
+            ackedFlags[seq] = false;
+            numPendingCmds++;
+
+        }
+
+        //a dropped command will never be acknowledged, so fail it now rather
+        //than have the caller wait for its ACK
+
+        if (!queueByteArray(pNumBytes, pBytes, (byte)seq)){
+            removePendingCmd(seq);
+        }
+
+        return(seq);
+
+    }
+    finally{
+        cmdLock.unlock();
+    }
+
+}//end of Notcher::sendSequencedCmd
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Notcher::invokeStopMode
+// Notcher::removePendingCmd
 //
-// Sends "Stop" command to the remote.
+// Removes the command with sequence number pSeq from the table of pending
+// commands if it is still pending, leaving it marked as not acknowledged. An
+// ACK which arrives for it later is ignored.
 //
 
-public void invokeStopMode()
+void removePendingCmd(int pSeq)
 {
 
-    //sendBytes(STOP_MODE_CMD, (byte) 0);
+    synchronized(pendingCmds){
 
-}//end of Notcher::invokeStopMode
+        if (!pendingFlags[pSeq]) { return; }
+
+        pendingFlags[pSeq] = false;
+        numPendingCmds--;
+        abandonedCmdCount++;
+
+    }
+
+}//end of Notcher::removePendingCmd
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Notcher::zeroDepthCount
+// Notcher::resolvePendingCmd
 //
-// Sends "Zero Depth Count" command to the remote.
+// Marks the pending command with sequence number pSeq as acknowledged if the
+// command ID pAckedCmd returned in the ACK matches the command sent with that
+// sequence number.
 //
 
-public void zeroDepthCount()
+void resolvePendingCmd(byte pSeq, byte pAckedCmd)
 {
 
-    //sendBytes(ZERO_DEPTH_CMD, (byte) 0);
-    
-}//end of Notcher::zeroDepthCount
+    int seq = pSeq & 0xff;
+
+    synchronized(pendingCmds){
+
+        if (!pendingFlags[seq] || pendingCmds[seq] != pAckedCmd) { return; }
+
+        pendingFlags[seq] = false;
+        ackedFlags[seq] = true;
+        numPendingCmds--;
+
+    }
+
+}//end of Notcher::resolvePendingCmd
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Notcher::zeroTargetDepth
+// Notcher::waitForAck
 //
-// Sends "Zero Target Depth " command to the remote.
+// Processes packets until the command with sequence number pSeq has been
+// acknowledged or until pTimeOut milliseconds have passed. The time is not
+// restarted by each packet, so pushed packets arriving steadily do not keep
+// the caller waiting for an ACK which was lost.
+//
+// If the time runs out, the command is removed from the table of pending
+// commands so that it does not hold up later calls to waitForAllAcks.
+//
+// Returns true if the command was acknowledged.
 //
 
-public void zeroTargetDepth()
+public boolean waitForAck(int pSeq, int pTimeOut)
 {
 
-    //sendBytes(ZERO_TARGET_DEPTH_CMD, (byte) 0);
-    
-}//end of Notcher::zeroDepthCount
+    long deadline = System.nanoTime() + pTimeOut * 1000000L;
+
+    while (isCmdPending(pSeq)
+            && processOneDataPacket(getTimeLeft(deadline)) != -1
+            && System.nanoTime() < deadline){}
+
+    removePendingCmd(pSeq);
+
+    return(wasAcked(pSeq));
+
+}//end of Notcher::waitForAck
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Notcher::handleACKPacket
+// Notcher::waitForAllAcks
 //
-// Handles ACK packets received from the remote.
+// Processes packets until all pending commands have been acknowledged or
+// until pTimeOut milliseconds have passed in all.
 //
-// Returns the number of bytes read from the socket.
+// If the time runs out, the commands still pending are removed from the
+// table so that the next call does not wait for them again. Use wasAcked to
+// find which of them were acknowledged.
+//
+// Returns true if all commands were acknowledged.
 //
 
-public int handleACKPacket()
+public boolean waitForAllAcks(int pTimeOut)
 {
 
-    int status = readBlockAndVerify(1, ACK_CMD);
+    long deadline = System.nanoTime() + pTimeOut * 1000000L;
 
-    //on error reading and verifying, return the error code
-    if (status == -1){ return(status); }
-    
-    //store the packet type to which this ACK is responding
-    lastPacketTypeAcked = inBuffer[0];
-    
-    return(status);
-        
-}//end of Notcher::handleACKPacket
+    while (getNumPendingCmds() > 0
+            && processOneDataPacket(getTimeLeft(deadline)) != -1
+            && System.nanoTime() < deadline){}
+
+    if (getNumPendingCmds() == 0) { return(true); }
+
+    for (int i = 0; i < NUM_SEQUENCE_NUMBERS; i++) { removePendingCmd(i); }
+
+    return(false);
+
+}//end of Notcher::waitForAllAcks
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Notcher::sendTestSetValueCmd
+// Notcher::clearPendingCmds
 //
-// Example code set for TEST_SET_VALUE_CMD command.
-//      DO NOT DELETE THIS METHOD
+// Removes all commands from the table of pending commands.
 //
-// Search this class and NotcherSimulator class for "TEST_SET_VALUE_CMD" for
-// all related code and info.
+
+public void clearPendingCmds()
+{
+
+    synchronized(pendingCmds){
+
+        for (int i = 0; i < NUM_SEQUENCE_NUMBERS; i++){
+            pendingFlags[i] = false; ackedFlags[i] = false;
+        }
+
+        numPendingCmds = 0;
+
+    }
+
+}//end of Notcher::clearPendingCmds
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::wasAcked
 //
-// Sends a byte and an integer to the remote waits for the response packet.
+// Returns true if the command sent with sequence number pSeq has been
+// acknowledged.
 //
-// Returns true on success, false on failure.
+
+public boolean wasAcked(int pSeq)
+{
+
+    synchronized(pendingCmds){ return(ackedFlags[pSeq]); }
+
+}//end of Notcher::wasAcked
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::isCmdPending
+//
+// Returns true if the command sent with sequence number pSeq is still waiting
+// for its ACK.
 //
 
-public boolean sendTestSetValueCmd(byte pByte, int pIntValue)
+boolean isCmdPending(int pSeq)
 {
-    
-    //the values are unpacked into bytes and stored in outBufScratch
-    //outBufScrIndex is used to load the array, start at position 0
-    
-    outBufScrIndex = 0;
-    
-    outBufScratch[outBufScrIndex++] = TEST_SET_VALUE_CMD;
-    
-    //the byte is placed right here in this method
-    outBufScratch[outBufScrIndex++] = pByte;
-    
-    //use method to unpack the integer into the scratch buffer
-    unpackInt(pIntValue, outBufScratch);
-    
-    //send header, the data, and checksum
-    sendByteArray(outBufScrIndex, outBufScratch);
 
-    //reset so we can check ACK to see if it was for this packet
-    lastPacketTypeAcked = NO_ACTION;
-    
-    //process all packets until ACK packet found, waiting up to 1 sec
-    processDataPacketsUntilSpecifiedType(ACK_CMD, 100);
-    
-    if (lastPacketTypeAcked != TEST_SET_VALUE_CMD){
-     
-        //ACK packet for this command not received handle error here
-        //calling function can loop until this method returns true or the
-        //error can be ignored
-  
-        return(false);
-        
+    synchronized(pendingCmds){ return(pendingFlags[pSeq]); }
+
+}//end of Notcher::isCmdPending
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::getNumPendingCmds
+//
+// Returns the number of commands sent with sequence numbers which have not
+// yet been acknowledged.
+//
+
+public int getNumPendingCmds()
+{
+
+    synchronized(pendingCmds){ return(numPendingCmds); }
+
+}//end of Notcher::getNumPendingCmds
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::setTargetDepthAsync
+//
+// Asynchronous version of setTargetDepth. The returned future is completed
+// exceptionally without sending anything if the remote does not accept the
+// command.
+//
+
+public CompletableFuture<Ack> setTargetDepthAsync(final int pTargetDepth)
+{
+
+    if (!remoteSupportsTargetDepth){
+        CompletableFuture<Ack> future = new CompletableFuture<>();
+        future.completeExceptionally(new IOException(
+                "Notcher " + ipAddrS + " does not accept a target depth."));
+        return(future);
     }
-    
-    return(true);
-    
-}//end of Notcher::sendTestSetValueCmd
+
+    CompletableFuture<Ack> future = submitCmd(SET_TARGET_DEPTH_CMD,
+                    (byte)((pTargetDepth >> 24) & 0xff),
+                    (byte)((pTargetDepth >> 16) & 0xff),
+                    (byte)((pTargetDepth >> 8) & 0xff),
+                    (byte)(pTargetDepth & 0xff));
+
+    return(future.thenApply(ack -> {
+        sessionTargetDepth = pTargetDepth;
+        sessionTargetDepthSet = true;
+        return(ack);
+    }));
+
+}//end of Notcher::setTargetDepthAsync
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Notcher::sendElectrodePowerOnOffCmd
+// Notcher::sendElectrodePowerOnOffCmdAsync
 //
-// Sends an electorde power ON or OFF command to the notcher.
+// Sends an electrode power ON or OFF command to the notcher on this unit's
+// I/O thread. The returned future is completed when the ACK is received or
+// completed exceptionally if all attempts fail.
 //
-// Sends a byte to the remote waits for the response packet.
+
+public CompletableFuture<Ack> sendElectrodePowerOnOffCmdAsync(byte pState)
+{
+
+    CompletableFuture<Ack> future =
+                            submitCmd(ELECTRODE_SUPPLY_ON_OFF_CMD, pState);
+
+    return(future.thenApply(ack -> {
+        sessionElectrodeState = pState; return(ack);
+    }));
+
+}//end of Notcher::sendElectrodePowerOnOffCmdAsync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::subscribeMonitorAsync
 //
-// Returns true on success, false on failure.
+// Asynchronous version of subscribeMonitor. Pass 0 for pInterval to
+// unsubscribe.
 //
 
-public boolean sendElectrodePowerOnOffCmd(byte pState)
+public CompletableFuture<Ack> subscribeMonitorAsync(final int pInterval)
 {
-    
-    //outBufScrIndex is used to load the array, start at position 0
-    outBufScrIndex = 0;
-    
-    outBufScratch[outBufScrIndex++] = ELECTRODE_SUPPLY_ON_OFF_CMD ;
-    
-    //the byte is placed right here in this method
-    outBufScratch[outBufScrIndex++] = pState;
-    
-    //send header, the data, and checksum
-    sendByteArray(outBufScrIndex, outBufScratch);
 
-    //reset so we can check ACK to see if it was for this packet
-    lastPacketTypeAcked = ELECTRODE_SUPPLY_ON_OFF_CMD;
-    
-    //process all packets until ACK packet found, waiting up to 1 sec
-    processDataPacketsUntilSpecifiedType(ACK_CMD, 100);
-    
-    if (lastPacketTypeAcked != ELECTRODE_SUPPLY_ON_OFF_CMD){
-     
-        //ACK packet for this command not received handle error here
-        //calling function can loop until this method returns true or the
-        //error can be ignored
-  
-        return(false);
-        
+    CompletableFuture<Ack> future = submitCmd(SUBSCRIBE_CMD,
+                (byte)((pInterval >> 8) & 0xff), (byte)(pInterval & 0xff));
+
+    return(future.thenApply(ack -> {
+        monitorPushInterval = pInterval; return(ack);
+    }));
+
+}//end of Notcher::subscribeMonitorAsync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::startEncoderStreamAsync
+//
+// Asynchronous version of startEncoderStream. Pass 0 for pSampleRate to stop
+// the stream.
+//
+
+public CompletableFuture<Ack> startEncoderStreamAsync(final int pSampleRate,
+                                                final int pSamplesPerBlock)
+{
+
+    resetEncoderStream();
+
+    CompletableFuture<Ack> future = submitCmd(ENCODER_STREAM_CMD,
+                (byte)((pSampleRate >> 8) & 0xff), (byte)(pSampleRate & 0xff),
+                (byte)pSamplesPerBlock);
+
+    return(future.thenApply(ack -> {
+        encoderStreamRate = pSampleRate;
+        encoderSamplesPerBlock = pSamplesPerBlock;
+        return(ack);
+    }));
+
+}//end of Notcher::startEncoderStreamAsync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::readBulkAsync
+//
+// Asynchronous version of readBulk. The request is sent on the I/O thread and
+// the returned future is completed with the transfer once all of the data
+// has arrived, or exceptionally if the read cannot be started or fails.
+//
+// The chunks must be read as they arrive, so this requires the selector
+// transport or a reader thread. There is no time limit -- use
+// cancelBulkRead to abandon the read.
+//
+
+public CompletableFuture<BulkTransfer> readBulkAsync(final int pResource)
+{
+
+    final BulkTransfer transfer = newBulkTransfer(pResource);
+
+    if (transfer == null){
+        CompletableFuture<BulkTransfer> future = new CompletableFuture<>();
+        future.completeExceptionally(new IOException(
+                    "Notcher " + ipAddrS + " cannot start a bulk read."));
+        return(future);
     }
-    
-    return(true);
-    
-}//end of Notcher::sendElectrodePowerOnOffCmd
+
+    submitCmd(getBulkReadRequest(transfer, 0)).whenComplete((ack, e) -> {
+        if (e != null) { transfer.fail(e); }
+    });
+
+    return(transfer.getFuture());
+
+}//end of Notcher::readBulkAsync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::sendTestSetValueCmdAsync
+//
+// Example code set for TEST_SET_VALUE_CMD command.
+//
+// Asynchronous version of sendTestSetValueCmd. The returned future is
+// completed when the ACK is received or completed exceptionally if all
+// attempts fail.
+//
+
+public CompletableFuture<Ack> sendTestSetValueCmdAsync(byte pByte,
+                                                                int pIntValue)
+{
+
+    return(submitCmd(TEST_SET_VALUE_CMD, pByte,
+                    (byte)((pIntValue >> 24) & 0xff),
+                    (byte)((pIntValue >> 16) & 0xff),
+                    (byte)((pIntValue >> 8) & 0xff),
+                    (byte)(pIntValue & 0xff)));
+
+}//end of Notcher::sendTestSetValueCmdAsync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::submitCmd
+//
+// Sends the command packet in pBytes on this unit's I/O thread and waits for
+// the ACK, resending up to MAX_CMD_ATTEMPTS times. The first byte of pBytes
+// must be the command ID.
+//
+// Returns a future which is completed with an Ack on success or completed
+// exceptionally with a TimeoutException if all attempts fail.
+//
+
+CompletableFuture<Ack> submitCmd(final byte... pBytes)
+{
+
+    final CompletableFuture<Ack> future = new CompletableFuture<>();
+
+    if (!ready){
+        future.completeExceptionally(new IOException(
+                                "Notcher " + index + " is not connected."));
+        return(future);
+    }
+
+    try{
+        getIOExecutor().execute(() -> {
+
+            long start = System.nanoTime();
+
+            for (int attempt = 1; attempt <= MAX_CMD_ATTEMPTS; attempt++){
+                if (sendCmdAndWaitForAck(pBytes.length, pBytes)){
+                    future.complete(new Ack(index, pBytes[0], attempt,
+                                                System.nanoTime() - start));
+                    return;
+                }
+            }
+
+            future.completeExceptionally(new TimeoutException(
+                    "Notcher " + ipAddrS + " did not acknowledge command "
+                                                                + pBytes[0]));
+        });
+    }
+    catch(RejectedExecutionException e){
+        future.completeExceptionally(e);
+    }
+
+    return(future);
+
+}//end of Notcher::submitCmd
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Notcher::getIOExecutor
+//
+// Returns the executor which runs this unit's asynchronous commands one at a
+// time on a single I/O thread, creating it on first use. The thread is a
+// daemon or virtual thread so it will not prevent the program from exiting.
+//
+
+ExecutorService getIOExecutor()
+{
+
+    synchronized(ioExecutorLock){
+
+        if (ioExecutor == null){
+            ioExecutor = Executors.newSingleThreadExecutor(
+                DeviceThreads.newThreadFactory(
+                                "Notcher " + index + " I/O", virtualThreads));
+        }
+
+        return(ioExecutor);
+
+    }
+
+}//end of Notcher::getIOExecutor
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
@@ -799,6 +3611,22 @@ public void saveCalFile(model.IniFile pCalFile)
 protected void shutDown()
 {
 
+    synchronized(ioExecutorLock){
+        if (ioExecutor != null) { ioExecutor.shutdownNow(); }
+    }
+
+    BulkTransfer transfer = bulkTransfer;
+    if (transfer != null) {
+        transfer.fail(new IOException("Notcher " + index + " shut down."));
+    }
+
+    //let the reader finish its current read before the streams are closed
+    Thread reader = readerThread;
+    if (reader != null){
+        readerRunning = false;
+        try { reader.join(READER_WAIT * 2); } catch (InterruptedException e) { }
+    }
+
     //close everything - the order of closing may be important
 
     try{
@@ -808,6 +3636,7 @@ protected void shutDown()
         if (out != null) {out.close();}
         if (in != null) {in.close();}
         if (socket != null) {socket.close();}
+        if (channel != null) {channel.close();}
 
     }
     catch(IOException e){
@@ -14,6 +14,156 @@
 * list.
 * 
 * Program Flow and Adding New Functionality
+*
+* Selector Transport
+*
+* If "Use Selector Transport" is set in the [Hardware] section of
+* General Settings.ini, all units are connected with non-blocking
+* SocketChannels serviced by a single SelectorTransport thread instead of a
+* blocking Socket per unit. See SelectorTransport.java for details. This
+* allows the number of units to grow without adding a thread per unit.
+*
+* The simulated units normally use rings in memory rather than sockets, so
+* the standard transport is used when simulating unless the simulators are
+* reached over TCP; see "Simulator TCP" below.
+*
+* Device Threads
+*
+* If "Use Device Threads" is set instead, each unit keeps its blocking
+* connection but gets its own reader thread which handles every packet as it
+* arrives; see Notcher.startReader. On Java 21 or later these are virtual
+* threads, so a thread per unit costs little even with many units. On older
+* Java versions, platform threads are used. The mode is ignored if the
+* selector transport is in use as its thread already does the reading.
+*
+* Monitor Push
+*
+* If "Monitor Push Interval" is set to a number of milliseconds, each unit is
+* subscribed after it is initialized and pushes a monitor packet at that
+* interval rather than waiting to be asked. The packets must be read as they
+* arrive, so this requires the selector transport or device threads. The
+* units are unsubscribed by shutDown.
+*
+* Encoder Stream
+*
+* If "Encoder Stream Rate" is set to a number of samples per second, each
+* unit is told to sample all of its encoders at that rate and send them in
+* compact blocks of "Encoder Samples Per Block" samples; see
+* Notcher.startEncoderStream. As with the monitor push, this requires the
+* selector transport or device threads. The streams are stopped by shutDown.
+*
+* Heartbeat
+*
+* If "Heartbeat Interval" is set to a number of milliseconds, a single
+* heartbeat thread pings every unit at that interval and each unit tracks
+* its round trip time and link state from the answers; see
+* Notcher.startHeartbeat. A unit whose smoothed round trip time exceeds
+* "Heartbeat Slow Time" milliseconds is reported as slow. As the answers must
+* be read as they arrive, this requires the selector transport or device
+* threads.
+*
+* The heartbeat thread never sends a ping itself. Each ping is handed to a
+* pool thread, and a unit whose previous ping has not yet been sent is
+* skipped for that interval, so a unit which has stopped reading cannot
+* delay the pings to the others.
+*
+* Reconnect
+*
+* A unit which reboots or whose cable is pulled loses its connection. A
+* reconnect thread checks every unit each RECONNECT_CHECK_INTERVAL and, for
+* any which are not connected, starts a new connection on that unit's own
+* I/O thread so a slow attempt does not hold up the others; see
+* Notcher.reconnect. The first attempt is made about "Reconnect Min Delay"
+* milliseconds after the loss and each failure doubles the delay up to
+* "Reconnect Max Delay", with each delay chosen at random between half and
+* all of that value so units dropped together do not retry together. Set
+* "Reconnect Min Delay" to 0 to disable.
+*
+* A pulled cable is only noticed by the heartbeat, so the heartbeat should
+* be enabled as well. After reconnecting, each unit restores its target
+* depth, mode, electrode state, and subscriptions. The same Notcher objects
+* are kept, so the GUI panels stay in place throughout.
+*
+* Asynchronous Commands
+*
+* The *Async methods send a command to one unit or to all units at once and
+* return a CompletableFuture immediately. Each unit sends its command on its
+* own I/O thread, so commands to all units are in flight at the same time
+* rather than being sent and acknowledged one unit after another. The future
+* returned for a group command completes when every unit has answered; it
+* completes exceptionally if any unit failed.
+*
+* Firmware
+*
+* installFirmware installs an image file in every unit which supports it.
+* Up to "Firmware Max Concurrent Installs" units are updated at once, each
+* with up to "Firmware Window" blocks in flight; see FirmwareScheduler and
+* FirmwareInstaller.
+*
+* Wire Capture
+*
+* If "Wire Capture" is true, every frame sent to and received from each unit
+* is recorded in the ring file "Wire Capture File", which holds the most
+* recent "Wire Capture Size" megabytes of traffic; see WireCapture. The file
+* is replaced each time the program starts, so copy it before restarting to
+* examine a problem.
+*
+* Capture Replay
+*
+* If simulating and "Replay Capture File" names a file written by wire
+* capture, each simulated unit sends the packets the unit with the same index
+* sent in that capture instead of its simulated data; see CaptureReplay. The
+* packets are sent at the recorded intervals divided by "Replay Speed" (1 for
+* real time, 0 for as fast as possible) and, if "Replay Loop" is true, the
+* capture is started over once all have been sent.
+*
+* Simulator Farm
+*
+* Each simulated unit normally runs on a thread of its own. If "Simulator
+* Farm Threads" is greater than 0, all simulated units are instead run by
+* that many shared threads; see SimulatorFarm.
+*
+* Roll Call Simulation
+*
+* When simulating, "Simulated Notcher Count" units answer the roll call. They
+* answer instantly unless "Simulate Roll Call Over Multicast" is true, in
+* which case the roll call is sent over real multicast on the loopback
+* interface and each unit answers after "Roll Call Response Delay"
+* milliseconds plus up to "Roll Call Response Jitter" more, with each answer
+* lost at a rate of "Roll Call Response Loss" percent; see UDPSimulator. The
+* time from the first roll call to the last new answer is logged so the roll
+* call can be tuned without the hardware.
+*
+* Fault Injection
+*
+* If simulating and "Fault Injection" is true, the links with the simulated
+* units are delayed by "Fault Latency" milliseconds, limited to "Fault
+* Bandwidth" bytes per second (0 for no limit), and have each byte dropped,
+* duplicated, or given a flipped bit with the chances "Fault Drop Rate",
+* "Fault Duplicate Rate", and "Fault Bit Flip Rate". A "Fault Seed" other
+* than 0 repeats the same faults with each run. The faults injected are
+* logged by shutDown; see FaultInjector.
+*
+* Simulator TCP
+*
+* If simulating and "Simulate Over TCP" is true, each simulated unit listens
+* on its own loopback address (127.0.0.1 for the first unit, 127.0.0.2 for
+* the next, and so on) at "Simulator TCP Port" and the units are connected
+* with the normal socket code, so benchmarks include the real TCP stack and
+* packets may arrive in pieces as with real units. The selector transport
+* may be used in this mode. The farm is not; see SimulatorServer.
+*
+* Unit Count
+*
+* Up to "Max Notcher Count" units are accepted from the roll call, 10 if not
+* set.
+*
+* Running Without the GUI
+*
+* The group needs only a ThreadSafeLogger, which may be created without a
+* log window so messages go to the console. Settings may be supplied with
+* init(IniFile) in place of General Settings.ini, such as a copy of it with
+* some values changed in memory; see benchmark.LoadTest.
 * 
 * 
 * Open Source Policy:
@@ -29,7 +179,16 @@ package Hardware;
 
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import model.IniFile;
@@ -49,7 +208,80 @@ public class NotcherGroup extends Object{
 
     boolean simulateNotchers;
 
-    private static final int MAX_NUM_NOTCHERS = 10;
+    boolean useSelectorTransport;
+    SelectorTransport transport;
+
+    boolean useDeviceThreads;
+
+    //milliseconds between monitor packets pushed by each unit; 0 for none
+    int monitorPushInterval;
+
+    //encoder samples per second sent by each unit, 0 for none, and the
+    //number of samples sent in each packet
+    int encoderStreamRate;
+    int encoderSamplesPerBlock;
+
+    //milliseconds between pings to each unit, 0 for none, and the round trip
+    //time above which a unit is reported as slow
+    int heartbeatInterval;
+    int heartbeatSlowTime;
+
+    //pings all units every heartbeatInterval
+    Thread heartbeatThread;
+    volatile boolean heartbeatRunning = false;
+
+    //sends the pings for the heartbeat thread so that a unit which cannot
+    //accept its ping does not hold up the pings to the others
+    ExecutorService pingExecutor;
+
+    //milliseconds before the first reconnect attempt after a unit is lost,
+    //0 for no reconnect, and the longest delay between attempts
+    int reconnectMinDelay;
+    int reconnectMaxDelay;
+
+    //reconnects units which have lost their connections
+    Thread reconnectThread;
+    volatile boolean reconnectRunning = false;
+
+    //milliseconds between checks of the units by the reconnect thread
+    static final int RECONNECT_CHECK_INTERVAL = 100;
+
+    //most units updated at once and the blocks in flight to each
+    int firmwareMaxConcurrent;
+    int firmwareWindow;
+
+    //records the traffic with all units, null if capture is off
+    WireCapture wireCapture;
+
+    //the packets sent to the host by each simulated unit, null if the units
+    //send simulated data
+    CaptureReplay[] replays;
+
+    //runs the simulated units, null if each has a thread of its own
+    SimulatorFarm simulatorFarm;
+
+    //accepts TCP connections to the simulated units, null if the simulators
+    //are substituted for the sockets
+    SimulatorServer simulatorServer;
+
+    //injects faults into the links with the simulated units, null for none
+    FaultInjector faultInjector;
+
+    //the number of simulated units which answer the roll call and, if
+    //rollCallMulticast is true, the timing of their answers over multicast
+    int simulatedNotcherCount;
+    boolean rollCallMulticast;
+    int rollCallResponseDelay;
+    int rollCallResponseJitter;
+    int rollCallResponseLoss; //percent
+
+    //System.nanoTime when the first roll call was sent and when the last
+    //unit not heard from before answered
+    long rollCallStartTime = 0;
+    long lastNewResponseTime = 0;
+
+    private static final int DEFAULT_MAX_NUM_NOTCHERS = 10;
+    private int maxNumNotchers = DEFAULT_MAX_NUM_NOTCHERS;
     
     private int numberOfNotchers = 0;
     public int getNumberOfNotchers() {return (numberOfNotchers); }
@@ -60,7 +292,7 @@ public class NotcherGroup extends Object{
 
     ThreadSafeLogger tsLog;
 
-    static int RUNTIME_PACKET_SIZE = 50;
+    static int RUNTIME_PACKET_SIZE = Notcher.RUNTIME_PACKET_SIZE;
 
     byte[] pktBuffer;
     
@@ -101,6 +333,23 @@ public void init()
 }//end of NotcherGroup::init
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// NotcherGroup::init
+//
+// Initializes the object using the settings in pConfigFile rather than those
+// in General Settings.ini. pConfigFile should already be opened.
+//
+
+public void init(IniFile pConfigFile)
+{
+
+    pktBuffer = new byte[RUNTIME_PACKET_SIZE];
+
+    configure(pConfigFile);
+
+}//end of NotcherGroup::init
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // NotcherGroup::configure
 //
@@ -118,9 +367,116 @@ private void configure()
     } catch(IOException e) {
         return;
     }
-    
+
+    configure(configFile);
+
+}//end of NotcherGroup::configure
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::configure
+//
+// Loads configuration settings from pConfigFile and creates the child
+// objects as specified.
+//
+
+private void configure(IniFile pConfigFile)
+{
+
+    maxNumNotchers = Math.max(1, pConfigFile.readInt("Hardware",
+                            "Max Notcher Count", DEFAULT_MAX_NUM_NOTCHERS));
+
     simulateNotchers =
-       configFile.readBoolean("Hardware", "Simulate Notchers", false);
+       pConfigFile.readBoolean("Hardware", "Simulate Notchers", false);
+
+    useSelectorTransport =
+       pConfigFile.readBoolean("Hardware", "Use Selector Transport", false);
+
+    useDeviceThreads =
+       pConfigFile.readBoolean("Hardware", "Use Device Threads", false);
+
+    monitorPushInterval =
+       pConfigFile.readInt("Hardware", "Monitor Push Interval", 0);
+
+    encoderStreamRate =
+       pConfigFile.readInt("Hardware", "Encoder Stream Rate", 0);
+
+    encoderSamplesPerBlock =
+       pConfigFile.readInt("Hardware", "Encoder Samples Per Block", 32);
+
+    heartbeatInterval =
+       pConfigFile.readInt("Hardware", "Heartbeat Interval", 0);
+
+    heartbeatSlowTime =
+       pConfigFile.readInt("Hardware", "Heartbeat Slow Time", 20);
+
+    reconnectMinDelay =
+       pConfigFile.readInt("Hardware", "Reconnect Min Delay", 500);
+
+    reconnectMaxDelay =
+       pConfigFile.readInt("Hardware", "Reconnect Max Delay", 30000);
+
+    firmwareMaxConcurrent =
+       pConfigFile.readInt("Hardware", "Firmware Max Concurrent Installs", 4);
+
+    firmwareWindow =
+       pConfigFile.readInt("Hardware", "Firmware Window",
+                                            FirmwareInstaller.DEFAULT_WINDOW);
+
+    if (pConfigFile.readBoolean("Hardware", "Wire Capture", false)){
+        openWireCapture(
+            pConfigFile.readString("Hardware", "Wire Capture File",
+                                                        "Wire Capture.bin"),
+            pConfigFile.readInt("Hardware", "Wire Capture Size", 16));
+    }
+
+    simulatedNotcherCount =
+       pConfigFile.readInt("Hardware", "Simulated Notcher Count", 4);
+
+    rollCallMulticast = pConfigFile.readBoolean(
+                        "Hardware", "Simulate Roll Call Over Multicast", false);
+
+    rollCallResponseDelay =
+       pConfigFile.readInt("Hardware", "Roll Call Response Delay", 5);
+
+    rollCallResponseJitter =
+       pConfigFile.readInt("Hardware", "Roll Call Response Jitter", 20);
+
+    rollCallResponseLoss =
+       pConfigFile.readInt("Hardware", "Roll Call Response Loss", 0);
+
+    int farmThreads =
+       pConfigFile.readInt("Hardware", "Simulator Farm Threads", 0);
+
+    if (simulateNotchers && farmThreads > 0){
+        simulatorFarm = new SimulatorFarm(farmThreads);
+    }
+
+    String replayFile =
+       pConfigFile.readString("Hardware", "Replay Capture File", "");
+
+    if (simulateNotchers && !replayFile.isEmpty()){
+        loadReplay(replayFile,
+            pConfigFile.readDouble("Hardware", "Replay Speed", 1.0),
+            pConfigFile.readBoolean("Hardware", "Replay Loop", false));
+    }
+
+    if (simulateNotchers
+            && pConfigFile.readBoolean("Hardware", "Fault Injection", false)){
+        faultInjector = new FaultInjector(
+            pConfigFile.readInt("Hardware", "Fault Latency", 0),
+            pConfigFile.readInt("Hardware", "Fault Bandwidth", 0),
+            pConfigFile.readDouble("Hardware", "Fault Drop Rate", 0),
+            pConfigFile.readDouble("Hardware", "Fault Duplicate Rate", 0),
+            pConfigFile.readDouble("Hardware", "Fault Bit Flip Rate", 0),
+            pConfigFile.readInt("Hardware", "Fault Seed", 0));
+    }
+
+    if (simulateNotchers
+            && pConfigFile.readBoolean("Hardware", "Simulate Over TCP", false)){
+        openSimulatorServer(
+                pConfigFile.readInt("Hardware", "Simulator TCP Port", 23));
+    }
 
     //create and setup the Control boards
     configureNotchers();
@@ -128,6 +484,81 @@ private void configure()
 }//end of NotcherGroup::configure
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// NotcherGroup::openWireCapture
+//
+// Starts recording the traffic with all units in file pFilename, which will
+// hold the most recent pSizeMB megabytes. If the file cannot be created, the
+// units are run without capture.
+//
+
+private void openWireCapture(String pFilename, int pSizeMB)
+{
+
+    try{
+        wireCapture = new WireCapture(new File(pFilename),
+                                        (int)Math.min(pSizeMB * 1024L * 1024L,
+                                                WireCapture.MAX_RING_SIZE));
+        tsLog.appendLine("Capturing wire traffic to " + pFilename);
+    }
+    catch(IOException e){
+        logSevere(e.getMessage() + " - Error: 712");
+    }
+
+}//end of NotcherGroup::openWireCapture
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::openSimulatorServer
+//
+// Starts the server through which the simulated units are reached over TCP
+// at pPort. If it cannot be started, the simulators are substituted for the
+// sockets as usual.
+//
+
+private void openSimulatorServer(int pPort)
+{
+
+    simulatorServer = new SimulatorServer(pPort, tsLog);
+
+    try{
+        simulatorServer.init();
+        simulatorServer.setReplays(replays);
+        simulatorServer.setFaultInjector(faultInjector);
+        tsLog.appendLine("Simulated Notchers reached over TCP.");
+    }
+    catch(IOException e){
+        logSevere(e.getMessage() + " - Error: 718");
+        simulatorServer = null;
+    }
+
+}//end of NotcherGroup::openSimulatorServer
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::loadReplay
+//
+// Loads the packets sent by each unit in capture file pFilename for the
+// simulated units to send at pSpeed times the recorded rate, starting over
+// at the end if pLoop is true. If the file cannot be read, the units send
+// simulated data.
+//
+
+private void loadReplay(String pFilename, double pSpeed, boolean pLoop)
+{
+
+    try{
+        replays = CaptureReplay.load(new File(pFilename), maxNumNotchers,
+                                                            pSpeed, pLoop);
+        tsLog.appendLine("Replaying wire traffic from " + pFilename);
+    }
+    catch(IOException e){
+        logSevere(e.getMessage() + " - Error: 713");
+    }
+
+}//end of NotcherGroup::loadReplay
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // NotcherGroup::configureNotchers
 //
@@ -138,7 +569,7 @@ private void configure()
 private void configureNotchers()
 {
 
-    notchers = new Notcher[MAX_NUM_NOTCHERS];
+    notchers = new Notcher[maxNumNotchers];
     
 }//end of NotcherGroup::configureNotchers
 //-----------------------------------------------------------------------------
@@ -208,17 +639,20 @@ private void connectNotchers(NetworkInterface pNetworkInterface)
     if (socket == null) return;
     
     //set up socket and "Roll Call" datagram packet
-    DatagramPacket outPacket = null;
-    if (!setupSocketAndRollCallPacket(socket, outPacket)){ return; }
+    DatagramPacket outPacket = setupSocketAndRollCallPacket(socket);
+    if (outPacket == null){ return; }
     
     int loopCount = 0;
     byte[] inBuf = new byte[256];
     DatagramPacket inPacket;
     inPacket = new DatagramPacket(inBuf, inBuf.length);
     int responseCount = 0;
+
+    rollCallStartTime = System.nanoTime();
+    lastNewResponseTime = rollCallStartTime;
     
     //broadcast the roll call greeting several times
-    while(loopCount++ < 5 && responseCount < MAX_NUM_NOTCHERS){
+    while(loopCount++ < 5 && responseCount < maxNumNotchers){
 
         responseCount = sendRollCallAndProcessResponders(
                                    socket, outPacket, inPacket, responseCount);
@@ -228,24 +662,73 @@ private void connectNotchers(NetworkInterface pNetworkInterface)
     socket.close();
 
     numberOfNotchers = responseCount;
+
+    tsLog.appendLine("Roll call found " + numberOfNotchers + " Notchers; the"
+                + " last answered after " + getRollCallTime() + " ms.");
     
     //bail out if no boards responded
     if (numberOfNotchers == 0) {return;}
 
     // allow each unit to connect to the remote
 
+    openSelectorTransport();
+
     for (int i = 0; i < numberOfNotchers; i++){
-        if(notchers[i] != null) { notchers[i].connect(); }
+        if(notchers[i] == null) { continue; }
+        if (transport != null) { notchers[i].connect(transport); }
+        else { notchers[i].connect(); }
     }
 
     tsLog.appendLine("\nAll Notchers ready.\n");
 
     //initialize each Control board
     initializeNotchers();
-    
+
+    startDeviceThreads();
+
+    startMonitorPush();
+
+    startEncoderStreams();
+
+    startHeartbeat();
+
+    startReconnect();
+
 }//end of NotcherGroup::connectNotchers
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// NotcherGroup::openSelectorTransport
+//
+// Starts the SelectorTransport if it is enabled in the config file. The
+// standard transport is used if simulating without the simulator server or
+// if the selector fails to open.
+//
+
+private void openSelectorTransport()
+{
+
+    if (!useSelectorTransport) { return; }
+
+    if (simulateNotchers && simulatorServer == null){
+        tsLog.appendLine(
+                "Selector transport not available when simulating Notchers.");
+        return;
+    }
+
+    transport = new SelectorTransport(tsLog);
+
+    try{
+        transport.init();
+    }
+    catch(IOException e){
+        logSevere(e.getMessage() + " - Error: 290");
+        transport = null;
+    }
+
+}//end of NotcherGroup::openSelectorTransport
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // NotcherGroup:openUDPBroadcastSocket
 //
@@ -270,7 +753,15 @@ private MulticastSocket openUDPBroadcastSocket(
                 }catch (SocketException e) {return(null);}
             }
         }
-        else {socket = new UDPSimulator(4445, "Notcher present...", 4);}
+        else if (rollCallMulticast) {
+            socket = new UDPSimulator(4445, "Notcher present...",
+                    simulatedNotcherCount, rollCallResponseDelay,
+                    rollCallResponseJitter, rollCallResponseLoss / 100.0);
+        }
+        else {
+            socket = new UDPSimulator(
+                            4445, "Notcher present...", simulatedNotcherCount);
+        }
 
     }
     catch (IOException e) {
@@ -287,14 +778,14 @@ private MulticastSocket openUDPBroadcastSocket(
 //-----------------------------------------------------------------------------
 // NotcherGroup::setupSocketAndRollCallPacket
 //
-// Sets up a MulticastSocket and datagram packet for use.
+// Sets up a MulticastSocket for use and creates the roll call datagram
+// packet.
 //
-// Returns true on success.
-// Returns false on failure.
+// Returns the packet on success.
+// Returns null on failure.
 //
 
-private boolean setupSocketAndRollCallPacket(MulticastSocket pSocket,
-                                                    DatagramPacket pOutPacket)
+private DatagramPacket setupSocketAndRollCallPacket(MulticastSocket pSocket)
 {
 
     String castMsg = "Notcher Roll Call";
@@ -308,10 +799,11 @@ private boolean setupSocketAndRollCallPacket(MulticastSocket pSocket,
     catch (UnknownHostException e){
         logSevere(e.getMessage() + " - Error: 224");
         pSocket.close();
-        return(false);
+        return(null);
     }
 
-    pOutPacket = new DatagramPacket(outBuf, outBuf.length, group, 4446);
+    DatagramPacket outPacket =
+                    new DatagramPacket(outBuf, outBuf.length, group, 4446);
 
     //force socket.receive to return if no packet available within 1 millisec
     try{
@@ -319,10 +811,10 @@ private boolean setupSocketAndRollCallPacket(MulticastSocket pSocket,
     }
     catch(SocketException e){
         logSevere(e.getMessage() + " - Error: 236");
-        return(false);
+        return(null);
     }
         
-    return(true);
+    return(outPacket);
     
 }//end of NotcherGroup::setupSocketAndRollCallPacket
 //-----------------------------------------------------------------------------
@@ -356,12 +848,12 @@ private int sendRollCallAndProcessResponders(MulticastSocket pSocket,
     try{
         //read response packets until a timeout error exception occurs or
         //until max number of units have responded
-        while(responseCount < MAX_NUM_NOTCHERS){
+        while(responseCount < maxNumNotchers){
 
             pSocket.receive(pInPacket);
 
             //store each new ip address in a Control board object
-            for (int i = 0; i < MAX_NUM_NOTCHERS; i++){
+            for (int i = 0; i < maxNumNotchers; i++){
 
                 //if a ut board already has the same ip, don't save it
                 //this might occur if a board responds more than once as the
@@ -370,7 +862,7 @@ private int sendRollCallAndProcessResponders(MulticastSocket pSocket,
                 //first -- this will catch duplicates
 
                 if (notchers[i] != null && notchers[i].ipAddr != null &&
-                        notchers[i].ipAddr == pInPacket.getAddress()){
+                        notchers[i].ipAddr.equals(pInPacket.getAddress())){
                     break;
                 }
 
@@ -382,12 +874,20 @@ private int sendRollCallAndProcessResponders(MulticastSocket pSocket,
                     notchers[i] = new Notcher(i,
                             RUNTIME_PACKET_SIZE, simulateNotchers, tsLog);
                     notchers[i].init();
+                    notchers[i].setReconnectDelays(
+                                        reconnectMinDelay, reconnectMaxDelay);
+                    notchers[i].setWireCapture(wireCapture, i);
+                    if (replays != null) { notchers[i].setReplay(replays[i]); }
+                    notchers[i].setSimulatorFarm(simulatorFarm);
+                    notchers[i].setSimulatorServer(simulatorServer);
+                    notchers[i].setFaultInjector(faultInjector);
 
                     //store the ip address in the unused object
                     notchers[i].setIPAddr(pInPacket.getAddress());
 
                     //count unique IP address responses
                     responseCount++;
+                    lastNewResponseTime = System.nanoTime();
 
                     //convert the response packet to a string
                     response = new String(
@@ -494,75 +994,250 @@ private void initializeNotchers()
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// NotcherGroup::handleNewData
+// NotcherGroup::startDeviceThreads
 //
-// Displays, processes, or stores new data collected from the packets received
-// from the remotes.
+// Starts a reader thread for each unit if enabled in the config file and the
+// selector transport is not in use.
 //
-// Should be called periodically by an Event Dispatch Thread Timer.
+
+private void startDeviceThreads()
+{
+
+    if (!useDeviceThreads || transport != null) { return; }
+
+    tsLog.appendLine("Device threads: "
+       + (DeviceThreads.isVirtualAvailable() ? "virtual" : "platform"));
+
+    for (int i = 0; i < numberOfNotchers; i++) {
+        if (notchers[i] != null) { notchers[i].startReader(true); }
+    }
+
+}//end of NotcherGroup::startDeviceThreads
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::startMonitorPush
+//
+// Subscribes all units to push monitor packets if enabled in the config file.
+// Skipped if no thread reads the packets as they arrive.
 //
 
-public void handleNewData()
+private void startMonitorPush()
 {
 
-    //call the various getters in each Notcher to retrieve the values
-    
-    //call the various View methods to display the values as required
-    
-    //call the various Model methods to save the values as required
+    if (monitorPushInterval <= 0) { return; }
 
-}//end of NotcherGroup::handleNewData
+    if (!isReadContinuously("Monitor push")) { return; }
+
+    subscribeMonitorForAllAsync(monitorPushInterval).whenComplete(
+        (acks, e) -> {
+            if (e != null) {
+                tsLog.appendLine("Monitor push failed: " + e.getMessage());
+            }
+        });
+
+}//end of NotcherGroup::startMonitorPush
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// NotcherGroup::signed2BytesToInt
+// NotcherGroup::startEncoderStreams
 //
-// Converts the two bytes of a signed short int to an integer.
+// Starts the encoder stream of all units if enabled in the config file.
+// Skipped if no thread reads the packets as they arrive.
 //
-// Use this if the original value was signed.
+
+private void startEncoderStreams()
+{
+
+    if (encoderStreamRate <= 0) { return; }
+
+    if (!isReadContinuously("Encoder stream")) { return; }
+
+    sendToAllAsync(n -> n.startEncoderStreamAsync(encoderStreamRate,
+                                encoderSamplesPerBlock)).whenComplete(
+        (acks, e) -> {
+            if (e != null) {
+                tsLog.appendLine("Encoder stream failed: " + e.getMessage());
+            }
+        });
+
+}//end of NotcherGroup::startEncoderStreams
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::startHeartbeat
+//
+// Starts the heartbeat of all units which support it and the thread which
+// sends the pings if enabled in the config file. Skipped if no thread reads
+// the packets as they arrive.
 //
 
-private int signed2BytesToInt(byte pByte1, byte pByte0)
+private void startHeartbeat()
 {
 
-    return (short)((pByte1<<8) & 0xff00) + (pByte0 & 0xff);
-    
-}//end of NotcherGroup::signed2BytesToInt
+    if (heartbeatInterval <= 0) { return; }
+
+    if (!isReadContinuously("Heartbeat")) { return; }
+
+    for (int i = 0; i < numberOfNotchers; i++) {
+        if (notchers[i] != null && notchers[i].ready) {
+            notchers[i].startHeartbeat(heartbeatInterval, heartbeatSlowTime);
+        }
+    }
+
+    heartbeatRunning = true;
+
+    pingExecutor = Executors.newCachedThreadPool(
+                            DeviceThreads.newThreadFactory("Ping", false));
+
+    heartbeatThread = DeviceThreads.newThreadFactory("Heartbeat", false)
+                                            .newThread(this::runHeartbeat);
+
+    heartbeatThread.start();
+
+}//end of NotcherGroup::startHeartbeat
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// NotcherGroup::unSigned2BytesToInt
+// NotcherGroup::runHeartbeat
 //
-// Converts the two bytes of an unsigned short to an integer.
+// Run by the heartbeat thread. Pings every unit each heartbeatInterval until
+// heartbeatRunning is cleared. The pings are sent by pingExecutor so this
+// thread does not block on any one unit.
 //
-// Use this if the original value was unsigned.
+// The pings are scheduled from a fixed starting time so that the interval
+// does not grow by the time taken to send them. If the thread falls behind,
+// the missed pings are skipped.
 //
 
-private int unSigned2BytesToInt(byte pByte1, byte pByte0)
+private void runHeartbeat()
 {
 
-    return (int)((pByte1<<8) & 0xff00) + (pByte0 & 0xff);
-    
-}//end of NotcherGroup::unSigned2BytesToInt
+    long interval = heartbeatInterval * 1000000L;
+
+    long next = System.nanoTime();
+
+    while (heartbeatRunning){
+
+        for (int i = 0; i < numberOfNotchers; i++) {
+            if (notchers[i] != null){
+                notchers[i].sendPingAsync(pingExecutor);
+            }
+        }
+
+        next += interval;
+
+        long wait = next - System.nanoTime();
+
+        if (wait <= 0) { next = System.nanoTime(); continue; }
+
+        try{
+            Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+        }
+        catch(InterruptedException e){
+            return;
+        }
+
+    }
+
+}//end of NotcherGroup::runHeartbeat
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// NotcherGroup::signed4BytesToInt
+// NotcherGroup::startReconnect
 //
-// Converts the four bytes of a signed integer to an integer.
+// Starts the thread which reconnects units which have lost their connections
+// if enabled in the config file.
 //
-// Use this if the original value was signed.
+
+private void startReconnect()
+{
+
+    if (reconnectMinDelay <= 0) { return; }
+
+    reconnectRunning = true;
+
+    reconnectThread = DeviceThreads.newThreadFactory("Reconnect", false)
+                                            .newThread(this::runReconnect);
+
+    reconnectThread.start();
+
+}//end of NotcherGroup::startReconnect
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::runReconnect
+//
+// Run by the reconnect thread. Every RECONNECT_CHECK_INTERVAL, starts a
+// reconnect attempt for each unit which is due one until reconnectRunning is
+// cleared. The attempts run on the units' own I/O threads.
 //
 
-private int signed4BytesToInt(
-                        byte pByte3, byte pByte2, byte pByte1, byte pByte0)
+private void runReconnect()
 {
-            
-    return
-         ((pByte3<<24) & 0xff000000) +  ((pByte2<<16) & 0xff0000)
-          + ((pByte1<<8) & 0xff00) + (pByte0 & 0xff);
 
-}//end of NotcherGroup::signed4BytesToInt
+    while (reconnectRunning){
+
+        for (int i = 0; i < numberOfNotchers; i++) {
+            if (notchers[i] != null && notchers[i].isReconnectDue()) {
+                notchers[i].reconnectAsync(transport);
+            }
+        }
+
+        try{
+            Thread.sleep(RECONNECT_CHECK_INTERVAL);
+        }
+        catch(InterruptedException e){
+            return;
+        }
+
+    }
+
+}//end of NotcherGroup::runReconnect
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::isReadContinuously
+//
+// Returns true if the packets from the units are read as they arrive by the
+// selector transport or device threads, as is required for packets which
+// the units send without being asked.
+//
+// If not, a message naming pFeature is displayed and false is returned.
+//
+
+private boolean isReadContinuously(String pFeature)
+{
+
+    if (transport != null || useDeviceThreads) { return(true); }
+
+    tsLog.appendLine(pFeature + " requires the selector transport or"
+                                                    + " device threads.");
+
+    return(false);
+
+}//end of NotcherGroup::isReadContinuously
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::handleNewData
+//
+// Displays, processes, or stores new data collected from the packets received
+// from the remotes.
+//
+// Should be called periodically by an Event Dispatch Thread Timer.
+//
+
+public void handleNewData()
+{
+
+    //call the various getters in each Notcher to retrieve the values
+    
+    //call the various View methods to display the values as required
+    
+    //call the various Model methods to save the values as required
+
+}//end of NotcherGroup::handleNewData
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
@@ -588,10 +1263,66 @@ private void logStatus(Log pLogWindow)
 public void shutDown()
 {
 
+    //stop reconnecting first so units are not reconnected as they are closed
+
+    if (reconnectThread != null){
+        reconnectRunning = false;
+        reconnectThread.interrupt();
+    }
+
+    if (heartbeatThread != null){
+        heartbeatRunning = false;
+        heartbeatThread.interrupt();
+        pingExecutor.shutdownNow();
+    }
+
+    //stop the pushed packets while the readers are still running to receive
+    //the ACKs
+
+    if (monitorPushInterval > 0){
+        try{
+            subscribeMonitorForAllAsync(0)
+                            .get(Notcher.ACK_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException | ExecutionException | TimeoutException e){
+            logSevere(e.getMessage() + " - Error: 671");
+        }
+    }
+
+    if (encoderStreamRate > 0){
+        try{
+            sendToAllAsync(n -> n.startEncoderStreamAsync(0, 1))
+                            .get(Notcher.ACK_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException | ExecutionException | TimeoutException e){
+            logSevere(e.getMessage() + " - Error: 686");
+        }
+    }
+
+    //stop all readers first so they finish their waits together
+
+    for (int i = 0; i < numberOfNotchers; i++) {
+        if (notchers[i]!= null) { notchers[i].stopReader(); }
+    }
+
     for (int i = 0; i < numberOfNotchers; i++) {
         if (notchers[i]!= null) { notchers[i].shutDown(); }
     }
 
+    if (transport != null) { transport.shutDown(); }
+
+    if (simulatorFarm != null) { simulatorFarm.shutDown(1000); }
+
+    if (simulatorServer != null) { simulatorServer.shutDown(); }
+
+    if (faultInjector != null) { tsLog.appendLine(faultInjector.getSummary()); }
+
+    if (wireCapture != null){
+        tsLog.appendLine("Wire capture closed after "
+                                + wireCapture.getRecordCount() + " frames.");
+        wireCapture.close();
+    }
+
 }//end of NotcherGroup::shutDown
 //-----------------------------------------------------------------------------
 
@@ -677,9 +1408,30 @@ private void doTasks()
 
     displayMessages();
 
+    flushOutQueues();
+
 }//end of NotcherGroup::doTasks
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// NotcherGroup::flushOutQueues
+//
+// Sends any packets queued but not yet sent by each unit. Each unit's packets
+// are sent with a single write.
+//
+
+public void flushOutQueues()
+{
+
+    for (int i = 0; i < numberOfNotchers; i++) {
+        if (notchers[i] != null && notchers[i].ready) {
+            notchers[i].flushOutQueue();
+        }
+    }
+
+}//end of NotcherGroup::flushOutQueues
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // NotcherGroup::setMode
 //
@@ -739,24 +1491,47 @@ private void invokeStopMode(String pIP)
 //-----------------------------------------------------------------------------
 // NotcherGroup::getMonitorPacket
 //
-// Returns monitoring data from unit with IP address pIP.
+// Copies the latest monitoring data from unit with IP address pIP into pDest.
+// The values are read with pDest's getters. See Notcher.getMonitorData.
+//
+// Returns true if new data has been received since the last call, false if
+// not or if there is no such unit.
 //
 
-public byte[] getMonitorPacket(String pIP)
+public boolean getMonitorPacket(String pIP, MonitorPacket pDest)
 {
 
     Notcher n = findUnitByIP(pIP);
-    
+
     if (n == null){
-        return(null);
+        return(false);
     }
     else{
-        return n.getDataPacket();
+        return(n.getMonitorData(pDest));
     }
 
 }//end of NotcherGroup::getMonitorPacket
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// NotcherGroup::requestMonitorPackets
+//
+// Asks all units to send a monitor packet. The packets are stored by each
+// unit when they arrive -- see getMonitorPacket.
+//
+
+public void requestMonitorPackets()
+{
+
+    for (int i = 0; i < numberOfNotchers; i++) {
+        if (notchers[i] != null && notchers[i].ready) {
+            notchers[i].requestMonitorPacket();
+        }
+    }
+
+}//end of NotcherGroup::requestMonitorPackets
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // NotcherGroup::zeroDepthCount
 //
@@ -772,6 +1547,139 @@ public void zeroDepthCount(String pIP)
 }//end of NotcherGroup::zeroEncoderCount
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// NotcherGroup::setElectrodePowerForAllAsync
+//
+// Sends the electrode power ON or OFF command to all units at the same time.
+//
+// Returns a future which completes when every unit has acknowledged the
+// command.
+//
+
+public CompletableFuture<List<Ack>> setElectrodePowerForAllAsync(
+                                                            final byte pState)
+{
+
+    return(sendToAllAsync(n -> n.sendElectrodePowerOnOffCmdAsync(pState)));
+
+}//end of NotcherGroup::setElectrodePowerForAllAsync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::subscribeMonitorForAllAsync
+//
+// Subscribes all units to push a monitor packet every pInterval milliseconds.
+// Pass 0 to unsubscribe.
+//
+// Returns a future which completes when every unit has acknowledged the
+// command.
+//
+
+public CompletableFuture<List<Ack>> subscribeMonitorForAllAsync(
+                                                        final int pInterval)
+{
+
+    return(sendToAllAsync(n -> n.subscribeMonitorAsync(pInterval)));
+
+}//end of NotcherGroup::subscribeMonitorForAllAsync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::sendToAllAsync
+//
+// Calls pCmd for every connected unit to start a command on each and combines
+// the results.
+//
+// Returns a future which completes with the Ack from each unit, in unit
+// order, when all the commands have completed. If any command fails, the
+// future completes exceptionally.
+//
+
+public CompletableFuture<List<Ack>> sendToAllAsync(
+                                Function<Notcher, CompletableFuture<Ack>> pCmd)
+{
+
+    final List<CompletableFuture<Ack>> futures = new ArrayList<>();
+
+    for (int i = 0; i < numberOfNotchers; i++) {
+        if (notchers[i] != null && notchers[i].ready) {
+            futures.add(pCmd.apply(notchers[i]));
+        }
+    }
+
+    return(CompletableFuture.allOf(
+            futures.toArray(new CompletableFuture<?>[futures.size()]))
+            .thenApply(v -> {
+                List<Ack> acks = new ArrayList<>(futures.size());
+                for (CompletableFuture<Ack> f : futures) { acks.add(f.join()); }
+                return(acks);
+            }));
+
+}//end of NotcherGroup::sendToAllAsync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::installFirmware
+//
+// Installs the firmware image in pFile in every connected unit which
+// supports it. The installs run in the background; the returned scheduler
+// reports their progress and may be used to cancel them.
+//
+// Returns null if the file could not be read.
+//
+
+public FirmwareScheduler installFirmware(File pFile)
+{
+
+    FirmwareImage image;
+
+    try{
+        image = new FirmwareImage(pFile);
+    }
+    catch(IOException e){
+        logSevere(e.getMessage() + " - Error: 711");
+        return(null);
+    }
+
+    tsLog.appendLine("Installing firmware " + image.getName() + " ("
+                                            + image.getSize() + " bytes)...");
+
+    FirmwareScheduler scheduler =
+        new FirmwareScheduler(firmwareMaxConcurrent, useDeviceThreads);
+
+    for (int i = 0; i < numberOfNotchers; i++){
+
+        if (notchers[i] == null) { continue; }
+
+        FirmwareInstaller installer =
+                notchers[i].newFirmwareInstaller(image, firmwareWindow);
+
+        if (installer != null) { scheduler.schedule(installer); }
+
+    }
+
+    scheduler.finish();
+
+    return(scheduler);
+
+}//end of NotcherGroup::installFirmware
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherGroup::getWireCapture
+//
+// Returns the capture recording the traffic with all units, or null if
+// capture is off. Capture may be paused with its setEnabled method.
+//
+
+public WireCapture getWireCapture()
+{
+
+    return(wireCapture);
+
+}//end of NotcherGroup::getWireCapture
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // NotcherGroup::findUnitByIP
 //
@@ -810,6 +1718,21 @@ public Notcher getNotcher(int pIndex)
 }//end of NotcherGroup::getNotcher
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// NotcherGroup::getRollCallTime
+//
+// Returns the milliseconds from the first roll call to the answer from the
+// last unit found.
+//
+
+public long getRollCallTime()
+{
+
+    return((lastNewResponseTime - rollCallStartTime) / 1000000);
+
+}//end of NotcherGroup::getRollCallTime
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // NotcherGroup::getSimulate
 //
@@ -37,14 +37,12 @@ public class NotcherSimulator extends Simulator{
     //default constructor - not used
     public NotcherSimulator() throws SocketException{};
 
-    //simulates the default size of a socket created for ethernet access
-    // NOTE: If the pipe size is too small, the outside object can fill the
-    // buffer and have to wait until the thread on this side catches up.  If the
-    // outside object has a timeout, then data will be lost because it will
-    // continue on without writing if the timeout occurs.
-    // In the future, it would be best if Notcher object used some flow
-    // control to limit overflow in case the default socket size ends up being
-    // too small.
+    //the pipe from the host is limited to PIPE_SIZE bytes, as a socket's
+    //buffer would be. Once the host enables flow control, this side sends
+    //CREDIT_CMD packets giving PIPE_SIZE and the running total of bytes read
+    //from the pipe, and the host never has more bytes outstanding than
+    //PIPE_SIZE -- so it is held in its outbound queue rather than blocked
+    //writing to a full pipe. See "Flow Control" in Notcher.java.
 
     public static int notcherCounter = 0;
     int notcherUnitNumber;
@@ -55,6 +53,99 @@ public class NotcherSimulator extends Simulator{
     int testSetInt;     //used for example -- DO NOT DELETE
     
     byte electrodeSupplyOnOffByte;
+
+    //simulated telemetry values -- voltage and current are in tenths
+    int simVoltage = 50, simCurrent = 50;
+    int simHeadPosition = 0, simDepthCount = 0, simSampleCount = 0;
+    int simTargetDepth = 0;
+    int[] simEncoderCounts = new int[EncoderPacket.NUM_ENCODERS];
+
+    //milliseconds between pushed monitor packets; 0 if not subscribed
+    int pushInterval = 0;
+    long nextPushTime = 0; //System.nanoTime value
+
+    //encoder samples per second sent by the encoder stream, 0 if stopped,
+    //and the number of samples per block
+    int streamRate = 0, streamBlockSize = 1;
+    long nextBlockTime = 0; //System.nanoTime value
+    int streamSampleNumber = 0;
+
+    //packs the samples for the encoder stream
+    private final EncoderStream txEncoderStream = new EncoderStream();
+
+    //if true, the bytes read from the host are reported in CREDIT_CMD packets
+    boolean flowControlEnabled = false;
+    //the decoder's read count at the point flow control was enabled
+    int creditBase = 0;
+    //the read count sent in the last credit report
+    int lastCreditReport = 0;
+    long lastCreditTime = 0; //System.nanoTime value
+
+    //a report is sent each time this many bytes have been read without one
+    static final int CREDIT_BATCH = PIPE_SIZE / 4;
+
+    //milliseconds between reports when nothing has been read, in case the
+    //last report was lost
+    static final int CREDIT_REFRESH = 500;
+
+    //the bulk read being sent, valid if bulkActive is true -- the offsets
+    //and window are in bytes
+    boolean bulkActive = false;
+    int bulkResource = 0;
+    byte bulkTransferId = 0;
+    int bulkSize = 0;
+    int bulkSendOffset = 0;
+    int bulkAckedOffset = 0;
+    int bulkWindowBytes = 0;
+    long lastBulkAckTime = 0; //System.nanoTime value
+
+    //sizes of the simulated blocks of data which may be read
+    static final int SIM_WAVEFORM_SIZE = 1024 * 1024;
+    static final int SIM_DEVICE_LOG_SIZE = 64 * 1024;
+    static final int SIM_RECIPE_SIZE = 3000;
+
+    //milliseconds without a bulk ACK after which the chunks not acknowledged
+    //are sent again
+    static final int BULK_RETRY = 500;
+
+    //the image being received by the simulated firmware loader; null if the
+    //loader is not running
+    byte[] simFirmware;
+    int firmwareBlockSize = 0, firmwareCrc = 0, firmwareStored = 0;
+
+    //the CRC of the last image installed and the number installed
+    int installedFirmwareCrc = 0;
+    int firmwareInstallCount = 0;
+
+    //if not 0, every this many blocks one is made to fail its check so that
+    //the host's recovery can be tested
+    int firmwareBadBlockInterval = 0;
+    int firmwareBlockCount = 0;
+
+    //milliseconds taken to write each firmware block to flash
+    static final int SIM_FLASH_WRITE_TIME = 1;
+
+    //the simulated remote's clock returned in each pong counts from here
+    private final long startTime = System.nanoTime();
+
+    //used to build the telemetry packets in outBufScratch
+    private final MonitorPacket monitorPacket = new MonitorPacket();
+    private final EncoderPacket encoderPacket = new EncoderPacket();
+
+    //milliseconds to wait for packets from the host in each simulation cycle
+    static final int SIMULATION_WAIT = 100;
+
+    //the packets sent in place of the simulated telemetry and encoder data,
+    //null to simulate -- see setReplay
+    private CaptureReplay replay;
+    private boolean replayStarted = false;
+
+    //most replayed packets sent in one simulation cycle so that the host's
+    //commands are still read when replaying as fast as possible
+    static final int REPLAY_BATCH = 64;
+
+    //most packets from the host handled in one step when run by a farm
+    static final int STEP_PACKET_LIMIT = 64;
     
 //-----------------------------------------------------------------------------
 // NotcherSimulator::NotcherSimulator (constructor)
@@ -70,12 +161,37 @@ public NotcherSimulator(InetAddress pIPAddress, int pPort)
     //create an out writer from this class - will be input for some other class
     //this writer is only used to send the greeting back to the host
 
+    //the greeting advertises the optional protocol features supported
+
     PrintWriter out = new PrintWriter(localOutStream, true);
-    out.println("Hello from Notcher Simulator!");
+    out.println("Hello from Notcher Simulator! "
+                                        + Notcher.SEQUENCE_CAPABILITY
+                                        + Notcher.CRC_CAPABILITY
+                                        + Notcher.FLOW_CONTROL_CAPABILITY
+                                        + Notcher.HEARTBEAT_CAPABILITY
+                                        + Notcher.BULK_CAPABILITY
+                                        + Notcher.FIRMWARE_CAPABILITY
+                                        + Notcher.TARGET_DEPTH_CAPABILITY);
 
 }//end of NotcherSimulator::NotcherSimulator (constructor)
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// NotcherSimulator::setReplay
+//
+// Sends the packets in pReplay to the host in place of the simulated monitor
+// and encoder data, null to simulate. See CaptureReplay. Must be called
+// before init.
+//
+
+public void setReplay(CaptureReplay pReplay)
+{
+
+    replay = pReplay;
+
+}//end of NotcherSimulator::setReplay
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // NotcherSimulator::init
 //
@@ -92,8 +208,49 @@ public void init()
 
     super.init(notcherUnitNumber);
 
-    //start the simulation thread
-    new Thread(this).start();
+    //responses are sent together at the end of each simulation cycle
+    autoFlush = false;
+
+    packetHandlers = new PacketHandlerRegistry();
+    Notcher.declareHostPackets(packetHandlers);
+
+    packetHandlers.setHandler(Notcher.TEST_SET_VALUE_CMD,
+                                            this::handleTestSetValuePacket);
+    packetHandlers.setHandler(Notcher.ELECTRODE_SUPPLY_ON_OFF_CMD,
+                                    this::handleElectrodeSupplyOnOffCmdPacket);
+    packetHandlers.setHandler(Notcher.SEQUENCE_NUMBERS_CMD,
+                                            this::handleSequenceNumbersPacket);
+    packetHandlers.setHandler(Notcher.FRAME_CHECK_CMD,
+                                            this::handleFrameCheckPacket);
+    packetHandlers.setHandler(Notcher.GET_MONITOR_PACKET_CMD,
+                                            this::handleGetMonitorPacket);
+    packetHandlers.setHandler(Notcher.GET_ALL_ENCODERS_CMD,
+                                            this::handleGetAllEncodersPacket);
+    packetHandlers.setHandler(Notcher.SUBSCRIBE_CMD,
+                                            this::handleSubscribePacket);
+    packetHandlers.setHandler(Notcher.ENCODER_STREAM_CMD,
+                                            this::handleEncoderStreamPacket);
+    packetHandlers.setHandler(Notcher.FLOW_CONTROL_CMD,
+                                            this::handleFlowControlPacket);
+    packetHandlers.setHandler(Notcher.PING_CMD, this::handlePingPacket);
+    packetHandlers.setHandler(Notcher.SET_TARGET_DEPTH_CMD,
+                                            this::handleSetTargetDepthPacket);
+    packetHandlers.setHandler(Notcher.BULK_READ_CMD,
+                                            this::handleBulkReadPacket);
+    packetHandlers.setHandler(Notcher.BULK_ACK_CMD,
+                                            this::handleBulkAckPacket);
+    packetHandlers.setHandler(Notcher.LOAD_FIRMWARE_CMD,
+                                            this::handleLoadFirmwarePacket);
+    packetHandlers.setHandler(Notcher.FIRMWARE_DATA_CMD,
+                                            this::handleFirmwareDataPacket);
+    packetHandlers.setHandler(Notcher.FIRMWARE_EXIT_CMD,
+                                            this::handleFirmwareExitPacket);
+
+    // add more commands here -- do not remove this comment
+
+    //start the simulation thread or have the farm run the simulation
+    if (farm != null) { farm.add(this); }
+    else { new Thread(this, "Simulator " + index).start(); }
     
 }//end of NotcherSimulator::init
 //-----------------------------------------------------------------------------
@@ -104,7 +261,7 @@ public void init()
 // This function processes a single data packet if it is available.
 //
 // The amount of time the function is to wait for a packet is specified by
-// pTimeOut.  Each count of pTimeOut equals 10 ms.
+// pTimeOut in milliseconds.
 //
 // Waits for a packet for at least the specified pTimeOut. For no waiting,
 // pass pTimeOut to 0...if no packet is available will return immediately.
@@ -135,70 +292,48 @@ public int processOneDataPacket(int pTimeOut)
 
     try{
 
-        int timeOutWFP = 0;
-        while(byteIn.available() < 5 && timeOutWFP++ < pTimeOut){
-            waitSleep(10);
-        }
-
-        //wait until 5 bytes are available - this should be the 4 header bytes,
-        //and the packet identifier
-        if (byteIn.available() < 5) {return -1;}
+        //if the decoder does not already hold the start of a packet, pull
+        //everything available from the socket into it and wait until 5 bytes
+        //are available - this should be the 4 header bytes, and the packet
+        //identifier -- the thread blocks in the read until the bytes arrive
+        //or pTimeOut expires
 
-        //read the bytes in one at a time so that if an invalid byte is
-        //encountered it won't corrupt the next valid sequence in the case
-        //where it occurs within 3 bytes of the invalid byte
+        if (!waitForBytes(FrameDecoder.HEADER_AND_ID_SIZE, pTimeOut)){
+            return -1;
+        }
 
-        //check each byte to see if the first four create a valid header
-        //if not, jump to resync which deletes bytes until a valid first header
-        //byte is reached
+        //the host may be holding back the rest of the packet until it is told
+        //that the bytes already sent have been read
+        if (flowControlEnabled) { reportCreditsBeforeWait(); }
 
-        //if the reSynced flag is true, the buffer has been resynced and an 0xaa
-        //byte has already been read from the buffer so it shouldn't be read
-        //again
+        //the header bytes are checked in place in the decoder's buffer
+        //if not valid, jump to resync which deletes bytes until the start of
+        //a possible valid header is reached
 
         //after a resync, the function exits without processing any packets
 
-        if (!reSynced){
-            //look for the 0xaa byte unless buffer just resynced
-            byteIn.read(inBuffer, 0, 1);
-            if (inBuffer[0] != (byte)0xaa) {reSync(); return 0;}
-        }
-        else {reSynced = false;}
-
-        byteIn.read(inBuffer, 0, 1);
-        if (inBuffer[0] != (byte)0x55) {reSync(); return 0;}
-        byteIn.read(inBuffer, 0, 1);
-        if (inBuffer[0] != (byte)0xbb) {reSync(); return 0;}
-        byteIn.read(inBuffer, 0, 1);
-        if (inBuffer[0] != (byte)0x66) {reSync(); return 0;}
-
-        //read in the packet identifier
-        byteIn.read(inBuffer, 0, 1);
+        if (!decoder.readHeader()) {reSync(); return 0;}
 
         //store the packet type
-        lastPacketTypeHandled = inBuffer[0];
+        lastPacketTypeHandled = decoder.getPktID();
         
         //store the ID of the packet (the packet type)
-        pktID = inBuffer[0];
-
-        if (pktID == Notcher.GET_RUN_PACKET_CMD) {return(0); /*return readBytes(2);*/}
-        else
-        if (pktID == Notcher.CUT_MODE_CMD){return(0); /*return readBytes(2);*/}
-        else 
-        if (pktID == Notcher.TEST_SET_VALUE_CMD){
-            return (handleTestSetValuePacket());
-        }
-        else 
-        if (pktID == Notcher.ELECTRODE_SUPPLY_ON_OFF_CMD){
-            return (handleElectrodeSupplyOnOffCmdPacket());
+        pktID = lastPacketTypeHandled;
+
+        //packet types with unknown length cannot be skipped, so resync
+        if (!packetHandlers.isDeclared(lastPacketTypeHandled)) {
+            reSync(); return 0;
         }
-        
-        
-        // add more commands here -- do not remove this comment
+
+        //read and verify the packet and call the handler registered for its
+        //type -- packets without a handler are skipped
+
+        return(packetHandlers.dispatch(lastPacketTypeHandled, decoder, byteIn));
 
     }
     catch(IOException e){
-        logSevere(e.getMessage() + " - Error: 799");
+        //the pipes fail once the connection has been closed
+        if (!isClosed()) { logSevere(e.getMessage() + " - Error: 799"); }
     }
 
     return 0;
@@ -228,9 +363,14 @@ public int sendDataPacket()
 // is returned as a data byte so the host can match ACK packets to their
 // associated command packets.
 //
+// If sequence numbers are enabled, the sequence number of the packet just
+// read is returned as well.
+//
 
 private void sendACKPacket()
 {
+
+    outSequenceNumber = packetHandlers.getLastSequenceNumber();
     
     //the values are unpacked into bytes and stored in outBufScratch
     //outBufScrIndex is used to load the array, start at position 0
@@ -251,36 +391,21 @@ private void sendACKPacket()
 //-----------------------------------------------------------------------------
 // NotcherSimulator::handleTestSetValuePacket
 //
-// Handles ACK packets received from the remote.
-//
-// Returns the number of bytes read from the socket.
+// Handles TEST_SET_VALUE_CMD packets received from the host.
 //
-// If the the bytes in the packet could not be read or were not validated by
-// the checksum, return -1.
+// The packet's data bytes (one byte plus one integer) have already been read
+// and verified by packetHandlers.
 //
 
-private int handleTestSetValuePacket()
+private void handleTestSetValuePacket()
 {
     
-    int dataSize = 5; //one byte plus one integer (4 bytes)
-    
-    //read remainder of packet from socket and verify against the checksum
-    int lStatus = readBlockAndVerify(dataSize, Notcher.TEST_SET_VALUE_CMD);
-
-    //on error reading and verifying, return the error code
-    if (lStatus == -1){ return(status); }
-  
-    //only store the values if there was no error -- errors cause return above
-
-    outBufScrIndex = 0; //start with byte 0 in array
-    
-    testSetByte = inBuffer[outBufScrIndex];
+    testSetByte = decoder.getByte(0);
     
-    testSetInt = extractInt(inBuffer);
+    testSetInt = decoder.getInt(1);
     
     sendACKPacket();
     
-    return(lStatus);
     
 }//end of NotcherSimulator::handleTestSetValuePacket
 //-----------------------------------------------------------------------------
@@ -288,82 +413,1091 @@ private int handleTestSetValuePacket()
 //-----------------------------------------------------------------------------
 // NotcherSimulator::handleElectrodeSupplyOnOffCmdPacket
 //
-// Handles ACK packets received from the remote for the electrodeSupplyOnOffCmd.
+// Handles ELECTRODE_SUPPLY_ON_OFF_CMD packets received from the host.
 //
-// Returns the number of bytes read from the socket.
-//
-// If the the bytes in the packet could not be read or were not validated by
-// the checksum, return -1.
+// The packet's data byte has already been read and verified by packetHandlers.
 //
 
-private int handleElectrodeSupplyOnOffCmdPacket()
+private void handleElectrodeSupplyOnOffCmdPacket()
 {
     
-    int dataSize = 1; //one byte
-    
-    //read remainder of packet from socket and verify against the checksum
-    int lStatus = readBlockAndVerify(dataSize, 
-                                        Notcher.ELECTRODE_SUPPLY_ON_OFF_CMD);
-
-    //on error reading and verifying, return the error code
-    if (lStatus == -1){ return(status); }
-  
-    //only store the values if there was no error -- errors cause return above
-
-    outBufScrIndex = 0; //start with byte 0 in array
-    
-    electrodeSupplyOnOffByte = inBuffer[outBufScrIndex];
+    electrodeSupplyOnOffByte = decoder.getByte(0);
     
     sendACKPacket();
     
-    return(lStatus);
     
 }//end of NotcherSimulator::handleElectrodeSupplyOnOffCmdPacket
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// NotcherSimulator::invokeCutMode
+// NotcherSimulator::handleSetTargetDepthPacket
 //
-// Sets mode to "Cut".
+// Handles SET_TARGET_DEPTH_CMD packets received from the host. The value is
+// returned in the target depth field of each monitor packet.
+//
+// The packet's data bytes have already been read and verified by
+// packetHandlers.
 //
 
-public int invokeCutMode()
+private void handleSetTargetDepthPacket()
 {
-    
-    return(0);
 
-}//end of NotcherSimulator::invokeCutMode
+    simTargetDepth = decoder.getInt(0);
+
+    sendACKPacket();
+
+}//end of NotcherSimulator::handleSetTargetDepthPacket
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// NotcherSimulator::driveSimulation
+// NotcherSimulator::handleSequenceNumbersPacket
 //
-// This watches for packets from the host and returns data.
+// Handles SEQUENCE_NUMBERS_CMD packets received from the host.
+//
+// The ACK is sent using the current mode and then sequence numbers are
+// enabled or disabled for all following packets in both directions.
 //
 
-private void driveSimulation() {
+private void handleSequenceNumbersPacket()
+{
 
-    //process all data packets currently in the socket from the host
-    //set timeout to 0 -- no need to wait on packets
-    processDataPackets(0);
-    
-}//end of NotcherSimulator::driveSimulation
+    boolean state = decoder.getByte(0) != Notcher.OFF;
+
+    sendACKPacket();
+
+    sequenceNumbersEnabled = state;
+    packetHandlers.setSequenceNumbersEnabled(state);
+
+}//end of NotcherSimulator::handleSequenceNumbersPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleFrameCheckPacket
+//
+// Handles FRAME_CHECK_CMD packets received from the host.
+//
+// The ACK is sent using the current frame check and then the CRC-32C or the
+// checksum is used for all following packets in both directions.
+//
+
+private void handleFrameCheckPacket()
+{
+
+    boolean state = decoder.getByte(0) == Notcher.CRC32C_FRAME_CHECK;
+
+    sendACKPacket();
+
+    crcEnabled = state;
+    packetHandlers.setCrcEnabled(state);
+
+}//end of NotcherSimulator::handleFrameCheckPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleFlowControlPacket
+//
+// Handles FLOW_CONTROL_CMD packets received from the host.
+//
+// The bytes read are counted from the end of this packet -- the host starts
+// counting the bytes it sends from the same point. The ACK is followed by
+// the first credit report.
+//
+
+private void handleFlowControlPacket()
+{
+
+    flowControlEnabled = decoder.getByte(0) != Notcher.OFF;
+
+    //bytes following this packet which are already in the decoder have been
+    //read from the pipe after the counting point
+
+    creditBase = decoder.getNumBytesRead() - decoder.getNumBuffered();
+
+    sendACKPacket();
+
+    if (flowControlEnabled) { sendCreditPacket(); }
+
+}//end of NotcherSimulator::handleFlowControlPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::sendCreditPacket
+//
+// Sends a CREDIT_CMD packet with the size of the receive buffer and the
+// number of bytes read from it since flow control was enabled.
+//
+
+private void sendCreditPacket()
+{
+
+    lastCreditReport = getCreditReadCount();
+    lastCreditTime = System.nanoTime();
+
+    outBufScrIndex = 0;
+
+    outBufScratch[outBufScrIndex++] = Notcher.CREDIT_CMD;
+
+    unpackShortInt(getReceiveBufferSize(), outBufScratch);
+    unpackInt(lastCreditReport, outBufScratch);
+
+    sendByteArray(outBufScrIndex, outBufScratch);
+
+}//end of NotcherSimulator::sendCreditPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::getCreditReadCount
+//
+// Returns the number of bytes read from the host since flow control was
+// enabled.
+//
+
+private int getCreditReadCount()
+{
+
+    return(decoder.getNumBytesRead() - creditBase);
+
+}//end of NotcherSimulator::getCreditReadCount
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handlePingPacket
+//
+// Handles PING_CMD packets received from the host by returning a PONG_CMD
+// with the host's timestamp followed by the milliseconds since this object
+// was created.
+//
+
+private void handlePingPacket()
+{
+
+    outBufScrIndex = 0;
+
+    outBufScratch[outBufScrIndex++] = Notcher.PONG_CMD;
+
+    for (int i = 0; i < 8; i++){
+        outBufScratch[outBufScrIndex++] = decoder.getByte(i);
+    }
+
+    unpackInt((int)((System.nanoTime() - startTime) / 1000000),
+                                                                outBufScratch);
+
+    sendByteArray(outBufScrIndex, outBufScratch);
+
+}//end of NotcherSimulator::handlePingPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::reportCreditsBeforeWait
+//
+// Sends a credit report if the packet at the front of the decoder has not
+// been completely received and bytes have been read since the last report.
+//
+// The host may stop sending in the middle of a packet when it runs out of
+// credits. Without the report, the host would wait for credits while this
+// object waits for the rest of the packet.
+//
+
+private void reportCreditsBeforeWait()
+{
+
+    if (!hasUnreportedCredits() || !decoder.hasHeader()) { return; }
+
+    byte id = decoder.peekPktID();
+
+    if (!packetHandlers.isDeclared(id)) { return; }
+
+    int frameSize = packetHandlers.getFrameSize(id, decoder);
+
+    if (frameSize < 0 || decoder.getNumBuffered() >= frameSize) { return; }
+
+    sendCreditPacket();
+
+    flushOutQueue();
+
+}//end of NotcherSimulator::reportCreditsBeforeWait
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::isCreditDue
+//
+// Returns true if a credit report should be sent before reading further: a
+// quarter of the receive buffer has been read since the last report.
+//
+
+private boolean isCreditDue()
+{
+
+    return(flowControlEnabled
+                && getCreditReadCount() - lastCreditReport >= CREDIT_BATCH);
+
+}//end of NotcherSimulator::isCreditDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::hasUnreportedCredits
+//
+// Returns true if bytes have been read since the last credit report or if
+// the report is due to be repeated.
+//
+
+private boolean hasUnreportedCredits()
+{
+
+    return(flowControlEnabled && (getCreditReadCount() != lastCreditReport
+        || System.nanoTime() - lastCreditTime >= CREDIT_REFRESH * 1000000L));
+
+}//end of NotcherSimulator::hasUnreportedCredits
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleGetMonitorPacket
+//
+// Handles GET_MONITOR_PACKET_CMD packets received from the host by sending a
+// monitor packet with simulated values.
+//
+
+private void handleGetMonitorPacket()
+{
+
+    //the recorded answers are sent by the replay
+    if (replay != null) { return; }
+
+    sendMonitorPacket();
+
+}//end of NotcherSimulator::handleGetMonitorPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleSubscribePacket
+//
+// Handles SUBSCRIBE_CMD packets received from the host. The data bytes are
+// the number of milliseconds between pushed monitor packets; 0 stops them.
+//
+// The first packet is pushed one interval after the command. When replaying,
+// the command is acknowledged but the recorded packets are sent instead.
+//
+
+private void handleSubscribePacket()
+{
+
+    pushInterval = replay != null ? 0 : decoder.getUnsignedShort(0);
+
+    nextPushTime = System.nanoTime() + pushInterval * 1000000L;
+
+    sendACKPacket();
+
+}//end of NotcherSimulator::handleSubscribePacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::sendMonitorPacket
+//
+// Sends a monitor packet with simulated values. Used both to answer requests
+// and to push packets to a subscribed host.
+//
+// The packet is built in outBufScratch through monitorPacket so that the
+// field positions match those read by the host.
+//
+
+private void sendMonitorPacket()
+{
+
+    simulateTelemetry();
+
+    outBufScratch[0] = Notcher.GET_MONITOR_PACKET_CMD;
+
+    monitorPacket.wrap(outBufScratch, 1);
+    monitorPacket.clear();
+
+    int flags = MonitorPacket.POWER_OK_FLAG;
+    if (electrodeSupplyOnOffByte != Notcher.OFF){
+        flags |= MonitorPacket.ELECTRODE_SUPPLY_ON_FLAG;
+    }
+
+    monitorPacket.setStatusFlags(flags);
+    monitorPacket.setVoltage(simVoltage);
+    monitorPacket.setCurrent(simCurrent);
+    monitorPacket.setHeadPosition(simHeadPosition);
+    monitorPacket.setDepthCount(simDepthCount);
+    monitorPacket.setTargetDepth(simTargetDepth);
+    monitorPacket.setSampleCount(simSampleCount++);
+
+    sendByteArray(1 + MonitorPacket.SIZE, outBufScratch);
+
+}//end of NotcherSimulator::sendMonitorPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleGetAllEncodersPacket
+//
+// Handles GET_ALL_ENCODERS_CMD packets received from the host by sending the
+// simulated encoder counts.
+//
+
+private void handleGetAllEncodersPacket()
+{
+
+    //the recorded answers are sent by the replay
+    if (replay != null) { return; }
+
+    outBufScratch[0] = Notcher.GET_ALL_ENCODERS_CMD;
+
+    encoderPacket.wrap(outBufScratch, 1);
+
+    simulateEncoders();
+
+    for (int i = 0; i < EncoderPacket.NUM_ENCODERS; i++){
+        encoderPacket.setCount(i, simEncoderCounts[i]);
+    }
+
+    sendByteArray(1 + EncoderPacket.SIZE, outBufScratch);
+
+}//end of NotcherSimulator::handleGetAllEncodersPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleEncoderStreamPacket
+//
+// Handles ENCODER_STREAM_CMD packets received from the host. The data bytes
+// are the number of samples per second (0 stops the stream) and the number
+// of samples per block.
+//
+// The first block is sent once it has been filled at the requested rate.
+// When replaying, the command is acknowledged but the recorded packets are
+// sent instead.
+//
+
+private void handleEncoderStreamPacket()
+{
+
+    streamRate = replay != null ? 0 : decoder.getUnsignedShort(0);
+
+    streamBlockSize = Math.max(1, decoder.getByte(2) & 0xff);
+
+    if (streamRate != 0){
+        nextBlockTime = System.nanoTime() + getStreamNanos(streamBlockSize);
+    }
+
+    sendACKPacket();
+
+}//end of NotcherSimulator::handleEncoderStreamPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::sendEncoderStreamBlock
+//
+// Simulates a block of encoder samples and sends them in an encoder stream
+// packet. Fewer samples than requested are sent if they do not fit in one
+// packet.
+//
+// Returns the number of samples sent.
+//
+
+private int sendEncoderStreamBlock()
+{
+
+    txEncoderStream.startBlock(streamSampleNumber);
+
+    int count = 0;
+
+    while (count < streamBlockSize && txEncoderStream.hasRoom()){
+        simulateEncoders();
+        txEncoderStream.addSample(simEncoderCounts);
+        count++;
+    }
+
+    streamSampleNumber += count;
+
+    //the data bytes are preceded by their number
+
+    outBufScratch[0] = Notcher.ENCODER_STREAM_CMD;
+
+    int length = txEncoderStream.copyBlock(outBufScratch, 3);
+
+    outBufScratch[1] = (byte)((length >> 8) & 0xff);
+    outBufScratch[2] = (byte)(length & 0xff);
+
+    sendByteArray(3 + length, outBufScratch);
+
+    return(count);
+
+}//end of NotcherSimulator::sendEncoderStreamBlock
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::getStreamNanos
+//
+// Returns the number of nanoseconds taken to sample pNumSamples samples at
+// the encoder stream's sample rate.
+//
+
+private long getStreamNanos(int pNumSamples)
+{
+
+    return(pNumSamples * 1000000000L / streamRate);
+
+}//end of NotcherSimulator::getStreamNanos
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::simulateEncoders
+//
+// Advances the simulated encoder counts by one sample. Even numbered
+// encoders count up and odd numbered encoders count down, each encoder by
+// one more count per sample than the one before it.
+//
+
+private void simulateEncoders()
+{
+
+    for (int i = 0; i < EncoderPacket.NUM_ENCODERS; i++){
+        simEncoderCounts[i] += (i % 2 == 0) ? i + 1 : -(i + 1);
+    }
+
+}//end of NotcherSimulator::simulateEncoders
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::simulateTelemetry
+//
+// Moves the simulated voltage and current up or down a small random amount
+// within 0 to 10 volts/amps and advances the head position and depth.
+//
+
+private void simulateTelemetry()
+{
+
+    simVoltage = Math.max(0, Math.min(100,
+                                simVoltage + (int)(Math.random() * 11) - 5));
+
+    simCurrent = Math.max(0, Math.min(100,
+                                simCurrent + (int)(Math.random() * 11) - 5));
+
+    simHeadPosition++;
+    simDepthCount += 2;
+
+}//end of NotcherSimulator::simulateTelemetry
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::invokeCutMode
+//
+// Sets mode to "Cut".
+//
+
+public int invokeCutMode()
+{
+    
+    return(0);
+
+}//end of NotcherSimulator::invokeCutMode
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::driveSimulation
+//
+// This watches for packets from the host and returns data.
+//
+// If the host has subscribed, a monitor packet is pushed each time the push
+// interval has passed. If the encoder stream has been started, a block of
+// samples is sent each time one has been filled at the sample rate.
+//
+// If flow control is enabled, the bytes read are reported to the host each
+// time a quarter of the receive buffer has been read and whenever all bytes
+// sent by the host have been read, so the host is never left waiting.
+//
+// If a bulk read is in progress, chunks are sent until the host's window is
+// full. If the host stops acknowledging them, the chunks after the last
+// offset acknowledged are sent again.
+//
+// If replaying, the recorded packets are sent as they fall due, starting
+// once the host has sent its first command so that none is sent before the
+// host has read the greeting.
+//
+// All responses generated during the cycle are sent with a single write at
+// the end.
+//
+
+private void driveSimulation() {
+
+    checkReceiveBuffer();
+
+    //process all data packets from the host, waiting for more until none
+    //arrive within the wait time or a push is due -- the thread sleeps in the
+    //read while waiting so an idle simulator uses no CPU time
+    while (processOneDataPacket(getSimulationWait()) != -1 && !isSendDue()){}
+
+    sendDuePackets();
+
+}//end of NotcherSimulator::driveSimulation
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::step
+//
+// Does the work of one driveSimulation cycle without waiting: handles the
+// packets already received from the host and sends whatever is due. Used
+// when run by a SimulatorFarm.
+//
+// No more than STEP_PACKET_LIMIT packets are handled so that a host sending
+// a flood of commands does not keep the farm's thread from the other
+// simulators; 0 is then returned so that the rest are handled by the next
+// step.
+//
+// Returns the nanoseconds until the next packet is due to be sent, 0 or less
+// if at once, or Long.MAX_VALUE if nothing is to be sent until the host sends
+// a command.
+//
+
+@Override
+public long step()
+{
+
+    checkReceiveBuffer();
+
+    int count = 0;
+
+    while (count < STEP_PACKET_LIMIT && !isSendDue()
+                                    && processOneDataPacket(0) != -1){
+        count++;
+    }
+
+    sendDuePackets();
+
+    if (count >= STEP_PACKET_LIMIT) { return(0); }
+
+    return(getNanosUntilDue());
+
+}//end of NotcherSimulator::step
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::isSendDue
+//
+// Returns true if a pushed monitor packet, an encoder stream block, a credit
+// report, a bulk chunk, or a replayed packet is due to be sent.
+//
+
+private boolean isSendDue()
+{
+
+    return(isPushDue() || isBlockDue() || isCreditDue() || isBulkDue()
+                                                        || isReplayDue());
+
+}//end of NotcherSimulator::isSendDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::sendDuePackets
+//
+// Sends the packets which are due, as described for driveSimulation, and
+// then all packets queued during the cycle with a single write.
+//
+
+private void sendDuePackets()
+{
+
+    if (replay != null && !replayStarted && decoder.getNumBytesRead() > 0){
+        replay.start();
+        replayStarted = true;
+    }
+
+    for (int i = 0; i < REPLAY_BATCH && isReplayDue(); i++){
+        sendByteArray(replay.copyNext(outBufScratch), outBufScratch);
+    }
+
+    if (hasUnreportedCredits()) { sendCreditPacket(); }
+
+    if (isPushDue()){
+        sendMonitorPacket();
+        nextPushTime += pushInterval * 1000000L;
+        //if the thread fell behind, skip the missed pushes
+        if (isPushDue()) { nextPushTime = System.nanoTime(); }
+    }
+
+    if (isBlockDue()){
+        nextBlockTime += getStreamNanos(sendEncoderStreamBlock());
+        //if the thread fell behind, skip the missed samples
+        if (isBlockDue()) { nextBlockTime = System.nanoTime(); }
+    }
+
+    if (isBulkRetryDue()){
+        bulkSendOffset = bulkAckedOffset;
+        lastBulkAckTime = System.nanoTime();
+    }
+
+    while (isBulkDue()) { sendBulkChunk(); }
+
+    flushOutQueue();
+    
+}//end of NotcherSimulator::sendDuePackets
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::getSimulationWait
+//
+// Returns the number of milliseconds to wait for packets from the host: the
+// time until the next monitor packet is to be pushed, the next encoder
+// stream block is to be sent, unacknowledged bulk chunks are to be sent
+// again, or the next replayed packet is due, but no more than
+// SIMULATION_WAIT.
+//
+// Returns 0 if bytes have been read which have not been reported to the host
+// so that the report is sent as soon as no more bytes are waiting.
+//
+
+private int getSimulationWait()
+{
+
+    long remaining = Math.min(getNanosUntilDue(), SIMULATION_WAIT * 1000000L);
+
+    if (remaining <= 0) { return(0); }
+
+    //round up so that the wait does not end just before the push is due
+    return((int)((remaining + 999999) / 1000000));
+
+}//end of NotcherSimulator::getSimulationWait
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::getNanosUntilDue
+//
+// Returns the nanoseconds until the next packet is due to be sent, as
+// described for getSimulationWait, or Long.MAX_VALUE if none is scheduled.
+//
+
+private long getNanosUntilDue()
+{
+
+    if (hasUnreportedCredits()) { return(0); }
+
+    if (isBulkDue()) { return(0); }
+
+    if (replay != null && !replayStarted && decoder.getNumBytesRead() > 0){
+        return(0);
+    }
+
+    long now = System.nanoTime();
+
+    long remaining = Long.MAX_VALUE;
+
+    if (pushInterval != 0){
+        remaining = Math.min(remaining, nextPushTime - now);
+    }
+
+    if (streamRate != 0){
+        remaining = Math.min(remaining, nextBlockTime - now);
+    }
+
+    if (flowControlEnabled){
+        remaining = Math.min(remaining,
+                        lastCreditTime + CREDIT_REFRESH * 1000000L - now);
+    }
+
+    if (bulkActive){
+        remaining = Math.min(remaining,
+                            lastBulkAckTime + BULK_RETRY * 1000000L - now);
+    }
+
+    if (replayStarted){
+        remaining = Math.min(remaining, replay.getNanosUntilDue());
+    }
+
+    return(remaining);
+
+}//end of NotcherSimulator::getNanosUntilDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::isPushDue
+//
+// Returns true if the host has subscribed and the next monitor packet is due
+// to be pushed.
+//
+
+private boolean isPushDue()
+{
+
+    return(pushInterval != 0 && System.nanoTime() - nextPushTime >= 0);
+
+}//end of NotcherSimulator::isPushDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::isReplayDue
+//
+// Returns true if replaying and the next recorded packet is due to be sent.
+//
+
+private boolean isReplayDue()
+{
+
+    return(replayStarted && replay.isDue());
+
+}//end of NotcherSimulator::isReplayDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::isBlockDue
+//
+// Returns true if the encoder stream has been started and the next block is
+// due to be sent.
+//
+
+private boolean isBlockDue()
+{
+
+    return(streamRate != 0 && System.nanoTime() - nextBlockTime >= 0);
+
+}//end of NotcherSimulator::isBlockDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleBulkReadPacket
+//
+// Handles BULK_READ_CMD packets received from the host. The data bytes are
+// the resource to send, the transfer id, the offset from which to send, and
+// the number of chunks which may be sent ahead of the host's ACK. See
+// BulkTransfer.java for the packet layout.
+//
+// The chunks are sent by driveSimulation. An unknown resource is sent as a
+// single empty chunk.
+//
+
+private void handleBulkReadPacket()
+{
+
+    bulkResource = decoder.getByte(0) & 0xff;
+    bulkTransferId = decoder.getByte(1);
+    bulkSize = getSimBulkSize(bulkResource);
+    bulkAckedOffset = Math.max(0, Math.min(bulkSize, decoder.getInt(2)));
+    bulkSendOffset = bulkAckedOffset;
+    bulkWindowBytes = Math.max(1, decoder.getByte(6) & 0xff)
+                                                * BulkTransfer.MAX_CHUNK_SIZE;
+    lastBulkAckTime = System.nanoTime();
+
+    sendACKPacket();
+
+    //the host completes an empty block on its first chunk
+    if (bulkSize == 0){
+        sendBulkChunk();
+        bulkActive = false;
+    }
+    else{
+        bulkActive = bulkAckedOffset < bulkSize;
+    }
+
+}//end of NotcherSimulator::handleBulkReadPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleBulkAckPacket
+//
+// Handles BULK_ACK_CMD packets received from the host. The data bytes are the
+// transfer id, the offset up to which the host has the data, and the flags.
+//
+// RESEND_FLAG means the host discarded chunks after the offset, so sending
+// starts again from there. CANCEL_FLAG ends the transfer.
+//
+
+private void handleBulkAckPacket()
+{
+
+    if (!bulkActive || decoder.getByte(0) != bulkTransferId) { return; }
+
+    int offset = decoder.getInt(1);
+    byte flags = decoder.getByte(5);
+
+    if ((flags & BulkTransfer.CANCEL_FLAG) != 0) {
+        bulkActive = false; return;
+    }
+
+    lastBulkAckTime = System.nanoTime();
+
+    if (offset > bulkAckedOffset && offset <= bulkSize){
+        bulkAckedOffset = offset;
+    }
+
+    if ((flags & BulkTransfer.RESEND_FLAG) != 0
+                                        || bulkSendOffset < bulkAckedOffset){
+        bulkSendOffset = bulkAckedOffset;
+    }
+
+    if (bulkAckedOffset >= bulkSize) { bulkActive = false; }
+
+}//end of NotcherSimulator::handleBulkAckPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::sendBulkChunk
+//
+// Sends the next chunk of the bulk read in a length prefixed BULK_DATA_CMD
+// packet.
+//
+
+private void sendBulkChunk()
+{
+
+    int length = Math.min(BulkTransfer.MAX_CHUNK_SIZE,
+                                                bulkSize - bulkSendOffset);
+
+    int dataLength = BulkTransfer.CHUNK_HEADER_SIZE + length;
+
+    outBufScrIndex = 0;
+
+    outBufScratch[outBufScrIndex++] = Notcher.BULK_DATA_CMD;
+
+    //the data bytes are preceded by their number
+    unpackShortInt(dataLength, outBufScratch);
+
+    outBufScratch[outBufScrIndex++] = bulkTransferId;
+    unpackInt(bulkSendOffset, outBufScratch);
+    unpackInt(bulkSize, outBufScratch);
+
+    for (int i = 0; i < length; i++){
+        outBufScratch[outBufScrIndex++] =
+                            getSimBulkByte(bulkResource, bulkSendOffset + i);
+    }
+
+    sendByteArray(outBufScrIndex, outBufScratch);
+
+    bulkSendOffset += length;
+
+}//end of NotcherSimulator::sendBulkChunk
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::getSimBulkSize
+//
+// Returns the number of bytes in the simulated block of data pResource, or 0
+// if the resource is unknown.
+//
+
+static int getSimBulkSize(int pResource)
+{
+
+    switch (pResource){
+        case BulkTransfer.WAVEFORM: return(SIM_WAVEFORM_SIZE);
+        case BulkTransfer.DEVICE_LOG: return(SIM_DEVICE_LOG_SIZE);
+        case BulkTransfer.RECIPE: return(SIM_RECIPE_SIZE);
+        default: return(0);
+    }
+
+}//end of NotcherSimulator::getSimBulkSize
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::getSimBulkByte
+//
+// Returns the byte at pOffset in the simulated block of data pResource. The
+// pattern changes with every byte and does not repeat every 256 bytes, so
+// a chunk stored at the wrong offset is detected by comparison.
+//
+
+static byte getSimBulkByte(int pResource, int pOffset)
+{
+
+    return((byte)(pOffset + (pOffset >>> 8) * 7 + pResource * 31));
+
+}//end of NotcherSimulator::getSimBulkByte
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::isBulkDue
+//
+// Returns true if a bulk read is in progress and the next chunk is within
+// the window allowed by the host.
+//
+
+private boolean isBulkDue()
+{
+
+    return(bulkActive && bulkSendOffset < bulkSize
+                    && bulkSendOffset - bulkAckedOffset < bulkWindowBytes);
+
+}//end of NotcherSimulator::isBulkDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::isBulkRetryDue
+//
+// Returns true if chunks have been sent which the host has not acknowledged
+// and nothing has been heard from the host for BULK_RETRY milliseconds.
+//
+
+private boolean isBulkRetryDue()
+{
+
+    return(bulkActive && bulkSendOffset > bulkAckedOffset
+        && System.nanoTime() - lastBulkAckTime >= BULK_RETRY * 1000000L);
+
+}//end of NotcherSimulator::isBulkRetryDue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleLoadFirmwarePacket
+//
+// Handles LOAD_FIRMWARE_CMD packets received from the host by starting the
+// simulated loader. The data bytes are the image size, the block size, and
+// the image CRC. See FirmwareInstaller.java for the packet layout.
+//
+// A new load discards any image partly received.
+//
+
+private void handleLoadFirmwarePacket()
+{
+
+    int size = decoder.getInt(0);
+
+    firmwareBlockSize = decoder.getUnsignedShort(4);
+    firmwareCrc = decoder.getInt(6);
+
+    if (size <= 0 || size > FirmwareImage.MAX_SIZE || firmwareBlockSize <= 0){
+        simFirmware = null;
+        sendFirmwareStatus(0, FirmwareInstaller.STATUS_REFUSED);
+        return;
+    }
+
+    simFirmware = new byte[size];
+    firmwareStored = 0;
+
+    sendFirmwareStatus(0, FirmwareInstaller.STATUS_SEND_DATA);
+
+}//end of NotcherSimulator::handleLoadFirmwarePacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleFirmwareDataPacket
+//
+// Handles FIRMWARE_DATA_CMD packets received from the host. The data bytes
+// are the block's offset, its image bytes, and their CRC.
+//
+// Only the block at the offset stored so far is accepted; the host sends
+// again from there after a bad block, so the blocks which follow the bad one
+// are ignored. Each block is "written to flash" and checked, and the offset
+// stored so far is returned to the host.
+//
+
+private void handleFirmwareDataPacket()
+{
+
+    if (simFirmware == null){
+        sendFirmwareStatus(0, FirmwareInstaller.STATUS_REFUSED);
+        return;
+    }
+
+    int offset = decoder.getInt(0);
+    int length = decoder.getFrameLength() - FirmwareInstaller.BLOCK_OVERHEAD;
+
+    if (offset != firmwareStored) { return; }
+
+    int start = decoder.getFrameOffset() + 4;
+
+    boolean good = length > 0 && length <= firmwareBlockSize
+                && length <= simFirmware.length - offset
+                && Crc32c.compute(decoder.getArray(), start, length)
+                                                == decoder.getInt(4 + length);
+
+    if (good){
+        System.arraycopy(decoder.getArray(), start, simFirmware, offset,
+                                                                    length);
+        waitSleep(SIM_FLASH_WRITE_TIME);
+    }
+
+    //simulate a block which does not read back correctly after writing
+    if (good && firmwareBadBlockInterval > 0
+                    && ++firmwareBlockCount % firmwareBadBlockInterval == 0){
+        good = false;
+    }
+
+    if (!good){
+        sendFirmwareStatus(offset, FirmwareInstaller.STATUS_BAD_BLOCK);
+        return;
+    }
+
+    firmwareStored += length;
+
+    sendFirmwareStatus(firmwareStored, FirmwareInstaller.STATUS_SEND_DATA);
+
+}//end of NotcherSimulator::handleFirmwareDataPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::handleFirmwareExitPacket
+//
+// Handles FIRMWARE_EXIT_CMD packets received from the host. The data bytes
+// are the image CRC. The image is installed if all of it was received and
+// its CRC matches both this value and the one given when loading began.
+//
+
+private void handleFirmwareExitPacket()
+{
+
+    //a repeated request after the image was installed is answered again
+    if (simFirmware == null){
+        sendFirmwareStatus(0, installedFirmwareCrc == decoder.getInt(0)
+                                        && firmwareInstallCount > 0
+                                        ? FirmwareInstaller.STATUS_INSTALLED
+                                        : FirmwareInstaller.STATUS_REFUSED);
+        return;
+    }
+
+    int crc = Crc32c.compute(simFirmware, 0, simFirmware.length);
+
+    if (firmwareStored != simFirmware.length || crc != firmwareCrc
+                                            || crc != decoder.getInt(0)){
+        simFirmware = null;
+        sendFirmwareStatus(firmwareStored, FirmwareInstaller.STATUS_IMAGE_BAD);
+        return;
+    }
+
+    installedFirmwareCrc = crc;
+    firmwareInstallCount++;
+    simFirmware = null;
+
+    sendFirmwareStatus(firmwareStored, FirmwareInstaller.STATUS_INSTALLED);
+
+}//end of NotcherSimulator::handleFirmwareExitPacket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherSimulator::sendFirmwareStatus
+//
+// Sends a FIRMWARE_STATUS_CMD packet with the offset stored so far and
+// pStatus.
+//
+
+private void sendFirmwareStatus(int pOffset, byte pStatus)
+{
+
+    outBufScrIndex = 0;
+
+    outBufScratch[outBufScrIndex++] = Notcher.FIRMWARE_STATUS_CMD;
+
+    unpackInt(pOffset, outBufScratch);
+
+    outBufScratch[outBufScrIndex++] = pStatus;
+
+    sendByteArray(outBufScrIndex, outBufScratch);
+
+}//end of NotcherSimulator::sendFirmwareStatus
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
 // NotcherSimulator::run
 //
-// This is the thread run code and is used to drive the simulation.
+// This is the thread run code and is used to drive the simulation until the
+// connection is closed.
 //
 
 @Override
 public void run() {
 
-    while(true){
+    while(!isClosed()){
         
         driveSimulation();
 
-        waitSleep(5);
     }
     
 }//end of NotcherSimulator::run
@@ -0,0 +1,374 @@
+/******************************************************************************
+* Title: OutboundFrameQueue.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class builds outgoing packet frames in a single reusable buffer and
+* sends all queued frames together with one write call.
+*
+* Previously, each packet was sent with one write for the header, a second
+* write for the packet ID, data, and checksum, and then a flush. With small
+* packets and Nagle's algorithm enabled on the socket, the split writes also
+* delayed the second part of each packet until the previous segment was
+* acknowledged.
+*
+* Each call to queueFrame writes the header, packet ID, optional sequence
+* number, data bytes, and checksum into the buffer. Nothing is sent until
+* flush is called, at which point every queued frame goes out in one write
+* and one flush. The owner decides when to flush -- after each packet, after
+* a batch of commands, or at the end of each I/O cycle.
+*
+* The buffer is a plain array rather than a direct ByteBuffer as the sockets
+* are accessed through streams which take arrays; a direct buffer would have
+* to be copied into an array for every write.
+*
+* When used with a non-blocking channel, a write may only send part of the
+* queued bytes. The remainder is kept at the front of the queue and new frames
+* are added after it; the owner must call flush again when the channel is
+* ready for writing.
+*
+* If the remote limits the bytes it will accept (credit based flow control,
+* see Remote.flushOutQueue), the flush methods which take a maximum send only
+* that many bytes and keep the rest queued. A frame may be split between two
+* flushes; the remote reassembles the stream as it would for any partial
+* read.
+*
+* Each frame ends with either the 8-bit checksum or, if the CRC frame check
+* has been agreed with the remote, a four byte CRC-32C. See Crc32c.java.
+*
+* See Notcher.java for a description of the packet format.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Checksum;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class OutboundFrameQueue
+//
+
+public class OutboundFrameQueue extends Object{
+
+    //the four header bytes plus the checksum byte
+    static final int FRAME_OVERHEAD = 5;
+
+    //the four header bytes plus the CRC bytes
+    static final int CRC_FRAME_OVERHEAD = 4 + Crc32c.CRC_SIZE;
+
+    private final byte[] buf;
+
+    //queued bytes are those from start to count-1 -- start is only non-zero
+    //after a partial write to a channel
+    private int start = 0;
+    private int count = 0;
+
+    //wraps buf for writes to channels -- created on first use
+    private ByteBuffer channelBuf;
+
+    //computes the CRC for frames queued with pCrc true -- created on first use
+    private Checksum crcCalc;
+
+    private int numQueuedFrames = 0;
+
+    //position and size of the frame most recently queued
+    private int lastFrameOffset = 0;
+    private int lastFrameLength = 0;
+
+    private long flushCount = 0;
+    private long frameCount = 0;
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::OutboundFrameQueue (constructor)
+//
+// pCapacity specifies the size of the buffer. It must be large enough to hold
+// the largest packet to be sent plus its header and checksum.
+//
+
+public OutboundFrameQueue(int pCapacity)
+{
+
+    buf = new byte[pCapacity];
+
+}//end of OutboundFrameQueue::OutboundFrameQueue (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::frameSize
+//
+// Returns the number of bytes in a frame carrying pNumBytes bytes (packet ID
+// plus data) with a sequence number if pSequenced is true and with a CRC
+// rather than a checksum if pCrc is true.
+//
+
+public static int frameSize(int pNumBytes, boolean pSequenced, boolean pCrc)
+{
+
+    return((pCrc ? CRC_FRAME_OVERHEAD : FRAME_OVERHEAD)
+                                            + pNumBytes + (pSequenced ? 1 : 0));
+
+}//end of OutboundFrameQueue::frameSize
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::hasRoomFor
+//
+// Returns true if a frame carrying pNumBytes bytes will fit in the space
+// remaining in the buffer.
+//
+
+public boolean hasRoomFor(int pNumBytes, boolean pSequenced, boolean pCrc)
+{
+
+    return(buf.length - (count - start)
+                                    >= frameSize(pNumBytes, pSequenced, pCrc));
+
+}//end of OutboundFrameQueue::hasRoomFor
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::queueFrame
+//
+// Adds a frame to the buffer containing the header, the first pNumBytes of
+// pBytes, and the checksum. The first byte of pBytes must be the packet ID.
+//
+// If pSequenced is true, pSequenceNumber is inserted after the packet ID.
+//
+// If pCrc is true, the frame ends with the CRC-32C of the packet ID, sequence
+// number, and data bytes (MSB first) rather than the checksum.
+//
+// Returns true if the frame was queued, false if there was not enough room.
+//
+
+public boolean queueFrame(int pNumBytes, byte[] pBytes, boolean pSequenced,
+                                        byte pSequenceNumber, boolean pCrc)
+{
+
+    if (!hasRoomFor(pNumBytes, pSequenced, pCrc)) { return(false); }
+
+    if (buf.length - count < frameSize(pNumBytes, pSequenced, pCrc)){
+        compact();
+    }
+
+    int x = count;
+
+    buf[x++] = FrameDecoder.HEADER_0; buf[x++] = FrameDecoder.HEADER_1;
+    buf[x++] = FrameDecoder.HEADER_2; buf[x++] = FrameDecoder.HEADER_3;
+
+    //the first byte is the packet ID -- if sequence numbers are in use, the
+    //sequence number follows the packet ID
+
+    int checksum = pBytes[0];
+    buf[x++] = pBytes[0];
+
+    if (pSequenced){
+        buf[x++] = pSequenceNumber;
+        checksum += pSequenceNumber;
+    }
+
+    for(int i=1; i<pNumBytes; i++){
+        buf[x++] = pBytes[i];
+        checksum += pBytes[i];
+    }
+
+    if (pCrc){
+        if (crcCalc == null) { crcCalc = Crc32c.newChecksum(); }
+        crcCalc.reset();
+        crcCalc.update(buf, count + 4, x - (count + 4));
+        int crc = (int)crcCalc.getValue();
+        buf[x++] = (byte)(crc >>> 24); buf[x++] = (byte)(crc >>> 16);
+        buf[x++] = (byte)(crc >>> 8); buf[x++] = (byte)crc;
+    }
+    else{
+        buf[x++] = (byte)(0x100 - (byte)(checksum & 0xff));
+    }
+
+    lastFrameOffset = count;
+    lastFrameLength = x - count;
+
+    count = x;
+    numQueuedFrames++;
+    frameCount++;
+
+    return(true);
+
+}//end of OutboundFrameQueue::queueFrame
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::flush
+//
+// Sends all queued frames to pOut with a single write and then flushes pOut.
+// Does nothing if no frames are queued.
+//
+// The queue is emptied even if the write fails so that a broken connection
+// does not cause the same bytes to be sent again later.
+//
+
+public void flush(OutputStream pOut) throws IOException
+{
+
+    flush(pOut, Integer.MAX_VALUE);
+
+}//end of OutboundFrameQueue::flush
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::flush
+//
+// Sends up to pMaxBytes of the queued bytes to pOut with a single write and
+// then flushes pOut. Any bytes beyond pMaxBytes are left at the front of the
+// queue to be sent by a later flush.
+//
+// The bytes are removed from the queue even if the write fails so that a
+// broken connection does not cause the same bytes to be sent again later.
+//
+// Returns the number of bytes sent.
+//
+
+public int flush(OutputStream pOut, int pMaxBytes) throws IOException
+{
+
+    int numBytes = Math.min(count - start, pMaxBytes);
+
+    if (numBytes <= 0) { return(0); }
+
+    int offset = start;
+
+    start += numBytes;
+
+    if (start == count) { clear(); flushCount++; }
+
+    pOut.write(buf, offset, numBytes);
+    pOut.flush();
+
+    return(numBytes);
+
+}//end of OutboundFrameQueue::flush
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::flush
+//
+// Writes as many queued bytes to pChannel as it will accept with a single
+// write. If the channel is in non-blocking mode, some bytes may remain in the
+// queue.
+//
+// Returns the number of bytes still queued -- 0 if all were sent.
+//
+
+public int flush(WritableByteChannel pChannel) throws IOException
+{
+
+    flush(pChannel, Integer.MAX_VALUE);
+
+    return(count - start);
+
+}//end of OutboundFrameQueue::flush
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::flush
+//
+// Writes up to pMaxBytes of the queued bytes to pChannel with a single write.
+// The bytes not accepted by the channel or beyond pMaxBytes remain queued.
+//
+// Returns the number of bytes sent.
+//
+
+public int flush(WritableByteChannel pChannel, int pMaxBytes)
+                                                            throws IOException
+{
+
+    int numBytes = Math.min(count - start, pMaxBytes);
+
+    if (numBytes <= 0) { return(0); }
+
+    if (channelBuf == null) { channelBuf = ByteBuffer.wrap(buf); }
+
+    //cast to Buffer for compatibility with Java 8 runtimes
+    ((Buffer)channelBuf).limit(start + numBytes);
+    ((Buffer)channelBuf).position(start);
+
+    int bytesWritten = pChannel.write(channelBuf);
+
+    start += bytesWritten;
+
+    if (start == count) { clear(); flushCount++; }
+
+    return(bytesWritten);
+
+}//end of OutboundFrameQueue::flush
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::compact
+//
+// Moves the bytes left from a partial write to the start of the buffer.
+//
+
+private void compact()
+{
+
+    System.arraycopy(buf, start, buf, 0, count - start);
+
+    count -= start; start = 0;
+
+}//end of OutboundFrameQueue::compact
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::clear
+//
+// Discards all queued frames.
+//
+
+public void clear()
+{
+
+    start = 0; count = 0; numQueuedFrames = 0;
+
+}//end of OutboundFrameQueue::clear
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// OutboundFrameQueue::various get/set functions
+//
+
+public int getNumQueuedBytes() { return(count - start); }
+
+public int getNumQueuedFrames() { return(numQueuedFrames); }
+
+//the average number of frames sent per write is getFrameCount/getFlushCount
+public long getFlushCount() { return(flushCount); }
+
+public long getFrameCount() { return(frameCount); }
+
+//the backing array and the position of the frame most recently queued, for
+//those which record the frames sent -- valid until the next flush
+public byte[] getArray() { return(buf); }
+
+public int getLastFrameOffset() { return(lastFrameOffset); }
+
+public int getLastFrameLength() { return(lastFrameLength); }
+
+//end of OutboundFrameQueue::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class OutboundFrameQueue
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
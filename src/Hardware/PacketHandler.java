@@ -0,0 +1,37 @@
+/******************************************************************************
+* Title: PacketHandler.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This interface is implemented by the objects registered with a
+* PacketHandlerRegistry to handle one type of packet.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// interface PacketHandler
+//
+// When handlePacket is called, the packet's data bytes have already been
+// read and verified against the checksum. They can be accessed through the
+// getter methods of the FrameDecoder which received the packet.
+//
+
+public interface PacketHandler {
+
+    public void handlePacket();
+
+}//end of interface PacketHandler
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
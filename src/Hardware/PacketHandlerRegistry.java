@@ -0,0 +1,440 @@
+/******************************************************************************
+* Title: PacketHandlerRegistry.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class maps packet IDs to the handler for each packet type and the fixed
+* number of data bytes each packet type carries.
+*
+* Notcher and NotcherSimulator each use an instance of this class to dispatch
+* the packets they receive. The payload lengths of the packets sent in each
+* direction are declared in one place in the Notcher class so that the two
+* sides always agree on them.
+*
+* Dispatching is a direct lookup in a 128 entry array indexed by the packet ID,
+* so the cost is the same no matter how many commands are added.
+*
+* Packet types which have been declared but which have no handler on the
+* receiving side are skipped by their declared length. Previously, such
+* packets caused a reSync which often discarded the next valid packet as well.
+*
+* Sequence Numbers
+*
+* If sequence numbers have been enabled for the connection, each packet has a
+* sequence number byte between the packet ID and the data bytes. This byte is
+* not counted in the declared payload length. The registry strips it before
+* calling the handler so the handlers are the same in either mode; the
+* handler can retrieve it with getLastSequenceNumber.
+*
+* Length Prefixed Packets
+*
+* A packet type declared with a length of LENGTH_PREFIXED carries a varying
+* number of data bytes. The first two data bytes (MSB first, following the
+* sequence number if enabled) give the number of data bytes which follow
+* them. The registry strips the prefix before calling the handler, which gets
+* the number of data bytes from the decoder's getFrameLength. Lengths larger
+* than MAX_PREFIXED_LENGTH are treated as corrupt so that a bad prefix cannot
+* stall the connection waiting for bytes which will never arrive.
+*
+* CRC Frame Check
+*
+* If the CRC frame check has been enabled for the connection, each packet
+* ends with a four byte CRC-32C rather than the one byte checksum. The
+* handlers are the same in either mode.
+*
+* Wire Capture
+*
+* If a WireCapture has been set, every frame dispatched is recorded in it,
+* including those which fail the checksum or CRC.
+*
+* Adding a Command
+*
+* Declare the payload length in Notcher.declareHostPackets or
+* Notcher.declareRemotePackets, depending on which side sends the packet, and
+* then register the handler in the init method of the receiving class.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.*;
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class PacketHandlerRegistry
+//
+
+public class PacketHandlerRegistry extends Object{
+
+    //packet IDs are sent as a single byte with the top bit never set
+    public static final int NUM_PACKET_IDS = 128;
+
+    static final int UNDECLARED = -1;
+
+    //declared in place of the payload length for packets whose first two data
+    //bytes give the number of data bytes which follow them
+    public static final int LENGTH_PREFIXED = -2;
+
+    static final int LENGTH_PREFIX_SIZE = 2;
+
+    //largest value accepted in a length prefix
+    public static final int MAX_PREFIXED_LENGTH = 1024;
+
+    private final int[] payloadLengths = new int[NUM_PACKET_IDS];
+
+    private final PacketHandler[] handlers = new PacketHandler[NUM_PACKET_IDS];
+
+    private int skippedPacketCount = 0;
+
+    //volatile as the packets may be dispatched by a different thread than the
+    //one which changes the mode
+    private volatile boolean sequenceNumbersEnabled = false;
+    private byte lastSequenceNumber = 0;
+
+    private volatile boolean crcEnabled = false;
+
+    //records the frames received, if not null
+    private volatile WireCapture capture;
+    private int captureDevice = 0;
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::PacketHandlerRegistry (constructor)
+//
+
+public PacketHandlerRegistry()
+{
+
+    Arrays.fill(payloadLengths, UNDECLARED);
+
+}//end of PacketHandlerRegistry::PacketHandlerRegistry (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::declare
+//
+// Declares that packets of type pPktID carry pPayloadLength data bytes, not
+// including the checksum. Pass LENGTH_PREFIXED for packets which give their
+// own length.
+//
+
+public void declare(byte pPktID, int pPayloadLength)
+{
+
+    payloadLengths[pPktID] = pPayloadLength;
+
+}//end of PacketHandlerRegistry::declare
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::setHandler
+//
+// Sets pHandler to be called for packets of type pPktID. The packet type must
+// already have been declared.
+//
+
+public void setHandler(byte pPktID, PacketHandler pHandler)
+{
+
+    if (payloadLengths[pPktID] == UNDECLARED){
+        throw new IllegalArgumentException(
+                            "Packet ID " + pPktID + " has not been declared.");
+    }
+
+    handlers[pPktID] = pHandler;
+
+}//end of PacketHandlerRegistry::setHandler
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::isDeclared
+//
+// Returns true if the payload length for packet type pPktID is known.
+//
+
+public boolean isDeclared(byte pPktID)
+{
+
+    return(pPktID >= 0 && payloadLengths[pPktID] != UNDECLARED);
+
+}//end of PacketHandlerRegistry::isDeclared
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::dispatch
+//
+// Reads the data bytes and checksum (and sequence number if enabled) of a
+// packet of type pPktID into pDecoder, reading more from pIn if necessary, and
+// verifies the checksum. If valid, the handler for the packet type is called.
+// If there is no handler, the packet is skipped.
+//
+// If the CRC frame check is enabled, the CRC is read and verified in place of
+// the checksum.
+//
+// The packet type must have been declared -- call isDeclared first.
+//
+// Returns the number of bytes read (data plus checksum) if the packet was
+// valid. Returns -1 if the bytes could not be read or the checksum failed.
+//
+
+public int dispatch(byte pPktID, FrameDecoder pDecoder, InputStream pIn)
+                                                            throws IOException
+{
+
+    int numBytes = getDataSize(pPktID);
+
+    if (numBytes == LENGTH_PREFIXED){
+
+        //read up to the end of the length prefix to learn the length
+
+        if (!pDecoder.fillBlocking(pIn, getPrefixEnd())) { return(-1); }
+
+        numBytes = getPrefixedDataSize(pDecoder, 0);
+
+        if (numBytes < 0) { return(-1); }
+
+    }
+
+    if (!pDecoder.fillBlocking(pIn, numBytes + getCheckSize())) {
+        return(-1);
+    }
+
+    return(dispatchBuffered(pPktID, pDecoder));
+
+}//end of PacketHandlerRegistry::dispatch
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::dispatchBuffered
+//
+// Same as dispatch except that the data bytes and checksum must already be in
+// pDecoder -- nothing is read. Used when the bytes are read by another thread,
+// such as a SelectorTransport.
+//
+// Check that getFrameSize bytes are buffered before reading the header.
+//
+// Returns the number of bytes handled (data plus checksum) if the packet was
+// valid. Returns -1 if the bytes were missing or the checksum failed.
+//
+
+public int dispatchBuffered(byte pPktID, FrameDecoder pDecoder)
+{
+
+    int numBytes = getDataSize(pPktID);
+
+    if (numBytes == LENGTH_PREFIXED){
+
+        if (pDecoder.getNumBuffered() < getPrefixEnd()) { return(-1); }
+
+        numBytes = getPrefixedDataSize(pDecoder, 0);
+
+        if (numBytes < 0) { return(-1); }
+
+    }
+
+    boolean valid = crcEnabled ? pDecoder.verifyFrameCrc(numBytes, pPktID)
+                                    : pDecoder.verifyFrame(numBytes, pPktID);
+
+    WireCapture wireCapture = capture;
+
+    if (wireCapture != null){
+        recordFrame(wireCapture, valid, pPktID, pDecoder,
+                                                    numBytes + getCheckSize());
+    }
+
+    if (!valid) { return(-1); }
+
+    if (sequenceNumbersEnabled){
+        lastSequenceNumber = pDecoder.getByte(0);
+        pDecoder.skipFrameBytes(1);
+    }
+
+    if (payloadLengths[pPktID] == LENGTH_PREFIXED){
+        pDecoder.skipFrameBytes(LENGTH_PREFIX_SIZE);
+    }
+
+    PacketHandler handler = handlers[pPktID];
+
+    if (handler != null) { handler.handlePacket(); }
+    else { skippedPacketCount++; }
+
+    return(numBytes + getCheckSize());
+
+}//end of PacketHandlerRegistry::dispatchBuffered
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::recordFrame
+//
+// Records the frame just checked by dispatchBuffered in pCapture. If the
+// frame was valid, it is the decoder's current frame; if not, no bytes were
+// consumed and as many of its pNumBytes as have arrived are recorded.
+//
+
+private void recordFrame(WireCapture pCapture, boolean pValid, byte pPktID,
+                                        FrameDecoder pDecoder, int pNumBytes)
+{
+
+    if (pValid){
+        pCapture.record(captureDevice, 0, pPktID, pDecoder.getArray(),
+                                        pDecoder.getFrameOffset(), pNumBytes);
+    }
+    else{
+        pCapture.record(captureDevice, WireCapture.BAD, pPktID,
+                pDecoder.getArray(), pDecoder.getUnreadOffset(),
+                Math.min(pNumBytes, pDecoder.getNumBuffered()));
+    }
+
+}//end of PacketHandlerRegistry::recordFrame
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::getDataSize
+//
+// Returns the number of bytes between the packet ID and the checksum for
+// packets of type pPktID, including the sequence number if enabled.
+//
+// Returns LENGTH_PREFIXED if the size is given by the packet's length prefix.
+//
+
+int getDataSize(byte pPktID)
+{
+
+    int length = payloadLengths[pPktID];
+
+    if (length == LENGTH_PREFIXED) { return(LENGTH_PREFIXED); }
+
+    return(length + (sequenceNumbersEnabled ? 1 : 0));
+
+}//end of PacketHandlerRegistry::getDataSize
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::getPrefixEnd
+//
+// Returns the number of bytes between the packet ID and the end of the length
+// prefix of a length prefixed packet.
+//
+
+private int getPrefixEnd()
+{
+
+    return((sequenceNumbersEnabled ? 1 : 0) + LENGTH_PREFIX_SIZE);
+
+}//end of PacketHandlerRegistry::getPrefixEnd
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::getPrefixedDataSize
+//
+// Returns the number of bytes between the packet ID and the checksum for the
+// length prefixed packet whose data bytes start pIndex bytes from the front
+// of the unprocessed bytes in pDecoder. The length prefix must be buffered.
+//
+// Returns -1 if the length is larger than MAX_PREFIXED_LENGTH.
+//
+
+private int getPrefixedDataSize(FrameDecoder pDecoder, int pIndex)
+{
+
+    int prefixEnd = getPrefixEnd();
+
+    int length = pDecoder.peekUnsignedShort(
+                                pIndex + prefixEnd - LENGTH_PREFIX_SIZE);
+
+    if (length > MAX_PREFIXED_LENGTH) { return(-1); }
+
+    return(prefixEnd + length);
+
+}//end of PacketHandlerRegistry::getPrefixedDataSize
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::getFrameSize
+//
+// Returns the total number of bytes in the packet of type pPktID whose header
+// is at the front of the unprocessed bytes in pDecoder, including the header,
+// packet ID, and checksum. The packet type must be declared.
+//
+// For a length prefixed packet whose prefix has not yet been buffered, the
+// number of bytes up to the end of the prefix is returned -- call again when
+// that many bytes are buffered.
+//
+// Returns -1 if the length prefix is invalid.
+//
+
+public int getFrameSize(byte pPktID, FrameDecoder pDecoder)
+{
+
+    int dataSize = getDataSize(pPktID);
+
+    if (dataSize == LENGTH_PREFIXED){
+
+        int prefixEnd = FrameDecoder.HEADER_AND_ID_SIZE + getPrefixEnd();
+
+        if (pDecoder.getNumBuffered() < prefixEnd) { return(prefixEnd); }
+
+        dataSize = getPrefixedDataSize(pDecoder,
+                                            FrameDecoder.HEADER_AND_ID_SIZE);
+
+        if (dataSize < 0) { return(-1); }
+
+    }
+
+    return(FrameDecoder.HEADER_AND_ID_SIZE + dataSize + getCheckSize());
+
+}//end of PacketHandlerRegistry::getFrameSize
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::getCheckSize
+//
+// Returns the number of bytes which follow the data bytes of each packet to
+// check it: one for the checksum or four for the CRC.
+//
+
+int getCheckSize()
+{
+
+    return(crcEnabled ? Crc32c.CRC_SIZE : 1);
+
+}//end of PacketHandlerRegistry::getCheckSize
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// PacketHandlerRegistry::various get/set functions
+//
+
+public int getPayloadLength(byte pPktID) { return(payloadLengths[pPktID]); }
+
+public int getSkippedPacketCount() { return(skippedPacketCount); }
+
+public void setSequenceNumbersEnabled(boolean pState)
+                                            { sequenceNumbersEnabled = pState; }
+
+public byte getLastSequenceNumber() { return(lastSequenceNumber); }
+
+public void setCrcEnabled(boolean pState) { crcEnabled = pState; }
+
+public boolean isCrcEnabled() { return(crcEnabled); }
+
+//frames received are recorded in pCapture as coming from unit pDevice; null
+//for none
+public void setCapture(WireCapture pCapture, int pDevice)
+                            { captureDevice = pDevice; capture = pCapture; }
+
+//end of PacketHandlerRegistry::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class PacketHandlerRegistry
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,116 @@
+/******************************************************************************
+* Title: ReconnectBackoff.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class computes the delays between attempts to reconnect to a remote
+* which has dropped its connection; see Notcher.reconnect.
+*
+* The delay doubles with each failed attempt, starting at the minimum delay
+* and never exceeding the maximum, so a unit which is only briefly gone is
+* reconnected quickly while one which is switched off for a long time does
+* not flood the network with connection attempts.
+*
+* Each delay is "jittered" by choosing it at random between half and all of
+* the computed value. When a switch or a power supply shared by several units
+* fails, the units all drop at the same moment; without jitter their retries
+* would stay in step and arrive together every time.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class ReconnectBackoff
+//
+
+public class ReconnectBackoff extends Object{
+
+    //the delays in milliseconds
+    private final int minDelay;
+    private final int maxDelay;
+
+    //number of delays handed out since the last reset
+    private int attempts = 0;
+
+//-----------------------------------------------------------------------------
+// ReconnectBackoff::ReconnectBackoff (constructor)
+//
+// pMinDelay and pMaxDelay are in milliseconds.
+//
+
+public ReconnectBackoff(int pMinDelay, int pMaxDelay)
+{
+
+    minDelay = Math.max(1, pMinDelay);
+    maxDelay = Math.max(minDelay, pMaxDelay);
+
+}//end of ReconnectBackoff::ReconnectBackoff (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ReconnectBackoff::nextDelay
+//
+// Returns the number of milliseconds to wait before the next attempt and
+// counts the attempt.
+//
+
+public synchronized int nextDelay()
+{
+
+    //stop doubling once the maximum is reached so the value cannot overflow
+    long delay = minDelay;
+
+    for (int i = 0; i < attempts && delay < maxDelay; i++) { delay *= 2; }
+
+    delay = Math.min(delay, maxDelay);
+
+    attempts++;
+
+    long half = delay / 2;
+
+    long jitter = ThreadLocalRandom.current().nextLong(delay - half + 1);
+
+    return((int)(half + jitter));
+
+}//end of ReconnectBackoff::nextDelay
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ReconnectBackoff::reset
+//
+// Starts again from the minimum delay. Call this when a connection succeeds.
+//
+
+public synchronized void reset()
+{
+
+    attempts = 0;
+
+}//end of ReconnectBackoff::reset
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// ReconnectBackoff::various get/set functions
+//
+
+public synchronized int getAttempts() { return(attempts); }
+
+//end of ReconnectBackoff::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class ReconnectBackoff
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
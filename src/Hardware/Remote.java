@@ -21,33 +21,16 @@ package Hardware;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import model.IniFile;
 import view.Log;
 import view.ThreadSafeLogger;
 
-//-----------------------------------------------------------------------------
-//-----------------------------------------------------------------------------
-// class InstallFirmwareSettings
-//
-// This class is used to pass in all necessary settings to the
-// installNewRabbitFirmware function.
-//
-
-class InstallFirmwareSettings extends Object{
-
-    public byte loadFirmwareCmd;
-    public byte noAction;
-    public byte error;
-    public byte sendDataCmd;
-    public byte dataCmd;
-    public byte exitCmd;
-
-}//end of class InstallFirmwareSettings
-//-----------------------------------------------------------------------------
-//-----------------------------------------------------------------------------
-
 //-----------------------------------------------------------------------------
 //-----------------------------------------------------------------------------
 // class Remote
@@ -92,9 +75,92 @@ public abstract class Remote extends Object{
     DataOutputStream byteOut = null;
     DataInputStream byteIn = null;
 
-    int TIMEOUT = 50;
+    FrameDecoder decoder;
+    PacketHandlerRegistry packetHandlers;
+
+    //outgoing packets are built here and sent together by flushOutQueue
+    OutboundFrameQueue outQueue;
+    //guards outQueue and the flow control state; sendRoom is signalled when
+    //the remote makes room or flow control is turned off
+    final ReentrantLock outLock = new ReentrantLock();
+    final Condition sendRoom = outLock.newCondition();
+    //if false, packets are held in outQueue until flushOutQueue is called
+    boolean autoFlush = true;
+
+    //one full Ethernet TCP segment
+    static final int OUT_QUEUE_SIZE = 1460;
+
+    //default time in milliseconds a read from the socket will wait for data
+    static final int READ_TIMEOUT = 250;
+    //the read timeout currently set on the socket
+    int readTimeout = 0;
+
+    //if the connection is owned by a SelectorTransport, channel is used in
+    //place of socket and the byte streams are null
+    SocketChannel channel = null;
+    SelectorTransport transport = null;
+
+    //held by a thread while it sends a command and reads the reply, and by
+    //any other thread which reads the connection itself; always taken before
+    //outLock. These are locks rather than monitors as their holders block on
+    //the socket or wait for the remote, and a virtual thread blocked while
+    //holding a monitor pins its carrier thread on JDK 21 to 23.
+    final ReentrantLock cmdLock = new ReentrantLock();
+
+    //used to wake threads waiting for packets handled by the selector thread
+    //or a reader thread
+    private final ReentrantLock rxLock = new ReentrantLock();
+    private final Condition packetsHandled = rxLock.newCondition();
+    //changed only while holding rxLock
+    private volatile long handledPacketCount = 0;
+
+    //the value of handledPacketCount when each thread last sent a packet or
+    //returned from waitForHandledPackets -- kept for each thread so that one
+    //thread cannot take the packets another is waiting for; null until the
+    //thread first sends or waits
+    private final ThreadLocal<long[]> seenPacketCount = new ThreadLocal<>();
+
+    //if true, a sequence number byte follows the packet ID in every packet
+    boolean sequenceNumbersEnabled = false;
+
+    //the sequence number sent with packets whose ACKs are not tracked
+    static final byte UNTRACKED_SEQUENCE_NUMBER = 0;
+
+    //if true, every packet ends with a CRC-32C rather than a checksum
+    boolean crcEnabled = false;
+
+    //credit based flow control -- if enabled, no more bytes are sent than the
+    //remote has said it has room for; see flushOutQueue. Guarded by outLock.
+    boolean flowControlEnabled = false;
+    //the size of the remote's receive buffer
+    int creditWindow = 0;
+    //bytes sent and bytes read by the remote since flow control was enabled --
+    //these wrap around, so only their difference is used
+    int sentByteCount = 0;
+    int remoteReadCount = 0;
+
+    //number of times and total time bytes were held for lack of credits
+    boolean creditStalled = false;
+    long creditStallStart = 0;
+    //the counts are changed only while holding outLock
+    volatile long creditStallCount = 0;
+    volatile long creditStallNanos = 0;
+    volatile int creditTimeoutCount = 0;
+
+    //milliseconds a sender will wait for credits when the queue is full
+    static final int CREDIT_TIMEOUT = 1000;
+
+    int TIMEOUT = 500; //milliseconds
     int timeOutProcess = 0; //use this one in the packet process functions
 
+    //the firmware installation in progress, if any -- receives the status
+    //packets from the remote
+    volatile FirmwareInstaller firmwareInstaller;
+
+    //records the frames sent and received, if not null
+    WireCapture wireCapture;
+    int captureDevice = 0;
+
 
 //-----------------------------------------------------------------------------
 // Remote::Remote (constructor)
@@ -121,6 +187,53 @@ void configure(IniFile pConfigFile)
 }//end of Remote::configure
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Remote::setWireCapture
+//
+// Records every frame sent and received in pCapture as coming from unit
+// pDevice. Pass null to stop recording. Call after init.
+//
+
+public void setWireCapture(WireCapture pCapture, int pDevice)
+{
+
+    outLock.lock();
+
+    try{
+        captureDevice = pDevice;
+        wireCapture = pCapture;
+    }
+    finally{
+        outLock.unlock();
+    }
+
+    packetHandlers.setCapture(pCapture, pDevice);
+
+}//end of Remote::setWireCapture
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::handleFirmwareStatusPacket
+//
+// Handles the status packets sent by the remote while firmware is installed.
+// The data bytes are the number of image bytes stored and the status. See
+// FirmwareInstaller.java for the packet layout.
+//
+// The data bytes have already been read and verified by packetHandlers.
+//
+
+void handleFirmwareStatusPacket()
+{
+
+    FirmwareInstaller installer = firmwareInstaller;
+
+    if (installer == null) { return; }
+
+    installer.statusReceived(decoder.getInt(0), decoder.getByte(4));
+
+}//end of Remote::handleFirmwareStatusPacket
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Remote::isEnabled
 //
@@ -151,21 +264,102 @@ public void setIPAddr(InetAddress pIPAddr)
 }//end of Remote::setIPAddr
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Remote::connectionLost
+//
+// Marks the remote as not ready because its connection has failed or been
+// closed. pReason is logged.
+//
+// Called by whichever thread notices the failure first -- the connection
+// itself is closed by the thread which reconnects or shuts down the remote.
+//
+
+void connectionLost(String pReason)
+{
+
+    if (!ready) { return; }
+
+    ready = false;
+
+    tsLog.appendLine("Connection to " + ipAddrS + " lost: " + pReason);
+
+}//end of Remote::connectionLost
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::closeConnection
+//
+// Closes the streams, socket, and channel of the connection, if open, so that
+// a new connection may be made. Errors are ignored as the connection is
+// usually already broken.
+//
+
+void closeConnection()
+{
+
+    //close everything - the order of closing may be important
+
+    try { if (byteOut != null) { byteOut.close(); } } catch(IOException e){ }
+    try { if (byteIn != null) { byteIn.close(); } } catch(IOException e){ }
+    if (out != null) { out.close(); }
+    try { if (in != null) { in.close(); } } catch(IOException e){ }
+    try { if (socket != null) { socket.close(); } } catch(IOException e){ }
+    try { if (channel != null) { channel.close(); } } catch(IOException e){ }
+
+    byteOut = null; byteIn = null; out = null; in = null;
+    socket = null; channel = null; transport = null;
+
+}//end of Remote::closeConnection
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::resetConnectionState
+//
+// Returns the framing options, flow control, and buffers to their state
+// before the first connection. The remote starts a new connection with all
+// options off, so this must be done before the options are enabled again.
+//
+
+void resetConnectionState()
+{
+
+    outLock.lock();
+
+    try{
+        outQueue.clear();
+        flowControlEnabled = false;
+        endCreditStall();
+        sequenceNumbersEnabled = false;
+        crcEnabled = false;
+        //release any sender waiting for credits
+        sendRoom.signalAll();
+    }
+    finally{
+        outLock.unlock();
+    }
+
+    packetHandlers.setSequenceNumbersEnabled(false);
+    packetHandlers.setCrcEnabled(false);
+
+    decoder.clear();
+
+    //the new socket has not had its timeout set
+    readTimeout = 0;
+
+}//end of Remote::resetConnectionState
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Remote::reSync
 //
-// Clears bytes from the socket buffer until 0xaa byte reached which signals
-// the *possible* start of a new valid packet header or until the buffer is
-// empty.
+// Clears bytes from the receive buffer until the *possible* start of a new
+// valid packet header is reached or until the buffer is empty.
 //
-// If an 0xaa byte is found, the flag reSynced is set true to that other
-// functions will know that an 0xaa byte has already been removed from the
-// stream, signalling the possible start of a new packet header.
+// If a possible header is found, the flag reSynced is set true. The header
+// bytes are left in the buffer to be checked by the next call to
+// processOneDataPacket.
 //
-// There is a special case where a 0xaa is found just before the valid 0xaa
-// which starts a new packet - the first 0xaa is the last byte of the previous
-// packet (usually the checksum).  In this case, the next packet will be lost
-// as well.  This should happen rarely.
+// See FrameDecoder.skipToNextHeader for details.
 //
 
 public void reSync()
@@ -184,118 +378,451 @@ public void reSync()
 
     reSyncPktID = pktID;
 
-    try{
-        while (byteIn.available() > 0) {
-            byteIn.read(inBuffer, 0, 1);
-            if (inBuffer[0] == (byte)0xaa) {reSynced = true; break;}
-        }
-    }
-    catch(IOException e){
-        logSevere(e.getMessage() + " - Error: 847");
-    }
+    reSynced = decoder.skipToNextHeader();
 
 }//end of Remote::reSync
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Remote::sendHeader
+// Remote::sendBytes
+//
+// Sends a variable number of bytes (one or more) to the remote device,
+// prepending a valid header and appending the appropriate checksum.
+//
+
+void sendBytes(byte... pBytes)
+{
+
+    sendByteArray(pBytes.length, pBytes);
+
+}//end of Remote::sendBytes
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::sendByteArray
+//
+// Sends an array of bytes to the remote device, prepending a valid header and
+// appending the appropriate checksum. pNumbBytes specifies the number of bytes
+// in the array to send. The first byte must be the packet ID.
+//
+// If sequenceNumbersEnabled is true, UNTRACKED_SEQUENCE_NUMBER is inserted
+// after the packet ID.
+//
+// The packet is added to the outbound queue. If autoFlush is true, the queue
+// is sent immediately; otherwise it is sent along with any other packets
+// queued by the next call to flushOutQueue.
+//
+// This method accepts a primitive array rather than a variable length
+// argument list as it is more efficient when an array is to be passed.
+//
+// Returns false if the packet was dropped -- see queueByteArray.
+//
+
+boolean sendByteArray(int pNumBytes, byte[] pBytes)
+{
+
+    boolean queued = queueByteArray(pNumBytes, pBytes);
+
+    if (autoFlush) { flushOutQueue(); }
+
+    return(queued);
+
+}//end of Remote::sendByteArray
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::queueByteArray
+//
+// Adds a packet built from the first pNumBytes of pBytes to the outbound
+// queue without sending it, regardless of the autoFlush setting. The first
+// byte must be the packet ID.
+//
+// If the queue is full, the packets already in it are sent first. If flow
+// control is enabled and the remote has no room for them, this waits up to
+// CREDIT_TIMEOUT for the remote to make room.
+//
+// If the packets are read by another thread, this thread waits to be woken
+// by creditsReceived. Otherwise, this thread reads the packets itself while
+// holding cmdLock, as every other caller of processOneDataPacket does, and
+// without outLock so other threads may still queue and flush. Taking cmdLock
+// only when outLock is not held keeps the order the same as in the command
+// methods.
+//
+// If sequenceNumbersEnabled is true, UNTRACKED_SEQUENCE_NUMBER is inserted
+// after the packet ID.
+//
+// Returns true if the packet was queued, false if it was dropped because
+// the remote made no room in time or the packet does not fit in the queue.
+//
+
+boolean queueByteArray(int pNumBytes, byte[] pBytes)
+{
+
+    return(queueByteArray(pNumBytes, pBytes, UNTRACKED_SEQUENCE_NUMBER));
+
+}//end of Remote::queueByteArray
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::queueByteArray
 //
-// Sends a valid packet header without flushing.
+// As above, but inserts pSeq after the packet ID if sequenceNumbersEnabled is
+// true. The sequence number is passed with the packet rather than set in a
+// field beforehand so that packets queued by different threads cannot take
+// each other's numbers.
 //
 
-void sendHeader()
+boolean queueByteArray(int pNumBytes, byte[] pBytes, byte pSeq)
 {
 
-    outBuffer[0] = (byte)0xaa; outBuffer[1] = (byte)0x55;
-    outBuffer[2] = (byte)0xbb; outBuffer[3] = (byte)0x66;
+    long deadline = System.nanoTime() + CREDIT_TIMEOUT * 1000000L;
+
+    //the reply may be handled by another thread before this thread waits
+    //for it -- count packets as seen only up to this point
+    markPacketsSeen();
+
+    while (true){
+
+        outLock.lock();
 
-    //send packet to remote
-    if (byteOut != null) {
         try{
-            byteOut.write(outBuffer, 0 /*offset*/, 4);
+
+            if (!outQueue.hasRoomFor(
+                            pNumBytes, sequenceNumbersEnabled, crcEnabled)){
+                flushOutQueue();
+            }
+
+            if (flowControlEnabled && isReadByOtherThread()){
+                waitForSendRoom(pNumBytes, deadline);
+            }
+
+            if (!flowControlEnabled || outQueue.hasRoomFor(
+                            pNumBytes, sequenceNumbersEnabled, crcEnabled)){
+                return(addToOutQueue(pNumBytes, pBytes, pSeq));
+            }
+
+            if (isReadByOtherThread() || System.nanoTime() - deadline >= 0){
+                creditTimeoutCount++;
+                logSevere("No room in remote, packet dropped - Error: 720");
+                return(false);
+            }
+
         }
-        catch (IOException e){
-            logSevere(e.getMessage() + " - Error: 569");
+        finally{
+            outLock.unlock();
+        }
+
+        cmdLock.lock();
+
+        try{
+            processOneDataPacket(getTimeLeft(deadline));
         }
+        finally{
+            cmdLock.unlock();
+        }
+
     }
 
-}//end of Remote::sendHeader
+}//end of Remote::queueByteArray
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Remote::sendBytes
+// Remote::addToOutQueue
 //
-// Sends a variable number of bytes (one or more) to the remote device,
-// prepending a valid header and appending the appropriate checksum.
+// Adds a packet built from the first pNumBytes of pBytes and sequence number
+// pSeq to the outbound queue and records it if wire capture is enabled.
+//
+// Returns false if the packet does not fit.
+//
+// The caller must hold outLock.
 //
 
-void sendBytes(byte... pBytes)
+private boolean addToOutQueue(int pNumBytes, byte[] pBytes, byte pSeq)
 {
 
-    int checksum = 0;
-
-    sendHeader(); //send the packet header
+    if (!outQueue.queueFrame(pNumBytes, pBytes, sequenceNumbersEnabled,
+                                                        pSeq, crcEnabled)){
+        logSevere("Packet could not be queued - Error: 423");
+        return(false);
+    }
 
-    for(int i=0; i<pBytes.length; i++){
-        outBuffer[i] = pBytes[i];
-        checksum += pBytes[i];
+    if (wireCapture != null){
+        wireCapture.recordFrame(captureDevice, WireCapture.SENT,
+            outQueue.getArray(), outQueue.getLastFrameOffset(),
+            outQueue.getLastFrameLength());
     }
 
-    //calculate checksum and put at end of buffer
-    outBuffer[pBytes.length] = (byte)(0x100 - (byte)(checksum & 0xff));
+    return(true);
+
+}//end of Remote::addToOutQueue
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::flushOutQueue
+//
+// Sends all packets in the outbound queue with a single write.
+//
+// If the connection is owned by a SelectorTransport, any bytes the channel
+// cannot accept immediately are left queued and the selector thread is asked
+// to send them when the channel is ready.
+//
+// If flow control is enabled, only as many bytes are sent as the remote has
+// room for. The rest stay queued and are sent when the remote reports that
+// it has read more; see creditsReceived.
+//
+// Safe to call from any thread.
+//
+
+public void flushOutQueue()
+{
+
+    outLock.lock();
+
+    try{
+
+        int limit = getSendLimit();
+
+        if (channel != null){
+            try{
+                int sent = outQueue.flush(channel, limit);
+                countBytesSent(sent);
+                //if bytes are left for lack of credits rather than because
+                //the channel is full, there is nothing to wait for
+                if (outQueue.getNumQueuedBytes() > 0 && sent < limit){
+                    transport.requestWrite(this);
+                }
+            }
+            catch (IOException e) {
+                logSevere(e.getMessage() + " - Error: 426");
+                connectionLost(e.getMessage());
+            }
+            return;
+        }
+
+        if (byteOut == null) { outQueue.clear(); return; }
 
-    //send packet to remote
-    if (byteOut != null) {
         try{
-              byteOut.write(outBuffer, 0 /*offset*/, pBytes.length + 1);
-              byteOut.flush();
+            countBytesSent(outQueue.flush(byteOut, limit));
         }
         catch (IOException e) {
             logSevere(e.getMessage() + " - Error: 422");
+            connectionLost(e.getMessage());
         }
+
+    }
+    finally{
+        outLock.unlock();
     }
 
-}//end of Remote::sendBytes
+}//end of Remote::flushOutQueue
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Remote::sendBytes
+// Remote::startFlowControl
 //
-// Sends an array of bytes to the remote device, prepending a valid header and
-// appending the appropriate checksum. pNumbBytes specifies the number of bytes
-// in the array to send.
+// Enables credit based flow control starting with the next byte sent. No
+// bytes are sent until the remote reports the size of its receive buffer.
 //
-// This method accepts a primitive array rather than a variable length
-// argument list as it is more efficient when an array is to be passed.
+// The remote must start counting the bytes it reads at the same point in the
+// stream -- call this just after flushing the request which enables flow
+// control in the remote, while holding outLock.
+//
+
+void startFlowControl()
+{
+
+    outLock.lock();
+
+    try{
+        flowControlEnabled = true;
+        creditWindow = 0; sentByteCount = 0; remoteReadCount = 0;
+        creditStalled = false;
+    }
+    finally{
+        outLock.unlock();
+    }
+
+}//end of Remote::startFlowControl
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::stopFlowControl
+//
+// Disables flow control and sends any bytes held for lack of credits.
+//
+
+void stopFlowControl()
+{
+
+    outLock.lock();
+
+    try{
+        flowControlEnabled = false;
+        endCreditStall();
+        flushOutQueue();
+        sendRoom.signalAll();
+    }
+    finally{
+        outLock.unlock();
+    }
+
+}//end of Remote::stopFlowControl
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::creditsReceived
+//
+// Called by the thread which reads the packets when the remote reports that
+// its receive buffer holds pWindow bytes and that it has read pReadCount
+// bytes since flow control was enabled. The count is a running total rather
+// than an increment, so a lost report is made up by the next one.
+//
+// Any bytes held for lack of credits are sent and threads waiting for room
+// in the queue are woken.
+//
+
+void creditsReceived(int pWindow, int pReadCount)
+{
+
+    outLock.lock();
+
+    try{
+
+        if (!flowControlEnabled) { return; }
+
+        creditWindow = pWindow;
+        remoteReadCount = pReadCount;
+
+        endCreditStall();
+
+        flushOutQueue();
+
+        sendRoom.signalAll();
+
+    }
+    finally{
+        outLock.unlock();
+    }
+
+}//end of Remote::creditsReceived
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::getSendLimit
+//
+// Returns the number of bytes which may be sent now: the room left in the
+// remote's receive buffer if flow control is enabled, no limit otherwise.
+//
+// The caller must hold outLock.
 //
 
-void sendByteArray(int pNumBytes, byte[] pBytes)
+int getSendLimit()
 {
 
-    int checksum = 0;
+    if (!flowControlEnabled) { return(Integer.MAX_VALUE); }
+
+    return(Math.max(0, creditWindow - (sentByteCount - remoteReadCount)));
+
+}//end of Remote::getSendLimit
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::countBytesSent
+//
+// Adds pNumBytes to the bytes sent to the remote. If flow control has
+// stopped bytes from being sent, the start of the stall is noted.
+//
+// The caller must hold outLock.
+//
+
+private void countBytesSent(int pNumBytes)
+{
 
-    sendHeader(); //send the packet header
+    if (!flowControlEnabled) { return; }
 
-    for(int i=0; i<pNumBytes; i++){
-        outBuffer[i] = pBytes[i];
-        checksum += pBytes[i];
+    sentByteCount += pNumBytes;
+
+    if (!creditStalled && outQueue.getNumQueuedBytes() > 0
+                                                    && getSendLimit() == 0){
+        creditStalled = true;
+        creditStallStart = System.nanoTime();
+        creditStallCount++;
     }
 
-    //calculate checksum and put at end of buffer
-    outBuffer[pNumBytes] = (byte)(0x100 - (byte)(checksum & 0xff));
+}//end of Remote::countBytesSent
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::endCreditStall
+//
+// Adds the length of the current stall, if any, to creditStallNanos.
+//
+// The caller must hold outLock.
+//
+
+private void endCreditStall()
+{
+
+    if (!creditStalled) { return; }
+
+    creditStalled = false;
+    creditStallNanos += System.nanoTime() - creditStallStart;
+
+}//end of Remote::endCreditStall
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::waitForSendRoom
+//
+// Waits until a frame carrying pNumBytes fits in the outbound queue or until
+// System.nanoTime reaches pDeadline. Room is made as the thread which reads
+// the packets passes on the remote's reports that it has read the bytes
+// already sent; see creditsReceived. Only for use when the packets are read
+// by another thread.
+//
+// The caller must hold outLock. The lock is released while waiting.
+//
+
+private void waitForSendRoom(int pNumBytes, long pDeadline)
+{
+
+    while (flowControlEnabled && !outQueue.hasRoomFor(
+                        pNumBytes, sequenceNumbersEnabled, crcEnabled)){
+
+        int wait = getTimeLeft(pDeadline);
+
+        if (wait == 0) { return; }
 
-    //send packet to remote
-    if (byteOut != null) {
         try{
-              byteOut.write(outBuffer, 0 /*offset*/, pNumBytes + 1);
-              byteOut.flush();
+            sendRoom.await(wait, TimeUnit.MILLISECONDS);
         }
-        catch (IOException e) {
-            logSevere(e.getMessage() + " - Error: 422");
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            return;
         }
+
+        flushOutQueue();
+
     }
 
-}//end of Remote::sendBytes
+}//end of Remote::waitForSendRoom
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::isReadByOtherThread
+//
+// Returns true if the packets from the remote are read by a thread other than
+// those which send the commands, such as a SelectorTransport thread.
+//
+// Should be overridden by subclasses which have other reading threads.
+//
+
+boolean isReadByOtherThread()
+{
+
+    return(channel != null);
+
+}//end of Remote::isReadByOtherThread
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
@@ -328,28 +855,11 @@ void sendByteArray(int pNumBytes, byte[] pBytes)
 void sendBytes(Byte... pBytes)
 {
 
-    int checksum = 0;
+    byte[] bytes = new byte[pBytes.length];
 
-    sendHeader(); //send the packet header
+    for(int i=0; i<pBytes.length; i++){ bytes[i] = pBytes[i]; }
 
-    for(int i=0; i<pBytes.length; i++){
-        outBuffer[i] = pBytes[i];
-        checksum += pBytes[i];
-    }
-
-    //calculate checksum and put at end of buffer
-    outBuffer[pBytes.length] = (byte)(0x100 - (byte)(checksum & 0xff));
-
-    //send packet to remote
-    if (byteOut != null) {
-        try{
-              byteOut.write(outBuffer, 0 /*offset*/, pBytes.length + 1);
-              byteOut.flush();
-        }
-        catch (IOException e) {
-            logSevere(e.getMessage() + " - Error: 422");
-        }
-    }
+    sendByteArray(bytes.length, bytes);
 
 }//end of Remote::sendBytes
 //-----------------------------------------------------------------------------
@@ -397,7 +907,8 @@ void unpackInt(int pInt, byte[] pArray)
 //-----------------------------------------------------------------------------
 // Remote::waitForNumberOfBytes
 //
-// Waits until pNumBytes number of data bytes are available in the socket.
+// Waits until pNumBytes number of data bytes are available in the receive
+// buffer or until TIMEOUT milliseconds have passed.
 //
 // Returns true if the bytes become available before timing out, false
 // otherwise.
@@ -407,28 +918,104 @@ boolean waitForNumberOfBytes(int pNumBytes)
 {
 
     try{
-        timeOutProcess = 0;
-        while(timeOutProcess++ < TIMEOUT){
-            if (byteIn.available() >= pNumBytes) {return(true);}
-            waitSleep(10);
-        }
-    }// try
+        return(waitForBytes(pNumBytes, TIMEOUT));
+    }
     catch(IOException e){
         logSevere(e.getMessage() + " - Error: 595");
         return(false);
     }
 
-    return(false);
-
 }//end of Remote::waitForNumberOfBytes
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Remote::waitForBytes
+//
+// Waits until at least pNumBytes unprocessed bytes are in the decoder or until
+// pTimeOut milliseconds have passed.
+//
+// The thread blocks in the read with the read timeout set to the time
+// remaining rather than sleeping and checking for data, so it returns as soon
+// as the bytes arrive and uses no CPU time while waiting.
+//
+// Any packets waiting in the outbound queue are sent before waiting as the
+// remote may need them in order to respond.
+//
+// If pTimeOut is 0, only the bytes already available are read.
+//
+// Returns true if the bytes are available, false if the time expired or the
+// stream closed.
+//
+
+boolean waitForBytes(int pNumBytes, int pTimeOut) throws IOException
+{
+
+    if (decoder.getNumBuffered() >= pNumBytes) { return(true); }
+
+    flushOutQueue();
+
+    if (decoder.fill(byteIn) >= pNumBytes) { return(true); }
+
+    if (pNumBytes > decoder.getCapacity()) { return(false); }
+
+    long deadline = System.nanoTime() + pTimeOut * 1000000L;
+
+    try{
+        while (decoder.getNumBuffered() < pNumBytes){
+
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) { return(false); }
+
+            //round up as a timeout of 0 means wait forever
+            setReadTimeout((int)((remaining + 999999) / 1000000));
+
+            int needed = pNumBytes - decoder.getNumBuffered();
+
+            if (decoder.fillOnce(byteIn, needed) < 0){
+                connectionLost("closed by remote");
+                return(false);
+            }
+
+        }
+    }
+    catch(SocketTimeoutException e){
+        return(false);
+    }
+    finally{
+        setReadTimeout(READ_TIMEOUT);
+    }
+
+    return(true);
+
+}//end of Remote::waitForBytes
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::setReadTimeout
+//
+// Sets the time in milliseconds that a read from the socket will wait for
+// data. The socket is only changed if the value differs from the current one.
+//
+
+void setReadTimeout(int pTimeOut) throws SocketException
+{
+
+    if (pTimeOut == readTimeout || socket == null) { return; }
+
+    socket.setSoTimeout(pTimeOut);
+
+    readTimeout = pTimeOut;
+
+}//end of Remote::setReadTimeout
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Remote::readBlockAndVerify
 //
-// Reads pNumberOfBytes from byteIn into inBuffer and also reads the checksum
-// byte. The bytes (including the last one which is the checksum) are summed
-// with pPktID and then compared with 0x00.
+// Makes sure pNumberOfBytes plus the checksum byte are in the receive buffer,
+// reading more from byteIn if necessary. The bytes (including the last one
+// which is the checksum) are summed with pPktID and then compared with 0x00.
 //
 // The packet ID (packet command) is passed in as it will already have been
 // read from the socket but is needed to compute the checksum.
@@ -436,6 +1023,12 @@ boolean waitForNumberOfBytes(int pNumBytes)
 // The value pNumberOfBytes should be equal to the number of data bytes...NOT
 // including the checksum.
 //
+// If verified, the data bytes can be accessed via the decoder's getter
+// methods, i.e. decoder.getByte(0) returns the first data byte.
+//
+// If crcEnabled is true, the four CRC bytes are read and verified instead of
+// the checksum.
+//
 // Returns the number of bytes read if specified number of bytes were read and
 // the checksum verified. Returns -1 otherwise.
 //
@@ -443,32 +1036,25 @@ boolean waitForNumberOfBytes(int pNumBytes)
 int readBlockAndVerify(int pNumberOfBytes, byte pPktID)
 {
 
-    int totalNumBytes = pNumberOfBytes + 1; //account for the checksum
-    
-    int bytesRead;
+    //account for the checksum or CRC
+    int totalNumBytes =
+                    pNumberOfBytes + (crcEnabled ? Crc32c.CRC_SIZE : 1);
 
     try{
-        bytesRead = byteIn.read(inBuffer, 0, totalNumBytes);
+        if (!decoder.fillBlocking(byteIn, totalNumBytes)) { return(-1); }
     }
     catch(IOException e){
         logSevere(e.getMessage() + " - Error: 424");
         return(-1);
     }
 
-    if (bytesRead == totalNumBytes){
-
-        byte sum = 0;
-        for(int i = 0; i < totalNumBytes; i++) {sum += inBuffer[i];}
+    boolean valid = crcEnabled ?
+                        decoder.verifyFrameCrc(pNumberOfBytes, pPktID) :
+                        decoder.verifyFrame(pNumberOfBytes, pPktID);
 
-        //calculate checksum to check validity of the packet
-        if ( (pPktID + sum & (byte)0xff) != 0) {return(-1);}
-    }
-    else{
-        //error -- not enough bytes could be read
-        return(-1);
-    }
+    if (!valid) { return(-1); }
 
-    return(bytesRead);
+    return(totalNumBytes);
 
 }//end of Remote::readBlockAndVerify
 //-----------------------------------------------------------------------------
@@ -476,8 +1062,8 @@ int readBlockAndVerify(int pNumberOfBytes, byte pPktID)
 //-----------------------------------------------------------------------------
 // Remote::readBytes
 //
-// Retrieves pNumBytes number of data bytes from the packet and stores them
-// in inBuffer.
+// Retrieves pNumBytes number of data bytes from the packet. The bytes can be
+// accessed via the decoder's getter methods.
 //
 // Returns number of bytes retrieved from the socket.
 //
@@ -487,18 +1073,8 @@ int readBlockAndVerify(int pNumberOfBytes, byte pPktID)
 public int readBytes(int pNumBytes)
 {
 
-    try{
-        timeOutProcess = 0;
-        while(timeOutProcess++ < TIMEOUT){
-            if (byteIn.available() >= pNumBytes) {break;}
-            waitSleep(10);
-        }
-        if (byteIn.available() >= pNumBytes){
-            return byteIn.read(inBuffer, 0, pNumBytes);
-        }
-    }// try
-    catch(IOException e){
-        logSevere(e.getMessage() + " - Error: 595");
+    if (waitForNumberOfBytes(pNumBytes) && decoder.consumeFrame(pNumBytes)){
+        return(pNumBytes);
     }
 
     return 0;
@@ -510,7 +1086,7 @@ public int readBytes(int pNumBytes)
 // Remote::processDataPackets
 //
 // The amount of time the function is to wait for a packet is specified by
-// pTimeOut.  Each count of pTimeOut equals 10 ms.
+// pTimeOut in milliseconds.
 //
 // See processOneDataPacket notes for more info.
 //
@@ -535,32 +1111,58 @@ public int processDataPackets(int pTimeOut)
 //-----------------------------------------------------------------------------
 // Notcher::processDataPacketsUntilSpecifiedType
 //
-// Reads packets until packet of target type is reached or until a timeout
-// occurs due to no more data available.
+// Reads packets until packet of target type is reached, until no more data
+// is available, or until pTimeOut milliseconds have passed in all. The time
+// is not restarted by each packet read, so packets of other types arriving
+// steadily do not hold the caller past pTimeOut.
 //
-// Waits for a packet for at least the specified pTimeOut. For no waiting,
-// pass pTimeOut to 0...if no packet is available will return immediately.
+// For no waiting, pass pTimeOut as 0...if no packet is available will return
+// immediately.
 //
 
 public int processDataPacketsUntilSpecifiedType(
                                          int  pTargetPacketType, int pTimeOut)
 {
 
+    long deadline = System.nanoTime() + pTimeOut * 1000000L;
+
     int x = 0;
 
-    //process packets until target type reached or no more data available
+    //process packets until target type reached, no more data available, or
+    //time is up
 
-    while ((x = processOneDataPacket(pTimeOut)) != -1){
-    
-        if (lastPacketTypeHandled == pTargetPacketType){ break; }
-    
-    }
+    do{
+
+        x = processOneDataPacket(getTimeLeft(deadline));
+
+        if (x == -1 || lastPacketTypeHandled == pTargetPacketType){ break; }
+
+    }while (System.nanoTime() < deadline);
 
     return (x);
 
 }//end of Notcher::processDataPacketsUntilSpecifiedType
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Remote::getTimeLeft
+//
+// Returns the milliseconds left until System.nanoTime reaches pDeadline,
+// rounded up, or 0 if it has passed.
+//
+
+static int getTimeLeft(long pDeadline)
+{
+
+    long left = pDeadline - System.nanoTime();
+
+    if (left <= 0) { return(0); }
+
+    return((int)Math.min(Integer.MAX_VALUE, (left + 999999) / 1000000));
+
+}//end of Remote::getTimeLeft
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Remote::processOneDataPacket
 //
@@ -581,6 +1183,272 @@ public int processOneDataPacket(int pTimeOut)
 }//end of Remote::processOneDataPacket
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Remote::readFromChannel
+//
+// Called by the SelectorTransport thread when the channel has bytes to be
+// read. Reads all bytes available into the decoder and handles every complete
+// packet.
+//
+// Returns false if the channel was closed by the remote.
+//
+
+boolean readFromChannel() throws IOException
+{
+
+    int bytesRead;
+
+    //keep reading until the channel is empty as the decoder's buffer may be
+    //smaller than the amount waiting
+
+    while ((bytesRead = decoder.fill(channel)) > 0){
+        processBufferedPackets();
+    }
+
+    return(bytesRead >= 0);
+
+}//end of Remote::readFromChannel
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::writeToChannel
+//
+// Called by the SelectorTransport thread when the channel is ready for
+// writing. Sends as much of the outbound queue as the channel will accept
+// and flow control allows.
+//
+// Returns the number of bytes still queued -- 0 if all were sent or if the
+// rest are held until the remote returns more credits.
+//
+
+int writeToChannel() throws IOException
+{
+
+    outLock.lock();
+
+    try{
+
+        countBytesSent(outQueue.flush(channel, getSendLimit()));
+
+        //bytes held for lack of credits are sent when the credits arrive
+        if (getSendLimit() == 0) { return(0); }
+
+        return(outQueue.getNumQueuedBytes());
+
+    }
+    finally{
+        outLock.unlock();
+    }
+
+}//end of Remote::writeToChannel
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::processBufferedPackets
+//
+// Handles every complete packet in the decoder without reading from the
+// connection. A partial packet at the end of the buffer is left to be
+// completed by the next read.
+//
+// Threads waiting in waitForHandledPackets are woken if any packets were
+// handled.
+//
+// Returns the number of packets handled.
+//
+
+int processBufferedPackets()
+{
+
+    int count = 0;
+
+    while (decoder.getNumBuffered() >= FrameDecoder.HEADER_AND_ID_SIZE){
+
+        //packets without a valid header or with unknown length cannot be
+        //handled, so resync
+
+        if (!decoder.hasHeader()) { reSync(); continue; }
+
+        byte id = decoder.peekPktID();
+
+        if (!packetHandlers.isDeclared(id)) { reSync(); continue; }
+
+        int frameSize = packetHandlers.getFrameSize(id, decoder);
+
+        if (frameSize < 0) { reSync(); continue; }
+
+        //wait for the rest of the packet
+        if (decoder.getNumBuffered() < frameSize) { break; }
+
+        decoder.readHeader();
+
+        lastPacketTypeHandled = id;
+        pktID = id;
+
+        if (packetHandlers.dispatchBuffered(id, decoder) < 0){
+            reSync(); continue;
+        }
+
+        count++;
+
+    }
+
+    if (count > 0) { notifyPacketsHandled(count); }
+
+    return(count);
+
+}//end of Remote::processBufferedPackets
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::notifyPacketsHandled
+//
+// Called by the thread which reads the connection after it has handled
+// pCount packets. Wakes any threads in waitForHandledPackets.
+//
+
+void notifyPacketsHandled(int pCount)
+{
+
+    rxLock.lock();
+
+    try{
+        handledPacketCount += pCount;
+        packetsHandled.signalAll();
+    }
+    finally{
+        rxLock.unlock();
+    }
+
+}//end of Remote::notifyPacketsHandled
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::getHandledPacketCount
+//
+// Returns the number of packets handled by the thread which reads the
+// connection when it is read by a SelectorTransport or a reader thread. Not
+// counted when the connection is read by the caller.
+//
+
+public long getHandledPacketCount()
+{
+
+    rxLock.lock();
+
+    try{
+        return(handledPacketCount);
+    }
+    finally{
+        rxLock.unlock();
+    }
+
+}//end of Remote::getHandledPacketCount
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::getSeenPacketCount
+//
+// Returns the calling thread's count of the packets reported to it, starting
+// the count from the packets already handled on the thread's first use.
+//
+
+private long[] getSeenPacketCount()
+{
+
+    long[] seen = seenPacketCount.get();
+
+    if (seen == null){
+        seen = new long[] {handledPacketCount};
+        seenPacketCount.set(seen);
+    }
+
+    return(seen);
+
+}//end of Remote::getSeenPacketCount
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::markPacketsSeen
+//
+// Counts all packets handled so far as reported to the calling thread. Called
+// before each packet is sent, so the calling thread's next wait is ended only
+// by packets handled after the send, such as the reply to it.
+//
+
+private void markPacketsSeen()
+{
+
+    getSeenPacketCount()[0] = handledPacketCount;
+
+}//end of Remote::markPacketsSeen
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Remote::waitForHandledPackets
+//
+// Used in place of reading from the connection when the connection is read
+// by another thread, such as the selector thread of a SelectorTransport.
+// Waits until that thread has handled at least one packet not yet reported
+// to the calling thread or until pTimeOut milliseconds have passed.
+//
+// Each calling thread keeps its own count of the packets reported to it, so
+// any number of threads may wait at once and every one of them is woken by
+// each packet. The count is taken when the thread last queued a packet or
+// returned from this method rather than on entry, so that a packet handled
+// between sending a command and calling this, such as a quick ACK, is not
+// missed. On a thread's first call without having sent, the count starts
+// from the packets already handled so they are not reported as new.
+//
+// Any packets waiting in the outbound queue are sent before waiting.
+//
+// Returns the number of packets handled since the calling thread's last send
+// or call, or -1 if none were handled before the time expired.
+//
+
+int waitForHandledPackets(int pTimeOut)
+{
+
+    flushOutQueue();
+
+    long deadline = System.nanoTime() + pTimeOut * 1000000L;
+
+    long[] seen = getSeenPacketCount();
+
+    rxLock.lock();
+
+    try{
+
+        while (handledPacketCount == seen[0]){
+
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) { return(-1); }
+
+            try{
+                packetsHandled.awaitNanos(remaining);
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                return(-1);
+            }
+
+        }
+
+        int count = (int)Math.min(handledPacketCount - seen[0],
+                                                        Integer.MAX_VALUE);
+
+        seen[0] = handledPacketCount;
+
+        return(count);
+
+    }
+    finally{
+        rxLock.unlock();
+    }
+
+}//end of Remote::waitForHandledPackets
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Remote::waitSleep
 //
@@ -0,0 +1,194 @@
+/******************************************************************************
+* Title: RoundTripStats.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class keeps statistics of the round trip times measured by the
+* heartbeat between the host and one remote; see Notcher.sendPing.
+*
+* A smoothed round trip time and its mean deviation are kept in the same
+* manner as TCP: each new time moves the smoothed value 1/8 of the way and the
+* deviation 1/4 of the way toward it. The smoothed value follows a change in
+* the link within a few pings while ignoring a single slow one; a rising
+* deviation shows a link which has become erratic before the average moves.
+*
+* Every time is also counted in a histogram with a bucket for each power of
+* two microseconds, so the percentiles can be estimated to within a factor
+* of two over the whole range from a microsecond to many seconds without
+* storing the individual times.
+*
+* The times are added by the thread which reads the packets and read by the
+* GUI, so all methods are synchronized.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class RoundTripStats
+//
+
+public class RoundTripStats extends Object{
+
+    //bucket i counts times from 2^i up to 2^(i+1) microseconds -- bucket 0
+    //also counts times under a microsecond and the last bucket counts all
+    //times too long for the others
+    public static final int NUM_BUCKETS = 24;
+
+    private final long[] buckets = new long[NUM_BUCKETS];
+
+    private long count = 0;
+
+    private long lastNanos = 0;
+    private long minNanos = 0;
+    private long maxNanos = 0;
+
+    private long smoothedNanos = 0;
+    private long deviationNanos = 0;
+
+//-----------------------------------------------------------------------------
+// RoundTripStats::addSample
+//
+// Adds the round trip time pNanos in nanoseconds.
+//
+
+public synchronized void addSample(long pNanos)
+{
+
+    if (count == 0){
+        smoothedNanos = pNanos;
+        deviationNanos = pNanos / 2;
+        minNanos = pNanos; maxNanos = pNanos;
+    }
+    else{
+        deviationNanos += (Math.abs(smoothedNanos - pNanos)
+                                                    - deviationNanos) / 4;
+        smoothedNanos += (pNanos - smoothedNanos) / 8;
+        minNanos = Math.min(minNanos, pNanos);
+        maxNanos = Math.max(maxNanos, pNanos);
+    }
+
+    lastNanos = pNanos;
+
+    buckets[getBucket(pNanos)]++;
+
+    count++;
+
+}//end of RoundTripStats::addSample
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// RoundTripStats::reset
+//
+// Discards all times.
+//
+
+public synchronized void reset()
+{
+
+    for (int i = 0; i < NUM_BUCKETS; i++) { buckets[i] = 0; }
+
+    count = 0;
+    lastNanos = 0; minNanos = 0; maxNanos = 0;
+    smoothedNanos = 0; deviationNanos = 0;
+
+}//end of RoundTripStats::reset
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// RoundTripStats::getPercentileNanos
+//
+// Returns the time in nanoseconds within which pFraction of all round trips
+// completed, such as 0.99 for the 99th percentile. The value is the upper
+// limit of the histogram bucket holding that percentile, so it may be up to
+// twice the actual time.
+//
+// Returns 0 if no times have been added.
+//
+
+public synchronized long getPercentileNanos(double pFraction)
+{
+
+    if (count == 0) { return(0); }
+
+    long target = (long)Math.ceil(count * pFraction);
+
+    long total = 0;
+
+    for (int i = 0; i < NUM_BUCKETS - 1; i++){
+        total += buckets[i];
+        if (total >= target) { return((2L << i) * 1000); }
+    }
+
+    return(maxNanos);
+
+}//end of RoundTripStats::getPercentileNanos
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// RoundTripStats::copyHistogram
+//
+// Copies the count of each histogram bucket into pDest, which must hold at
+// least NUM_BUCKETS values.
+//
+
+public synchronized void copyHistogram(long[] pDest)
+{
+
+    System.arraycopy(buckets, 0, pDest, 0, NUM_BUCKETS);
+
+}//end of RoundTripStats::copyHistogram
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// RoundTripStats::getBucket
+//
+// Returns the index of the histogram bucket which counts pNanos.
+//
+
+static int getBucket(long pNanos)
+{
+
+    long micros = pNanos / 1000;
+
+    if (micros <= 1) { return(0); }
+
+    int bucket = 63 - Long.numberOfLeadingZeros(micros);
+
+    return(Math.min(bucket, NUM_BUCKETS - 1));
+
+}//end of RoundTripStats::getBucket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// RoundTripStats::various get/set functions
+//
+
+public synchronized long getCount() { return(count); }
+
+public synchronized long getLastNanos() { return(lastNanos); }
+
+public synchronized long getMinNanos() { return(minNanos); }
+
+public synchronized long getMaxNanos() { return(maxNanos); }
+
+public synchronized long getSmoothedNanos() { return(smoothedNanos); }
+
+public synchronized long getDeviationNanos() { return(deviationNanos); }
+
+//end of RoundTripStats::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class RoundTripStats
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,313 @@
+/******************************************************************************
+* Title: SelectorTransport.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class uses a single thread and a java.nio Selector to handle the
+* connections to all remote units.
+*
+* With the standard transport, each unit's connection is a blocking Socket and
+* a thread is needed for each unit which is to be serviced at the same time.
+* That does not scale well as the number of units grows.
+*
+* With this transport, each unit's connection is a non-blocking SocketChannel
+* registered with one Selector. The selector thread sleeps until any channel
+* has data, reads everything available into that unit's FrameDecoder, and
+* calls the unit's packet handlers for every complete packet. Outgoing
+* packets are written directly by the sending thread; if the channel cannot
+* take all the bytes, the rest are sent by the selector thread when the
+* channel becomes writable.
+*
+* Threads which send a command and wait for the ACK (as in
+* Notcher.sendCmdAndWaitForAck) do not read from the connection in this mode.
+* They wait in processOneDataPacket until the selector thread has handled a
+* packet and then check the results as usual.
+*
+* The packet handlers are called by the selector thread, so they must not
+* block and must not alter GUI components directly.
+*
+* Units are added with register after their channels have been connected.
+* A unit which loses its connection is registered again with its new channel
+* when it reconnects.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import view.ThreadSafeLogger;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class SelectorTransport
+//
+
+public class SelectorTransport extends Object implements Runnable{
+
+    ThreadSafeLogger tsLog;
+
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    //changes to the selector must be made by the selector thread, so other
+    //threads place their requests in these queues and wake the selector
+
+    private final ConcurrentLinkedQueue<Remote> pendingRegistrations =
+                                            new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentLinkedQueue<Remote> pendingWrites =
+                                            new ConcurrentLinkedQueue<>();
+
+//-----------------------------------------------------------------------------
+// SelectorTransport::SelectorTransport (constructor)
+//
+
+public SelectorTransport(ThreadSafeLogger pTSLog)
+{
+
+    tsLog = pTSLog;
+
+}//end of SelectorTransport::SelectorTransport (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SelectorTransport::init
+//
+// Opens the selector and starts the selector thread. Must be called before
+// any units are registered.
+//
+
+public void init() throws IOException
+{
+
+    selector = Selector.open();
+
+    running = true;
+
+    thread = new Thread(this, "Notcher Selector");
+    thread.setDaemon(true);
+    thread.start();
+
+}//end of SelectorTransport::init
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SelectorTransport::register
+//
+// Switches pRemote's connected channel to non-blocking mode and adds it to
+// the channels serviced by the selector thread.
+//
+
+public void register(Remote pRemote) throws IOException
+{
+
+    pRemote.channel.configureBlocking(false);
+
+    pendingRegistrations.add(pRemote);
+
+    selector.wakeup();
+
+}//end of SelectorTransport::register
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SelectorTransport::requestWrite
+//
+// Asks the selector thread to send the rest of pRemote's outbound queue when
+// its channel is ready for writing.
+//
+
+void requestWrite(Remote pRemote)
+{
+
+    pendingWrites.add(pRemote);
+
+    selector.wakeup();
+
+}//end of SelectorTransport::requestWrite
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SelectorTransport::run
+//
+// This is the selector thread code. It waits for any channel to be ready and
+// services it.
+//
+
+@Override
+public void run()
+{
+
+    while (running){
+
+        try{
+            selector.select();
+        }
+        catch(IOException e){
+            logSevere(e.getMessage() + " - Error: 131");
+            break;
+        }
+
+        if (!running) { break; }
+
+        applyPendingChanges();
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()){
+
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            serviceKey(key);
+
+        }
+
+    }
+
+}//end of SelectorTransport::run
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SelectorTransport::applyPendingChanges
+//
+// Registers channels added by register and enables write notification for
+// channels named by requestWrite.
+//
+
+private void applyPendingChanges()
+{
+
+    Remote remote;
+
+    while ((remote = pendingRegistrations.poll()) != null){
+        try{
+            remote.channel.register(selector, SelectionKey.OP_READ, remote);
+        }
+        catch(ClosedChannelException e){
+            logSevere(e.getMessage() + " - Error: 178");
+        }
+    }
+
+    while ((remote = pendingWrites.poll()) != null){
+        SelectionKey key = remote.channel.keyFor(selector);
+        if (key != null && key.isValid()){
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+}//end of SelectorTransport::applyPendingChanges
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SelectorTransport::serviceKey
+//
+// Reads from and/or writes to the channel of pKey as it is ready. If the
+// channel fails or is closed by the remote, it is closed and its unit is
+// marked as not ready.
+//
+
+private void serviceKey(SelectionKey pKey)
+{
+
+    Remote remote = (Remote)pKey.attachment();
+
+    //the unit may have closed the channel to reconnect since it was selected
+    if (!pKey.isValid() || pKey.channel() != remote.channel) { return; }
+
+    try{
+
+        if (pKey.isReadable() && !remote.readFromChannel()){
+            closeChannel(pKey, remote, "closed by remote");
+            return;
+        }
+
+        if (pKey.isValid() && pKey.isWritable()
+                                        && remote.writeToChannel() == 0){
+            pKey.interestOps(pKey.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+
+    }
+    catch(IOException e){
+        closeChannel(pKey, remote, e.getMessage());
+    }
+
+}//end of SelectorTransport::serviceKey
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SelectorTransport::closeChannel
+//
+// Closes the channel of pKey and marks pRemote as not ready. The unit will
+// open a new channel and register it again if it reconnects.
+//
+
+private void closeChannel(SelectionKey pKey, Remote pRemote, String pReason)
+{
+
+    pKey.cancel();
+
+    pRemote.connectionLost(pReason);
+
+    try{ pKey.channel().close(); }
+    catch(IOException e){ logSevere(e.getMessage() + " - Error: 262"); }
+
+}//end of SelectorTransport::closeChannel
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SelectorTransport::shutDown
+//
+// Stops the selector thread and closes the selector. The channels themselves
+// are closed by their units.
+//
+
+public void shutDown()
+{
+
+    running = false;
+
+    if (selector == null) { return; }
+
+    selector.wakeup();
+
+    try{ thread.join(1000); } catch(InterruptedException e){ }
+
+    try{ selector.close(); }
+    catch(IOException e){ logSevere(e.getMessage() + " - Error: 291"); }
+
+}//end of SelectorTransport::shutDown
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SelectorTransport::logSevere
+//
+// Logs pMessage with level SEVERE using the Java logger.
+//
+
+void logSevere(String pMessage)
+{
+
+    Logger.getLogger(getClass().getName()).log(Level.SEVERE, pMessage);
+
+}//end of SelectorTransport::logSevere
+//-----------------------------------------------------------------------------
+
+}//end of class SelectorTransport
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
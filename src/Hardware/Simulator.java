@@ -11,6 +11,14 @@
 * This is a subclass of Socket and can be substituted for an instance
 * of that class when simulated data is needed.
 *
+* The host's end of the connection is normally a pair of ByteRings in
+* memory. If attachSocket is called, the simulator talks to the host over a
+* real TCP connection instead; see SimulatorServer.
+*
+* If a FaultInjector is set, the bytes sent in both directions pass through
+* FaultyOutputStreams which delay, throttle, and corrupt them; see
+* setFaultInjector.
+*
 * Open Source Policy:
 *
 * This source code is Public Domain and free to any interested party.  Any
@@ -24,7 +32,10 @@ package Hardware;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,32 +74,92 @@ public Simulator() throws SocketException{}; //default constructor - not used
 
     //simulates the default size of a socket created for ethernet access
     // NOTE: If the pipe size is too small, the outside object can fill the
-    // buffer and have to wait until the thread on this side catches up.  If
-    // the outside object has a timeout, then data will be lost because it will
-    // continue on without writing if the timeout occurs.
-    // In the future, it would be best if UTBoard object used some flow control
-    // to limit overflow in case the default socket size ends up being too
-    // small.
+    // buffer and have to wait until the thread on this side catches up.
+    // A host using credit based flow control does not: the simulator reports
+    // the pipe size and the running total of bytes it has read in CREDIT_CMD
+    // packets, and the host never has more bytes outstanding than the pipe
+    // holds -- see "Flow Control" in Notcher.java. The stall counts below show
+    // whether either side was held up by a full pipe.
+    // The pipes are ByteRings; the size must be a power of two.
 
     static int PIPE_SIZE = 8192;
 
-    PipedOutputStream outStream;
-    PipedInputStream  localInStream;
+    //number of times the pipe from the host was found full, so that the host
+    //was or would have been blocked, and the number of writes to the host
+    //which were blocked by a full pipe
+    long receiveBufferFullCount = 0;
+    long sendStallCount = 0;
+
+    //a write to the host taking longer than this (in nanoseconds) is assumed
+    //to have been blocked by a full pipe
+    static final long SEND_STALL_NANOS = 1000000;
+
+    //carries the bytes sent by the host to this object and those sent by
+    //this object to the host
+    ByteRing fromHost;
+    ByteRing toHost;
+
+    ByteRingOutputStream outStream;
+    ByteRingInputStream localInStream;
+
+    ByteRingInputStream inStream;
+    ByteRingOutputStream localOutStream;
+
+    //the connection to the host if one was accepted by SimulatorServer, in
+    //which case byteIn and byteOut use it rather than the rings; null if the
+    //rings are used -- see attachSocket
+    Socket hostSocket;
 
-    PipedInputStream  inStream;
-    PipedOutputStream localOutStream;
+    //injects faults into the bytes sent each way, null for none -- see
+    //setFaultInjector; hostOutStream is the stream returned to the host, the
+    //faulty stream if the bytes from the host are faulted
+    FaultInjector faultInjector;
+    OutputStream hostOutStream;
+    FaultyOutputStream faultyToHost;
+    FaultyOutputStream faultyFromHost;
 
     DataOutputStream byteOut = null;
     DataInputStream byteIn = null;
 
-    int IN_BUFFER_SIZE = 512;
+    FrameDecoder decoder;
+    PacketHandlerRegistry packetHandlers;
+
+    //outgoing packets are built here and sent together by flushOutQueue
+    OutboundFrameQueue outQueue;
+    //if false, packets are held in outQueue until flushOutQueue is called
+    boolean autoFlush = true;
+
+    int OUT_QUEUE_SIZE = 1460;
+
+    //default time in milliseconds a read from the host will wait for data
+    static final int READ_TIMEOUT = 250;
+
+    //if true, a sequence number byte follows the packet ID in every packet
+    boolean sequenceNumbersEnabled = false;
+    byte outSequenceNumber = 0;
+
+    //if true, every packet ends with a CRC-32C rather than a checksum
+    boolean crcEnabled = false;
+
+    //must hold the largest packet received, a firmware block
+    int IN_BUFFER_SIZE = 1460;
     byte[] inBuffer;
 
-    int OUT_BUFFER_SIZE = 512;
+    //must hold the largest packet sent, a bulk transfer chunk
+    int OUT_BUFFER_SIZE = 1460;
     byte[] outBuffer;
     byte[] outBufScratch;
     int outBufScrIndex;
 
+    //runs the simulation in place of a thread of its own, if not null
+    SimulatorFarm farm;
+
+    //kept for the farm: true while a call to step is queued or running, the
+    //task which queues one, and the timer set for the next
+    final AtomicBoolean stepQueued = new AtomicBoolean(false);
+    Runnable farmWake;
+    ScheduledFuture<?> stepTimer;
+
 //-----------------------------------------------------------------------------
 // Simulator::Simulator (constructor)
 //
@@ -105,37 +176,30 @@ public Simulator(InetAddress pIPAddress, int pPort) throws SocketException
     //create an input and output stream to simulate those attached to a real
     //Socket connected to a hardware board
 
-    // four steams are used - two connected pairs
-    // an ouptut and an input stream are created to hand to the outside object
+    // four steams are used - the two ends of two rings
+    // an ouptut and an input stream are handed to the outside object
     // (outStream & inStream) - the outside object writes to outStream and reads
     // from inStream
-    // an input stream is then created using the outStream as it's connection -
-    // this object reads from that input stream to receive bytes sent by the
-    // external object via the attached outStream
-    // an output stream is then created using the inStream as it's connection -
-    // this object writes to that output stream to send bytes to be read by the
-    // external object via the attached inStream
+    // this object reads from localInStream, the other end of outStream's
+    // ring, to receive bytes sent by the external object
+    // this object writes to localOutStream, the other end of inStream's ring,
+    // to send bytes to be read by the external object
 
+    fromHost = new ByteRing(PIPE_SIZE);
     //this end goes to the external object
-    outStream = new PipedOutputStream();
-    //create an input stream (localInStream) attached to outStream to read the
-    //data sent by the external object
-    try{localInStream = new PipedInputStream(outStream, PIPE_SIZE);}
-    catch(IOException e){
-        logSevere(e.getMessage() + " - Error: 112");
-    }
+    outStream = fromHost.getOutputStream();
+    localInStream = fromHost.getInputStream();
+    hostOutStream = outStream;
 
+    toHost = new ByteRing(PIPE_SIZE);
     //this end goes to the external object
-    inStream = new PipedInputStream(PIPE_SIZE);
-    //create an output stream (localOutStream) attached to inStream to read the
-    //data sent by the external object
-    try{localOutStream = new PipedOutputStream(inStream);}
-    catch(IOException e){
-        logSevere(e.getMessage() + " - Error: 121");
-    }
+    inStream = toHost.getInputStream();
+    localOutStream = toHost.getOutputStream();
 
     inBuffer = new byte[IN_BUFFER_SIZE];
+    decoder = new FrameDecoder(IN_BUFFER_SIZE);
     outBuffer = new byte[OUT_BUFFER_SIZE];
+    outQueue = new OutboundFrameQueue(OUT_QUEUE_SIZE);
     outBufScratch = new byte[OUT_BUFFER_SIZE];
     
     //create an output and input byte stream
@@ -156,24 +220,49 @@ public Simulator(InetAddress pIPAddress, int pPort) throws SocketException
 public void init(int pBoardNumber)
 {
 
+    applyFaultInjector();
+
 }//end of Simulator::init
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Simulator::applyFaultInjector
+//
+// Passes the bytes sent to the host and, unless the host is connected over
+// TCP and writes to its own socket, the bytes sent by the host through
+// faulty streams if a fault injector is set. Anything written before, such
+// as the greeting, is not affected.
+//
+
+void applyFaultInjector()
+{
+
+    if (faultInjector == null) { return; }
+
+    faultyToHost = faultInjector.wrap(byteOut,
+                                    "Simulator " + index + " Fault To Host");
+    byteOut = new DataOutputStream(faultyToHost);
+
+    if (hostSocket != null) { return; }
+
+    faultyFromHost = faultInjector.wrap(outStream,
+                                    "Simulator " + index + " Fault From Host");
+    hostOutStream = faultyFromHost;
+
+}//end of Simulator::applyFaultInjector
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Simulator::reSync
 //
-// Clears bytes from the socket buffer until 0xaa byte reached which signals
-// the *possible* start of a new valid packet header or until the buffer is
-// empty.
+// Clears bytes from the receive buffer until the *possible* start of a new
+// valid packet header is reached or until the buffer is empty.
 //
-// If an 0xaa byte is found, the flag reSynced is set true to that other
-// functions will know that an 0xaa byte has already been removed from the
-// stream, signalling the possible start of a new packet header.
+// If a possible header is found, the flag reSynced is set true. The header
+// bytes are left in the buffer to be checked by the next call to
+// processOneDataPacket.
 //
-// There is a special case where a 0xaa is found just before the valid 0xaa
-// which starts a new packet - the first 0xaa is the last byte of the previous
-// packet (usually the checksum).  In this case, the next packet will be lost
-// as well.  This should happen rarely.
+// See FrameDecoder.skipToNextHeader for details.
 //
 
 public void reSync()
@@ -185,24 +274,102 @@ public void reSync()
     //successful - this will track the number of sync errors
     reSyncCount++;
 
+    reSynced = decoder.skipToNextHeader();
+
+}//end of Simulator::reSync
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Simulator::waitForBytes
+//
+// Waits until at least pNumBytes unprocessed bytes are in the decoder or until
+// pTimeOut milliseconds have passed.
+//
+// The thread parks in the read with the ring's timeout set to the time
+// remaining rather than sleeping and checking for data, so it returns as soon
+// as the bytes arrive and uses no CPU time while waiting.
+//
+// Any packets waiting in the outbound queue are sent before waiting as the
+// remote may need them in order to respond.
+//
+// If pTimeOut is 0, only the bytes already available are read.
+//
+// Returns true if the bytes are available, false if the time expired or the
+// stream closed.
+//
+
+boolean waitForBytes(int pNumBytes, int pTimeOut) throws IOException
+{
+
+    if (decoder.getNumBuffered() >= pNumBytes) { return(true); }
+
+    flushOutQueue();
+
+    if (decoder.fill(byteIn) >= pNumBytes) { return(true); }
+
+    if (pNumBytes > decoder.getCapacity()) { return(false); }
+
+    long deadline = System.nanoTime() + pTimeOut * 1000000L;
+
     try{
-        while (byteIn.available() > 0) {
-            byteIn.read(inBuffer, 0, 1);
-            if (inBuffer[0] == (byte)0xaa) {reSynced = true; break;}
+        while (decoder.getNumBuffered() < pNumBytes){
+
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) { return(false); }
+
+            //round up as a timeout of 0 means wait forever
+            setReadTimeout((int)((remaining + 999999) / 1000000));
+
+            int needed = pNumBytes - decoder.getNumBuffered();
+
+            //the host has closed the connection, so close this end as well
+            if (decoder.fillOnce(byteIn, needed) < 0){
+                close();
+                return(false);
             }
+
         }
-    catch(IOException e){
-        logSevere(e.getMessage() + " - Error: 169");
+    }
+    catch(SocketTimeoutException e){
+        return(false);
+    }
+    finally{
+        setReadTimeout(READ_TIMEOUT);
     }
 
-}//end of Simulator::reSync
+    return(true);
+
+}//end of Simulator::waitForBytes
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Simulator::setReadTimeout
+//
+// Sets the time in milliseconds that a read of the data sent by the host will
+// wait for data.
+//
+
+void setReadTimeout(int pTimeOut)
+{
+
+    if (hostSocket == null) { localInStream.setTimeout(pTimeOut); return; }
+
+    try{
+        hostSocket.setSoTimeout(pTimeOut);
+    }
+    catch(SocketException e){
+        //the socket has been closed, so the next read will fail anyway
+    }
+
+}//end of Simulator::setReadTimeout
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
 // Remote::processDataPackets
 //
 // The amount of time the function is to wait for a packet is specified by
-// pTimeOut.  Each count of pTimeOut equals 10 ms.
+// pTimeOut in milliseconds.
 //
 // See processOneDataPacket notes for more info.
 //
@@ -275,104 +442,112 @@ public int processOneDataPacket(int pTimeOut)
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Remote::sendHeader
+// Remote::sendBytes
 //
-// Sends a valid packet header without flushing.
+// Sends a variable number of bytes (one or more) to the remote device,
+// prepending a valid header and appending the appropriate checksum.
 //
 
-void sendHeader()
+void sendBytes(byte... pBytes)
 {
 
-    outBuffer[0] = (byte)0xaa; outBuffer[1] = (byte)0x55;
-    outBuffer[2] = (byte)0xbb; outBuffer[3] = (byte)0x66;
+    sendByteArray(pBytes.length, pBytes);
 
-    //send packet to remote
-    if (byteOut != null) {
-        try{
-            byteOut.write(outBuffer, 0 /*offset*/, 4);
-        }
-        catch (IOException e){
-            logSevere(e.getMessage() + " - Error: 295");
-        }
-    }
-
-}//end of Remote::sendHeader
+}//end of Remote::sendBytes
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Remote::sendBytes
+// Remote::sendByteArray
 //
-// Sends a variable number of bytes (one or more) to the remote device,
-// prepending a valid header and appending the appropriate checksum.
+// Sends an array of bytes to the remote device, prepending a valid header and
+// appending the appropriate checksum. pNumbBytes specifies the number of bytes
+// in the array to send. The first byte must be the packet ID.
+//
+// If sequenceNumbersEnabled is true, outSequenceNumber is inserted after the
+// packet ID.
+//
+// The packet is added to the outbound queue. If autoFlush is true, the queue
+// is sent immediately; otherwise it is sent along with any other packets
+// queued by the next call to flushOutQueue.
+//
+// This method accepts a primitive array rather than a variable length
+// argument list as it is more efficient when an array is to be passed.
 //
 
-void sendBytes(byte... pBytes)
+void sendByteArray(int pNumBytes, byte[] pBytes)
 {
 
-    int checksum = 0;
+    queueByteArray(pNumBytes, pBytes);
 
-    sendHeader(); //send the packet header
+    if (autoFlush) { flushOutQueue(); }
 
-    for(int i=0; i<pBytes.length; i++){
-        outBuffer[i] = pBytes[i];
-        checksum += pBytes[i];
-    }
+}//end of Remote::sendByteArray
+//-----------------------------------------------------------------------------
 
-    //calculate checksum and put at end of buffer
-    outBuffer[pBytes.length] = (byte)(0x100 - (byte)(checksum & 0xff));
+//-----------------------------------------------------------------------------
+// Remote::queueByteArray
+//
+// Adds a packet built from the first pNumBytes of pBytes to the outbound
+// queue without sending it, regardless of the autoFlush setting. The first
+// byte must be the packet ID.
+//
+// If the queue is full, the packets already in it are sent first.
+//
 
-    //send packet to remote
-    if (byteOut != null) {
-        try{
-              byteOut.write(outBuffer, 0 /*offset*/, pBytes.length + 1);
-              byteOut.flush();
-        }
-        catch (IOException e) {
-            logSevere(e.getMessage() + " - Error: 331");
-        }
+void queueByteArray(int pNumBytes, byte[] pBytes)
+{
+
+    if (!outQueue.hasRoomFor(
+                            pNumBytes, sequenceNumbersEnabled, crcEnabled)){
+        flushOutQueue();
     }
 
-}//end of Remote::sendBytes
+    if (!outQueue.queueFrame(pNumBytes, pBytes, sequenceNumbersEnabled,
+                                            outSequenceNumber, crcEnabled)){
+        logSevere("Packet too large for output queue - Error: 423");
+    }
+
+}//end of Remote::queueByteArray
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
-// Remote::sendBytes
-//
-// Sends an array of bytes to the remote device, prepending a valid header and
-// appending the appropriate checksum. pNumbBytes specifies the number of bytes
-// in the array to send.
+// Remote::flushOutQueue
 //
-// This method accepts a primitive array rather than a variable length
-// argument list as it is more efficient when an array is to be passed.
+// Sends all packets in the outbound queue with a single write.
 //
 
-void sendByteArray(int pNumBytes, byte[] pBytes)
+public void flushOutQueue()
 {
 
-    int checksum = 0;
+    if (byteOut == null) { outQueue.clear(); return; }
 
-    sendHeader(); //send the packet header
+    long start = System.nanoTime();
 
-    for(int i=0; i<pNumBytes; i++){
-        outBuffer[i] = pBytes[i];
-        checksum += pBytes[i];
+    try{
+        outQueue.flush(byteOut);
+    }
+    catch (IOException e) {
+        if (!isClosed()) { logSevere(e.getMessage() + " - Error: 371"); }
     }
 
-    //calculate checksum and put at end of buffer
-    outBuffer[pNumBytes] = (byte)(0x100 - (byte)(checksum & 0xff));
+    if (System.nanoTime() - start > SEND_STALL_NANOS) { sendStallCount++; }
 
-    //send packet to remote
-    if (byteOut != null) {
-        try{
-              byteOut.write(outBuffer, 0 /*offset*/, pNumBytes + 1);
-              byteOut.flush();
-        }
-        catch (IOException e) {
-            logSevere(e.getMessage() + " - Error: 371");
-        }
-    }
+}//end of Remote::flushOutQueue
+//-----------------------------------------------------------------------------
 
-}//end of Remote::sendBytes
+//-----------------------------------------------------------------------------
+// Simulator::checkReceiveBuffer
+//
+// Counts in receiveBufferFullCount if the pipe from the host is full. Call
+// before reading from the pipe.
+//
+
+void checkReceiveBuffer()
+{
+
+    if (fromHost.available() >= PIPE_SIZE) { receiveBufferFullCount++; }
+
+}//end of Simulator::checkReceiveBuffer
 //-----------------------------------------------------------------------------
 
 //-----------------------------------------------------------------------------
@@ -405,28 +580,11 @@ void sendByteArray(int pNumBytes, byte[] pBytes)
 void sendBytes(Byte... pBytes)
 {
 
-    int checksum = 0;
-
-    sendHeader(); //send the packet header
-
-    for(int i=0; i<pBytes.length; i++){
-        outBuffer[i] = pBytes[i];
-        checksum += pBytes[i];
-    }
+    byte[] bytes = new byte[pBytes.length];
 
-    //calculate checksum and put at end of buffer
-    outBuffer[pBytes.length] = (byte)(0x100 - (byte)(checksum & 0xff));
+    for(int i=0; i<pBytes.length; i++){ bytes[i] = pBytes[i]; }
 
-    //send packet to remote
-    if (byteOut != null) {
-        try{
-              byteOut.write(outBuffer, 0 /*offset*/, pBytes.length + 1);
-              byteOut.flush();
-        }
-        catch (IOException e) {
-            logSevere(e.getMessage() + " - Error: 427");
-        }
-    }
+    sendByteArray(bytes.length, bytes);
 
 }//end of Remote::sendBytes
 //-----------------------------------------------------------------------------
@@ -474,9 +632,9 @@ void unpackInt(int pInt, byte[] pArray)
 //-----------------------------------------------------------------------------
 // Remote::readBlockAndVerify
 //
-// Reads pNumberOfBytes from byteIn into inBuffer and also reads the checksum
-// byte. The bytes (including the last one which is the checksum) are summed
-// with pPktID and then compared with 0x00.
+// Makes sure pNumberOfBytes plus the checksum byte are in the receive buffer,
+// reading more from byteIn if necessary. The bytes (including the last one
+// which is the checksum) are summed with pPktID and then compared with 0x00.
 //
 // The packet ID (packet command) is passed in as it will already have been
 // read from the socket but is needed to compute the checksum.
@@ -484,6 +642,12 @@ void unpackInt(int pInt, byte[] pArray)
 // The value pNumberOfBytes should be equal to the number of data bytes...NOT
 // including the checksum.
 //
+// If verified, the data bytes can be accessed via the decoder's getter
+// methods, i.e. decoder.getByte(0) returns the first data byte.
+//
+// If crcEnabled is true, the four CRC bytes are read and verified instead of
+// the checksum.
+//
 // Returns the number of bytes read if specified number of bytes were read and
 // the checksum verified. Returns -1 otherwise.
 //
@@ -491,32 +655,25 @@ void unpackInt(int pInt, byte[] pArray)
 int readBlockAndVerify(int pNumberOfBytes, byte pPktID)
 {
 
-    int totalNumBytes = pNumberOfBytes + 1; //account for the checksum
-    
-    int bytesRead;
+    //account for the checksum or CRC
+    int totalNumBytes =
+                    pNumberOfBytes + (crcEnabled ? Crc32c.CRC_SIZE : 1);
 
     try{
-        bytesRead = byteIn.read(inBuffer, 0, totalNumBytes);
+        if (!decoder.fillBlocking(byteIn, totalNumBytes)) { return(-1); }
     }
     catch(IOException e){
         logSevere(e.getMessage() + " - Error: 424");
         return(-1);
     }
 
-    if (bytesRead == totalNumBytes){
+    boolean valid = crcEnabled ?
+                        decoder.verifyFrameCrc(pNumberOfBytes, pPktID) :
+                        decoder.verifyFrame(pNumberOfBytes, pPktID);
 
-        byte sum = 0;
-        for(int i = 0; i < totalNumBytes; i++) {sum += inBuffer[i];}
+    if (!valid) { return(-1); }
 
-        //calculate checksum to check validity of the packet
-        if ( (pPktID + sum & (byte)0xff) != 0) {return(-1);}
-    }
-    else{
-        //error -- not enough bytes could be read
-        return(-1);
-    }
-
-    return(bytesRead);
+    return(totalNumBytes);
 
 }//end of Remote::readBlockAndVerify
 //-----------------------------------------------------------------------------
@@ -548,11 +705,43 @@ public InputStream getInputStream()
 public OutputStream getOutputStream()
 {
 
-    return (outStream);
+    return (hostOutStream);
 
 }//end of Simulator::getOutputStream
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Simulator::setSoTimeout
+//
+// Sets the time in milliseconds that a read by the calling object will wait
+// for data, as for a real socket.
+//
+
+@Override
+public void setSoTimeout(int pTimeOut)
+{
+
+    inStream.setTimeout(pTimeOut);
+
+}//end of Simulator::setSoTimeout
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Simulator::getSoTimeout
+//
+// Returns the time in milliseconds that a read by the calling object will
+// wait for data.
+//
+
+@Override
+public int getSoTimeout()
+{
+
+    return(inStream.getTimeout());
+
+}//end of Simulator::getSoTimeout
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Simulator::getReceiveBufferSize
 //
@@ -656,6 +845,75 @@ public int extractInt(byte[] pArray)
 }//end of NotcherHandler::extractInt
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Simulator::close
+//
+// Closes the simulated connection. As with a real socket, the other end sees
+// the end of the stream on its next read and an error on its next write. The
+// simulation thread should stop once isClosed returns true.
+//
+// May be called by the host to close its connection or by test code to
+// simulate the remote dropping the connection.
+//
+
+@Override
+public synchronized void close() throws IOException
+{
+
+    if (isClosed()) { return; }
+
+    super.close();
+
+    //the host reads the bytes already sent and then the end of the stream
+    toHost.closeWriter();
+
+    fromHost.closeReader();
+
+    if (hostSocket != null) { hostSocket.close(); }
+
+    //stops the delivery threads
+    if (faultyToHost != null) { faultyToHost.close(); }
+    if (faultyFromHost != null) { faultyFromHost.close(); }
+
+}//end of Simulator::close
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Simulator::attachSocket
+//
+// Exchanges packets with the host over pSocket, a TCP connection accepted
+// from the host, rather than over the rings. Anything already written for the
+// host, such as the greeting, is sent first. Must be called before init.
+//
+// The simulation code is unchanged; it sees the partial reads, delays, and
+// buffering of the real TCP stack rather than those of the rings. The
+// simulator cannot be run by a SimulatorFarm as the farm is woken by the
+// ring from the host.
+//
+
+public void attachSocket(Socket pSocket) throws IOException
+{
+
+    hostSocket = pSocket;
+
+    //packets are combined by outQueue, so Nagle's algorithm would only add
+    //delay
+    pSocket.setTcpNoDelay(true);
+
+    byteIn = new DataInputStream(pSocket.getInputStream());
+    byteOut = new DataOutputStream(pSocket.getOutputStream());
+
+    ByteBuffer written = ByteBuffer.allocate(toHost.available());
+    toHost.read(written);
+    byteOut.write(written.array(), 0, written.position());
+
+    toHost.closeWriter();
+
+    setReadTimeout(READ_TIMEOUT);
+
+}//end of Simulator::attachSocket
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Simulator::run
 //
@@ -669,6 +927,57 @@ public void run() {
 }//end of Simulator::run
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Simulator::step
+//
+// Handles the packets already received from the host and sends whatever is
+// due without waiting. Used in place of run when the simulation is run by a
+// SimulatorFarm. Should be overridden by child classes which may be run by a
+// farm.
+//
+// Returns the nanoseconds until step is to be called again if no packets
+// arrive, 0 or less if at once, or Long.MAX_VALUE if only the arrival of
+// packets requires it.
+//
+
+public long step()
+{
+
+    return(Long.MAX_VALUE);
+
+}//end of Simulator::step
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Simulator::setFarm
+//
+// Runs the simulation on the threads of pFarm rather than a thread of its
+// own. Must be called before init.
+//
+
+public void setFarm(SimulatorFarm pFarm)
+{
+
+    farm = pFarm;
+
+}//end of Simulator::setFarm
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Simulator::setFaultInjector
+//
+// Injects the faults set in pInjector into the bytes sent each way, null for
+// none. Must be called before init. See FaultInjector.
+//
+
+public void setFaultInjector(FaultInjector pInjector)
+{
+
+    faultInjector = pInjector;
+
+}//end of Simulator::setFaultInjector
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Simulator::logSevere
 //
@@ -0,0 +1,273 @@
+/******************************************************************************
+* Title: SimulatorFarm.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class runs many simulators on a few shared threads.
+*
+* Each simulator normally runs on a thread of its own which waits for the
+* host's packets. That is fine for a line of ten units, but load testing the
+* host against hundreds of simulated units would then measure hundreds of
+* threads competing with the host for the processors rather than the host.
+*
+* A farm instead calls each simulator's step method, which handles the
+* packets already received and sends whatever is due without waiting, on
+* one of a small pool of threads. A simulator is stepped again when:
+*
+*   bytes arrive from the host -- a data listener is set on the simulator's
+*   receive ring, so the host's write queues the step;
+*
+*   the time returned by step passes -- for pushed packets, streams, credit
+*   reports, and the like;
+*
+*   step returns 0, as when it stopped to give the other simulators a turn.
+*
+* Idle simulators use no CPU time. At most one step of each simulator is
+* queued or running at any time, so a simulator is used by one thread at a
+* time though not always the same one.
+*
+* A simulator is dropped from the farm once its connection is closed.
+* shutDown closes all remaining simulators, so their hosts see the end of
+* the stream, and stops the threads.
+*
+* A step may still block: while the rest of a packet which has begun to
+* arrive is read, while the host is not reading and the ring to it is full,
+* or while a simulated firmware block is written. The other simulators are
+* served by the remaining threads meanwhile.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class SimulatorFarm
+//
+
+public class SimulatorFarm extends Object{
+
+    private final int numThreads;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final Set<Simulator> simulators = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean shutDown = false;
+
+    //calls to step made since the farm was created
+    private final AtomicLong stepCount = new AtomicLong();
+
+//-----------------------------------------------------------------------------
+// SimulatorFarm::SimulatorFarm (constructor)
+//
+// Creates a farm with pNumThreads threads. If pNumThreads is 0 or less, one
+// thread per processor is used.
+//
+
+public SimulatorFarm(int pNumThreads)
+{
+
+    numThreads = pNumThreads > 0 ?
+                    pNumThreads : Runtime.getRuntime().availableProcessors();
+
+    executor = new ScheduledThreadPoolExecutor(numThreads,
+                            DeviceThreads.newThreadFactory("Simulator", false));
+
+    //the timers are usually cancelled, so do not leave them in the queue
+    executor.setRemoveOnCancelPolicy(true);
+
+}//end of SimulatorFarm::SimulatorFarm (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorFarm::add
+//
+// Starts running pSimulator. Called by the simulator's init in place of
+// starting its own thread.
+//
+
+public void add(final Simulator pSimulator)
+{
+
+    if (shutDown){
+        try{ pSimulator.close(); } catch(IOException e){ }
+        return;
+    }
+
+    pSimulator.farmWake = () -> wake(pSimulator);
+
+    simulators.add(pSimulator);
+
+    wake(pSimulator);
+
+}//end of SimulatorFarm::add
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorFarm::wake
+//
+// Queues a step of pSimulator unless one is already queued or running.
+//
+
+private void wake(final Simulator pSimulator)
+{
+
+    if (!pSimulator.stepQueued.compareAndSet(false, true)) { return; }
+
+    try{
+        executor.execute(() -> runStep(pSimulator));
+    }
+    catch(RejectedExecutionException e){
+        //the farm has been shut down
+        pSimulator.stepQueued.set(false);
+    }
+
+}//end of SimulatorFarm::wake
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorFarm::runStep
+//
+// Steps pSimulator and arranges for the next step: a timer for the time
+// returned and the data listener for the next bytes from the host.
+//
+// The listener and the timer are set before the step is marked as no longer
+// queued and the ring is checked for data afterwards, so bytes which arrive
+// while the step is finishing are not missed. The timer is only set and
+// cancelled while a step is queued, so no two threads use it at once.
+//
+
+private void runStep(Simulator pSimulator)
+{
+
+    ScheduledFuture<?> timer = pSimulator.stepTimer;
+
+    if (timer != null) { timer.cancel(false); pSimulator.stepTimer = null; }
+
+    long nanos = 0;
+
+    try{
+        if (!pSimulator.isClosed()) { nanos = pSimulator.step(); }
+    }
+    catch(RuntimeException e){
+        logSevere(e.getMessage() + " - Error: 714");
+        try{ pSimulator.close(); } catch(IOException e2){ }
+    }
+
+    stepCount.incrementAndGet();
+
+    if (pSimulator.isClosed()){
+        simulators.remove(pSimulator);
+        pSimulator.fromHost.setDataListener(null);
+        return;
+    }
+
+    pSimulator.fromHost.setDataListener(pSimulator.farmWake);
+
+    if (nanos > 0 && nanos != Long.MAX_VALUE){
+        try{
+            pSimulator.stepTimer = executor.schedule(
+                            pSimulator.farmWake, nanos, TimeUnit.NANOSECONDS);
+        }
+        catch(RejectedExecutionException e){
+            //the farm has been shut down
+        }
+    }
+
+    pSimulator.stepQueued.set(false);
+
+    if (nanos <= 0 || pSimulator.fromHost.available() > 0
+                                                || pSimulator.isClosed()){
+        wake(pSimulator);
+    }
+
+}//end of SimulatorFarm::runStep
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorFarm::shutDown
+//
+// Closes all simulators in the farm and stops its threads, waiting up to
+// pTimeOut milliseconds for steps in progress to finish.
+//
+// Returns true if the threads stopped in time.
+//
+
+public boolean shutDown(long pTimeOut)
+{
+
+    shutDown = true;
+
+    for (Simulator simulator : simulators){
+        try{ simulator.close(); } catch(IOException e){ }
+    }
+
+    simulators.clear();
+
+    executor.shutdownNow();
+
+    try{
+        return(executor.awaitTermination(pTimeOut, TimeUnit.MILLISECONDS));
+    }
+    catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        return(false);
+    }
+
+}//end of SimulatorFarm::shutDown
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorFarm::logSevere
+//
+// Logs pMessage with level SEVERE using the Java logger.
+//
+
+void logSevere(String pMessage)
+{
+
+    Logger.getLogger(getClass().getName()).log(Level.SEVERE, pMessage);
+
+}//end of SimulatorFarm::logSevere
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorFarm::various get/set functions
+//
+
+public int getNumThreads() { return(numThreads); }
+
+//simulators running, not counting those whose connections have closed but
+//which have not been stepped since
+public int getNumSimulators() { return(simulators.size()); }
+
+public long getStepCount() { return(stepCount.get()); }
+
+public boolean isShutDown() { return(shutDown); }
+
+//end of SimulatorFarm::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class SimulatorFarm
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,440 @@
+/******************************************************************************
+* Title: SimulatorServer.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class lets the host reach the simulated units over real TCP
+* connections on the loopback interface.
+*
+* Normally, Notcher.connect substitutes a NotcherSimulator for its socket and
+* the bytes pass through ByteRings in memory. The host's socket code and the
+* TCP stack are never exercised: there is no Nagle delay, no socket buffer,
+* and a read never returns part of what was written. A benchmark run that way
+* measures the rings, and a bug which only shows when a packet arrives in
+* pieces stays hidden.
+*
+* With this server, each simulated unit listens on its own loopback address,
+* 127.0.0.1 for unit 0, 127.0.0.2 for unit 1, and so on, at the configured
+* port. The host connects with its normal Socket or SocketChannel code, so
+* the selector transport may be used as well. Each connection accepted is
+* handed to a new NotcherSimulator which reads and writes the accepted socket
+* rather than the rings; see Simulator.attachSocket. A reconnect is accepted
+* like any other connection and gets a fresh simulator, as when a real unit
+* reboots.
+*
+* A unit's listener is opened the first time its address is asked for. If
+* its loopback address cannot be bound, as on systems where only 127.0.0.1
+* is configured or when the port is privileged, the unit listens on
+* 127.0.0.1 at a port chosen by the system instead. getAddress always returns
+* the address actually used.
+*
+* The connections are accepted by a single thread with a Selector. Each
+* simulator runs on a thread of its own; the simulators cannot be run by a
+* SimulatorFarm in this mode.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import view.ThreadSafeLogger;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class SimulatorServer
+//
+
+public class SimulatorServer extends Object implements Runnable{
+
+    ThreadSafeLogger tsLog;
+
+    private final int port;
+
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    //the listener and the address listened on for each unit
+    private final Map<Integer, ServerSocketChannel> listeners =
+                                                            new HashMap<>();
+    private final Map<Integer, InetSocketAddress> addresses =
+                                                            new HashMap<>();
+
+    //units whose listeners were opened by other threads, to be registered
+    //by the accept thread
+    private final ConcurrentLinkedQueue<Integer> pendingRegistrations =
+                                                new ConcurrentLinkedQueue<>();
+
+    //the packets sent by each unit's simulators in place of simulated data;
+    //null to simulate -- see setReplays
+    private CaptureReplay[] replays;
+
+    //injects faults into the bytes the simulators send, null for none
+    private FaultInjector faultInjector;
+
+    //the simulators which have been started and not yet found closed
+    private final Set<Simulator> simulators = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong acceptCount = new AtomicLong();
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::SimulatorServer (constructor)
+//
+// Creates a server whose units listen at pPort.
+//
+
+public SimulatorServer(int pPort, ThreadSafeLogger pTSLog)
+{
+
+    port = pPort; tsLog = pTSLog;
+
+}//end of SimulatorServer::SimulatorServer (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::init
+//
+// Opens the selector and starts the accept thread. Must be called before
+// any addresses are asked for.
+//
+
+public void init() throws IOException
+{
+
+    selector = Selector.open();
+
+    running = true;
+
+    thread = new Thread(this, "Simulator Server");
+    thread.setDaemon(true);
+    thread.start();
+
+}//end of SimulatorServer::init
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::getAddress
+//
+// Returns the address at which unit pDevice accepts connections, opening its
+// listener if this is the first request.
+//
+// Throws IOException if no listener could be opened.
+//
+
+public synchronized InetSocketAddress getAddress(int pDevice)
+                                                            throws IOException
+{
+
+    InetSocketAddress address = addresses.get(pDevice);
+
+    if (address != null) { return(address); }
+
+    ServerSocketChannel listener = ServerSocketChannel.open();
+
+    try{
+        listener.socket().setReuseAddress(true);
+        try{
+            listener.bind(new InetSocketAddress(getLoopbackAddress(pDevice),
+                                                                        port));
+        }
+        catch(IOException e){
+            listener.bind(new InetSocketAddress(
+                                        InetAddress.getByName("127.0.0.1"), 0));
+        }
+        listener.configureBlocking(false);
+    }
+    catch(IOException e){
+        listener.close();
+        throw e;
+    }
+
+    address = (InetSocketAddress)listener.getLocalAddress();
+
+    listeners.put(pDevice, listener);
+    addresses.put(pDevice, address);
+
+    pendingRegistrations.add(pDevice);
+    selector.wakeup();
+
+    tsLog.appendLine("Simulated Notcher #" + pDevice + " listening at "
+                                                        + address.toString());
+
+    return(address);
+
+}//end of SimulatorServer::getAddress
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::getLoopbackAddress
+//
+// Returns the loopback address for unit pDevice: 127.0.0.1 for unit 0,
+// 127.0.0.2 for unit 1, and so on.
+//
+
+static InetAddress getLoopbackAddress(int pDevice) throws UnknownHostException
+{
+
+    int host = pDevice + 1;
+
+    return(InetAddress.getByAddress(new byte[] {127, (byte)(host >> 16),
+                                        (byte)(host >> 8), (byte)host}));
+
+}//end of SimulatorServer::getLoopbackAddress
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::run
+//
+// This is the accept thread code. It waits for connections to any unit and
+// starts a simulator for each.
+//
+
+@Override
+public void run()
+{
+
+    while (running){
+
+        try{
+            selector.select();
+        }
+        catch(IOException e){
+            logSevere(e.getMessage() + " - Error: 715");
+            break;
+        }
+
+        if (!running) { break; }
+
+        Integer device;
+
+        while ((device = pendingRegistrations.poll()) != null){
+            try{
+                getListener(device).register(
+                                    selector, SelectionKey.OP_ACCEPT, device);
+            }
+            catch(ClosedChannelException e){
+                //the server has been shut down
+            }
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()){
+
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            if (key.isValid() && key.isAcceptable()) { accept(key); }
+
+        }
+
+    }
+
+}//end of SimulatorServer::run
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::getListener
+//
+// Returns the listener for unit pDevice.
+//
+
+private synchronized ServerSocketChannel getListener(int pDevice)
+{
+
+    return(listeners.get(pDevice));
+
+}//end of SimulatorServer::getListener
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::accept
+//
+// Accepts the waiting connection on pKey's listener and starts a simulator
+// for it.
+//
+
+private void accept(SelectionKey pKey)
+{
+
+    int device = (Integer)pKey.attachment();
+
+    SocketChannel channel = null;
+
+    try{
+
+        channel = ((ServerSocketChannel)pKey.channel()).accept();
+
+        if (channel == null) { return; }
+
+        //the simulator uses blocking reads with timeouts
+        channel.configureBlocking(true);
+
+        Socket socket = channel.socket();
+
+        NotcherSimulator simulator =
+                    new NotcherSimulator(socket.getLocalAddress(), port);
+
+        if (replays != null && device < replays.length){
+            simulator.setReplay(replays[device]);
+        }
+
+        simulator.attachSocket(socket);
+        simulator.setFaultInjector(faultInjector);
+
+        acceptCount.incrementAndGet();
+
+        removeClosedSimulators();
+        simulators.add(simulator);
+
+        simulator.init();
+
+    }
+    catch(IOException e){
+        logSevere(e.getMessage() + " - Error: 716");
+        if (channel != null) {
+            try { channel.close(); } catch (IOException e2) { }
+        }
+    }
+
+}//end of SimulatorServer::accept
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::removeClosedSimulators
+//
+// Drops the simulators whose connections have closed.
+//
+
+private void removeClosedSimulators()
+{
+
+    simulators.removeIf(Simulator::isClosed);
+
+}//end of SimulatorServer::removeClosedSimulators
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::setReplays
+//
+// Has the simulators for each unit send the packets in the matching entry
+// of pReplays in place of simulated data, null to simulate. See
+// CaptureReplay. Takes effect for the next connection accepted.
+//
+
+public void setReplays(CaptureReplay[] pReplays)
+{
+
+    replays = pReplays;
+
+}//end of SimulatorServer::setReplays
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::setFaultInjector
+//
+// Has the simulators inject the faults set in pInjector into the bytes they
+// send, null for none. The host writes to its own socket, so the bytes it
+// sends are not affected. Takes effect for the next connection accepted.
+//
+
+public void setFaultInjector(FaultInjector pInjector)
+{
+
+    faultInjector = pInjector;
+
+}//end of SimulatorServer::setFaultInjector
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::shutDown
+//
+// Stops accepting connections and closes all simulators, so their hosts see
+// the end of the stream.
+//
+
+public void shutDown()
+{
+
+    running = false;
+
+    if (selector != null) { selector.wakeup(); }
+
+    synchronized(this){
+        for (ServerSocketChannel listener : listeners.values()){
+            try { listener.close(); } catch (IOException e) { }
+        }
+    }
+
+    for (Simulator simulator : simulators){
+        try { simulator.close(); } catch (IOException e) { }
+    }
+
+    simulators.clear();
+
+    try{
+        if (thread != null) { thread.join(1000); }
+        if (selector != null) { selector.close(); }
+    }
+    catch(IOException e){
+        logSevere(e.getMessage() + " - Error: 717");
+    }
+    catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+    }
+
+}//end of SimulatorServer::shutDown
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::logSevere
+//
+// Logs pMessage with level SEVERE using the Java logger.
+//
+
+void logSevere(String pMessage)
+{
+
+    Logger.getLogger(getClass().getName()).log(Level.SEVERE, pMessage);
+
+}//end of SimulatorServer::logSevere
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// SimulatorServer::various get/set functions
+//
+
+public int getPort() { return(port); }
+
+//connections accepted since the server was started
+public long getAcceptCount() { return(acceptCount.get()); }
+
+//simulators running, not counting those closed since the last accept
+public int getNumSimulators() { return(simulators.size()); }
+
+//end of SimulatorServer::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class SimulatorServer
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -19,6 +19,24 @@
 * simulation and actually reads and writes data to the underlying sockets
 * to communicate with the main program.
 *
+* Multicast Mode
+*
+* The crude method answers instantly, so the time taken by the roll call
+* cannot be measured or tuned. If created with response timing, this object
+* is instead a real MulticastSocket whose roll calls go out on the loopback
+* interface. A listener socket joins the roll call group there just as the
+* units do, and each virtual unit answers each roll call it hears from its
+* own loopback address (127.0.0.1 for unit 0, 127.0.0.2 for unit 1, and so
+* on, as with SimulatorServer) after the response delay plus a random part
+* of the jitter. Each answer is lost with the given probability.
+*
+* The answers are sent by a single timer thread. The virtual units stop
+* when this socket is closed.
+*
+* The virtual units need an address each; on systems where only 127.0.0.1 is
+* usable on the loopback interface, the units which cannot bind their own
+* address answer from 127.0.0.1 and appear to the host as one unit.
+*
 * Open Source Policy:
 *
 * This source code is Public Domain and free to any interested party.  Any
@@ -33,6 +51,12 @@ package Hardware;
 import model.IniFile;
 import java.io.IOException;
 import java.net.*;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,6 +80,33 @@ public class UDPSimulator extends MulticastSocket{
 
     IniFile configFile;
 
+    //the group and port to which the host sends the roll call
+    static final String ROLL_CALL_GROUP = "230.0.0.1";
+    static final int ROLL_CALL_PORT = 4446;
+    static final String ROLL_CALL = "Notcher Roll Call";
+
+    //if true, the roll call is answered over real multicast by the virtual
+    //units rather than faked by receive -- see "Multicast Mode" above
+    boolean multicast = false;
+
+    //milliseconds before each unit answers, the most added at random, and
+    //the chance from 0 to 1 that an answer is lost
+    int responseDelay = 0;
+    int responseJitter = 0;
+    double responseLoss = 0;
+
+    //hears the roll call for the virtual units, one socket for each unit to
+    //answer from, and the thread which sends the answers when due
+    MulticastSocket groupSocket;
+    DatagramSocket[] unitSockets;
+    ScheduledExecutorService answerTimer;
+
+    private final Random random = new Random();
+
+    private final AtomicLong rollCallCount = new AtomicLong();
+    private final AtomicLong answerCount = new AtomicLong();
+    private final AtomicLong lostCount = new AtomicLong();
+
 //default constructor - not used    
 public UDPSimulator() throws SocketException, IOException{};
 
@@ -77,15 +128,195 @@ public UDPSimulator(int pPort, String pAnnouncement, int pNumUnitsToSimulate)
 }//end of UDPSimulator::UDPSimulator (constructor)
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// UDPSimulator::UDPSimulator (constructor)
+//
+// Creates a socket at pPort whose roll calls are answered over multicast on
+// the loopback interface by pNumUnitsToSimulate virtual units, each after
+// pResponseDelay milliseconds plus up to pResponseJitter more. Each answer is
+// lost with probability pResponseLoss (0 to 1). See "Multicast Mode" in the
+// header notes.
+//
+
+public UDPSimulator(int pPort, String pAnnouncement, int pNumUnitsToSimulate,
+                int pResponseDelay, int pResponseJitter, double pResponseLoss)
+        throws SocketException, IOException
+{
+
+    this(pPort, pAnnouncement, pNumUnitsToSimulate);
+
+    multicast = true;
+    responseDelay = pResponseDelay;
+    responseJitter = pResponseJitter;
+    responseLoss = pResponseLoss;
+
+    NetworkInterface loopback =
+            NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+
+    try{
+
+        //the host's roll calls go out on the loopback interface
+        setNetworkInterface(loopback);
+
+        groupSocket = new MulticastSocket(ROLL_CALL_PORT);
+        groupSocket.joinGroup(new InetSocketAddress(
+                InetAddress.getByName(ROLL_CALL_GROUP), ROLL_CALL_PORT),
+                                                                    loopback);
+
+        unitSockets = new DatagramSocket[numUnitsToSimulate];
+
+        for (int i = 0; i < numUnitsToSimulate; i++){
+            unitSockets[i] = openUnitSocket(i);
+        }
+
+    }
+    catch(IOException e){
+        close();
+        throw e;
+    }
+
+    answerTimer = Executors.newSingleThreadScheduledExecutor(
+                    DeviceThreads.newThreadFactory("Roll Call Units", false));
+
+    Thread listener = new Thread(this::listenForRollCalls, "Roll Call Group");
+    listener.setDaemon(true);
+    listener.start();
+
+}//end of UDPSimulator::UDPSimulator (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// UDPSimulator::openUnitSocket
+//
+// Returns a socket from which virtual unit pUnit sends its answers, bound to
+// the unit's own loopback address if possible.
+//
+
+private DatagramSocket openUnitSocket(int pUnit) throws IOException
+{
+
+    try{
+        return(new DatagramSocket(new InetSocketAddress(
+                            SimulatorServer.getLoopbackAddress(pUnit), 0)));
+    }
+    catch(SocketException e){
+        return(new DatagramSocket(new InetSocketAddress(
+                                        InetAddress.getLoopbackAddress(), 0)));
+    }
+
+}//end of UDPSimulator::openUnitSocket
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// UDPSimulator::listenForRollCalls
+//
+// This is the listener thread code. It waits for roll calls sent to the group
+// and has the virtual units answer each until the socket is closed.
+//
+
+private void listenForRollCalls()
+{
+
+    byte[] buf = new byte[256];
+    DatagramPacket packet = new DatagramPacket(buf, buf.length);
+
+    while (!groupSocket.isClosed()){
+
+        try{
+            packet.setLength(buf.length);
+            groupSocket.receive(packet);
+        }
+        catch(IOException e){
+            //the socket has been closed
+            break;
+        }
+
+        String message = new String(buf, 0, packet.getLength());
+
+        if (message.startsWith(ROLL_CALL)){
+            rollCallCount.incrementAndGet();
+            scheduleAnswers(packet.getSocketAddress());
+        }
+
+    }
+
+}//end of UDPSimulator::listenForRollCalls
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// UDPSimulator::scheduleAnswers
+//
+// Has each virtual unit whose answer is not lost answer the host at pHost
+// after its delay.
+//
+
+private void scheduleAnswers(final SocketAddress pHost)
+{
+
+    for (int i = 0; i < numUnitsToSimulate; i++){
+
+        if (random.nextDouble() < responseLoss){
+            lostCount.incrementAndGet();
+            continue;
+        }
+
+        int delay = responseDelay;
+        if (responseJitter > 0) { delay += random.nextInt(responseJitter + 1); }
+
+        final int unit = i;
+
+        try{
+            answerTimer.schedule(() -> sendAnswer(unit, pHost),
+                                                delay, TimeUnit.MILLISECONDS);
+        }
+        catch(RejectedExecutionException e){
+            //the socket has been closed
+            return;
+        }
+
+    }
+
+}//end of UDPSimulator::scheduleAnswers
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// UDPSimulator::sendAnswer
+//
+// Sends the announcement from virtual unit pUnit to the host at pHost.
+//
+
+private void sendAnswer(int pUnit, SocketAddress pHost)
+{
+
+    byte[] answer = announcement.getBytes();
+
+    try{
+        unitSockets[pUnit].send(
+                            new DatagramPacket(answer, answer.length, pHost));
+        answerCount.incrementAndGet();
+    }
+    catch(IOException e){
+        if (!unitSockets[pUnit].isClosed()){
+            logSevere(e.getMessage() + " - Error: 719");
+        }
+    }
+
+}//end of UDPSimulator::sendAnswer
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // UDPSimulator::send
 //
+// Sends pPacket in multicast mode. Otherwise, does nothing as receive fakes
+// the answers.
 //
 
 @Override
-public void send(DatagramPacket p)
+public void send(DatagramPacket pPacket) throws IOException
 {
 
+    if (multicast) { super.send(pPacket); }
+
 }//end of UDPSimulator::send
 //-----------------------------------------------------------------------------
 
@@ -102,6 +333,8 @@ public void send(DatagramPacket p)
 public void receive(DatagramPacket p) throws IOException
 {
 
+    if (multicast) { super.receive(p); return; }
+
     //if specified number of units have responded, throw an exception to
     //simulate a timeout
     if(responseCount >= numUnitsToSimulate){
@@ -124,6 +357,45 @@ public void receive(DatagramPacket p) throws IOException
 }//end of UDPSimulator::receive
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// UDPSimulator::close
+//
+// Closes the socket. In multicast mode, the virtual units stop as well.
+//
+
+@Override
+public void close()
+{
+
+    super.close();
+
+    if (answerTimer != null) { answerTimer.shutdownNow(); }
+
+    if (groupSocket != null) { groupSocket.close(); }
+
+    if (unitSockets != null){
+        for (DatagramSocket unitSocket : unitSockets){
+            if (unitSocket != null) { unitSocket.close(); }
+        }
+    }
+
+}//end of UDPSimulator::close
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// UDPSimulator::various get/set functions
+//
+
+//roll calls heard by the virtual units and the answers sent and lost
+public long getRollCallCount() { return(rollCallCount.get()); }
+
+public long getAnswerCount() { return(answerCount.get()); }
+
+public long getLostCount() { return(lostCount.get()); }
+
+//end of UDPSimulator::various get/set functions
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // UDPSimulator::logSevere
 //
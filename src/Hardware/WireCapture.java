@@ -0,0 +1,343 @@
+/******************************************************************************
+* Title: WireCapture.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class records every frame sent to and received from the units in a
+* fixed size ring file so that the traffic leading up to a problem can be
+* examined afterwards. See WireCaptureReader for reading the file.
+*
+* The file is memory mapped. Recording a frame copies it into the mapping
+* and updates a few header fields -- no system call is made and no object is
+* created per frame, so capture may be left on in production. The operating
+* system writes the pages to the file in the background and keeps them even
+* if the program crashes.
+*
+* When the ring is full, the oldest records are overwritten, so the file
+* always holds the most recent traffic.
+*
+* File Layout
+*
+* The file begins with a HEADER_SIZE byte header:
+*
+*   magic           4 bytes   MAGIC
+*   version         2 bytes   VERSION
+*   header size     2 bytes   HEADER_SIZE
+*   ring size       4 bytes   bytes in the record area which follows
+*   flags           4 bytes   WRAPPED_FLAG if the records wrap around
+*   start time      8 bytes   System.currentTimeMillis when capture began
+*   head            4 bytes   offset in the ring for the next record
+*   tail            4 bytes   offset in the ring of the oldest record
+*   lap end         4 bytes   end of the records before the ring wrapped
+*   record count    8 bytes   records written since capture began
+*   wrap count      8 bytes   times the ring has wrapped
+*
+* The records follow the header:
+*
+*   length          2 bytes   bytes in the record including this header
+*   flags           1 byte    SENT, BAD
+*   device          1 byte    index of the unit
+*   time            8 bytes   nanoseconds since capture began
+*   frame           the frame exactly as on the wire, header to checksum
+*
+* A length of 0 marks the end of a lap; the next record is at the start of
+* the ring. Offsets are from the start of the ring. All values are MSB
+* first.
+*
+* The oldest records are those from tail to lap end, followed by those from
+* the start of the ring to head if WRAPPED_FLAG is set. Otherwise the
+* records run from tail to head.
+*
+* Thread Safety
+*
+* Frames are recorded by whichever thread sends or reads them, so record is
+* synchronized. The lock is held only for the copy.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class WireCapture
+//
+
+public class WireCapture extends Object{
+
+    static final int MAGIC = 0x57434150; //"WCAP"
+    static final short VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+
+    //positions of the header fields
+    static final int RING_SIZE_POS = 8;
+    static final int FLAGS_POS = 12;
+    static final int START_TIME_POS = 16;
+    static final int HEAD_POS = 24;
+    static final int TAIL_POS = 28;
+    static final int LAP_END_POS = 32;
+    static final int RECORD_COUNT_POS = 36;
+    static final int WRAP_COUNT_POS = 44;
+
+    static final int WRAPPED_FLAG = 1;
+
+    //bytes in each record before the frame
+    static final int RECORD_HEADER_SIZE = 12;
+
+    //values for the flags byte of each record
+    public static final int SENT = 1;
+    public static final int BAD = 2;
+
+    //smallest and largest ring accepted
+    public static final int MIN_RING_SIZE = 64 * 1024;
+    public static final int MAX_RING_SIZE = 1024 * 1024 * 1024;
+
+    private final File file;
+    private final MappedByteBuffer ring;
+    private final int ringSize;
+
+    private final long startNanos = System.nanoTime();
+
+    private volatile boolean enabled = true;
+
+    //guarded by the object lock
+    private int head = 0;
+    private int tail = 0;
+    private int lapEnd = 0;
+    private boolean wrapped = false;
+    private long recordCount = 0;
+    private long wrapCount = 0;
+    private boolean closed = false;
+
+//-----------------------------------------------------------------------------
+// WireCapture::WireCapture (constructor)
+//
+// Creates or replaces pFile with a capture file holding pRingSize bytes of
+// records and maps it into memory.
+//
+// Throws IOException if the file cannot be created or pRingSize is out of
+// range.
+//
+
+public WireCapture(File pFile, int pRingSize) throws IOException
+{
+
+    if (pRingSize < MIN_RING_SIZE || pRingSize > MAX_RING_SIZE){
+        throw new IOException("Wire capture size " + pRingSize
+                                                        + " is out of range.");
+    }
+
+    file = pFile;
+    ringSize = pRingSize;
+
+    //the mapping remains valid after the channel is closed
+    try (FileChannel channel = FileChannel.open(pFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+
+        ring = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                                    HEADER_SIZE + ringSize);
+
+    }
+
+    ring.putInt(0, MAGIC);
+    ring.putShort(4, VERSION);
+    ring.putShort(6, (short)HEADER_SIZE);
+    ring.putInt(RING_SIZE_POS, ringSize);
+    ring.putLong(START_TIME_POS, System.currentTimeMillis());
+
+    updateHeader();
+
+}//end of WireCapture::WireCapture (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// WireCapture::record
+//
+// Records a frame for unit pDevice. pFlags is a combination of SENT and BAD.
+//
+// The frame's header and packet ID are not taken from pBuf as the decoder
+// may already have discarded them -- pBuf holds the pLength bytes which
+// follow the packet ID, starting at pOffset, and pPktID is the packet ID.
+//
+
+public void record(int pDevice, int pFlags, byte pPktID, byte[] pBuf,
+                                                    int pOffset, int pLength)
+{
+
+    if (!enabled) { return; }
+
+    long time = System.nanoTime() - startNanos;
+
+    int size = RECORD_HEADER_SIZE + FrameDecoder.HEADER_AND_ID_SIZE + pLength;
+
+    synchronized(this){
+
+        if (closed || size > ringSize / 2) { return; }
+
+        makeRoom(size);
+
+        int x = HEADER_SIZE + head;
+
+        ring.putShort(x, (short)size);
+        ring.put(x + 2, (byte)pFlags);
+        ring.put(x + 3, (byte)pDevice);
+        ring.putLong(x + 4, time);
+
+        x += RECORD_HEADER_SIZE;
+
+        ring.put(x++, FrameDecoder.HEADER_0);
+        ring.put(x++, FrameDecoder.HEADER_1);
+        ring.put(x++, FrameDecoder.HEADER_2);
+        ring.put(x++, FrameDecoder.HEADER_3);
+        ring.put(x++, pPktID);
+
+        ((Buffer)ring).position(x);
+        ring.put(pBuf, pOffset, pLength);
+
+        head += size;
+        recordCount++;
+
+        updateHeader();
+
+    }
+
+}//end of WireCapture::record
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// WireCapture::recordFrame
+//
+// Records the complete frame of pLength bytes in pBuf starting at pOffset,
+// header included, for unit pDevice.
+//
+
+public void recordFrame(int pDevice, int pFlags, byte[] pBuf, int pOffset,
+                                                                int pLength)
+{
+
+    int skip = FrameDecoder.HEADER_AND_ID_SIZE;
+
+    if (pLength < skip) { return; }
+
+    record(pDevice, pFlags, pBuf[pOffset + skip - 1], pBuf, pOffset + skip,
+                                                            pLength - skip);
+
+}//end of WireCapture::recordFrame
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// WireCapture::makeRoom
+//
+// Moves head to the start of the ring if a record of pSize bytes will not
+// fit before the end and moves tail past the oldest records until the record
+// will not overwrite any which are kept. Must be called while holding the
+// object lock.
+//
+
+private void makeRoom(int pSize)
+{
+
+    if (head + pSize > ringSize){
+
+        //the rest of the previous lap is about to be overwritten
+        if (wrapped) { tail = 0; wrapped = false; }
+
+        if (head + 2 <= ringSize){
+            ring.putShort(HEADER_SIZE + head, (short)0);
+        }
+
+        lapEnd = head;
+        head = 0;
+        wrapped = true;
+        wrapCount++;
+
+    }
+
+    while (wrapped && tail < head + pSize){
+        if (tail >= lapEnd) { tail = 0; wrapped = false; }
+        else { tail += ring.getShort(HEADER_SIZE + tail) & 0xffff; }
+    }
+
+}//end of WireCapture::makeRoom
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// WireCapture::updateHeader
+//
+// Writes the ring positions and counts to the file header. Must be called
+// while holding the object lock.
+//
+
+private void updateHeader()
+{
+
+    ring.putInt(FLAGS_POS, wrapped ? WRAPPED_FLAG : 0);
+    ring.putInt(HEAD_POS, head);
+    ring.putInt(TAIL_POS, tail);
+    ring.putInt(LAP_END_POS, lapEnd);
+    ring.putLong(RECORD_COUNT_POS, recordCount);
+    ring.putLong(WRAP_COUNT_POS, wrapCount);
+
+}//end of WireCapture::updateHeader
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// WireCapture::close
+//
+// Stops capturing and writes the file to the disk. The file may then be
+// read with WireCaptureReader.
+//
+
+public synchronized void close()
+{
+
+    if (closed) { return; }
+
+    closed = true;
+
+    ring.force();
+
+}//end of WireCapture::close
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// WireCapture::various get/set functions
+//
+
+public File getFile() { return(file); }
+
+public int getRingSize() { return(ringSize); }
+
+public boolean isEnabled() { return(enabled); }
+
+//capture may be paused and resumed at any time
+public void setEnabled(boolean pState) { enabled = pState; }
+
+public synchronized long getRecordCount() { return(recordCount); }
+
+public synchronized long getWrapCount() { return(wrapCount); }
+
+//end of WireCapture::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class WireCapture
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,230 @@
+/******************************************************************************
+* Title: WireCaptureReader.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class reads the records of a capture file written by WireCapture,
+* oldest first. See WireCapture.java for the file layout.
+*
+* The file is read into memory when opened, so a capture which is still
+* being written may be read -- the records are those present at that time.
+* A record cut off by the writer is treated as the end of the capture.
+*
+* Each call to next moves to the following record, whose fields are then
+* returned by the getters. The frame bytes are not copied; getArray returns
+* the array holding the whole file and getFrameOffset the position of the
+* frame within it.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package Hardware;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class WireCaptureReader
+//
+
+public class WireCaptureReader extends Object{
+
+    private final byte[] data;
+    private final ByteBuffer buffer;
+
+    private final int ringSize;
+    private final long startTime;
+    private final long recordCount;
+    private final long wrapCount;
+
+    private final int head;
+    private final int lapEnd;
+
+    //true while reading the records before the ring wrapped
+    private boolean inFirstLap;
+
+    //offset in the ring of the next record
+    private int position;
+
+    //the current record
+    private int recordOffset = -1;
+    private int recordLength = 0;
+
+//-----------------------------------------------------------------------------
+// WireCaptureReader::WireCaptureReader (constructor)
+//
+// Reads pFile into memory and positions before the oldest record.
+//
+// Throws IOException if the file cannot be read or is not a capture file.
+//
+
+public WireCaptureReader(File pFile) throws IOException
+{
+
+    data = Files.readAllBytes(pFile.toPath());
+
+    buffer = ByteBuffer.wrap(data);
+
+    if (data.length < WireCapture.HEADER_SIZE
+                                || buffer.getInt(0) != WireCapture.MAGIC){
+        throw new IOException(pFile.getName() + " is not a capture file.");
+    }
+
+    if (buffer.getShort(4) != WireCapture.VERSION
+            || buffer.getShort(6) != WireCapture.HEADER_SIZE){
+        throw new IOException(pFile.getName()
+                                    + " is from an unknown capture version.");
+    }
+
+    ringSize = Math.min(buffer.getInt(WireCapture.RING_SIZE_POS),
+                                    data.length - WireCapture.HEADER_SIZE);
+
+    startTime = buffer.getLong(WireCapture.START_TIME_POS);
+    recordCount = buffer.getLong(WireCapture.RECORD_COUNT_POS);
+    wrapCount = buffer.getLong(WireCapture.WRAP_COUNT_POS);
+
+    head = buffer.getInt(WireCapture.HEAD_POS);
+    lapEnd = buffer.getInt(WireCapture.LAP_END_POS);
+
+    inFirstLap = (buffer.getInt(WireCapture.FLAGS_POS)
+                                        & WireCapture.WRAPPED_FLAG) != 0;
+
+    position = buffer.getInt(WireCapture.TAIL_POS);
+
+}//end of WireCaptureReader::WireCaptureReader (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// WireCaptureReader::next
+//
+// Moves to the next record.
+//
+// Returns true if there is one, false at the end of the capture.
+//
+
+public boolean next()
+{
+
+    if (inFirstLap && (position >= lapEnd || getLengthAt(position) == 0)){
+        inFirstLap = false;
+        position = 0;
+    }
+
+    int end = inFirstLap ? lapEnd : head;
+
+    if (position >= end) { return(false); }
+
+    int length = getLengthAt(position);
+
+    if (length < WireCapture.RECORD_HEADER_SIZE
+                                    + FrameDecoder.HEADER_AND_ID_SIZE
+            || position + length > end){
+        return(false);
+    }
+
+    recordOffset = WireCapture.HEADER_SIZE + position;
+    recordLength = length;
+
+    position += length;
+
+    return(true);
+
+}//end of WireCaptureReader::next
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// WireCaptureReader::getLengthAt
+//
+// Returns the length field of the record at pPosition in the ring, or 0 if
+// the field would run past the end of the ring.
+//
+
+private int getLengthAt(int pPosition)
+{
+
+    if (pPosition + 2 > ringSize) { return(0); }
+
+    return(buffer.getShort(WireCapture.HEADER_SIZE + pPosition) & 0xffff);
+
+}//end of WireCaptureReader::getLengthAt
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// WireCaptureReader::formatRecord
+//
+// Returns the current record as a line of text for a log: the time in
+// milliseconds, the direction, the device, and the frame in hex.
+//
+
+public String formatRecord()
+{
+
+    StringBuilder line = new StringBuilder();
+
+    line.append(String.format("%12.3f ", getTime() / 1e6));
+    line.append(isSent() ? "TX " : "RX ");
+    line.append(getDevice());
+    line.append(isBad() ? " BAD " : "     ");
+
+    int end = getFrameOffset() + getFrameLength();
+
+    for (int i = getFrameOffset(); i < end; i++){
+        line.append(String.format(" %02x", data[i] & 0xff));
+    }
+
+    return(line.toString());
+
+}//end of WireCaptureReader::formatRecord
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// WireCaptureReader::various get/set functions
+//
+
+//System.currentTimeMillis when the capture began
+public long getStartTime() { return(startTime); }
+
+//records written, including those since overwritten
+public long getRecordCount() { return(recordCount); }
+
+public long getWrapCount() { return(wrapCount); }
+
+//nanoseconds from the start of the capture to the current record
+public long getTime() { return(buffer.getLong(recordOffset + 4)); }
+
+public int getDevice() { return(data[recordOffset + 3] & 0xff); }
+
+public int getFlags() { return(data[recordOffset + 2]); }
+
+public boolean isSent() { return((getFlags() & WireCapture.SENT) != 0); }
+
+public boolean isBad() { return((getFlags() & WireCapture.BAD) != 0); }
+
+public byte[] getArray() { return(data); }
+
+public int getFrameOffset()
+                { return(recordOffset + WireCapture.RECORD_HEADER_SIZE); }
+
+public int getFrameLength()
+                { return(recordLength - WireCapture.RECORD_HEADER_SIZE); }
+
+public byte getPktID()
+    { return(data[getFrameOffset() + FrameDecoder.HEADER_AND_ID_SIZE - 1]); }
+
+//end of WireCaptureReader::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class WireCaptureReader
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,345 @@
+/******************************************************************************
+* Title: FrameCheckBenchmark.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class compares the speed at which frames can be verified using the
+* 8-bit additive checksum against the speed using the CRC-32C frame check.
+*
+* For each payload size, a block of valid frames of each kind is built in
+* memory and decoded with a FrameDecoder using verifyFrame or verifyFrameCrc
+* just as PacketHandlerRegistry does. No sockets are involved so that only the
+* cost of the checks themselves is measured.
+*
+* The raw rate at which each method can check bytes in a large buffer is also
+* reported, including the table method used on Java 8 as well as the
+* Checksum returned by Crc32c.newChecksum which is used by the FrameDecoder.
+*
+* Several warm up rounds are run first so the JIT compiler has compiled both
+* methods before timing begins.
+*
+* To run:
+*
+*   java -cp build/classes benchmark.FrameCheckBenchmark [rounds]
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package benchmark;
+
+import Hardware.Crc32c;
+import Hardware.FrameDecoder;
+import java.io.*;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class FrameCheckBenchmark
+//
+
+public class FrameCheckBenchmark extends Object{
+
+    static final byte PKT_ID = 5;
+
+    static final int WARM_UP_ROUNDS = 5;
+
+    //payload sizes: an ACK, a monitor packet, and a runtime packet
+    static final int[] PAYLOAD_SIZES = {1, 25, 2040};
+
+    //number of payload bytes in the frames of each block
+    static final int BYTES_PER_BLOCK = 4000000;
+
+    static int blackHole = 0;
+
+//-----------------------------------------------------------------------------
+// FrameCheckBenchmark::main
+//
+
+public static void main(String[] args) throws IOException
+{
+
+    int numRounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+    for (int payloadSize : PAYLOAD_SIZES){
+
+        int numFrames = BYTES_PER_BLOCK / payloadSize;
+
+        byte[] sumFrames = buildFrames(numFrames, payloadSize, false);
+        byte[] crcFrames = buildFrames(numFrames, payloadSize, true);
+
+        for (int i = 0; i < WARM_UP_ROUNDS; i++){
+            decode(sumFrames, numFrames, payloadSize, false);
+            decode(crcFrames, numFrames, payloadSize, true);
+        }
+
+        long sumNanos = 0, crcNanos = 0;
+
+        for (int i = 0; i < numRounds; i++){
+            sumNanos += decode(sumFrames, numFrames, payloadSize, false);
+            crcNanos += decode(crcFrames, numFrames, payloadSize, true);
+        }
+
+        System.out.println("payload of " + payloadSize + " bytes:");
+        report("  checksum", numFrames, payloadSize, numRounds, sumNanos);
+        report("  CRC-32C ", numFrames, payloadSize, numRounds, crcNanos);
+
+    }
+
+    compareRawRates(numRounds);
+
+    System.out.println("(ignore) " + blackHole);
+
+}//end of FrameCheckBenchmark::main
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameCheckBenchmark::buildFrames
+//
+// Returns an array containing pNumFrames valid frames each carrying
+// pPayloadSize random data bytes. The frames end with a CRC-32C if pCrc is
+// true or with the checksum otherwise.
+//
+
+static byte[] buildFrames(int pNumFrames, int pPayloadSize, boolean pCrc)
+{
+
+    int checkSize = pCrc ? Crc32c.CRC_SIZE : 1;
+
+    int frameSize = FrameDecoder.HEADER_AND_ID_SIZE + pPayloadSize + checkSize;
+
+    byte[] data = new byte[pNumFrames * frameSize];
+
+    Random random = new Random(pPayloadSize);
+
+    int x = 0;
+
+    for (int i = 0; i < pNumFrames; i++){
+
+        data[x++] = (byte)0xaa; data[x++] = (byte)0x55;
+        data[x++] = (byte)0xbb; data[x++] = (byte)0x66;
+
+        int idPos = x;
+
+        data[x++] = PKT_ID;
+
+        byte sum = PKT_ID;
+
+        for (int j = 0; j < pPayloadSize; j++){
+            data[x] = (byte)random.nextInt(256);
+            sum += data[x++];
+        }
+
+        if (pCrc){
+            int crc = Crc32c.compute(data, idPos, x - idPos);
+            data[x++] = (byte)(crc >>> 24); data[x++] = (byte)(crc >>> 16);
+            data[x++] = (byte)(crc >>> 8); data[x++] = (byte)crc;
+        }
+        else{
+            data[x++] = (byte)(0x100 - (sum & 0xff));
+        }
+
+    }
+
+    return(data);
+
+}//end of FrameCheckBenchmark::buildFrames
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameCheckBenchmark::decode
+//
+// Decodes the pNumFrames frames in pData using a FrameDecoder, verifying
+// each with the CRC if pCrc is true or with the checksum otherwise.
+//
+// Returns the time taken in nanoseconds.
+//
+
+static long decode(byte[] pData, int pNumFrames, int pPayloadSize,
+                                            boolean pCrc) throws IOException
+{
+
+    FrameDecoder decoder = new FrameDecoder(64 * 1024);
+
+    InputStream in = new ByteArrayInputStream(pData);
+
+    int checkSize = pCrc ? Crc32c.CRC_SIZE : 1;
+
+    int count = 0;
+
+    long start = System.nanoTime();
+
+    while (count < pNumFrames){
+
+        if (!decoder.fillBlocking(in, FrameDecoder.HEADER_AND_ID_SIZE)){
+            break;
+        }
+
+        if (!decoder.readHeader()) { decoder.skipToNextHeader(); continue; }
+
+        if (!decoder.fillBlocking(in, pPayloadSize + checkSize)) { break; }
+
+        boolean valid = pCrc ?
+                    decoder.verifyFrameCrc(pPayloadSize, decoder.getPktID()) :
+                    decoder.verifyFrame(pPayloadSize, decoder.getPktID());
+
+        if (!valid) { continue; }
+
+        blackHole += decoder.getByte(0); count++;
+
+    }
+
+    long elapsed = System.nanoTime() - start;
+
+    if (count != pNumFrames){
+        System.out.println("Only " + count + " of " + pNumFrames
+                                                    + " frames were valid.");
+    }
+
+    return(elapsed);
+
+}//end of FrameCheckBenchmark::decode
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameCheckBenchmark::compareRawRates
+//
+// Reports the rate at which the checksum loop, the CRC-32C table method, and
+// the CRC-32C Checksum used by the FrameDecoder each process bytes in a
+// single large buffer, without the frame handling.
+//
+
+static void compareRawRates(int pNumRounds)
+{
+
+    byte[] buf = new byte[BYTES_PER_BLOCK];
+
+    new Random(0).nextBytes(buf);
+
+    Checksum checksum = Crc32c.newChecksum();
+
+    for (int i = 0; i < WARM_UP_ROUNDS; i++){
+        blackHole += sum(buf);
+        blackHole += Crc32c.compute(buf, 0, buf.length);
+        blackHole += runChecksum(checksum, buf);
+    }
+
+    long sumNanos = 0, tableNanos = 0, checksumNanos = 0;
+
+    for (int i = 0; i < pNumRounds; i++){
+
+        long start = System.nanoTime();
+        blackHole += sum(buf);
+        sumNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        blackHole += Crc32c.compute(buf, 0, buf.length);
+        tableNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        blackHole += runChecksum(checksum, buf);
+        checksumNanos += System.nanoTime() - start;
+
+    }
+
+    System.out.println("raw rate:");
+    reportRate("  checksum        ", buf.length, pNumRounds, sumNanos);
+    reportRate("  CRC-32C table   ", buf.length, pNumRounds, tableNanos);
+    reportRate("  CRC-32C " + String.format("%-8s",
+                        checksum.getClass().getSimpleName()), buf.length,
+                        pNumRounds, checksumNanos);
+
+}//end of FrameCheckBenchmark::compareRawRates
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameCheckBenchmark::sum
+//
+// Returns the 8-bit sum of all bytes in pBuf, computed with the same loop as
+// FrameDecoder.verifyFrame.
+//
+
+static byte sum(byte[] pBuf)
+{
+
+    byte sum = 0;
+    for(int i = 0; i < pBuf.length; i++) {sum += pBuf[i];}
+
+    return(sum);
+
+}//end of FrameCheckBenchmark::sum
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameCheckBenchmark::runChecksum
+//
+// Returns the value computed by pChecksum for all bytes in pBuf.
+//
+
+static int runChecksum(Checksum pChecksum, byte[] pBuf)
+{
+
+    pChecksum.reset();
+    pChecksum.update(pBuf, 0, pBuf.length);
+
+    return((int)pChecksum.getValue());
+
+}//end of FrameCheckBenchmark::runChecksum
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameCheckBenchmark::report
+//
+// Prints the frames per second and payload megabytes per second achieved for
+// pNumFrames frames of pPayloadSize bytes decoded pNumRounds times in pNanos
+// nanoseconds.
+//
+
+static void report(String pName, int pNumFrames, int pPayloadSize,
+                                                int pNumRounds, long pNanos)
+{
+
+    double seconds = pNanos / 1e9;
+
+    double framesPerSec = (double)pNumFrames * pNumRounds / seconds;
+
+    double mbPerSec = framesPerSec * pPayloadSize / 1e6;
+
+    System.out.println(pName + " : "
+                            + String.format("%,.0f", framesPerSec)
+                            + " frames/sec, "
+                            + String.format("%,.0f", mbPerSec) + " MB/sec");
+
+}//end of FrameCheckBenchmark::report
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameCheckBenchmark::reportRate
+//
+// Prints the megabytes per second achieved for pNumBytes processed
+// pNumRounds times in pNanos nanoseconds.
+//
+
+static void reportRate(String pName, int pNumBytes, int pNumRounds,
+                                                                long pNanos)
+{
+
+    double mbPerSec = (double)pNumBytes * pNumRounds / (pNanos / 1e9) / 1e6;
+
+    System.out.println(pName + " : " + String.format("%,.0f", mbPerSec)
+                                                            + " MB/sec");
+
+}//end of FrameCheckBenchmark::reportRate
+//-----------------------------------------------------------------------------
+
+}//end of class FrameCheckBenchmark
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,286 @@
+/******************************************************************************
+* Title: FrameDecoderBenchmark.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class is a microbenchmark of frame parsing only. It compares the
+* number of frames per second which can be parsed by the FrameDecoder against
+* the previous method of reading each header byte from the stream one at a
+* time.
+*
+* A block of valid ACK packets is built in memory and sent through a loopback
+* TCP connection to be parsed by each method so that the cost of the socket
+* calls is included. Several warm up rounds are run first so the JIT compiler
+* has compiled both methods before timing begins.
+*
+* Neither loop is the actual receive path, so the numbers are not the rates
+* at which Notcher can handle packets:
+*
+*   the byte-at-a-time loop copies only the header reads of the old
+*   Notcher.processOneDataPacket. It leaves out its byteIn.available polling
+*   and 10 ms sleeps and reads the rest of each frame with readFully;
+*
+*   the FrameDecoder loop calls fillBlocking and verifyFrame directly. It
+*   leaves out the time limits of Remote.waitForBytes, the frame sizes from
+*   PacketHandlerRegistry, and the dispatch to the packet handlers.
+*
+* Both loops block until the bytes arrive, so the difference shown is that
+* of one read call per byte against one per buffer of bytes. LoadTest
+* measures the whole path.
+*
+* To run:
+*
+*   java -cp build/classes benchmark.FrameDecoderBenchmark [frames] [rounds]
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package benchmark;
+
+import Hardware.FrameDecoder;
+import java.io.*;
+import java.net.*;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class FrameDecoderBenchmark
+//
+
+public class FrameDecoderBenchmark extends Object{
+
+    static final byte ACK_CMD = 122;
+
+    static final int WARM_UP_ROUNDS = 5;
+
+    //packet size of an ACK: header, ID, one data byte, checksum
+    static final int ACK_PACKET_SIZE = 7;
+
+    static int blackHole = 0;
+
+//-----------------------------------------------------------------------------
+// FrameDecoderBenchmark::main
+//
+
+public static void main(String[] args) throws IOException
+{
+
+    int numFrames = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int numRounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    byte[] data = buildAckPackets(numFrames);
+
+    ServerSocket server =
+                    new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+    for (int i = 0; i < WARM_UP_ROUNDS; i++){
+        runRound(server, data, numFrames, false);
+        runRound(server, data, numFrames, true);
+    }
+
+    long byteAtATimeNanos = 0, frameDecoderNanos = 0;
+
+    for (int i = 0; i < numRounds; i++){
+        byteAtATimeNanos += runRound(server, data, numFrames, false);
+        frameDecoderNanos += runRound(server, data, numFrames, true);
+    }
+
+    server.close();
+
+    System.out.println("Frame parsing only -- not the full receive path:");
+
+    report("  byte-at-a-time", numFrames, numRounds, byteAtATimeNanos);
+    report("  FrameDecoder  ", numFrames, numRounds, frameDecoderNanos);
+
+    System.out.println("(ignore) " + blackHole);
+
+}//end of FrameDecoderBenchmark::main
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoderBenchmark::runRound
+//
+// Connects to pServer, has a separate thread write pData to the connection,
+// and decodes the pNumFrames packets using the FrameDecoder if
+// pUseFrameDecoder is true or the byte-at-a-time method otherwise.
+//
+// Returns the time taken in nanoseconds.
+//
+
+static long runRound(ServerSocket pServer, final byte[] pData, int pNumFrames,
+                            boolean pUseFrameDecoder) throws IOException
+{
+
+    Socket socket =
+                new Socket(pServer.getInetAddress(), pServer.getLocalPort());
+
+    final Socket remote = pServer.accept();
+
+    Thread writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+            try{
+                remote.getOutputStream().write(pData);
+                remote.close();
+            }
+            catch(IOException e){ }
+        }
+    });
+
+    long start = System.nanoTime();
+
+    writer.start();
+
+    DataInputStream byteIn = new DataInputStream(socket.getInputStream());
+
+    if (pUseFrameDecoder) { decodeWithFrameDecoder(byteIn, pNumFrames); }
+    else { decodeByteAtATime(byteIn, pNumFrames); }
+
+    long elapsed = System.nanoTime() - start;
+
+    socket.close();
+
+    try { writer.join(); } catch (InterruptedException e) { }
+
+    return(elapsed);
+
+}//end of FrameDecoderBenchmark::runRound
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoderBenchmark::buildAckPackets
+//
+// Returns an array containing pNumFrames valid ACK packets.
+//
+
+static byte[] buildAckPackets(int pNumFrames)
+{
+
+    byte[] data = new byte[pNumFrames * ACK_PACKET_SIZE];
+
+    int x = 0;
+
+    for (int i = 0; i < pNumFrames; i++){
+
+        byte ackedCmd = (byte)(i % 100);
+
+        data[x++] = (byte)0xaa; data[x++] = (byte)0x55;
+        data[x++] = (byte)0xbb; data[x++] = (byte)0x66;
+        data[x++] = ACK_CMD;
+        data[x++] = ackedCmd;
+        data[x++] = (byte)(0x100 - ((ACK_CMD + ackedCmd) & 0xff));
+
+    }
+
+    return(data);
+
+}//end of FrameDecoderBenchmark::buildAckPackets
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoderBenchmark::decodeByteAtATime
+//
+// Parses pNumFrames packets from pIn using the header parsing previously
+// used by Notcher.processOneDataPacket -- each header byte is read from the
+// stream by a separate call. The polling of byteIn.available which preceded
+// it is left out.
+//
+
+static void decodeByteAtATime(DataInputStream byteIn, int pNumFrames)
+                                                            throws IOException
+{
+
+    byte[] inBuffer = new byte[2048];
+
+    int count = 0;
+
+    while (count < pNumFrames){
+
+        byteIn.read(inBuffer, 0, 1);
+        if (inBuffer[0] != (byte)0xaa) { continue; }
+        byteIn.read(inBuffer, 0, 1);
+        if (inBuffer[0] != (byte)0x55) { continue; }
+        byteIn.read(inBuffer, 0, 1);
+        if (inBuffer[0] != (byte)0xbb) { continue; }
+        byteIn.read(inBuffer, 0, 1);
+        if (inBuffer[0] != (byte)0x66) { continue; }
+
+        byteIn.read(inBuffer, 0, 1);
+        byte pktID = inBuffer[0];
+
+        byteIn.readFully(inBuffer, 0, 2);
+
+        byte sum = 0;
+        for(int i = 0; i < 2; i++) {sum += inBuffer[i];}
+        if (((pktID + sum) & 0xff) != 0) { continue; }
+
+        blackHole += inBuffer[0]; count++;
+
+    }
+
+}//end of FrameDecoderBenchmark::decodeByteAtATime
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoderBenchmark::decodeWithFrameDecoder
+//
+// Parses pNumFrames packets from pIn using a FrameDecoder. Only the decoder
+// calls which Notcher makes for each frame are used; the time limits and the
+// dispatch to the packet handlers are left out.
+//
+
+static void decodeWithFrameDecoder(DataInputStream byteIn, int pNumFrames)
+                                                            throws IOException
+{
+
+    FrameDecoder decoder = new FrameDecoder(2048);
+
+    int count = 0;
+
+    while (count < pNumFrames){
+
+        if (decoder.getNumBuffered() < 5 && !decoder.fillBlocking(byteIn, 5)){
+            break;
+        }
+
+        if (!decoder.readHeader()) { decoder.skipToNextHeader(); continue; }
+
+        if (!decoder.fillBlocking(byteIn, 2)) { break; }
+
+        if (!decoder.verifyFrame(1, decoder.getPktID())) { continue; }
+
+        blackHole += decoder.getByte(0); count++;
+
+    }
+
+}//end of FrameDecoderBenchmark::decodeWithFrameDecoder
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FrameDecoderBenchmark::report
+//
+// Prints the frames per second achieved for pNumFrames decoded pNumRounds
+// times in pNanos nanoseconds.
+//
+
+static void report(String pName, int pNumFrames, int pNumRounds, long pNanos)
+{
+
+    double framesPerSec = (double)pNumFrames * pNumRounds / (pNanos / 1e9);
+
+    System.out.println(pName + " : " + String.format("%,.0f", framesPerSec)
+                                                        + " frames/sec");
+
+}//end of FrameDecoderBenchmark::report
+//-----------------------------------------------------------------------------
+
+}//end of class FrameDecoderBenchmark
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -0,0 +1,135 @@
+/******************************************************************************
+* Title: LatencyRecorder.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class records latencies for the LoadTest and reports their
+* percentiles.
+*
+* Unlike RoundTripStats, which only counts each time in a power of two
+* bucket so it can run for the life of the program, every time is kept so
+* the percentiles are exact. A p99 that is only known to within a factor of
+* two cannot show a regression of less than that. A test run records at most
+* a few million times, which take a few megabytes.
+*
+* The times are added by the threads which complete the commands and read
+* once the run is over, so all methods are synchronized.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package benchmark;
+
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class LatencyRecorder
+//
+
+public class LatencyRecorder extends Object{
+
+    private long[] samples = new long[1024];
+    private int count = 0;
+
+    //true if samples is in order
+    private boolean sorted = true;
+
+//-----------------------------------------------------------------------------
+// LatencyRecorder::add
+//
+// Adds the time pNanos in nanoseconds.
+//
+
+public synchronized void add(long pNanos)
+{
+
+    if (count == samples.length){
+        samples = Arrays.copyOf(samples, count * 2);
+    }
+
+    samples[count++] = pNanos;
+
+    sorted = false;
+
+}//end of LatencyRecorder::add
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LatencyRecorder::addAll
+//
+// Adds all the times recorded by pOther.
+//
+
+public void addAll(LatencyRecorder pOther)
+{
+
+    long[] others;
+
+    synchronized(pOther){
+        others = Arrays.copyOf(pOther.samples, pOther.count);
+    }
+
+    synchronized(this){
+
+        if (count + others.length > samples.length){
+            samples = Arrays.copyOf(samples,
+                        Math.max(count + others.length, samples.length * 2));
+        }
+
+        System.arraycopy(others, 0, samples, count, others.length);
+
+        count += others.length;
+
+        sorted = false;
+
+    }
+
+}//end of LatencyRecorder::addAll
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LatencyRecorder::getPercentileNanos
+//
+// Returns the time in nanoseconds within which pFraction of all times fell,
+// such as 0.99 for the 99th percentile, using the nearest rank.
+//
+// Returns 0 if no times have been added.
+//
+
+public synchronized long getPercentileNanos(double pFraction)
+{
+
+    if (count == 0) { return(0); }
+
+    if (!sorted) { Arrays.sort(samples, 0, count); sorted = true; }
+
+    int rank = (int)Math.ceil(count * pFraction);
+
+    return(samples[Math.max(0, Math.min(count, rank) - 1)]);
+
+}//end of LatencyRecorder::getPercentileNanos
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LatencyRecorder::various get/set functions
+//
+
+public synchronized int getCount() { return(count); }
+
+public long getMaxNanos() { return(getPercentileNanos(1.0)); }
+
+//end of LatencyRecorder::various get/set functions
+//-----------------------------------------------------------------------------
+
+}//end of class LatencyRecorder
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
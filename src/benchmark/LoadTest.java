@@ -0,0 +1,879 @@
+/******************************************************************************
+* Title: LoadTest.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class runs the hardware layer against simulated units from the
+* command line, with no GUI, and reports the throughput and latency it
+* achieved. It is used to catch performance regressions and to size the
+* number of units one station can run.
+*
+* The settings are read from General Settings.ini as usual and then changed
+* in memory -- the file is not altered -- so that "units" simulated units are
+* used, each pushing a monitor packet every "monitor" milliseconds and
+* streaming "encoder" encoder samples per second. The pushed packets must be
+* read as they arrive, so device threads are used unless "transport" is
+* "selector"; the selector transport needs sockets, so the simulators are
+* then reached over TCP. Every other setting, such as the simulator farm,
+* TCP, or fault injection, is taken from the file and may be changed for the
+* run by passing its name and value.
+*
+* Once connected, each unit is sent "rate" commands per second, chosen at
+* random in the proportions given by "mix", from a single driver thread for
+* "warmup" seconds so the JIT compiler has compiled the code, then for
+* "seconds" seconds which are measured. The commands are:
+*
+*   depth -- set target depth, acknowledged
+*   power -- electrode power on or off, acknowledged
+*   test  -- test set value, acknowledged
+*
+* The commands are sent on schedule whether or not the earlier ones have
+* completed and each round trip time is measured from when the command was
+* due rather than when it was sent, so a stall shows in the times of all the
+* commands held up by it rather than in just one. A unit with MAX_OUTSTANDING
+* commands not yet completed is skipped until some complete; skipped
+* commands are counted.
+*
+* At the end, the following are printed for the measured period:
+*
+*   frames per second received, in total and for each unit;
+*
+*   the round trip times of the commands completed at the 50th, 99th, and
+*   99.9th percentile -- those which failed or never completed are counted
+*   separately;
+*
+*   the number, total, and longest of the garbage collection pauses;
+*
+*   the CPU used by the process, by the simulators, by the host threads
+*   shared by all units, and by each unit's own reader and I/O threads, in
+*   percent of one core; the host CPU per unit is that of the process less
+*   the simulators, divided by the number of units, and so includes the
+*   garbage collector and JIT compiler. Virtual threads, used for device
+*   threads on Java 21 or later, are not counted for each unit.
+*
+* The exit status is 1 if fewer units were found than asked for, if any
+* command failed or did not complete, or if the 99th percentile exceeded
+* "maxp99" milliseconds when given; otherwise 0.
+*
+* To run, from the folder holding General Settings.ini:
+*
+*   java -cp build/classes benchmark.LoadTest [name=value ...]
+*
+*   units=4 seconds=10 warmup=2 monitor=10 encoder=0 rate=100
+*   mix=depth:8,test:2 transport=threads maxp99=0
+*
+* Any other name is a setting in the [Hardware] section, quoted if it holds
+* spaces, such as "Simulator Farm Threads=2".
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package benchmark;
+
+import Hardware.Ack;
+import Hardware.DeviceThreads;
+import Hardware.Notcher;
+import Hardware.NotcherGroup;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import model.IniFile;
+import view.ThreadSafeLogger;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class LoadTest
+//
+
+public class LoadTest extends Object{
+
+    //the workload
+    int numUnits = 4;
+    int seconds = 10;
+    int warmUp = 2;
+    int monitorInterval = 10;
+    int encoderRate = 0;
+    int cmdRate = 100;
+    String mix = "depth:8,test:2";
+    boolean useSelector = false;
+    double maxP99 = 0;
+
+    //settings to change in the [Hardware] section, in order given
+    final List<String[]> settings = new ArrayList<>();
+
+    static final String[] CMD_NAMES = {"depth", "power", "test"};
+
+    //the command index for each of 100 slots, filled in the mix proportions
+    final int[] cmdSlots = new int[100];
+
+    //commands not yet completed beyond which a unit is skipped
+    static final int MAX_OUTSTANDING = 256;
+
+    //milliseconds to wait at the end for the commands still outstanding
+    static final int DRAIN_TIME = 5000;
+
+    NotcherGroup group;
+
+    //the units which connected and the index of each in the group
+    Notcher[] units;
+    int[] unitIndexes;
+
+    Thread driver;
+    volatile boolean driverRunning = false;
+    final Random random = new Random(1);
+
+    //the measured period; commands due within it are recorded
+    volatile long measureStart = Long.MAX_VALUE;
+    volatile long measureEnd = Long.MAX_VALUE;
+
+    //commands not yet completed for each unit
+    AtomicInteger[] outstanding;
+
+    LatencyRecorder[] latencies;
+
+    //the counters over the measured period, set by runWorkload
+    long[] frameDeltas;
+    Map<Long, Long> cpuDeltas;
+    final Map<Long, String> threadNames = new HashMap<>();
+    long processCpuDelta;
+
+    final AtomicLong sentCount = new AtomicLong();
+    final AtomicLong completedCount = new AtomicLong();
+    final AtomicLong failedCount = new AtomicLong();
+    final AtomicLong skippedCount = new AtomicLong();
+
+    //the garbage collection pauses during the measured period
+    long gcPauseCount = 0, gcPauseMillis = 0, gcMaxPauseMillis = 0;
+
+    final List<NotificationEmitter> gcEmitters = new ArrayList<>();
+    NotificationListener gcListener;
+
+    static final Pattern UNIT_THREAD = Pattern.compile("Notcher (\\d+) .*");
+
+//-----------------------------------------------------------------------------
+// LoadTest::main
+//
+
+public static void main(String[] args)
+{
+
+    LoadTest test = new LoadTest();
+
+    if (!test.parseArgs(args)) {
+        System.out.println("Usage: java -cp build/classes benchmark.LoadTest"
+                    + " [units=4] [seconds=10] [warmup=2] [monitor=10]"
+                    + " [encoder=0] [rate=100] [mix=depth:8,test:2]"
+                    + " [transport=threads|selector] [maxp99=ms]"
+                    + " [\"Setting Name=value\" ...]");
+        System.exit(2);
+    }
+
+    System.exit(test.run() ? 0 : 1);
+
+}//end of LoadTest::main
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::parseArgs
+//
+// Sets the workload from the name=value pairs in pArgs.
+//
+// Returns false if any argument is invalid.
+//
+
+boolean parseArgs(String[] pArgs)
+{
+
+    try{
+        for (String arg : pArgs){
+
+            int equals = arg.indexOf('=');
+            if (equals <= 0) { return(false); }
+
+            String name = arg.substring(0, equals).trim();
+            String value = arg.substring(equals + 1).trim();
+
+            switch (name){
+                case "units": numUnits = Integer.parseInt(value); break;
+                case "seconds": seconds = Integer.parseInt(value); break;
+                case "warmup": warmUp = Integer.parseInt(value); break;
+                case "monitor": monitorInterval = Integer.parseInt(value);
+                                                                        break;
+                case "encoder": encoderRate = Integer.parseInt(value); break;
+                case "rate": cmdRate = Integer.parseInt(value); break;
+                case "mix": mix = value; break;
+                case "transport": useSelector = value.equals("selector");
+                                                                        break;
+                case "maxp99": maxP99 = Double.parseDouble(value); break;
+                default: settings.add(new String[] {name, value}); break;
+            }
+
+        }
+    }
+    catch(NumberFormatException e){
+        return(false);
+    }
+
+    return(numUnits > 0 && seconds > 0 && warmUp >= 0 && cmdRate >= 0
+                                                            && parseMix());
+
+}//end of LoadTest::parseArgs
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::parseMix
+//
+// Fills cmdSlots with the commands in mix, a list of name:weight pairs, in
+// proportion to their weights.
+//
+// Returns false if the mix is invalid.
+//
+
+boolean parseMix()
+{
+
+    int[] weights = new int[CMD_NAMES.length];
+    int total = 0;
+
+    try{
+        for (String entry : mix.split(",")){
+
+            String[] parts = entry.split(":");
+            int cmd = Arrays.asList(CMD_NAMES).indexOf(parts[0]);
+            if (cmd < 0) { return(false); }
+
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+            if (weight < 0) { return(false); }
+
+            weights[cmd] += weight; total += weight;
+
+        }
+    }
+    catch(NumberFormatException e){
+        return(false);
+    }
+
+    if (total == 0) { return(false); }
+
+    int slot = 0, sum = 0;
+
+    for (int cmd = 0; cmd < CMD_NAMES.length; cmd++){
+        sum += weights[cmd];
+        while (slot < cmdSlots.length * sum / total) { cmdSlots[slot++] = cmd; }
+    }
+
+    return(true);
+
+}//end of LoadTest::parseMix
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::run
+//
+// Connects to the simulated units, runs the workload, and prints the results.
+//
+// Returns true if the run passed.
+//
+
+boolean run()
+{
+
+    ThreadSafeLogger tsLog = new ThreadSafeLogger(null);
+    tsLog.init();
+
+    IniFile configFile = new IniFile("General Settings.ini", "UTF-8");
+
+    try{
+        configFile.init();
+    }
+    catch(IOException e){
+        System.out.println("Cannot read General Settings.ini.");
+        return(false);
+    }
+
+    applySettings(configFile);
+
+    System.out.println(String.format("Load test: %d units, %d s measured"
+            + " after %d s warm up, %d commands/s per unit (%s),"
+            + " monitor push %d ms, encoder %d samples/s, %s.",
+            numUnits, seconds, warmUp, cmdRate, mix, monitorInterval,
+            encoderRate,
+            useSelector ? "selector transport" : "device threads"));
+
+    group = new NotcherGroup(tsLog);
+    group.init(configFile);
+
+    long connectStart = System.nanoTime();
+
+    group.connect();
+
+    long connectMillis = (System.nanoTime() - connectStart) / 1000000;
+
+    List<Notcher> found = new ArrayList<>();
+    List<Integer> indexes = new ArrayList<>();
+
+    for (int i = 0; i < group.getNumberOfNotchers(); i++){
+        Notcher notcher = group.getNotcher(i);
+        if (notcher != null && notcher.isReady()) {
+            found.add(notcher); indexes.add(i);
+        }
+    }
+
+    units = found.toArray(new Notcher[found.size()]);
+
+    unitIndexes = new int[units.length];
+    for (int i = 0; i < units.length; i++){ unitIndexes[i] = indexes.get(i); }
+
+    System.out.println(String.format("Connected %d of %d units in %d ms.",
+                                    units.length, numUnits, connectMillis));
+
+    if (units.length == 0) { group.shutDown(); return(false); }
+
+    startGcListener();
+
+    runWorkload();
+
+    group.shutDown();
+
+    stopGcListener();
+
+    return(units.length == numUnits && report());
+
+}//end of LoadTest::run
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::applySettings
+//
+// Changes the settings in pConfigFile for the workload. The file is not
+// saved.
+//
+
+void applySettings(IniFile pConfigFile)
+{
+
+    pConfigFile.writeBoolean("Hardware", "Simulate Notchers", true);
+    pConfigFile.writeInt("Hardware", "Simulated Notcher Count", numUnits);
+    pConfigFile.writeInt("Hardware", "Max Notcher Count",
+        Math.max(numUnits,
+                pConfigFile.readInt("Hardware", "Max Notcher Count", 10)));
+    pConfigFile.writeBoolean("Hardware", "Use Selector Transport",
+                                                                useSelector);
+    pConfigFile.writeBoolean("Hardware", "Use Device Threads", !useSelector);
+    pConfigFile.writeBoolean("Hardware", "Simulate Over TCP", useSelector);
+    pConfigFile.writeInt("Hardware", "Monitor Push Interval", monitorInterval);
+    pConfigFile.writeInt("Hardware", "Encoder Stream Rate", encoderRate);
+
+    for (String[] setting : settings){
+        pConfigFile.writeString("Hardware", setting[0], setting[1]);
+    }
+
+}//end of LoadTest::applySettings
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::runWorkload
+//
+// Sends the commands through the warm up and measured periods, recording
+// the counters and CPU times at either end of the measured period, then
+// waits for the commands still outstanding.
+//
+
+void runWorkload()
+{
+
+    int n = units.length;
+
+    outstanding = new AtomicInteger[n];
+    latencies = new LatencyRecorder[n];
+
+    for (int i = 0; i < n; i++){
+        outstanding[i] = new AtomicInteger();
+        latencies[i] = new LatencyRecorder();
+    }
+
+    driverRunning = true;
+
+    driver = DeviceThreads.newThreadFactory("Load Driver", false)
+                                                        .newThread(this::drive);
+    driver.start();
+
+    sleep(warmUp * 1000L);
+
+    long[] startFrames = getFrameCounts();
+    Map<Long, Long> startCpu = getThreadCpuTimes();
+    long startProcessCpu = getProcessCpuTime();
+    measureStart = System.nanoTime();
+
+    sleep(seconds * 1000L);
+
+    measureEnd = System.nanoTime();
+    long endProcessCpu = getProcessCpuTime();
+    Map<Long, Long> endCpu = getThreadCpuTimes();
+    long[] endFrames = getFrameCounts();
+
+    driverRunning = false;
+
+    try { driver.join(); } catch (InterruptedException e) { }
+
+    long drainEnd = System.nanoTime() + DRAIN_TIME * 1000000L;
+
+    while (getOutstanding() > 0 && System.nanoTime() < drainEnd){ sleep(10); }
+
+    frameDeltas = new long[n];
+    for (int i = 0; i < n; i++){
+        frameDeltas[i] = endFrames[i] - startFrames[i];
+    }
+
+    cpuDeltas = new HashMap<>();
+    for (Map.Entry<Long, Long> entry : endCpu.entrySet()){
+        Long start = startCpu.get(entry.getKey());
+        cpuDeltas.put(entry.getKey(),
+                        entry.getValue() - (start == null ? 0 : start));
+    }
+
+    processCpuDelta = endProcessCpu - startProcessCpu;
+
+}//end of LoadTest::runWorkload
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::drive
+//
+// This is the driver thread code. It sends the commands to the units in
+// turn, each unit's commands cmdRate per second and the units staggered
+// evenly across that period so the commands do not bunch, until
+// driverRunning is cleared.
+//
+// The time each command is due is worked out from the start rather than
+// from when the one before was sent, so if the thread falls behind it sends
+// the late commands at once and their times include the delay.
+//
+
+void drive()
+{
+
+    if (cmdRate == 0) { return; }
+
+    long period = 1000000000L / cmdRate;
+    int n = units.length;
+
+    long start = System.nanoTime();
+
+    for (long i = 0; driverRunning; i++){
+
+        long due = start + i * period / n;
+
+        long wait = due - System.nanoTime();
+
+        if (wait > 0) { LockSupport.parkNanos(wait); }
+
+        sendCmd((int)(i % n), due);
+
+    }
+
+}//end of LoadTest::drive
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::sendCmd
+//
+// Sends the next command to unit pUnit, due at System.nanoTime pDue. Records
+// the time from when the command was due until it completed if it was due in
+// the measured period.
+//
+
+void sendCmd(final int pUnit, final long pDue)
+{
+
+    if (outstanding[pUnit].get() >= MAX_OUTSTANDING){
+        if (isMeasured(pDue)) { skippedCount.incrementAndGet(); }
+        return;
+    }
+
+    Notcher notcher = units[pUnit];
+
+    CompletableFuture<Ack> future;
+
+    switch (CMD_NAMES[cmdSlots[random.nextInt(cmdSlots.length)]]){
+        case "depth":
+            future = notcher.setTargetDepthAsync(random.nextInt(10000));
+            break;
+        case "power":
+            future = notcher.sendElectrodePowerOnOffCmdAsync(
+                            random.nextBoolean() ? Notcher.ON : Notcher.OFF);
+            break;
+        default:
+            future = notcher.sendTestSetValueCmdAsync((byte)1,
+                                                        random.nextInt());
+            break;
+    }
+
+    outstanding[pUnit].incrementAndGet();
+
+    final boolean measured = isMeasured(pDue);
+
+    if (measured) { sentCount.incrementAndGet(); }
+
+    future.whenComplete((ack, e) -> {
+
+        long roundTrip = System.nanoTime() - pDue;
+
+        outstanding[pUnit].decrementAndGet();
+
+        if (!measured) { return; }
+
+        if (e != null) { failedCount.incrementAndGet(); return; }
+
+        completedCount.incrementAndGet();
+        latencies[pUnit].add(roundTrip);
+
+    });
+
+}//end of LoadTest::sendCmd
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::isMeasured
+//
+// Returns true if a command due at pDue falls in the measured period.
+//
+
+boolean isMeasured(long pDue)
+{
+
+    return(pDue >= measureStart && pDue < measureEnd);
+
+}//end of LoadTest::isMeasured
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::getOutstanding
+//
+// Returns the number of commands sent to all units not yet completed.
+//
+
+int getOutstanding()
+{
+
+    int total = 0;
+
+    for (AtomicInteger count : outstanding) { total += count.get(); }
+
+    return(total);
+
+}//end of LoadTest::getOutstanding
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::getFrameCounts
+//
+// Returns the number of packets handled so far for each unit.
+//
+
+long[] getFrameCounts()
+{
+
+    long[] counts = new long[units.length];
+
+    for (int i = 0; i < units.length; i++){
+        counts[i] = units[i].getHandledPacketCount();
+    }
+
+    return(counts);
+
+}//end of LoadTest::getFrameCounts
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::getThreadCpuTimes
+//
+// Returns the CPU time in nanoseconds used so far by each live thread, by
+// thread ID, and records the name of each thread.
+//
+
+Map<Long, Long> getThreadCpuTimes()
+{
+
+    Map<Long, Long> times = new HashMap<>();
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    if (!threads.isThreadCpuTimeSupported()) { return(times); }
+
+    for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())){
+
+        if (info == null) { continue; }
+
+        long time = threads.getThreadCpuTime(info.getThreadId());
+
+        if (time < 0) { continue; }
+
+        times.put(info.getThreadId(), time);
+        threadNames.put(info.getThreadId(), info.getThreadName());
+
+    }
+
+    return(times);
+
+}//end of LoadTest::getThreadCpuTimes
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::getProcessCpuTime
+//
+// Returns the CPU time in nanoseconds used so far by the process, including
+// the garbage collector and JIT compiler, or 0 if not known.
+//
+
+long getProcessCpuTime()
+{
+
+    java.lang.management.OperatingSystemMXBean os =
+                                ManagementFactory.getOperatingSystemMXBean();
+
+    if (!(os instanceof com.sun.management.OperatingSystemMXBean)) {
+        return(0);
+    }
+
+    return(((com.sun.management.OperatingSystemMXBean)os)
+                                                        .getProcessCpuTime());
+
+}//end of LoadTest::getProcessCpuTime
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::startGcListener
+//
+// Starts counting the garbage collection pauses which end in the measured
+// period. Collectors which report whole concurrent cycles rather than
+// pauses, such as "ZGC Cycles", are not counted.
+//
+
+void startGcListener()
+{
+
+    gcListener = (Notification pNotification, Object pHandback) -> {
+
+        if (!pNotification.getType().equals(GarbageCollectionNotificationInfo
+                                .GARBAGE_COLLECTION_NOTIFICATION)) { return; }
+
+        long now = System.nanoTime();
+
+        if (now < measureStart || now >= measureEnd) { return; }
+
+        GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from(
+                                (CompositeData)pNotification.getUserData());
+
+        long millis = info.getGcInfo().getDuration();
+
+        synchronized(this){
+            gcPauseCount++;
+            gcPauseMillis += millis;
+            gcMaxPauseMillis = Math.max(gcMaxPauseMillis, millis);
+        }
+
+    };
+
+    for (GarbageCollectorMXBean bean :
+                            ManagementFactory.getGarbageCollectorMXBeans()){
+
+        if (bean.getName().endsWith("Cycles")) { continue; }
+
+        if (bean instanceof NotificationEmitter){
+            ((NotificationEmitter)bean).addNotificationListener(
+                                                    gcListener, null, null);
+            gcEmitters.add((NotificationEmitter)bean);
+        }
+
+    }
+
+}//end of LoadTest::startGcListener
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::stopGcListener
+//
+// Stops counting the garbage collection pauses.
+//
+
+void stopGcListener()
+{
+
+    for (NotificationEmitter emitter : gcEmitters){
+        try{
+            emitter.removeNotificationListener(gcListener);
+        }
+        catch(javax.management.ListenerNotFoundException e){ }
+    }
+
+}//end of LoadTest::stopGcListener
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::report
+//
+// Prints the results of the measured period.
+//
+// Returns false if any command failed or did not complete or if the 99th
+// percentile exceeded maxP99.
+//
+
+boolean report()
+{
+
+    double elapsed = (measureEnd - measureStart) / 1e9;
+
+    int n = units.length;
+
+    LatencyRecorder all = new LatencyRecorder();
+    for (LatencyRecorder unit : latencies) { all.addAll(unit); }
+
+    long totalFrames = 0;
+    for (long frames : frameDeltas) { totalFrames += frames; }
+
+    //sort the CPU time of each thread into its unit, the simulators, or the
+    //threads the host shares among all units
+
+    long[] unitCpu = new long[n];
+    long simulatorCpu = 0, sharedCpu = 0;
+
+    for (Map.Entry<Long, Long> entry : cpuDeltas.entrySet()){
+
+        String name = threadNames.get(entry.getKey());
+        Matcher matcher = UNIT_THREAD.matcher(name);
+
+        if (matcher.matches()){
+            int index = Integer.parseInt(matcher.group(1));
+            for (int i = 0; i < n; i++){
+                if (unitIndexes[i] == index) { unitCpu[i] += entry.getValue(); }
+            }
+        }
+        else if (name.startsWith("Simulator") || name.startsWith("Roll Call")){
+            simulatorCpu += entry.getValue();
+        }
+        else { sharedCpu += entry.getValue(); }
+
+    }
+
+    long unfinished = sentCount.get() - completedCount.get()
+                                                        - failedCount.get();
+
+    System.out.println();
+    System.out.println(String.format("frames/sec          : %,.0f",
+                                                    totalFrames / elapsed));
+    System.out.println(String.format("commands            : %d sent,"
+            + " %d completed, %d failed, %d unfinished, %d skipped",
+            sentCount.get(), completedCount.get(), failedCount.get(),
+            unfinished, skippedCount.get()));
+    System.out.println(String.format("command RTT (ms)    : p50 %.3f"
+            + "  p99 %.3f  p999 %.3f  max %.3f",
+            all.getPercentileNanos(0.50) / 1e6,
+            all.getPercentileNanos(0.99) / 1e6,
+            all.getPercentileNanos(0.999) / 1e6,
+            all.getMaxNanos() / 1e6));
+
+    synchronized(this){
+        System.out.println(String.format("GC pauses           : %d,"
+                + " total %d ms, longest %d ms",
+                gcPauseCount, gcPauseMillis, gcMaxPauseMillis));
+    }
+
+    System.out.println(String.format("CPU (%% of one core) : process %.1f,"
+            + " simulators %.1f, shared host threads %.1f",
+            percentOfCore(processCpuDelta, elapsed),
+            percentOfCore(simulatorCpu, elapsed),
+            percentOfCore(sharedCpu, elapsed)));
+    System.out.println(String.format(
+            "host CPU per unit   : %.2f %% of one core",
+            percentOfCore(processCpuDelta - simulatorCpu, elapsed) / n));
+
+    System.out.println();
+    System.out.println(
+                    "unit  frames/sec  commands   p99 ms  own threads CPU %");
+
+    for (int i = 0; i < n; i++){
+        System.out.println(String.format("%4d  %10.0f  %8d  %7.3f  %17.1f",
+                unitIndexes[i], frameDeltas[i] / elapsed,
+                latencies[i].getCount(),
+                latencies[i].getPercentileNanos(0.99) / 1e6,
+                percentOfCore(unitCpu[i], elapsed)));
+    }
+
+    boolean passed = failedCount.get() == 0 && unfinished == 0;
+
+    if (maxP99 > 0 && all.getPercentileNanos(0.99) / 1e6 > maxP99){
+        System.out.println(String.format(
+                            "p99 exceeds the limit of %.3f ms.", maxP99));
+        passed = false;
+    }
+
+    return(passed);
+
+}//end of LoadTest::report
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::percentOfCore
+//
+// Returns pNanos of CPU time used over pSeconds in percent of one core.
+//
+
+static double percentOfCore(long pNanos, double pSeconds)
+{
+
+    return(pNanos / 1e9 / pSeconds * 100);
+
+}//end of LoadTest::percentOfCore
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// LoadTest::sleep
+//
+// Sleeps for pMillis milliseconds.
+//
+
+static void sleep(long pMillis)
+{
+
+    try{
+        Thread.sleep(pMillis);
+    }
+    catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+    }
+
+}//end of LoadTest::sleep
+//-----------------------------------------------------------------------------
+
+}//end of class LoadTest
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
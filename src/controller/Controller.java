@@ -36,11 +36,15 @@
 
 package controller;
 
+import Hardware.FirmwareInstaller;
+import Hardware.FirmwareScheduler;
 import Hardware.NotcherGroup;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import model.ADataClass;
@@ -67,6 +71,10 @@ public class Controller implements EventProcessor
     
     private NotcherEventHandler[] notcherEventHandlers;
 
+    //the firmware install in progress or last run, null if none
+    private FirmwareScheduler firmwareScheduler;
+    private boolean firmwareProgressFinished = false;
+
     private final Boolean blinkStatusLabel = false;
 
     private String errorMessage;
@@ -216,6 +224,16 @@ public void actionPerformed(ActionEvent e)
         saveDataToFile();
     }
 
+    if ("Install Firmware".equals(e.getActionCommand())) {installFirmware();}
+
+    if ("Cancel Firmware Install".equals(e.getActionCommand())){
+        cancelFirmwareInstall();
+    }
+
+    if ("Close Firmware Progress".equals(e.getActionCommand())){
+        view.closeFirmwareProgress();
+    }
+
 }//end of Controller::actionPerformed
 //-----------------------------------------------------------------------------
 
@@ -275,6 +293,8 @@ public void doTimerActions()
 {
   
     if (createNotcherControllersTrigger) { createNotcherEventHandlers(); }
+
+    updateFirmwareProgress();
     
     if (notcherEventHandlers == null) { return; }
     
@@ -287,6 +307,102 @@ public void doTimerActions()
 }//end of Controller::doTimerActions
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// Controller::installFirmware
+//
+// Asks the user for a firmware image file and starts installing it in all
+// connected units. The installs run in the background; their progress is
+// displayed by updateFirmwareProgress.
+//
+
+private void installFirmware()
+{
+
+    if (firmwareScheduler != null && !firmwareScheduler.isDone()){
+        displayErrorMessage("A firmware install is already in progress.");
+        return;
+    }
+
+    File file = view.chooseFirmwareFile();
+
+    if (file == null) { return; }
+
+    FirmwareScheduler scheduler = notcherHandler.installFirmware(file);
+
+    if (scheduler == null){
+        displayErrorMessage("Could not read firmware file " + file.getName()
+                                                                    + ".");
+        return;
+    }
+
+    ArrayList<FirmwareInstaller> installers = scheduler.getInstallers();
+
+    if (installers.isEmpty()){
+        displayErrorMessage("No connected unit accepts firmware installs.");
+        return;
+    }
+
+    String[] names = new String[installers.size()];
+
+    for (int i = 0; i < names.length; i++){
+        names[i] = installers.get(i).getName();
+    }
+
+    firmwareScheduler = scheduler;
+    firmwareProgressFinished = false;
+
+    view.displayFirmwareProgress(names);
+
+}//end of Controller::installFirmware
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Controller::updateFirmwareProgress
+//
+// Displays the progress of the firmware install, if one is running. Called
+// by the timer.
+//
+
+private void updateFirmwareProgress()
+{
+
+    if (firmwareScheduler == null || firmwareProgressFinished) { return; }
+
+    ArrayList<FirmwareInstaller> installers =
+                                            firmwareScheduler.getInstallers();
+
+    for (int i = 0; i < installers.size(); i++){
+        FirmwareInstaller installer = installers.get(i);
+        view.updateFirmwareProgress(i, installer.getPercentComplete(),
+                                                    installer.getMessage());
+    }
+
+    int installed = firmwareScheduler.countInState(FirmwareInstaller.INSTALLED);
+    int failed = firmwareScheduler.countInState(FirmwareInstaller.FAILED);
+
+    firmwareProgressFinished = firmwareScheduler.isDone();
+
+    view.setFirmwareSummary(installed + " of " + installers.size()
+                    + " installed, " + failed + " failed",
+                    firmwareProgressFinished);
+
+}//end of Controller::updateFirmwareProgress
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// Controller::cancelFirmwareInstall
+//
+// Stops the firmware install in all units which have not finished.
+//
+
+private void cancelFirmwareInstall()
+{
+
+    if (firmwareScheduler != null) { firmwareScheduler.cancelAll(); }
+
+}//end of Controller::cancelFirmwareInstall
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // Controller::displayLog
 //
@@ -20,7 +20,9 @@
 
 package controller;
 
+import Hardware.MonitorPacket;
 import Hardware.Notcher;
+import Hardware.RoundTripStats;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowEvent;
@@ -46,6 +48,9 @@ public class NotcherEventHandler implements EventProcessor, Runnable
     private final View view;
 
     private final Notcher notcher;
+
+    //reused each timer tick to receive the latest monitor values
+    private final MonitorPacket monitorPacket = new MonitorPacket();
     
     private Options options;
     
@@ -58,6 +63,9 @@ public class NotcherEventHandler implements EventProcessor, Runnable
     private SwingWorker workerThread;
 
     private DecimalFormat decimalFormat1 = new DecimalFormat("#.0");
+    private final DecimalFormat msFormat = new DecimalFormat("0.00");
+
+    private static final Color LINK_OK_COLOR = new Color(0, 128, 0);
 
     private Font tSafeFont;
     private String tSafeText;
@@ -192,21 +200,25 @@ public void actionPerformed(ActionEvent e)
 // the value to the notcher.
 // Displays an error message if the sending of the data failed.
 //
+// The command is sent asynchronously so the GUI does not freeze while waiting
+// for the notcher to acknowledge it. The result is handled on the EDT.
+//
 
 public void changeElectrodePowerState(){
 
-    boolean success;
-    
-    if (notcherUI.getElectrodePowerBtnState()) {
-        success = notcher.sendElectrodePowerOnOffCmd(Notcher.ON);
-    }
-    else {
-        success = notcher.sendElectrodePowerOnOffCmd(Notcher.OFF);
-    }
-    
-    if (success) { notcherUI.changeElectrodePowerButtonLabelAndTip(); }
-    else { notcherUI.displayErrorMessage("The program failed to set the "
-                            + "electrode power state of the notcher unit."); }
+    byte state =
+            notcherUI.getElectrodePowerBtnState() ? Notcher.ON : Notcher.OFF;
+
+    notcher.sendElectrodePowerOnOffCmdAsync(state).whenComplete((ack, ex) ->
+        SwingUtilities.invokeLater(() -> {
+            if (ex == null){
+                notcherUI.changeElectrodePowerButtonLabelAndTip();
+            }
+            else{
+                notcherUI.displayErrorMessage("The program failed to set the "
+                            + "electrode power state of the notcher unit.");
+            }
+        }));
 
 }//end of NotcherEventHandler::changeElectrodePowerState
 //-----------------------------------------------------------------------------
@@ -299,15 +311,101 @@ public void saveDataToFile()
 //
 // Performs actions driven by the timer.
 //
-// Not used for accessing network -- see run function for details.
+// Not used for accessing network -- see run function for details. The
+// monitor values are copied from those already received by the notcher's
+// reading thread, so no waiting is done here.
 //
 
 public void doTimerActions()
 {
-    
+
+    if (notcher == null || notcherUI == null) { return; }
+
+    //update the meters if a new monitor packet has arrived since last time
+
+    if (notcher.getMonitorData(monitorPacket)){
+
+        //values are in tenths of a volt and tenths of an amp
+        notcherUI.voltageLeds.setValue(monitorPacket.getVoltage() / 10.0);
+        notcherUI.currentLeds.setValue(monitorPacket.getCurrent() / 10.0);
+
+    }
+
+    updateLinkStatus();
+
 }//end of NotcherEventHandler::doTimerActions
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// NotcherEventHandler::updateLinkStatus
+//
+// Displays the state of the link to the notcher and its smoothed round trip
+// time as measured by the heartbeat. The tool tip shows more statistics, or
+// the reconnect attempts while the connection is down.
+//
+
+private void updateLinkStatus()
+{
+
+    int state = notcher.getLinkState();
+
+    if (state == Notcher.LINK_UNKNOWN){
+        notcherUI.setLinkStatus("Link: --", Color.GRAY,
+                                                "Heartbeat is not running");
+        return;
+    }
+
+    RoundTripStats stats = notcher.getRoundTripStats();
+
+    String rtt = formatMs(stats.getSmoothedNanos());
+
+    if (state == Notcher.LINK_LOST && !notcher.isReady()){
+        notcherUI.setLinkStatus("Link: LOST", Color.RED, "Reconnecting --"
+                        + " attempts " + notcher.getReconnectAttempts()
+                        + ", reconnects " + notcher.getReconnectCount());
+        return;
+    }
+
+    if (state == Notcher.LINK_LOST){
+        notcherUI.setLinkStatus("Link: LOST", Color.RED, "No answer to the"
+                        + " last pings -- last round trip " + rtt + " ms");
+        return;
+    }
+
+    String toolTip = "Round trip ms -- average " + rtt
+            + ", deviation " + formatMs(stats.getDeviationNanos())
+            + ", median " + formatMs(stats.getPercentileNanos(0.5))
+            + ", 99% " + formatMs(stats.getPercentileNanos(0.99))
+            + ", max " + formatMs(stats.getMaxNanos())
+            + " -- pings " + notcher.getPingCount()
+            + ", answered " + notcher.getPongCount();
+
+    if (state == Notcher.LINK_SLOW){
+        notcherUI.setLinkStatus("Link: SLOW " + rtt + " ms", Color.ORANGE,
+                                                                    toolTip);
+    }
+    else{
+        notcherUI.setLinkStatus("Link: OK " + rtt + " ms", LINK_OK_COLOR,
+                                                                    toolTip);
+    }
+
+}//end of NotcherEventHandler::updateLinkStatus
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// NotcherEventHandler::formatMs
+//
+// Returns pNanos nanoseconds as milliseconds with two decimal places.
+//
+
+private String formatMs(long pNanos)
+{
+
+    return(msFormat.format(pNanos / 1e6));
+
+}//end of NotcherEventHandler::formatMs
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // NotcherEventHandler::doSimulationTimerActions
 //
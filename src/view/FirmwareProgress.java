@@ -0,0 +1,157 @@
+/******************************************************************************
+* Title: FirmwareProgress.java
+* Author: Mike Schoonover, Hunter Schoonover
+* Date: 10/17/26
+*
+* Purpose:
+*
+* This class displays a window showing the progress of a firmware install in
+* each unit: a progress bar and the installer's status for every unit, and a
+* summary line for all of them.
+*
+* The window's Cancel button sends the "Cancel Firmware Install" action to
+* the listener. Once all installs are finished, the button changes to Close
+* and sends "Close Firmware Progress" instead.
+*
+* Open Source Policy:
+*
+* This source code is Public Domain and free to any interested party.  Any
+* person, company, or organization may do with it as they please.
+*
+*/
+
+//-----------------------------------------------------------------------------
+
+package view;
+
+import java.awt.*;
+import java.awt.event.ActionListener;
+import javax.swing.*;
+
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
+// class FirmwareProgress
+//
+
+public class FirmwareProgress extends JDialog{
+
+    private final JProgressBar[] progressBars;
+    private final JLabel[] statusLabels;
+    private final JLabel summaryLabel;
+    private final JButton button;
+
+//-----------------------------------------------------------------------------
+// FirmwareProgress::FirmwareProgress (constructor)
+//
+// Creates a row for each unit named in pNames. Button actions are sent to
+// pActionListener.
+//
+
+public FirmwareProgress(JFrame pFrame, ActionListener pActionListener,
+                                                            String[] pNames)
+{
+
+    super(pFrame, "Firmware Install");
+
+    //the install runs on if the window is closed -- it is hidden rather than
+    //released so that it may be shown again
+    setDefaultCloseOperation(HIDE_ON_CLOSE);
+
+    JPanel panel = new JPanel();
+    panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+    panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+    setContentPane(panel);
+
+    JPanel rows = new JPanel(new GridLayout(0, 3, 10, 5));
+    rows.setAlignmentX(Component.LEFT_ALIGNMENT);
+    panel.add(rows);
+
+    progressBars = new JProgressBar[pNames.length];
+    statusLabels = new JLabel[pNames.length];
+
+    for (int i = 0; i < pNames.length; i++){
+
+        rows.add(new JLabel(pNames[i]));
+
+        progressBars[i] = new JProgressBar(0, 100);
+        progressBars[i].setStringPainted(true);
+        rows.add(progressBars[i]);
+
+        statusLabels[i] = new JLabel("Waiting");
+        rows.add(statusLabels[i]);
+
+    }
+
+    panel.add(Box.createRigidArea(new Dimension(0, 10)));
+
+    summaryLabel = new JLabel(" ");
+    summaryLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+    panel.add(summaryLabel);
+
+    panel.add(Box.createRigidArea(new Dimension(0, 10)));
+
+    button = new JButton("Cancel");
+    button.setToolTipText("Stop installing firmware in all units.");
+    button.setActionCommand("Cancel Firmware Install");
+    button.addActionListener(pActionListener);
+    button.setAlignmentX(Component.LEFT_ALIGNMENT);
+    panel.add(button);
+
+    pack();
+
+    setLocationRelativeTo(pFrame);
+
+    setVisible(true);
+
+}//end of FirmwareProgress::FirmwareProgress (constructor)
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareProgress::setProgress
+//
+// Displays pPercent complete and status message pStatus for unit pIndex.
+//
+
+public void setProgress(int pIndex, int pPercent, String pStatus)
+{
+
+    progressBars[pIndex].setValue(pPercent);
+
+    statusLabels[pIndex].setText(pStatus);
+
+}//end of FirmwareProgress::setProgress
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareProgress::setSummary
+//
+// Displays pSummary below the units.
+//
+
+public void setSummary(String pSummary)
+{
+
+    summaryLabel.setText(pSummary);
+
+}//end of FirmwareProgress::setSummary
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// FirmwareProgress::setFinished
+//
+// Changes the Cancel button to a Close button once all installs are done.
+//
+
+public void setFinished()
+{
+
+    button.setText("Close");
+    button.setToolTipText("Close this window.");
+    button.setActionCommand("Close Firmware Progress");
+
+}//end of FirmwareProgress::setFinished
+//-----------------------------------------------------------------------------
+
+}//end of class FirmwareProgress
+//-----------------------------------------------------------------------------
+//-----------------------------------------------------------------------------
@@ -38,6 +38,7 @@ public class MainMenu extends JMenuBar{
     JMenuItem openFile;
     JMenuItem saveFile;
     JMenuItem saveFileAs;
+    JMenuItem installFirmware;
 
     JMenu helpMenu;
     JMenuItem logMenuItem, aboutMenuItem, helpMenuItem, exitMenuItem;
@@ -75,6 +76,15 @@ public MainMenu(ActionListener pActionListener)
     openFile.addActionListener(actionListener);
     fileMenu.add(openFile);
 
+    //File/Install Firmware
+    installFirmware = new JMenuItem("Install Firmware...");
+    installFirmware.setMnemonic(KeyEvent.VK_I);
+    installFirmware.setToolTipText(
+                        "Install a firmware image in all connected units.");
+    installFirmware.setActionCommand("Install Firmware");
+    installFirmware.addActionListener(actionListener);
+    fileMenu.add(installFirmware);
+
     //File/Exit menu item
     exitMenuItem = new JMenuItem("Exit");
     exitMenuItem.setMnemonic(KeyEvent.VK_X);
@@ -72,6 +72,7 @@ public class NotcherUI extends JPanel implements ActionListener, ChangeListener,
     private JTextField changeNameTextField;
     
     private JLabel nameValueLabel;
+    private JLabel linkLabel;
     
     private JButton sendTargetDepthBtn;
     
@@ -509,6 +510,15 @@ public JPanel createPowerStatusPanel()
     panel.add(shortLed);
     outerPanel.add(panel);
     
+    //horizontal spacer
+    outerPanel.add(Box.createRigidArea(new Dimension(10, 0)));
+    
+    // add a label for the state of the link to the unit
+    linkLabel = new JLabel("Link: --");
+    linkLabel.setToolTipText("Heartbeat is not running");
+    Tools.setSizes(linkLabel, 120, 15);
+    outerPanel.add(linkLabel);
+    
     return outerPanel;
     
 }// end of NotcherUI::createPowerStatusPanel
@@ -1023,6 +1033,23 @@ public void disposeChangeNameDialog()
 }// end of NotcherUI::disposeChangeNameDialog
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// NotcherUI::setLinkStatus
+//
+// Displays pText in pColor as the state of the link to the unit with
+// pToolTip as the tool tip.
+//
+
+public void setLinkStatus(String pText, Color pColor, String pToolTip)
+{
+    
+    linkLabel.setText(pText);
+    linkLabel.setForeground(pColor);
+    linkLabel.setToolTipText(pToolTip);
+    
+}// end of NotcherUI::setLinkStatus
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // NotcherUI::setTextForDataTArea1
 //
@@ -55,7 +55,9 @@ public class ThreadSafeLogger {
 //-----------------------------------------------------------------------------
 // ThreadSafeLogger::ThreadSafeLogger (constructor)
 //
-// Pass the Log window for displaying messages via pLog.
+// Pass the Log window for displaying messages via pLog. Pass null to run
+// without a window, as when the hardware is run from the command line; the
+// messages are then printed to the console.
 //
 
 public ThreadSafeLogger(JTextArea pLog)
@@ -94,6 +96,8 @@ public void init()
 public void logMessage(String pMessage)
 {
 
+    if (log == null) { System.out.print(pMessage); return; }
+
     //store the message in a buffer where the helper can find it
 
     messages[nextSlotAvailable++] = pMessage;
@@ -198,6 +202,8 @@ public void section()
 public void saveToFile(String pFilenameSuffix)
 {
 
+    if (log == null) { return; }
+
     //store the suffix in a buffer where the helper can find it
 
     filenameSuffix = pFilenameSuffix;
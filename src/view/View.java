@@ -33,9 +33,11 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.awt.font.TextAttribute;
+import java.io.File;
 import java.util.HashMap;
 import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
@@ -69,6 +71,9 @@ public class View implements ActionListener, WindowListener
     private ThreadSafeLogger tsLog;
     private Help help;
     private About about;
+    private FirmwareProgress firmwareProgress;
+
+    private final JFileChooser firmwareChooser = new JFileChooser();
 
     private javax.swing.Timer mainTimer;
 
@@ -373,6 +378,100 @@ public void displayAbout()
 }//end of View::displayAbout
 //-----------------------------------------------------------------------------
 
+//-----------------------------------------------------------------------------
+// View::chooseFirmwareFile
+//
+// Asks the user to choose a firmware image file.
+//
+// Returns the file, or null if none was chosen.
+//
+
+public File chooseFirmwareFile()
+{
+
+    firmwareChooser.setDialogTitle("Install Firmware");
+
+    if (firmwareChooser.showOpenDialog(mainFrame)
+                                        != JFileChooser.APPROVE_OPTION){
+        return(null);
+    }
+
+    return(firmwareChooser.getSelectedFile());
+
+}//end of View::chooseFirmwareFile
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// View::displayFirmwareProgress
+//
+// Displays a window showing the progress of a firmware install in the units
+// named in pNames, replacing any shown for an earlier install.
+//
+
+public void displayFirmwareProgress(String[] pNames)
+{
+
+    closeFirmwareProgress();
+
+    firmwareProgress = new FirmwareProgress(mainFrame, this, pNames);
+
+}//end of View::displayFirmwareProgress
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// View::updateFirmwareProgress
+//
+// Displays pPercent complete and status message pStatus for the unit in row
+// pIndex of the firmware progress window.
+//
+
+public void updateFirmwareProgress(int pIndex, int pPercent, String pStatus)
+{
+
+    if (firmwareProgress == null) { return; }
+
+    firmwareProgress.setProgress(pIndex, pPercent, pStatus);
+
+}//end of View::updateFirmwareProgress
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// View::setFirmwareSummary
+//
+// Displays pSummary in the firmware progress window. If pFinished is true,
+// the window's Cancel button becomes a Close button.
+//
+
+public void setFirmwareSummary(String pSummary, boolean pFinished)
+{
+
+    if (firmwareProgress == null) { return; }
+
+    firmwareProgress.setSummary(pSummary);
+
+    if (pFinished) { firmwareProgress.setFinished(); }
+
+}//end of View::setFirmwareSummary
+//-----------------------------------------------------------------------------
+
+//-----------------------------------------------------------------------------
+// View::closeFirmwareProgress
+//
+// Closes the firmware progress window, if one is displayed.
+//
+
+public void closeFirmwareProgress()
+{
+
+    if (firmwareProgress == null) { return; }
+
+    firmwareProgress.dispose();
+
+    firmwareProgress = null;
+
+}//end of View::closeFirmwareProgress
+//-----------------------------------------------------------------------------
+
 //-----------------------------------------------------------------------------
 // View::displayErrorMessage
 //